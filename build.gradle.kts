@@ -42,6 +42,37 @@ tasks {
         dependsOn(generateExpectations)
     }
 
+    // compiles the Molang sources in src/main/molang ahead of time, the classes
+    // and their index are added to the jar, see AheadOfTimeCompiler
+    val molangSources = layout.projectDirectory.dir("src/main/molang")
+    val compileMolang by registering(JavaExec::class) {
+        val output = layout.buildDirectory.dir("generated/molang")
+        onlyIf { molangSources.asFile.isDirectory }
+        classpath = sourceSets.main.get().runtimeClasspath
+        mainClass = "team.unnamed.mocha.runtime.AheadOfTimeCompiler"
+        argumentProviders.add(CommandLineArgumentProvider {
+            listOfNotNull(
+                molangSources.asFile.absolutePath,
+                output.get().asFile.absolutePath,
+                // class implementing Consumer<MochaEngine<?>> that registers the bindings
+                project.findProperty("molang.engineConfigurer") as String?
+            )
+        })
+        inputs.files(fileTree(molangSources)).withPropertyName("molangSources")
+        outputs.dir(output).withPropertyName("output")
+        doFirst {
+            output.get().asFile.deleteRecursively()
+        }
+    }
+
+    jar {
+        from(compileMolang)
+        // read by the compile caches, see PersistentCompileCache
+        manifest {
+            attributes("Implementation-Version" to project.version)
+        }
+    }
+
     withType<Sign>().configureEach {
         enabled = false
     }
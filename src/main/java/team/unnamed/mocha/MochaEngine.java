@@ -30,8 +30,11 @@ import org.jetbrains.annotations.Contract;
 import org.jspecify.annotations.Nullable;
 import team.unnamed.mocha.parser.ParseException;
 import team.unnamed.mocha.parser.ast.Expression;
+import team.unnamed.mocha.runtime.MochaDoubleFunction;
 import team.unnamed.mocha.runtime.MochaFunction;
+import team.unnamed.mocha.runtime.PrecompiledFunctions;
 import team.unnamed.mocha.runtime.Scope;
+import team.unnamed.mocha.runtime.TieredDoubleFunction;
 import team.unnamed.mocha.runtime.binding.Binding;
 import team.unnamed.mocha.runtime.binding.JavaObjectBinding;
 import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
@@ -44,7 +47,10 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.lang.reflect.Type;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
 /**
@@ -180,6 +186,50 @@ public interface MochaEngine<T extends @Nullable Object> {
         return eval(parse(source));
     }
 
+    /**
+     * Evaluates the given {@code expressions} and returns the
+     * result as a number.
+     *
+     * <p>The expressions are interpreted, which allocates the
+     * evaluation state and values, like {@link #eval(List)}. For
+     * frequently evaluated expressions, use {@link #prepareEvalDouble(Reader)}
+     * or {@link #compileDouble(Reader)} instead.</p>
+     *
+     * @param expressions The expressions to evaluate.
+     * @return The result of the evaluation, as a number.
+     * @see #eval(List)
+     * @since 4.0
+     */
+    default double evalDouble(final List<Expression> expressions) {
+        return eval(expressions).getAsNumber();
+    }
+
+    /**
+     * Parses and evaluates the given Molang source and returns
+     * the result as a number.
+     *
+     * @param source The source to evaluate.
+     * @return The result of the evaluation, as a number.
+     * @see #eval(Reader)
+     * @since 4.0
+     */
+    default double evalDouble(final Reader source) throws IOException {
+        return evalDouble(parse(source));
+    }
+
+    /**
+     * Parses and evaluates the given Molang source and returns
+     * the result as a number.
+     *
+     * @param source The source to evaluate.
+     * @return The result of the evaluation, as a number.
+     * @see #eval(String)
+     * @since 4.0
+     */
+    default double evalDouble(final String source) throws IOException {
+        return evalDouble(parse(source));
+    }
+
     /**
      * Parses the data from the given {@code reader} and
      * returns a cached, interpretable {@link MochaFunction}.
@@ -219,6 +269,96 @@ public interface MochaEngine<T extends @Nullable Object> {
             return prepareEval(reader);
         }
     }
+
+    /**
+     * Parses the data from the given {@code reader} and returns a
+     * cached {@link MochaDoubleFunction}, evaluated without allocating.
+     *
+     * <p>The function is compiled when prepared, so preparing it costs
+     * as much as {@link #compileDouble(Reader)} and generates a class,
+     * in exchange, evaluating it doesn't allocate, unlike interpreting.
+     * If it can't be compiled, it is interpreted instead. For functions
+     * that are rarely evaluated, use {@link #prepareTieredDouble(Reader)}.</p>
+     *
+     * <pre><strong>Note that this method won't close the given
+     * {@code reader}</strong></pre>
+     *
+     * @param reader The reader to read the data from
+     * @return The cached function
+     * @see #prepareEval(Reader)
+     * @since 4.0
+     */
+    MochaDoubleFunction prepareEvalDouble(final Reader reader) throws IOException;
+
+    /**
+     * Parses the given {@code string} and returns a cached
+     * {@link MochaDoubleFunction}, evaluated without allocating.
+     *
+     * @param string The MoLang string
+     * @return The cached function
+     * @see #prepareEvalDouble(Reader)
+     * @see #prepareEval(String)
+     * @since 4.0
+     */
+    default MochaDoubleFunction prepareEvalDouble(final String string) throws IOException {
+        try (final StringReader reader = new StringReader(string)) {
+            return prepareEvalDouble(reader);
+        }
+    }
+
+    /**
+     * Parses the data from the given {@code reader} and returns a
+     * {@link MochaDoubleFunction} that is interpreted at first, and
+     * compiled in the background once it's evaluated the given number
+     * of times.
+     *
+     * <p>This avoids compiling functions that are rarely evaluated,
+     * while the frequently evaluated ones end up compiled. If compiling
+     * fails, the function keeps being interpreted.</p>
+     *
+     * <pre><strong>Note that this method won't close the given
+     * {@code reader}</strong></pre>
+     *
+     * @param reader           The reader to read the data from
+     * @param compileThreshold The number of evaluations before compiling
+     * @param executor         The executor to compile the function in
+     * @return The tiered function
+     * @since 4.0
+     */
+    MochaDoubleFunction prepareTieredDouble(final Reader reader, final int compileThreshold, final Executor executor) throws IOException;
+
+    /**
+     * Parses the data from the given {@code reader} and returns a
+     * {@link MochaDoubleFunction} that is interpreted at first, and
+     * compiled in the background once it's frequently evaluated.
+     *
+     * <pre><strong>Note that this method won't close the given
+     * {@code reader}</strong></pre>
+     *
+     * @param reader The reader to read the data from
+     * @return The tiered function
+     * @see #prepareTieredDouble(Reader, int, Executor)
+     * @since 4.0
+     */
+    default MochaDoubleFunction prepareTieredDouble(final Reader reader) throws IOException {
+        return prepareTieredDouble(reader, TieredDoubleFunction.DEFAULT_COMPILE_THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses the given {@code string} and returns a {@link MochaDoubleFunction}
+     * that is interpreted at first, and compiled in the background once it's
+     * frequently evaluated.
+     *
+     * @param string The MoLang string
+     * @return The tiered function
+     * @see #prepareTieredDouble(Reader, int, Executor)
+     * @since 4.0
+     */
+    default MochaDoubleFunction prepareTieredDouble(final String string) throws IOException {
+        try (final StringReader reader = new StringReader(string)) {
+            return prepareTieredDouble(reader);
+        }
+    }
     //#endregion END INTERPRETER API
 
     //#region COMPILING API
@@ -235,6 +375,21 @@ public interface MochaEngine<T extends @Nullable Object> {
         return compile(reader, MochaFunction.class);
     }
 
+    /**
+     * Compiles the given code into a Molang function that
+     * takes no arguments and evaluates to a number.
+     *
+     * <p>Evaluating the returned function doesn't allocate,
+     * since its result is never boxed.</p>
+     *
+     * @param reader The code to compile.
+     * @return The compiled function.
+     * @since 4.0
+     */
+    default MochaDoubleFunction compileDouble(final Reader reader) throws IOException {
+        return compile(reader, MochaDoubleFunction.class);
+    }
+
     /**
      * Compiles the given code into a Molang function
      * that can take arguments.
@@ -274,6 +429,11 @@ public interface MochaEngine<T extends @Nullable Object> {
      * Compiles the given code into a Molang function
      * that can take arguments.
      *
+     * <p>Compiled functions are cached, compiling equivalent code
+     * (ignoring case, whitespace and binding aliases) to the same
+     * interface returns the same function while it is reachable,
+     * as long as the engine bindings don't change.</p>
+     *
      * @param reader        The code to compile.
      * @param interfaceType The interface to implement, must
      *                      have a single method.
@@ -294,6 +454,21 @@ public interface MochaEngine<T extends @Nullable Object> {
         return compile(code, MochaFunction.class);
     }
 
+    /**
+     * Compiles the given code into a Molang function that
+     * takes no arguments and evaluates to a number.
+     *
+     * <p>Evaluating the returned function doesn't allocate,
+     * since its result is never boxed.</p>
+     *
+     * @param code The code to compile.
+     * @return The compiled function.
+     * @since 4.0
+     */
+    default MochaDoubleFunction compileDouble(final String code) throws IOException {
+        return compile(code, MochaDoubleFunction.class);
+    }
+
     /**
      * Compiles the given code into a Molang function
      * that can take arguments.
@@ -429,6 +604,9 @@ public interface MochaEngine<T extends @Nullable Object> {
      * argument is the class bytecode, which can be written to a file for
      * debugging purposes.
      *
+     * <p>It is not called for functions taken from the
+     * compiled function cache.</p>
+     *
      * <p>By default this is set to null.</p>
      *
      * @param bytecodeConsumer The new post-compile function
@@ -437,6 +615,48 @@ public interface MochaEngine<T extends @Nullable Object> {
      */
     @Contract("_ -> this")
     MochaEngine<T> postCompile(final @Nullable Consumer<byte[]> bytecodeConsumer);
+
+    /**
+     * Sets the directory where compiled classes are stored, so that
+     * the next time a script is compiled (even after restarting the
+     * program) its class is loaded instead of being generated again.
+     *
+     * <p>Stored classes are found by a hash of the script, the
+     * implemented interface and the signature of the scope bindings,
+     * so changing the bindings makes them be compiled again. Bindings
+     * should be registered before compiling, and binding properties
+     * used in the same order, otherwise the stored classes aren't
+     * found or can't be used.</p>
+     *
+     * <p>Scripts that call other compiled functions or that are partly
+     * interpreted are not stored. The post-compile function is not
+     * called for loaded classes.</p>
+     *
+     * <p>By default this is set to null, no classes are stored.</p>
+     *
+     * @param directory The cache directory, created if needed
+     * @return This engine instance
+     * @since 4.0
+     */
+    @Contract("_ -> this")
+    MochaEngine<T> compileCache(final @Nullable Path directory);
+
+    /**
+     * Loads the functions compiled ahead of time by the build (see
+     * {@link team.unnamed.mocha.runtime.AheadOfTimeCompiler}) from the
+     * given class loader, using the bindings of this engine.
+     *
+     * <p>Precompiled functions are loaded without generating any class.
+     * Bindings must be registered before loading them, and must be the
+     * same bindings used by the build, otherwise the functions are
+     * compiled when requested.</p>
+     *
+     * @param classLoader The class loader with the compiled classes
+     * @return The precompiled functions, by name
+     * @throws IOException If reading the functions index fails
+     * @since 4.0
+     */
+    PrecompiledFunctions precompiled(final ClassLoader classLoader) throws IOException;
     //#endregion
 
     /**
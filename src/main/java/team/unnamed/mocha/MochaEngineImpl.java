@@ -29,8 +29,11 @@ import org.jspecify.annotations.Nullable;
 import team.unnamed.mocha.parser.MolangParser;
 import team.unnamed.mocha.parser.ast.Expression;
 import team.unnamed.mocha.runtime.ExpressionInterpreter;
+import team.unnamed.mocha.runtime.MochaDoubleFunction;
 import team.unnamed.mocha.runtime.MolangCompiler;
+import team.unnamed.mocha.runtime.PrecompiledFunctions;
 import team.unnamed.mocha.runtime.Scope;
+import team.unnamed.mocha.runtime.TieredDoubleFunction;
 import team.unnamed.mocha.runtime.binding.JavaObjectBinding;
 import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
 import team.unnamed.mocha.runtime.value.DoubleValue;
@@ -39,7 +42,9 @@ import team.unnamed.mocha.runtime.value.Value;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 final class MochaEngineImpl<T extends @Nullable Object> implements MochaEngine<T> {
@@ -97,6 +102,30 @@ final class MochaEngineImpl<T extends @Nullable Object> implements MochaEngine<T
         return compiler.compile(parsed, interfaceType);
     }
 
+    @Override
+    public MochaDoubleFunction prepareEvalDouble(final Reader reader) throws IOException {
+        final List<Expression> parsed = parse(reader);
+        try {
+            return compiler.compile(parsed, TypeToken.of(MochaDoubleFunction.class));
+        } catch (final RuntimeException | LinkageError e) {
+            System.err.println("[warning] couldn't compile function, it will be interpreted: " + e);
+            return () -> evalDouble(parsed);
+        }
+    }
+
+    @Override
+    public MochaDoubleFunction prepareTieredDouble(final Reader reader, final int compileThreshold, final Executor executor) throws IOException {
+        final List<Expression> parsed = parse(reader);
+        // compiled in another thread, which must not allocate binding slots
+        compiler.resolveSlots(parsed);
+        return new TieredDoubleFunction(
+                () -> evalDouble(parsed),
+                () -> compiler.compile(parsed, TypeToken.of(MochaDoubleFunction.class)),
+                executor,
+                compileThreshold
+        );
+    }
+
     @Override
     public ClassPool classPool() {
         return compiler.classPool();
@@ -135,4 +164,15 @@ final class MochaEngineImpl<T extends @Nullable Object> implements MochaEngine<T
         compiler.postCompile(bytecodeConsumer);
         return this;
     }
+
+    @Override
+    public MochaEngine<T> compileCache(final @Nullable Path directory) {
+        compiler.persistentCache(directory);
+        return this;
+    }
+
+    @Override
+    public PrecompiledFunctions precompiled(final ClassLoader classLoader) throws IOException {
+        return PrecompiledFunctions.load(compiler, classLoader);
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import com.google.common.reflect.TypeToken;
+import org.jetbrains.annotations.ApiStatus;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.parser.ast.Expression;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Compiles a directory of Molang sources ahead of time, writing the
+ * compiled classes and an index to look them up by name, which are then
+ * loaded by {@link PrecompiledFunctions} without generating any class.
+ *
+ * <p>Every {@code .molang} file is a function, named after its path
+ * relative to the sources directory, without the extension, e.g.
+ * {@code entity/walk}. Functions implement {@link MochaDoubleFunction},
+ * unless another interface is declared in the {@code interfaces.properties}
+ * file of the sources directory, by function name, or for all of them
+ * with the {@code *} key.</p>
+ *
+ * <p>Used from the build, with the sources directory, the output directory
+ * and optionally the name of a class implementing {@code Consumer<MochaEngine<?>>}
+ * that registers the bindings, as arguments. The bindings must be the same
+ * when the functions are loaded, otherwise they are compiled at runtime.</p>
+ */
+@ApiStatus.Internal
+public final class AheadOfTimeCompiler {
+    static final String INTERFACES_FILE = "interfaces.properties";
+    static final String SOURCE_EXTENSION = ".molang";
+
+    private AheadOfTimeCompiler() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            throw new IllegalArgumentException("Usage: <sources directory> <output directory> [engine configurer class]");
+        }
+
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        if (args.length == 3) {
+            final Class<?> configurerClass = Class.forName(args[2]);
+            ((Consumer<MochaEngine<?>>) configurerClass.getDeclaredConstructor().newInstance()).accept(engine);
+        }
+
+        final int compiled = compile(engine, Path.of(args[0]), Path.of(args[1]));
+        System.out.println("[mocha] Compiled " + compiled + " functions ahead of time");
+    }
+
+    /**
+     * Compiles the sources in the given directory with the given engine
+     * bindings, writing the classes and their index to the given output
+     * directory.
+     *
+     * <p>Functions that can't be compiled ahead of time, e.g. because they
+     * call other compiled functions, are only indexed, they are compiled
+     * when loaded.</p>
+     *
+     * @param engine The engine, with the bindings used at runtime
+     * @param sources The sources directory
+     * @param output The output directory
+     * @return The number of compiled functions
+     * @throws IOException If reading or writing the files fails
+     */
+    public static int compile(final MochaEngine<?> engine, final Path sources, final Path output) throws IOException {
+        requireNonNull(engine, "engine");
+        requireNonNull(sources, "sources");
+        requireNonNull(output, "output");
+
+        final Properties interfaces = new Properties();
+        final Path interfacesFile = sources.resolve(INTERFACES_FILE);
+        if (Files.isRegularFile(interfacesFile)) {
+            try (final Reader reader = Files.newBufferedReader(interfacesFile, StandardCharsets.UTF_8)) {
+                interfaces.load(reader);
+            }
+        }
+        final String defaultInterface = interfaces.getProperty("*", MochaDoubleFunction.class.getName());
+
+        final List<Path> files;
+        try (final Stream<Path> stream = Files.walk(sources)) {
+            // sorted, so that the output is always the same
+            files = stream.filter(file -> file.getFileName().toString().endsWith(SOURCE_EXTENSION) && Files.isRegularFile(file))
+                    .sorted()
+                    .toList();
+        }
+
+        final MolangCompiler compiler = new MolangCompiler(null, engine.scope());
+        final Set<String> classNames = new HashSet<>();
+        final List<String> skipped = new ArrayList<>();
+        int compiled = 0;
+
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        try (final DataOutputStream indexOutput = new DataOutputStream(index)) {
+            indexOutput.writeInt(PrecompiledFunctions.MAGIC);
+            indexOutput.writeInt(PrecompiledFunctions.FORMAT_VERSION);
+            PersistentCompileCache.writeString(indexOutput, PersistentCompileCache.COMPILER_VERSION);
+            PersistentCompileCache.writeString(indexOutput, PersistentCompileCache.bindingsSignature(engine.scope()));
+            indexOutput.writeInt(files.size());
+
+            for (final Path file : files) {
+                final String relativePath = sources.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+                final String name = relativePath.substring(0, relativePath.length() - SOURCE_EXTENSION.length());
+                final String source = Files.readString(file, StandardCharsets.UTF_8);
+                final String interfaceName = interfaces.getProperty(name, defaultInterface);
+                final Class<?> interfaceType;
+                try {
+                    interfaceType = Class.forName(interfaceName, false, AheadOfTimeCompiler.class.getClassLoader());
+                } catch (final ClassNotFoundException e) {
+                    throw new IllegalArgumentException("Interface " + interfaceName + " of function " + name + " not found", e);
+                }
+                if (!MochaCompiledFunction.class.isAssignableFrom(interfaceType)) {
+                    throw new IllegalArgumentException("Interface " + interfaceName + " of function " + name
+                            + " must extend " + MochaCompiledFunction.class.getName());
+                }
+
+                indexOutput.writeUTF(name);
+                indexOutput.writeUTF(interfaceName);
+                PersistentCompileCache.writeString(indexOutput, source);
+
+                MolangCompiler.GeneratedClass generated;
+                try {
+                    final List<Expression> expressions = engine.parse(source);
+                    generated = compiler.compileClass(expressions, TypeToken.of(interfaceType), className(interfaceType, name, classNames));
+                } catch (final IOException | RuntimeException e) {
+                    throw new IllegalStateException("Couldn't compile function " + name, e);
+                }
+                if (!PersistentCompileCache.isStorable(generated)) {
+                    // it requires objects that only exist at runtime
+                    indexOutput.writeBoolean(false);
+                    skipped.add(name);
+                    continue;
+                }
+
+                final Path classFile = output.resolve(generated.className().replace('.', '/') + ".class");
+                Files.createDirectories(classFile.getParent());
+                Files.write(classFile, generated.bytecode());
+
+                indexOutput.writeBoolean(true);
+                indexOutput.writeUTF(generated.className());
+                PersistentCompileCache.writeRequirements(indexOutput, generated);
+                compiled++;
+            }
+        }
+
+        final Path indexFile = output.resolve(PrecompiledFunctions.INDEX);
+        Files.createDirectories(indexFile.getParent());
+        Files.write(indexFile, index.toByteArray());
+
+        if (!skipped.isEmpty()) {
+            System.err.println("[mocha] Couldn't compile " + skipped.size() + " functions ahead of time, they"
+                    + " will be compiled when loaded: " + skipped);
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns a unique name for the class of the given function, in the
+     * package of its interface.
+     */
+    private static String className(final Class<?> interfaceType, final String name, final Set<String> classNames) {
+        final StringBuilder builder = new StringBuilder(interfaceType.getPackageName())
+                .append(".MolangPrecompiled_");
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            builder.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        final String className = builder.toString();
+        String uniqueName = className;
+        for (int i = 1; !classNames.add(uniqueName); i++) {
+            uniqueName = className + '_' + i;
+        }
+        return uniqueName;
+    }
+}
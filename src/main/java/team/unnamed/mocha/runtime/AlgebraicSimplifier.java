@@ -0,0 +1,240 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.runtime.binding.JavaFunction;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Optimization pass that rewrites expressions using numeric identities
+ * that give the exact same results, e.g. {@code x * 1} to {@code x} or
+ * {@code math.pow(x, 2)} to {@code x * x}.
+ *
+ * <p>Operands are only dropped or duplicated if they have no side effects.
+ * Division keeps the Molang semantics, where dividing by zero gives zero.</p>
+ */
+final class AlgebraicSimplifier implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
+    private static final Method POW;
+
+    static {
+        try {
+            POW = Math.class.getMethod("pow", double.class, double.class);
+        } catch (final NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Scope scope;
+
+    AlgebraicSimplifier(final Scope scope) {
+        this.scope = requireNonNull(scope, "scope");
+    }
+
+    /**
+     * Simplifies the given statements.
+     *
+     * @param statements The statements
+     * @return The resulting statements
+     */
+    List<Expression> process(final List<Expression> statements) {
+        final List<Expression> result = new ArrayList<>(statements.size());
+        for (final Expression statement : statements) {
+            result.add(statement.visit(this));
+        }
+        return result;
+    }
+
+    @Override
+    public Expression visitBinary(final BinaryExpression expression, final Context ctx) {
+        final BinaryExpression.Op op = expression.op();
+        if (op == BinaryExpression.Op.ASSIGN) {
+            return new BinaryExpression(op, expression.left(), expression.right().visit(this));
+        }
+
+        final Expression left = expression.left().visit(this);
+        final Expression right = expression.right().visit(this);
+
+        switch (op) {
+            case ADD:
+                // x + 0 = 0 + x = x
+                if (isNumber(right, 0D)) return left;
+                if (isNumber(left, 0D)) return right;
+                break;
+            case SUB:
+                // x - 0 = x
+                if (isNumber(right, 0D)) return left;
+                break;
+            case MUL:
+                // x * 1 = 1 * x = x
+                if (isNumber(right, 1D)) return left;
+                if (isNumber(left, 1D)) return right;
+                // x * 0 = 0 * x = 0, if x is never NaN or infinite
+                if ((isNumber(right, 0D) && isFinite(left) && isPure(left))
+                        || (isNumber(left, 0D) && isFinite(right) && isPure(right))) {
+                    return new DoubleExpression(0D);
+                }
+                break;
+            case DIV:
+                if (right instanceof DoubleExpression divisor) {
+                    final double value = divisor.value();
+                    if (value == 1D) {
+                        // x / 1 = x
+                        return left;
+                    } else if (value == 0D) {
+                        // dividing by zero gives zero
+                        if (isPure(left)) {
+                            return new DoubleExpression(0D);
+                        }
+                    } else if (hasExactReciprocal(value)) {
+                        // x / c = x * (1 / c)
+                        return new BinaryExpression(BinaryExpression.Op.MUL, left, new DoubleExpression(1D / value));
+                    }
+                }
+                break;
+        }
+        return new BinaryExpression(op, left, right);
+    }
+
+    @Override
+    public Expression visitUnary(final UnaryExpression expression, final Context ctx) {
+        final UnaryExpression.Op op = expression.op();
+        final Expression operand = expression.expression().visit(this);
+        if (operand instanceof UnaryExpression inner && inner.op() == op) {
+            if (op == UnaryExpression.Op.ARITHMETICAL_NEGATION) {
+                // -(-x) = x
+                return inner.expression();
+            } else if (op == UnaryExpression.Op.LOGICAL_NEGATION && isBoolean(inner.expression())) {
+                // !!x = x, if x is already 0 or 1
+                return inner.expression();
+            }
+        }
+        return new UnaryExpression(op, operand);
+    }
+
+    @Override
+    public Expression visitCall(final CallExpression expression, final Context ctx) {
+        final List<Expression> arguments = new ArrayList<>(expression.arguments().size());
+        for (final Expression argument : expression.arguments()) {
+            arguments.add(argument.visit(this));
+        }
+
+        if (arguments.size() == 2 && IsPureExpression.resolve(expression.function(), scope) instanceof JavaFunction<?> function
+                && POW.equals(function.method())) {
+            final Expression base = arguments.get(0);
+            final Expression exponent = arguments.get(1);
+            if (isNumber(exponent, 1D)) {
+                // pow(x, 1) = x
+                return base;
+            } else if (isNumber(exponent, 2D) && isPure(base)) {
+                // pow(x, 2) = x * x
+                return new BinaryExpression(BinaryExpression.Op.MUL, base, base);
+            } else if (isNumber(exponent, 0D) && isPure(base)) {
+                // pow(x, 0) = 1, even for NaN
+                return new DoubleExpression(1D);
+            }
+        }
+        return new CallExpression(expression.function(), arguments);
+    }
+
+    @Override
+    public Expression visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+        return new ArrayAccessExpression(expression.array().visit(this), expression.index().visit(this));
+    }
+
+    @Override
+    public Expression visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+        return new TernaryConditionalExpression(
+                expression.condition().visit(this),
+                expression.trueExpression().visit(this),
+                expression.falseExpression().visit(this)
+        );
+    }
+
+    @Override
+    public Expression visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+        return new ExecutionScopeExpression(process(expression.expressions()));
+    }
+
+    @Override
+    public Expression visit(final Expression expression, final Context ctx) {
+        return expression;
+    }
+
+    private boolean isPure(final Expression expression) {
+        return IsPureExpression.test(expression, scope);
+    }
+
+    /**
+     * Determines whether the given expression can never evaluate
+     * to NaN or an infinite value.
+     */
+    private static boolean isFinite(final Expression expression) {
+        if (expression instanceof DoubleExpression number) {
+            return Double.isFinite(number.value());
+        } else if (expression instanceof TernaryConditionalExpression ternary) {
+            return isFinite(ternary.trueExpression()) && isFinite(ternary.falseExpression());
+        }
+        return isBoolean(expression);
+    }
+
+    /**
+     * Determines whether the given expression always evaluates to 0 or 1.
+     */
+    private static boolean isBoolean(final Expression expression) {
+        if (expression instanceof UnaryExpression unary) {
+            return unary.op() == UnaryExpression.Op.LOGICAL_NEGATION;
+        } else if (expression instanceof BinaryExpression binary) {
+            return switch (binary.op()) {
+                case AND, OR, EQ, NEQ, LT, LTE, GT, GTE -> true;
+                default -> false;
+            };
+        }
+        return false;
+    }
+
+    private static boolean isNumber(final Expression expression, final double value) {
+        return expression instanceof DoubleExpression number && number.value() == value;
+    }
+
+    /**
+     * Determines whether 1 / value is exact, so that multiplying by it
+     * gives the same result as dividing, which is true for powers of two.
+     */
+    private static boolean hasExactReciprocal(final double value) {
+        if (!Double.isFinite(value)) {
+            return false;
+        }
+        final double reciprocal = 1D / value;
+        return Double.isFinite(reciprocal) && reciprocal != 0D
+                && Math.getExponent(value) > Double.MIN_EXPONENT
+                && Math.getExponent(reciprocal) > Double.MIN_EXPONENT
+                && value == Math.scalb(Math.signum(value), Math.getExponent(value));
+    }
+}
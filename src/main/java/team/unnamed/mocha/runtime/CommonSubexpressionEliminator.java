@@ -0,0 +1,824 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.Function;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.ObjectProperty;
+import team.unnamed.mocha.runtime.value.ObjectValue;
+import team.unnamed.mocha.runtime.value.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Optimization pass that finds repeated pure subexpressions in a list of
+ * statements and computes them only once, storing them in a synthetic
+ * {@code temp} local that is read wherever they appear.
+ *
+ * <p>An expression is pure if it has no side effects and its result only
+ * depends on literals, parameters, constant properties, temps and
+ * {@code variable} properties, and on the results of calls to
+ * {@link Function#pure() pure functions}. The local is assigned right
+ * before the first statement that always evaluates the expression, and
+ * it is only used until a statement writes any of its dependencies.</p>
+ *
+ * <p>Impure function calls may change {@code variable} properties, so
+ * they are considered to write all of them.</p>
+ *
+ * <p>The size, hash and dependencies of every node, and the writes and
+ * pure subexpressions of every statement, are computed once and kept by
+ * identity, since replacing occurrences keeps the unchanged subtrees. All
+ * the candidates of a statement are found at once, so every statement is
+ * only rewritten once per statement that shares subexpressions with it.</p>
+ */
+final class CommonSubexpressionEliminator {
+    private static final String LOCAL_PREFIX = "$cse";
+    private static final Object TEMP = new Object();
+
+    private final Scope scope;
+    private final InfoCollector infoCollector = new InfoCollector();
+    private final Map<Expression, Info> infos = new IdentityHashMap<>();
+    private final Map<Expression, WriteCollector> writes = new IdentityHashMap<>();
+    private final Map<Expression, Map<Key, Integer>> occurrences = new IdentityHashMap<>();
+    private int nextLocal;
+
+    CommonSubexpressionEliminator(final Scope scope) {
+        this.scope = requireNonNull(scope, "scope");
+    }
+
+    /**
+     * Eliminates the common subexpressions in the given statements,
+     * and in the statements of every nested execution scope.
+     *
+     * @param statements The statements
+     * @return The resulting statements, may contain additional
+     * assignments to synthetic temps
+     */
+    List<Expression> process(final List<Expression> statements) {
+        final List<Expression> result = new ArrayList<>(statements.size());
+        for (final Expression statement : statements) {
+            // nested scopes are handled on their own
+            result.add(statement.visit(new ScopeProcessor()));
+        }
+
+        int i = 0;
+        while (i < result.size()) {
+            final List<Candidate> candidates = findCandidates(result, i);
+            if (candidates.isEmpty()) {
+                i++;
+                continue;
+            }
+
+            int end = i;
+            for (final Candidate candidate : candidates) {
+                end = Math.max(end, candidate.end);
+            }
+            final List<Expression> assignments = new ArrayList<>(candidates.size());
+            final AccessExpression[] candidateLocals = new AccessExpression[candidates.size()];
+            for (int k = 0; k < candidates.size(); k++) {
+                final Candidate candidate = candidates.get(k);
+                candidateLocals[k] = new AccessExpression(new IdentifierExpression("temp"), LOCAL_PREFIX + nextLocal++);
+                assignments.add(new BinaryExpression(BinaryExpression.Op.ASSIGN, candidateLocals[k], candidate.expression));
+            }
+            for (int j = i; j < end; j++) {
+                // every statement is rewritten once, with the candidates it may use
+                final Map<Key, Expression> locals = new HashMap<>();
+                int minSize = Integer.MAX_VALUE;
+                for (int k = 0; k < candidates.size(); k++) {
+                    final Candidate candidate = candidates.get(k);
+                    if (j < candidate.end) {
+                        locals.put(candidate.key, candidateLocals[k]);
+                        minSize = Math.min(minSize, candidate.key.size());
+                    }
+                }
+                if (!locals.isEmpty()) {
+                    result.set(j, result.get(j).visit(new Replacer(locals, minSize)));
+                }
+            }
+            result.addAll(i, assignments);
+            i += assignments.size() + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Finds the pure expressions always evaluated by the statement at the
+     * given index that appear at least twice before any of their dependencies
+     * are written, largest first. The occurrences of a candidate are counted
+     * without the ones inside larger candidates, which are replaced first.
+     */
+    private List<Candidate> findCandidates(final List<Expression> statements, final int index) {
+        final Expression statement = statements.get(index);
+        final List<Expression> evaluated = new ArrayList<>();
+        statement.visit(new EvaluatedCollector(evaluated), Position.ALWAYS);
+        evaluated.sort(Comparator.comparingInt((Expression expression) -> info(expression).size()).reversed());
+
+        final Map<Key, List<Expression>> instances = new HashMap<>();
+        for (final Expression expression : evaluated) {
+            instances.computeIfAbsent(key(expression), key -> new ArrayList<>()).add(expression);
+        }
+
+        // the occurrences left in every statement, and the evaluated
+        // expressions inside the replaced ones
+        final Map<Integer, Map<Key, Integer>> remaining = new HashMap<>();
+        final Set<Expression> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<Key> tried = new HashSet<>();
+        final List<Candidate> candidates = new ArrayList<>();
+        for (final Expression expression : evaluated) {
+            if (replaced.contains(expression)) {
+                continue;
+            }
+            final Key key = key(expression);
+            if (!tried.add(key)) {
+                continue;
+            }
+
+            final Set<Object> dependencies = requireNonNull(info(expression).dependencies());
+            if (invalidates(statement, dependencies)) {
+                continue;
+            }
+
+            int end = index + 1;
+            while (end < statements.size() && !invalidates(statements.get(end), dependencies)) {
+                end++;
+            }
+
+            int occurrences = 0;
+            for (int j = index; j < end && occurrences < 2; j++) {
+                occurrences += remaining(remaining, statements, j).getOrDefault(key, 0);
+            }
+            if (occurrences < 2) {
+                continue;
+            }
+
+            candidates.add(new Candidate(expression, key, end));
+            // the expressions inside its occurrences are gone
+            final Map<Key, Integer> inner = occurrences(expression);
+            for (int j = index; j < end; j++) {
+                final Map<Key, Integer> counts = remaining(remaining, statements, j);
+                final Integer count = counts.get(key);
+                if (count == null || count == 0) {
+                    continue;
+                }
+                for (final Map.Entry<Key, Integer> entry : inner.entrySet()) {
+                    counts.merge(entry.getKey(), -count * entry.getValue(), Integer::sum);
+                }
+            }
+            for (final Expression instance : instances.get(key)) {
+                if (!replaced.contains(instance)) {
+                    instance.visit(new Traverser() {
+                        @Override
+                        protected void enter(final Expression expression) {
+                            replaced.add(expression);
+                        }
+                    });
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private Map<Key, Integer> remaining(final Map<Integer, Map<Key, Integer>> remaining, final List<Expression> statements, final int index) {
+        Map<Key, Integer> counts = remaining.get(index);
+        if (counts == null) {
+            counts = new HashMap<>(occurrences(statements.get(index)));
+            remaining.put(index, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Determines whether the given statement may change the
+     * value of any of the given dependencies.
+     */
+    private boolean invalidates(final Expression statement, final Set<Object> dependencies) {
+        WriteCollector writes = this.writes.get(statement);
+        if (writes == null) {
+            writes = new WriteCollector();
+            statement.visit(writes);
+            this.writes.put(statement, writes);
+        }
+        if (writes.impure) {
+            for (final Object dependency : dependencies) {
+                if (dependency instanceof Location location && location.owner != TEMP) {
+                    return true;
+                }
+            }
+        }
+        for (final Location location : writes.locations) {
+            if (dependencies.contains(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the pure compound expressions found in the given statement
+     * or expression.
+     */
+    private Map<Key, Integer> occurrences(final Expression statement) {
+        Map<Key, Integer> occurrences = this.occurrences.get(statement);
+        if (occurrences == null) {
+            final Map<Key, Integer> counts = new HashMap<>();
+            statement.visit(new Traverser() {
+                @Override
+                protected void enter(final Expression expression) {
+                    if (info(expression).dependencies() != null) {
+                        counts.merge(key(expression), 1, Integer::sum);
+                    }
+                }
+            });
+            occurrences = counts;
+            this.occurrences.put(statement, occurrences);
+        }
+        return occurrences;
+    }
+
+    private Info info(final Expression expression) {
+        Info info = infos.get(expression);
+        if (info == null) {
+            info = expression.visit(infoCollector);
+            infos.put(expression, info);
+        }
+        return info;
+    }
+
+    private Key key(final Expression expression) {
+        final Info info = info(expression);
+        return new Key(expression, info.hash(), info.size());
+    }
+
+    private @Nullable Location location(final AccessExpression access) {
+        final Expression objectExpr = access.object();
+        final String property = access.property().toLowerCase();
+        if (objectExpr instanceof IdentifierExpression identifier) {
+            final String name = identifier.name();
+            if (name.equals("temp") || name.equals("t")) {
+                return new Location(TEMP, property);
+            }
+        }
+        if (resolve(objectExpr) instanceof MutableObjectBinding binding) {
+            return new Location(binding, property);
+        }
+        return null;
+    }
+
+    private Value resolve(final Expression expression) {
+        if (expression instanceof IdentifierExpression identifier) {
+            return scope.get(identifier.name());
+        } else if (expression instanceof AccessExpression access
+                && resolve(access.object()) instanceof ObjectValue object) {
+            return object.get(access.property());
+        }
+        return DoubleValue.ZERO;
+    }
+
+    private static boolean isBuiltIn(final CallExpression call) {
+        return call.function() instanceof IdentifierExpression identifier
+                && (identifier.name().equals("loop") || identifier.name().equals("for_each"));
+    }
+
+    private static @Nullable Set<Object> union(final @Nullable Set<Object> a, final @Nullable Set<Object> b) {
+        if (a == null || b == null) {
+            return null;
+        } else if (a.isEmpty() || b.containsAll(a)) {
+            return b;
+        } else if (b.isEmpty() || a.containsAll(b)) {
+            return a;
+        }
+        final Set<Object> union = new HashSet<>(a);
+        union.addAll(b);
+        return union;
+    }
+
+    private record Location(Object owner, String property) {
+    }
+
+    /**
+     * The facts about a node, which never change since nodes
+     * aren't modified by this pass.
+     *
+     * @param size The number of nodes in the subtree
+     * @param hash The structural hash of the subtree
+     * @param dependencies The locations the subtree reads, or null
+     *                     if it isn't a pure compound expression
+     */
+    private record Info(int size, int hash, @Nullable Set<Object> dependencies) {
+    }
+
+    /**
+     * An expression compared by structure, using its precomputed
+     * hash and size first.
+     */
+    private record Key(Expression expression, int hash, int size) {
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key key && hash == key.hash && size == key.size
+                    && expression.equals(key.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private record Candidate(Expression expression, Key key, int end) {
+    }
+
+    private enum Position implements ExpressionVisitor.Context {
+        ALWAYS,
+        SOMETIMES
+    }
+
+    /**
+     * Visits every node of an expression except the right side of arrow
+     * operators, which is evaluated for another entity.
+     */
+    private abstract static class Traverser implements ExpressionVisitor<Void, ExpressionVisitor.Context> {
+        protected void enter(final Expression expression) {
+        }
+
+        private @Nullable Void children(final Expression expression, final Context ctx, final Expression... children) {
+            enter(expression);
+            for (final Expression child : children) {
+                child.visit(this, ctx);
+            }
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            return children(expression, ctx, expression.array(), expression.index());
+        }
+
+        @Override
+        public @Nullable Void visitAccess(final AccessExpression expression, final Context ctx) {
+            return children(expression, ctx, expression.object());
+        }
+
+        @Override
+        public @Nullable Void visitCall(final CallExpression expression, final Context ctx) {
+            final List<Expression> children = new ArrayList<>(expression.arguments());
+            children.add(0, expression.function());
+            return children(expression, ctx, children.toArray(Expression[]::new));
+        }
+
+        @Override
+        public @Nullable Void visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            return children(expression, ctx, expression.expressions().toArray(Expression[]::new));
+        }
+
+        @Override
+        public @Nullable Void visitBinary(final BinaryExpression expression, final Context ctx) {
+            if (expression.op() == BinaryExpression.Op.ARROW) {
+                return children(expression, ctx, expression.left());
+            }
+            return children(expression, ctx, expression.left(), expression.right());
+        }
+
+        @Override
+        public @Nullable Void visitUnary(final UnaryExpression expression, final Context ctx) {
+            return children(expression, ctx, expression.expression());
+        }
+
+        @Override
+        public @Nullable Void visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            return children(expression, ctx, expression.condition(), expression.trueExpression(), expression.falseExpression());
+        }
+
+        @Override
+        public @Nullable Void visit(final Expression expression, final Context ctx) {
+            return children(expression, ctx);
+        }
+    }
+
+    /**
+     * Collects the pure compound expressions that are evaluated
+     * every time the visited statement is evaluated.
+     */
+    private final class EvaluatedCollector implements ExpressionVisitor<Void, ExpressionVisitor.Context> {
+        private final List<Expression> evaluated;
+
+        EvaluatedCollector(final List<Expression> evaluated) {
+            this.evaluated = evaluated;
+        }
+
+        private void add(final Expression expression, final Context ctx) {
+            if (ctx == Position.ALWAYS && info(expression).dependencies() != null) {
+                evaluated.add(expression);
+            }
+        }
+
+        @Override
+        public @Nullable Void visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            add(expression, ctx);
+            expression.array().visit(this, ctx);
+            expression.index().visit(this, ctx);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitCall(final CallExpression expression, final Context ctx) {
+            if (isBuiltIn(expression)) {
+                // loop bodies may not be evaluated at all
+                for (final Expression argument : expression.arguments()) {
+                    argument.visit(this, argument instanceof ExecutionScopeExpression ? Position.SOMETIMES : ctx);
+                }
+                return null;
+            }
+            add(expression, ctx);
+            for (final Expression argument : expression.arguments()) {
+                argument.visit(this, ctx);
+            }
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            for (final Expression statement : expression.expressions()) {
+                statement.visit(this, Position.SOMETIMES);
+            }
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitBinary(final BinaryExpression expression, final Context ctx) {
+            switch (expression.op()) {
+                case ARROW -> {
+                    // the right side is evaluated for another entity
+                    expression.left().visit(this, ctx);
+                    return null;
+                }
+                case AND, OR, NULL_COALESCE, CONDITIONAL -> {
+                    add(expression, ctx);
+                    expression.left().visit(this, ctx);
+                    expression.right().visit(this, Position.SOMETIMES);
+                    return null;
+                }
+                default -> {
+                    add(expression, ctx);
+                    if (expression.op() != BinaryExpression.Op.ASSIGN) {
+                        expression.left().visit(this, ctx);
+                    }
+                    expression.right().visit(this, ctx);
+                    return null;
+                }
+            }
+        }
+
+        @Override
+        public @Nullable Void visitUnary(final UnaryExpression expression, final Context ctx) {
+            add(expression, ctx);
+            expression.expression().visit(this, ctx);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            add(expression, ctx);
+            expression.condition().visit(this, ctx);
+            expression.trueExpression().visit(this, Position.SOMETIMES);
+            expression.falseExpression().visit(this, Position.SOMETIMES);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visit(final Expression expression, final Context ctx) {
+            // literals, identifiers and accesses are cheap to evaluate
+            return null;
+        }
+    }
+
+    /**
+     * Computes the facts about the visited node from the ones
+     * of its children.
+     */
+    private final class InfoCollector implements ExpressionVisitor<Info, ExpressionVisitor.Context> {
+        @Override
+        public Info visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            return compound(expression.getClass().hashCode(),
+                    union(operand(expression.array()), operand(expression.index())),
+                    expression.array(), expression.index());
+        }
+
+        @Override
+        public Info visitAccess(final AccessExpression expression, final Context ctx) {
+            return new Info(info(expression.object()).size() + 1, expression.hashCode(), null);
+        }
+
+        @Override
+        public Info visitCall(final CallExpression expression, final Context ctx) {
+            final List<Expression> arguments = expression.arguments();
+            @Nullable Set<Object> dependencies = null;
+            if (!isBuiltIn(expression)
+                    && resolve(expression.function()) instanceof Function<?> function
+                    && function.pure()) {
+                dependencies = Set.of();
+                for (final Expression argument : arguments) {
+                    dependencies = union(dependencies, operand(argument));
+                }
+            }
+            final Expression[] children = new Expression[arguments.size() + 1];
+            children[0] = expression.function();
+            for (int i = 0; i < arguments.size(); i++) {
+                children[i + 1] = arguments.get(i);
+            }
+            return compound(expression.getClass().hashCode(), dependencies, children);
+        }
+
+        @Override
+        public Info visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            return compound(expression.getClass().hashCode(), null, expression.expressions().toArray(Expression[]::new));
+        }
+
+        @Override
+        public Info visitBinary(final BinaryExpression expression, final Context ctx) {
+            final @Nullable Set<Object> dependencies = expression.op() == BinaryExpression.Op.ASSIGN || expression.op() == BinaryExpression.Op.ARROW
+                    ? null
+                    : union(operand(expression.left()), operand(expression.right()));
+            return compound(expression.op().hashCode(), dependencies, expression.left(), expression.right());
+        }
+
+        @Override
+        public Info visitUnary(final UnaryExpression expression, final Context ctx) {
+            final @Nullable Set<Object> dependencies = expression.op() == UnaryExpression.Op.RETURN
+                    ? null
+                    : operand(expression.expression());
+            return compound(expression.op().hashCode(), dependencies, expression.expression());
+        }
+
+        @Override
+        public Info visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            return compound(expression.getClass().hashCode(),
+                    union(operand(expression.condition()), union(operand(expression.trueExpression()), operand(expression.falseExpression()))),
+                    expression.condition(), expression.trueExpression(), expression.falseExpression());
+        }
+
+        @Override
+        public Info visit(final Expression expression, final Context ctx) {
+            // only compound expressions are worth storing
+            return new Info(1, expression.hashCode(), null);
+        }
+
+        private Info compound(final int seed, final @Nullable Set<Object> dependencies, final Expression... children) {
+            int size = 1;
+            int hash = seed;
+            for (final Expression child : children) {
+                final Info info = info(child);
+                size += info.size();
+                hash = 31 * hash + info.hash();
+            }
+            return new Info(size, hash, dependencies);
+        }
+
+        /**
+         * Computes the locations read by the given operand, or
+         * null if it isn't pure.
+         */
+        private @Nullable Set<Object> operand(final Expression operand) {
+            if (operand instanceof DoubleExpression || operand instanceof StringExpression
+                    || operand instanceof IdentifierExpression) {
+                // literals and parameters never change
+                return Set.of();
+            } else if (operand instanceof AccessExpression access) {
+                final Location location = location(access);
+                if (location != null) {
+                    return Set.of(location);
+                }
+                // other properties must be constant
+                final ObjectProperty property = resolve(access.object()) instanceof ObjectValue object
+                        ? object.getProperty(access.property())
+                        : null;
+                return property != null && property.constant() ? Set.of() : null;
+            }
+            return info(operand).dependencies();
+        }
+    }
+
+    /**
+     * Collects the locations written by the visited statement, and
+     * whether it calls any impure function.
+     */
+    private final class WriteCollector extends Traverser {
+        private final Set<Location> locations = new HashSet<>();
+        private boolean impure;
+
+        @Override
+        public @Nullable Void visitBinary(final BinaryExpression expression, final Context ctx) {
+            if (expression.op() == BinaryExpression.Op.ASSIGN && expression.left() instanceof AccessExpression access) {
+                write(access);
+            }
+            if (expression.op() == BinaryExpression.Op.ARROW) {
+                // calls for other entities are still calls
+                expression.right().visit(this, ctx);
+            }
+            return super.visitBinary(expression, ctx);
+        }
+
+        @Override
+        public @Nullable Void visitCall(final CallExpression expression, final Context ctx) {
+            if (isBuiltIn(expression)) {
+                if (!expression.arguments().isEmpty()
+                        && ((IdentifierExpression) expression.function()).name().equals("for_each")
+                        && expression.arguments().get(0) instanceof AccessExpression access) {
+                    // the for_each variable
+                    write(access);
+                }
+            } else if (!(resolve(expression.function()) instanceof Function<?> function) || !function.pure()) {
+                impure = true;
+            }
+            return super.visitCall(expression, ctx);
+        }
+
+        private void write(final AccessExpression access) {
+            final Location location = location(access);
+            if (location != null) {
+                locations.add(location);
+            }
+        }
+    }
+
+    /**
+     * Replaces every occurrence of some expressions by their locals,
+     * keeping the subtrees that don't contain any.
+     */
+    private final class Replacer implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
+        private final Map<Key, Expression> locals;
+        private final int minSize;
+
+        Replacer(final Map<Key, Expression> locals, final int minSize) {
+            this.locals = locals;
+            this.minSize = minSize;
+        }
+
+        /**
+         * Returns true if the given node is an occurrence, or too
+         * small to contain one, in both cases it's not visited further.
+         */
+        private boolean skip(final Expression node) {
+            final Info info = info(node);
+            return info.size() < minSize || (info.dependencies() != null && locals.containsKey(key(node)));
+        }
+
+        private Expression replace(final Expression node) {
+            return info(node).size() < minSize ? node : locals.get(key(node));
+        }
+
+        @Override
+        public Expression visitArrayAccess(final ArrayAccessExpression node, final Context ctx) {
+            if (skip(node)) return replace(node);
+            final Expression array = node.array().visit(this);
+            final Expression index = node.index().visit(this);
+            return array == node.array() && index == node.index() ? node : new ArrayAccessExpression(array, index);
+        }
+
+        @Override
+        public Expression visitAccess(final AccessExpression node, final Context ctx) {
+            return node;
+        }
+
+        @Override
+        public Expression visitCall(final CallExpression node, final Context ctx) {
+            if (skip(node)) return replace(node);
+            boolean changed = false;
+            final List<Expression> arguments = new ArrayList<>(node.arguments().size());
+            for (final Expression argument : node.arguments()) {
+                final Expression replaced = argument.visit(this);
+                changed |= replaced != argument;
+                arguments.add(replaced);
+            }
+            return changed ? new CallExpression(node.function(), arguments) : node;
+        }
+
+        @Override
+        public Expression visitExecutionScope(final ExecutionScopeExpression node, final Context ctx) {
+            if (skip(node)) return node;
+            boolean changed = false;
+            final List<Expression> statements = new ArrayList<>(node.expressions().size());
+            for (final Expression statement : node.expressions()) {
+                final Expression replaced = statement.visit(this);
+                changed |= replaced != statement;
+                statements.add(replaced);
+            }
+            return changed ? new ExecutionScopeExpression(statements) : node;
+        }
+
+        @Override
+        public Expression visitBinary(final BinaryExpression node, final Context ctx) {
+            if (skip(node)) return replace(node);
+            // assignment targets and arrow right sides are kept
+            final Expression left = node.op() == BinaryExpression.Op.ASSIGN ? node.left() : node.left().visit(this);
+            final Expression right = node.op() == BinaryExpression.Op.ARROW ? node.right() : node.right().visit(this);
+            return left == node.left() && right == node.right() ? node : new BinaryExpression(node.op(), left, right);
+        }
+
+        @Override
+        public Expression visitUnary(final UnaryExpression node, final Context ctx) {
+            if (skip(node)) return replace(node);
+            final Expression expression = node.expression().visit(this);
+            return expression == node.expression() ? node : new UnaryExpression(node.op(), expression);
+        }
+
+        @Override
+        public Expression visitTernaryConditional(final TernaryConditionalExpression node, final Context ctx) {
+            if (skip(node)) return replace(node);
+            final Expression condition = node.condition().visit(this);
+            final Expression trueExpression = node.trueExpression().visit(this);
+            final Expression falseExpression = node.falseExpression().visit(this);
+            return condition == node.condition() && trueExpression == node.trueExpression()
+                    && falseExpression == node.falseExpression()
+                    ? node
+                    : new TernaryConditionalExpression(condition, trueExpression, falseExpression);
+        }
+
+        @Override
+        public Expression visit(final Expression node, final Context ctx) {
+            return node;
+        }
+    }
+
+    /**
+     * Processes the statements of every execution scope
+     * found in the visited expression.
+     */
+    private final class ScopeProcessor implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
+        @Override
+        public Expression visitArrayAccess(final ArrayAccessExpression node, final Context ctx) {
+            return new ArrayAccessExpression(node.array().visit(this), node.index().visit(this));
+        }
+
+        @Override
+        public Expression visitCall(final CallExpression node, final Context ctx) {
+            final List<Expression> arguments = new ArrayList<>(node.arguments().size());
+            for (final Expression argument : node.arguments()) {
+                arguments.add(argument.visit(this));
+            }
+            return new CallExpression(node.function(), arguments);
+        }
+
+        @Override
+        public Expression visitExecutionScope(final ExecutionScopeExpression node, final Context ctx) {
+            return new ExecutionScopeExpression(process(node.expressions()));
+        }
+
+        @Override
+        public Expression visitBinary(final BinaryExpression node, final Context ctx) {
+            return new BinaryExpression(node.op(), node.left().visit(this), node.right().visit(this));
+        }
+
+        @Override
+        public Expression visitUnary(final UnaryExpression node, final Context ctx) {
+            return new UnaryExpression(node.op(), node.expression().visit(this));
+        }
+
+        @Override
+        public Expression visitTernaryConditional(final TernaryConditionalExpression node, final Context ctx) {
+            return new TernaryConditionalExpression(
+                    node.condition().visit(this),
+                    node.trueExpression().visit(this),
+                    node.falseExpression().visit(this)
+            );
+        }
+
+        @Override
+        public Expression visit(final Expression node, final Context ctx) {
+            return node;
+        }
+    }
+}
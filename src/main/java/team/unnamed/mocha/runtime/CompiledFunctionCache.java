@@ -0,0 +1,295 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import com.google.common.reflect.TypeToken;
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.value.ObjectProperty;
+import team.unnamed.mocha.runtime.value.Value;
+import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of the functions compiled by a {@link MolangCompiler}, keyed by
+ * their canonical expressions and implemented interface, so that equivalent
+ * code is compiled only once.
+ *
+ * <p>The canonical form of the expressions ignores the case of identifiers
+ * and properties, and replaces aliases (e.g. {@code v} and {@code variable},
+ * or {@code t} and {@code temp}) by a single name. Compiled functions don't
+ * hold any state, so the same instance is returned for every hit.</p>
+ *
+ * <p>Functions are weakly referenced, so that their classes are still
+ * unloaded once they are unreachable. Compiled code depends on the scope
+ * bindings, so the cache is cleared if any of them changes, and a function
+ * is discarded if any object it requires (e.g. a function inside a binding)
+ * is no longer found at the same place of the scope.</p>
+ */
+final class CompiledFunctionCache {
+    private final Scope scope;
+    private final Map<Key, FunctionReference> functions = new HashMap<>();
+    private final ReferenceQueue<MochaCompiledFunction> collected = new ReferenceQueue<>();
+
+    private Map<String, Value> bindings = new CaseInsensitiveStringHashMap<>();
+    private Map<Value, String> canonicalNames = new IdentityHashMap<>();
+
+    CompiledFunctionCache(final Scope scope) {
+        this.scope = requireNonNull(scope, "scope");
+    }
+
+    /**
+     * Creates the cache key of the given expressions compiled to the
+     * given interface.
+     *
+     * @param expressions The expressions
+     * @param typeToken The implemented interface
+     * @return The cache key
+     */
+    Key key(final List<Expression> expressions, final TypeToken<?> typeToken) {
+        requireNonNull(expressions, "expressions");
+        requireNonNull(typeToken, "typeToken");
+        validate();
+
+        final Canonicalizer canonicalizer = new Canonicalizer();
+        final List<Expression> canonical = new ArrayList<>(expressions.size());
+        for (final Expression expression : expressions) {
+            canonical.add(expression.visit(canonicalizer));
+        }
+        return new Key(canonical, typeToken);
+    }
+
+    /**
+     * Gets the function compiled for the given key, if the objects it
+     * requires are still the ones in the scope.
+     *
+     * @param key The key
+     * @return The compiled function, or null if it isn't cached
+     */
+    @Nullable MochaCompiledFunction get(final Key key) {
+        requireNonNull(key, "key");
+        expunge();
+        final FunctionReference reference = functions.get(key);
+        if (reference == null) {
+            return null;
+        }
+        if (!current(reference.requirements)) {
+            // e.g. a function replaced inside a binding that didn't change
+            functions.remove(key);
+            return null;
+        }
+        return reference.get();
+    }
+
+    /**
+     * Caches the function compiled for the given key. It is not cached if
+     * any of its requirements can't be found again in the scope, since it
+     * couldn't be known whether they changed.
+     *
+     * @param key The key
+     * @param function The compiled function
+     * @param requirements The objects required by the function
+     */
+    void put(final Key key, final MochaCompiledFunction function, final List<FunctionCompileState.Requirement> requirements) {
+        requireNonNull(key, "key");
+        requireNonNull(function, "function");
+        requireNonNull(requirements, "requirements");
+        expunge();
+        for (final FunctionCompileState.Requirement requirement : requirements) {
+            // interpreter calls are created from the code itself
+            if (requirement.source() == null && !(requirement.value() instanceof CompiledInterpreterCall)) {
+                return;
+            }
+        }
+        functions.put(key, new FunctionReference(key, function, requirements, collected));
+    }
+
+    /**
+     * Determines whether the given requirements are still the ones
+     * found at their sources in the scope.
+     */
+    private boolean current(final List<FunctionCompileState.Requirement> requirements) {
+        for (final FunctionCompileState.Requirement requirement : requirements) {
+            final String source = requirement.source();
+            if (source == null || source.equals(PersistentCompileCache.ENTITY_SOURCE) || source.startsWith(PersistentCompileCache.DOUBLES_SOURCE)) {
+                // not taken from the scope
+                continue;
+            }
+            if (PersistentCompileCache.resolve(scope, source, null) != requirement.value()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clears the cache if the scope bindings changed since the last
+     * time, and computes the canonical names of the new bindings.
+     */
+    private void validate() {
+        final Map<String, ObjectProperty> entries = scope.entries();
+        boolean changed = entries.size() != bindings.size();
+        if (!changed) {
+            for (final Map.Entry<String, ObjectProperty> entry : entries.entrySet()) {
+                if (bindings.get(entry.getKey()) != entry.getValue().value()) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+
+        if (!changed) {
+            return;
+        }
+
+        functions.clear();
+        bindings = new CaseInsensitiveStringHashMap<>();
+        canonicalNames = new IdentityHashMap<>();
+        for (final Map.Entry<String, ObjectProperty> entry : entries.entrySet()) {
+            final String name = entry.getKey().toLowerCase(Locale.ROOT);
+            final Value value = entry.getValue().value();
+            bindings.put(name, value);
+
+            // the longest name is used for all the aliases of a value
+            final String canonicalName = canonicalNames.get(value);
+            if (canonicalName == null || name.length() > canonicalName.length()
+                    || (name.length() == canonicalName.length() && name.compareTo(canonicalName) < 0)) {
+                canonicalNames.put(value, name);
+            }
+        }
+    }
+
+    private void expunge() {
+        FunctionReference reference;
+        while ((reference = (FunctionReference) collected.poll()) != null) {
+            functions.remove(reference.key, reference);
+        }
+    }
+
+    /**
+     * The key of a cached function.
+     *
+     * @param expressions The canonical expressions
+     * @param typeToken The implemented interface
+     */
+    record Key(List<Expression> expressions, TypeToken<?> typeToken) {
+    }
+
+    private static final class FunctionReference extends WeakReference<MochaCompiledFunction> {
+        private final Key key;
+        private final List<FunctionCompileState.Requirement> requirements;
+
+        FunctionReference(
+                final Key key,
+                final MochaCompiledFunction function,
+                final List<FunctionCompileState.Requirement> requirements,
+                final ReferenceQueue<MochaCompiledFunction> queue
+        ) {
+            super(function, queue);
+            this.key = key;
+            this.requirements = requirements;
+        }
+    }
+
+    /**
+     * Copies expressions in their canonical form.
+     */
+    private final class Canonicalizer implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
+        @Override
+        public Expression visitIdentifier(final IdentifierExpression expression, final Context ctx) {
+            final String name = expression.name();
+            if (name.equals("t")) {
+                // temp is not a binding, it's created per evaluation
+                return new IdentifierExpression("temp");
+            }
+            final Value value = bindings.get(name);
+            final String canonicalName = value == null ? null : canonicalNames.get(value);
+            return canonicalName == null || canonicalName.equals(name) ? expression : new IdentifierExpression(canonicalName);
+        }
+
+        @Override
+        public Expression visitAccess(final AccessExpression expression, final Context ctx) {
+            return new AccessExpression(expression.object().visit(this), expression.property().toLowerCase(Locale.ROOT));
+        }
+
+        @Override
+        public Expression visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            return new ArrayAccessExpression(expression.array().visit(this), expression.index().visit(this));
+        }
+
+        @Override
+        public Expression visitBinary(final BinaryExpression expression, final Context ctx) {
+            return new BinaryExpression(expression.op(), expression.left().visit(this), expression.right().visit(this));
+        }
+
+        @Override
+        public Expression visitUnary(final UnaryExpression expression, final Context ctx) {
+            return new UnaryExpression(expression.op(), expression.expression().visit(this));
+        }
+
+        @Override
+        public Expression visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            return new TernaryConditionalExpression(
+                    expression.condition().visit(this),
+                    expression.trueExpression().visit(this),
+                    expression.falseExpression().visit(this)
+            );
+        }
+
+        @Override
+        public Expression visitCall(final CallExpression expression, final Context ctx) {
+            final List<Expression> arguments = new ArrayList<>(expression.arguments().size());
+            for (final Expression argument : expression.arguments()) {
+                arguments.add(argument.visit(this));
+            }
+            return new CallExpression(expression.function().visit(this), arguments);
+        }
+
+        @Override
+        public Expression visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            final List<Expression> statements = new ArrayList<>(expression.expressions().size());
+            for (final Expression statement : expression.expressions()) {
+                statements.add(statement.visit(this));
+            }
+            return new ExecutionScopeExpression(statements);
+        }
+
+        @Override
+        public Expression visit(final Expression expression, final Context ctx) {
+            // literals and statements
+            return expression;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.DoubleExpression;
+import team.unnamed.mocha.parser.ast.Expression;
+import team.unnamed.mocha.parser.ast.StringExpression;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.Function;
+import team.unnamed.mocha.runtime.value.StringValue;
+import team.unnamed.mocha.runtime.value.Value;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Bridge used by compiled scripts to call {@link Function}s that are not
+ * backed by a Java method, such as user-provided lambdas. Arguments are
+ * evaluated by the compiled code and passed as already computed values.
+ *
+ * @since 4.0
+ */
+@ApiStatus.Internal
+public final class CompiledFunctionCall {
+    private final Function<?> function;
+    private final ExpressionInterpreter<?> context;
+
+    public CompiledFunctionCall(final Function<?> function, final ExpressionInterpreter<?> context) {
+        this.function = requireNonNull(function, "function");
+        this.context = requireNonNull(context, "context");
+    }
+
+    public static Value number(final double value) {
+        return DoubleValue.of(value);
+    }
+
+    public Value call(final Value[] arguments) {
+        return call(context.createChild(), arguments);
+    }
+
+    public Value call(final @Nullable Object entity, final Value[] arguments) {
+        return call(context.createChild(entity), arguments);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Value call(final ExecutionContext context, final Value[] arguments) {
+        final Function.Argument[] args = new Function.Argument[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            args[i] = new EvaluatedArgument(arguments[i]);
+        }
+        final Value result = ((Function) function).evaluate(context, new ExpressionInterpreter.FunctionArguments(args));
+        return result == null ? Value.nil() : result;
+    }
+
+    private record EvaluatedArgument(Value value) implements Function.Argument {
+        @Override
+        public @Nullable Expression expression() {
+            // only literals can be reconstructed from an evaluated value
+            if (value instanceof DoubleValue doubleValue) {
+                return new DoubleExpression(doubleValue.doubleValue());
+            } else if (value instanceof StringValue stringValue) {
+                return new StringExpression(stringValue.value());
+            }
+            return null;
+        }
+
+        @Override
+        public Value eval() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.Expression;
+import team.unnamed.mocha.runtime.value.Value;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Bridge used by compiled scripts to interpret the expressions that
+ * the compiler doesn't support, the rest of the script is still compiled.
+ *
+ * @since 4.0
+ */
+@ApiStatus.Internal
+public final class CompiledInterpreterCall {
+    private final Expression expression;
+    private final ExpressionInterpreter<?> interpreter;
+
+    public CompiledInterpreterCall(final Expression expression, final ExpressionInterpreter<?> interpreter) {
+        this.expression = requireNonNull(expression, "expression");
+        this.interpreter = requireNonNull(interpreter, "interpreter");
+    }
+
+    public Value evaluate() {
+        return evaluate(interpreter);
+    }
+
+    public Value evaluate(final @Nullable Object entity) {
+        return evaluate(interpreter.createChild(entity));
+    }
+
+    private Value evaluate(final ExpressionInterpreter<?> interpreter) {
+        final Value result = expression.visit(interpreter);
+        return result == null ? Value.nil() : result;
+    }
+}
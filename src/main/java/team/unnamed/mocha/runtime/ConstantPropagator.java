@@ -0,0 +1,299 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optimization pass that replaces reads of {@code temp} locals holding a
+ * known literal by the literal itself, folding the expressions that become
+ * constant after it.
+ *
+ * <p>Values are tracked in evaluation order. After a branch, only the temps
+ * known to hold the same literal in every path are kept, and temps assigned
+ * inside loop bodies or function arguments (which may be evaluated any number
+ * of times) are forgotten before them.</p>
+ */
+final class ConstantPropagator implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
+    private final ExpressionInliner inliner;
+    private Map<String, Expression> constants = new CaseInsensitiveStringHashMap<>();
+
+    ConstantPropagator(final ExpressionInterpreter<?> interpreter, final Scope scope) {
+        this.inliner = new ExpressionInliner(interpreter, scope);
+    }
+
+    /**
+     * Propagates the constant temps through the given statements.
+     *
+     * @param statements The statements
+     * @return The resulting statements
+     */
+    List<Expression> process(final List<Expression> statements) {
+        final List<Expression> result = new ArrayList<>(statements.size());
+        for (final Expression statement : statements) {
+            result.add(statement.visit(this));
+        }
+        return result;
+    }
+
+    @Override
+    public Expression visitAccess(final AccessExpression expression, final Context ctx) {
+        final String local = tempName(expression);
+        if (local != null) {
+            final Expression constant = constants.get(local);
+            if (constant != null) {
+                return constant;
+            }
+        }
+        return expression;
+    }
+
+    @Override
+    public Expression visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+        final Expression array = expression.array().visit(this);
+        final Expression index = expression.index().visit(this);
+        return fold(new ArrayAccessExpression(array, index));
+    }
+
+    @Override
+    public Expression visitBinary(final BinaryExpression expression, final Context ctx) {
+        final BinaryExpression.Op op = expression.op();
+        switch (op) {
+            case ASSIGN: {
+                final Expression value = expression.right().visit(this);
+                final String local = tempName(expression.left());
+                if (local != null) {
+                    if (ExpressionInliner.isLiteral(value)) {
+                        constants.put(local, value);
+                    } else {
+                        constants.remove(local);
+                    }
+                }
+                return new BinaryExpression(op, expression.left(), value);
+            }
+            case AND:
+            case OR:
+            case NULL_COALESCE:
+            case CONDITIONAL:
+            case ARROW: {
+                // the right side is not always evaluated
+                final Expression left = expression.left().visit(this);
+                final Map<String, Expression> before = new CaseInsensitiveStringHashMap<>(constants);
+                final Expression right = op == BinaryExpression.Op.CONDITIONAL && expression.right() instanceof ExecutionScopeExpression executionScope
+                        ? executed(executionScope)
+                        : expression.right().visit(this);
+                constants = merge(before, constants);
+                return op == BinaryExpression.Op.ARROW
+                        ? new BinaryExpression(op, left, right)
+                        : fold(new BinaryExpression(op, left, right));
+            }
+            default: {
+                final Expression left = expression.left().visit(this);
+                final Expression right = expression.right().visit(this);
+                return fold(new BinaryExpression(op, left, right));
+            }
+        }
+    }
+
+    @Override
+    public Expression visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+        final Expression condition = expression.condition().visit(this);
+        final Map<String, Expression> before = new CaseInsensitiveStringHashMap<>(constants);
+        final Expression trueExpr = expression.trueExpression().visit(this);
+        final Map<String, Expression> afterTrue = constants;
+        constants = before;
+        final Expression falseExpr = expression.falseExpression().visit(this);
+        constants = merge(afterTrue, constants);
+        return fold(new TernaryConditionalExpression(condition, trueExpr, falseExpr));
+    }
+
+    @Override
+    public Expression visitUnary(final UnaryExpression expression, final Context ctx) {
+        final UnaryExpression result = new UnaryExpression(expression.op(), expression.expression().visit(this));
+        return expression.op() == UnaryExpression.Op.RETURN ? result : fold(result);
+    }
+
+    @Override
+    public Expression visitCall(final CallExpression expression, final Context ctx) {
+        final List<Expression> arguments = expression.arguments();
+        final boolean forEach = expression.function() instanceof IdentifierExpression identifier
+                && identifier.name().equals("for_each");
+
+        // execution scopes are evaluated any number of times, forget the
+        // temps they assign first, so that they aren't used inside them
+        for (final Expression argument : arguments) {
+            if (argument instanceof ExecutionScopeExpression) {
+                forgetAssigned(argument);
+            }
+        }
+
+        final List<Expression> result = new ArrayList<>(arguments.size());
+        for (int i = 0; i < arguments.size(); i++) {
+            final Expression argument = arguments.get(i);
+            if (forEach && i == 0) {
+                // the loop variable is assigned, not read
+                final String local = tempName(argument);
+                if (local != null) {
+                    constants.remove(local);
+                }
+                result.add(argument);
+            } else if (argument instanceof ExecutionScopeExpression) {
+                final Map<String, Expression> before = new CaseInsensitiveStringHashMap<>(constants);
+                result.add(executed((ExecutionScopeExpression) argument));
+                constants = before;
+            } else {
+                result.add(argument.visit(this));
+            }
+        }
+
+        final CallExpression call = new CallExpression(expression.function(), result);
+        return ExpressionInliner.isBuiltIn(call) ? call : fold(call);
+    }
+
+    @Override
+    public Expression visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+        // execution scopes anywhere else are never executed, nothing is known
+        // inside them and they don't change the temps
+        final Map<String, Expression> before = constants;
+        constants = new CaseInsensitiveStringHashMap<>();
+        final Expression result = executed(expression);
+        constants = before;
+        return result;
+    }
+
+    /**
+     * Propagates the constant temps through an execution scope that is
+     * executed here, its statements run sequentially.
+     */
+    private Expression executed(final ExecutionScopeExpression expression) {
+        return new ExecutionScopeExpression(process(expression.expressions()));
+    }
+
+    @Override
+    public Expression visit(final Expression expression, final Context ctx) {
+        return expression;
+    }
+
+    /**
+     * Evaluates the given expression if it became constant.
+     */
+    private Expression fold(final Expression expression) {
+        return inliner.fold(expression);
+    }
+
+    private void forgetAssigned(final Expression expression) {
+        expression.visit(new ExpressionVisitor<Void, Context>() {
+            @Override
+            public Void visitBinary(final BinaryExpression expression, final Context ctx) {
+                if (expression.op() == BinaryExpression.Op.ASSIGN) {
+                    final String local = tempName(expression.left());
+                    if (local != null) {
+                        constants.remove(local);
+                    }
+                }
+                expression.left().visit(this);
+                expression.right().visit(this);
+                return null;
+            }
+
+            @Override
+            public Void visitCall(final CallExpression expression, final Context ctx) {
+                final List<Expression> arguments = expression.arguments();
+                if (ExpressionInliner.isBuiltIn(expression) && !arguments.isEmpty()
+                        && ((IdentifierExpression) expression.function()).name().equals("for_each")) {
+                    final String local = tempName(arguments.get(0));
+                    if (local != null) {
+                        constants.remove(local);
+                    }
+                }
+                for (final Expression argument : arguments) {
+                    argument.visit(this);
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+                for (final Expression statement : expression.expressions()) {
+                    statement.visit(this);
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+                expression.condition().visit(this);
+                expression.trueExpression().visit(this);
+                expression.falseExpression().visit(this);
+                return null;
+            }
+
+            @Override
+            public Void visitUnary(final UnaryExpression expression, final Context ctx) {
+                expression.expression().visit(this);
+                return null;
+            }
+
+            @Override
+            public Void visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+                expression.array().visit(this);
+                expression.index().visit(this);
+                return null;
+            }
+
+            @Override
+            public Void visit(final Expression expression, final Context ctx) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Keeps the temps that hold the same literal in both maps.
+     */
+    private static Map<String, Expression> merge(final Map<String, Expression> a, final Map<String, Expression> b) {
+        final Map<String, Expression> merged = new CaseInsensitiveStringHashMap<>();
+        for (final Map.Entry<String, Expression> entry : a.entrySet()) {
+            if (entry.getValue().equals(b.get(entry.getKey()))) {
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    static @Nullable String tempName(final Expression expression) {
+        if (expression instanceof AccessExpression access
+                && access.object() instanceof IdentifierExpression identifier
+                && (identifier.name().equals("temp") || identifier.name().equals("t"))) {
+            return access.property();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Optimization pass that removes the code that can never be executed
+ * or whose execution has no observable effect:
+ *
+ * <ul>
+ *     <li>statements after a {@code return}, or after a {@code break} or
+ *     {@code continue} inside a loop,</li>
+ *     <li>branches of conditionals whose condition is a literal,</li>
+ *     <li>assignments to {@code temp} locals that are never read, keeping
+ *     their value if it has side effects,</li>
+ *     <li>execution scopes used as statements, which are never executed,</li>
+ *     <li>and pure statements whose value is discarded.</li>
+ * </ul>
+ *
+ * <p>The value of the last top-level statement is never removed, since it
+ * is the result of the script.</p>
+ */
+final class DeadCodeEliminator implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
+    private final Scope scope;
+    private Map<String, Boolean> reads = new CaseInsensitiveStringHashMap<>();
+    private int loopDepth;
+
+    DeadCodeEliminator(final Scope scope) {
+        this.scope = requireNonNull(scope, "scope");
+    }
+
+    /**
+     * Removes the dead code from the given statements.
+     *
+     * @param statements The statements
+     * @return The resulting statements
+     */
+    List<Expression> process(final List<Expression> statements) {
+        List<Expression> previous;
+        List<Expression> result = statements;
+        do {
+            // removing a temp assignment may remove the last read of another temp
+            previous = result;
+            reads = new CaseInsensitiveStringHashMap<>();
+            final ReadCollector collector = new ReadCollector();
+            for (final Expression statement : previous) {
+                statement.visit(collector);
+            }
+            result = statements(previous, true);
+        } while (!result.equals(previous));
+        return result;
+    }
+
+    private List<Expression> statements(final List<Expression> statements, final boolean valued) {
+        final List<Expression> result = new ArrayList<>(statements.size());
+        for (int i = 0; i < statements.size(); i++) {
+            Expression statement = statements.get(i).visit(this);
+            if (!valued || i < statements.size() - 1) {
+                statement = discard(statement);
+                if (statement == null) {
+                    continue;
+                }
+                if (statement instanceof ExecutionScopeExpression executed) {
+                    for (final Expression executedStatement : executed.expressions()) {
+                        result.add(executedStatement);
+                        if (terminates(executedStatement)) {
+                            return result;
+                        }
+                    }
+                    continue;
+                }
+            }
+            result.add(statement);
+            if (terminates(statement)) {
+                // the following statements are unreachable
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Simplifies the given statement, knowing that its value is not used.
+     *
+     * @return The statement to keep, or null if it can be removed
+     */
+    private @Nullable Expression discard(final Expression statement) {
+        if (statement instanceof BinaryExpression binary) {
+            if (binary.op() == BinaryExpression.Op.ASSIGN) {
+                final String local = ConstantPropagator.tempName(binary.left());
+                if (local != null && !reads.containsKey(local)) {
+                    // the local is never read, only its value may have side effects
+                    return discard(binary.right());
+                }
+            } else if (binary.op() == BinaryExpression.Op.CONDITIONAL
+                    && binary.left() instanceof DoubleExpression condition
+                    && condition.value() != 0D
+                    && binary.right() instanceof ExecutionScopeExpression executionScope) {
+                // always executed, its statements are executed in place
+                return executionScope;
+            }
+        } else if (statement instanceof ExecutionScopeExpression) {
+            // execution scopes as statements are never executed
+            return null;
+        }
+        return IsPureExpression.test(statement, scope) ? null : statement;
+    }
+
+    private boolean terminates(final Expression statement) {
+        if (statement instanceof UnaryExpression unary) {
+            return unary.op() == UnaryExpression.Op.RETURN;
+        }
+        // outside loops, break and continue do nothing
+        return statement instanceof StatementExpression && loopDepth > 0;
+    }
+
+    @Override
+    public Expression visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+        return new ArrayAccessExpression(expression.array().visit(this), expression.index().visit(this));
+    }
+
+    @Override
+    public Expression visitAccess(final AccessExpression expression, final Context ctx) {
+        return new AccessExpression(expression.object().visit(this), expression.property());
+    }
+
+    @Override
+    public Expression visitBinary(final BinaryExpression expression, final Context ctx) {
+        final BinaryExpression.Op op = expression.op();
+        if (op == BinaryExpression.Op.ASSIGN) {
+            return new BinaryExpression(op, expression.left(), expression.right().visit(this));
+        }
+        final Expression left = expression.left().visit(this);
+        if (op == BinaryExpression.Op.CONDITIONAL && left instanceof DoubleExpression condition && condition.value() == 0D) {
+            // never executed
+            return new DoubleExpression(0D);
+        }
+        return new BinaryExpression(op, left, expression.right().visit(this));
+    }
+
+    @Override
+    public Expression visitUnary(final UnaryExpression expression, final Context ctx) {
+        return new UnaryExpression(expression.op(), expression.expression().visit(this));
+    }
+
+    @Override
+    public Expression visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+        final Expression condition = expression.condition().visit(this);
+        if (condition instanceof DoubleExpression literal) {
+            // only one branch is ever executed
+            return (literal.value() != 0D ? expression.trueExpression() : expression.falseExpression()).visit(this);
+        }
+        return new TernaryConditionalExpression(
+                condition,
+                expression.trueExpression().visit(this),
+                expression.falseExpression().visit(this)
+        );
+    }
+
+    @Override
+    public Expression visitCall(final CallExpression expression, final Context ctx) {
+        final int outerLoopDepth = loopDepth;
+        // break and continue only refer to the loops we know
+        loopDepth = ExpressionInliner.isBuiltIn(expression) ? loopDepth + 1 : 0;
+        try {
+            final List<Expression> arguments = new ArrayList<>(expression.arguments().size());
+            for (final Expression argument : expression.arguments()) {
+                arguments.add(argument.visit(this));
+            }
+            return new CallExpression(expression.function(), arguments);
+        } finally {
+            loopDepth = outerLoopDepth;
+        }
+    }
+
+    @Override
+    public Expression visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+        // the values of the statements in execution scopes are never used
+        return new ExecutionScopeExpression(statements(expression.expressions(), false));
+    }
+
+    @Override
+    public Expression visit(final Expression expression, final Context ctx) {
+        return expression;
+    }
+
+    /**
+     * Collects the names of the temp locals that are read.
+     */
+    private final class ReadCollector implements ExpressionVisitor<Void, Context> {
+        @Override
+        public @Nullable Void visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            expression.array().visit(this);
+            expression.index().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitAccess(final AccessExpression expression, final Context ctx) {
+            final String local = ConstantPropagator.tempName(expression);
+            if (local != null) {
+                reads.put(local, true);
+            }
+            expression.object().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitBinary(final BinaryExpression expression, final Context ctx) {
+            if (expression.op() != BinaryExpression.Op.ASSIGN || ConstantPropagator.tempName(expression.left()) == null) {
+                expression.left().visit(this);
+            }
+            expression.right().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitUnary(final UnaryExpression expression, final Context ctx) {
+            expression.expression().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            expression.condition().visit(this);
+            expression.trueExpression().visit(this);
+            expression.falseExpression().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitCall(final CallExpression expression, final Context ctx) {
+            final List<Expression> arguments = expression.arguments();
+            for (int i = 0; i < arguments.size(); i++) {
+                final Expression argument = arguments.get(i);
+                if (i == 0 && ExpressionInliner.isBuiltIn(expression)
+                        && ((IdentifierExpression) expression.function()).name().equals("for_each")
+                        && ConstantPropagator.tempName(argument) != null) {
+                    // the loop variable is assigned, not read
+                    continue;
+                }
+                argument.visit(this);
+            }
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            for (final Expression statement : expression.expressions()) {
+                statement.visit(this);
+            }
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visit(final Expression expression, final Context ctx) {
+            return null;
+        }
+    }
+}
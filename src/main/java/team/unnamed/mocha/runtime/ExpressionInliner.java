@@ -24,9 +24,23 @@
 package team.unnamed.mocha.runtime;
 
 import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.StringValue;
+import team.unnamed.mocha.runtime.value.Value;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Optimization pass that evaluates every constant subtree of an expression
+ * in compile-time, e.g. {@code q.anim_time * (math.pi / 180)} becomes
+ * {@code q.anim_time * 0.017453292519943295}.
+ *
+ * <p>Constants in {@code +} and {@code *} chains are also grouped and folded
+ * together, so {@code 2 * v.x * 3} becomes {@code v.x * 6}.</p>
+ */
 final class ExpressionInliner implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
     private final ExpressionInterpreter<?> interpreter;
     private final Scope scope;
@@ -36,42 +50,202 @@ final class ExpressionInliner implements ExpressionVisitor<Expression, Expressio
         this.scope = requireNonNull(scope, "scope");
     }
 
+    @Override
+    public Expression visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+        return fold(new ArrayAccessExpression(expression.array().visit(this), expression.index().visit(this)));
+    }
+
+    @Override
+    public Expression visitAccess(final AccessExpression expression, final Context ctx) {
+        return fold(new AccessExpression(expression.object().visit(this), expression.property()));
+    }
+
     @Override
     public Expression visitBinary(final BinaryExpression expression, final Context ctx) {
-        if (IsConstantExpression.test(expression, scope)) {
-            // can be evaluated in compile-time
-            return new DoubleExpression(expression.visit(interpreter).getAsNumber());
+        final BinaryExpression.Op op = expression.op();
+        if (op == BinaryExpression.Op.ASSIGN) {
+            // the left side is a reference, not a value
+            return new BinaryExpression(op, expression.left(), expression.right().visit(this));
         }
-        return expression;
+
+        final Expression folded = fold(new BinaryExpression(op, expression.left().visit(this), expression.right().visit(this)));
+        if (folded instanceof BinaryExpression binary && (op == BinaryExpression.Op.ADD || op == BinaryExpression.Op.MUL)) {
+            return reassociate(binary);
+        }
+        return folded;
     }
 
     @Override
     public Expression visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
-        final Expression conditionExpr = expression.condition();
-        final Expression trueExpr = expression.trueExpression();
-        final Expression falseExpr = expression.falseExpression();
+        final Expression conditionExpr = expression.condition().visit(this);
 
-        if (IsConstantExpression.test(conditionExpr, scope)) {
+        if (isLiteral(conditionExpr)) {
             // condition can be evaluated in compile-time
             final boolean condition = conditionExpr.visit(interpreter).getAsBoolean();
-            final Expression resultExpr = condition ? trueExpr : falseExpr;
+            final Expression resultExpr = condition ? expression.trueExpression() : expression.falseExpression();
             return resultExpr.visit(this);
         }
 
-        return expression;
+        return new TernaryConditionalExpression(
+                conditionExpr,
+                expression.trueExpression().visit(this),
+                expression.falseExpression().visit(this)
+        );
+    }
+
+    @Override
+    public Expression visitUnary(final UnaryExpression expression, final Context ctx) {
+        final UnaryExpression result = new UnaryExpression(expression.op(), expression.expression().visit(this));
+        return expression.op() == UnaryExpression.Op.RETURN ? result : fold(result);
     }
 
     @Override
     public Expression visitCall(final CallExpression expression, final Context ctx) {
-        if (IsConstantExpression.test(expression, scope)) {
-            // can be evaluated in compile-time
-            return new DoubleExpression(expression.visit(interpreter).getAsNumber());
+        final List<Expression> arguments = new ArrayList<>(expression.arguments().size());
+        for (final Expression argument : expression.arguments()) {
+            arguments.add(argument.visit(this));
         }
-        return expression;
+        final CallExpression call = new CallExpression(expression.function(), arguments);
+        return isBuiltIn(call) ? call : fold(call);
+    }
+
+    @Override
+    public Expression visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+        final List<Expression> expressions = new ArrayList<>(expression.expressions().size());
+        for (final Expression statement : expression.expressions()) {
+            expressions.add(statement.visit(this));
+        }
+        return new ExecutionScopeExpression(expressions);
     }
 
     @Override
     public Expression visit(final Expression expression, final Context ctx) {
         return expression;
     }
+
+    /**
+     * Evaluates the given expression if it is constant. Its operands
+     * must be already folded, so only expressions whose operands are values
+     * are considered, never statements or execution scopes.
+     *
+     * @param expression The expression
+     * @return The literal the expression evaluates to, or the same expression
+     */
+    Expression fold(final Expression expression) {
+        final boolean[] operands = {true};
+        expression.visit(new ExpressionVisitor<Void, Context>() {
+            @Override
+            public Void visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+                check(expression.array());
+                check(expression.index());
+                return null;
+            }
+
+            @Override
+            public Void visitAccess(final AccessExpression expression, final Context ctx) {
+                check(expression.object());
+                return null;
+            }
+
+            @Override
+            public Void visitBinary(final BinaryExpression expression, final Context ctx) {
+                check(expression.left());
+                check(expression.right());
+                return null;
+            }
+
+            @Override
+            public Void visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+                check(expression.condition());
+                check(expression.trueExpression());
+                check(expression.falseExpression());
+                return null;
+            }
+
+            @Override
+            public Void visitUnary(final UnaryExpression expression, final Context ctx) {
+                check(expression.expression());
+                return null;
+            }
+
+            @Override
+            public Void visitCall(final CallExpression expression, final Context ctx) {
+                expression.arguments().forEach(this::check);
+                return null;
+            }
+
+            @Override
+            public Void visit(final Expression expression, final Context ctx) {
+                return null;
+            }
+
+            private void check(final Expression operand) {
+                operands[0] &= isLiteral(operand)
+                        || operand instanceof AccessExpression
+                        || operand instanceof IdentifierExpression;
+            }
+        });
+
+        if (!operands[0] || !IsConstantExpression.test(expression, scope)) {
+            return expression;
+        }
+        final Value value = expression.visit(interpreter);
+        if (value instanceof DoubleValue) {
+            return new DoubleExpression(value.getAsNumber());
+        } else if (value instanceof StringValue) {
+            return new StringExpression(value.getAsString());
+        }
+        return expression;
+    }
+
+    /**
+     * Groups the numeric literals of a {@code +} or {@code *} chain into a
+     * single literal at its end, keeping the order of the other operands,
+     * e.g. {@code 1 + v.x + 2 + v.y} becomes {@code v.x + v.y + 3}.
+     *
+     * <p>Since chains are visited from the inside out, the literal is always
+     * moved to the end, so that it is found when grouping the outer chain.</p>
+     */
+    private Expression reassociate(final BinaryExpression expression) {
+        final BinaryExpression.Op op = expression.op();
+        final List<Expression> operands = new ArrayList<>();
+        final List<Expression> constants = new ArrayList<>();
+        flatten(expression, op, operands, constants);
+
+        if (constants.isEmpty() || operands.isEmpty()
+                || (constants.size() == 1 && expression.right() == constants.get(0))) {
+            // nothing to group
+            return expression;
+        }
+
+        Expression constant = constants.get(0);
+        for (int i = 1; i < constants.size(); i++) {
+            constant = fold(new BinaryExpression(op, constant, constants.get(i)));
+        }
+        Expression result = operands.get(0);
+        for (int i = 1; i < operands.size(); i++) {
+            result = new BinaryExpression(op, result, operands.get(i));
+        }
+        return new BinaryExpression(op, result, constant);
+    }
+
+    private static void flatten(final Expression expression, final BinaryExpression.Op op, final List<Expression> operands, final List<Expression> constants) {
+        if (expression instanceof BinaryExpression binary && binary.op() == op) {
+            flatten(binary.left(), op, operands, constants);
+            flatten(binary.right(), op, operands, constants);
+        } else if (expression instanceof DoubleExpression) {
+            constants.add(expression);
+        } else {
+            operands.add(expression);
+        }
+    }
+
+    static boolean isLiteral(final Expression expression) {
+        return expression instanceof DoubleExpression || expression instanceof StringExpression;
+    }
+
+    static boolean isBuiltIn(final CallExpression call) {
+        return call.function() instanceof IdentifierExpression identifier
+                && (identifier.name().equals("loop") || identifier.name().equals("for_each"));
+    }
 }
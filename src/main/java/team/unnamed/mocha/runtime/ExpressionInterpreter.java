@@ -193,12 +193,11 @@ public final class ExpressionInterpreter<T extends @Nullable Object> implements
     public Value visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
         final Value array = expression.array().visit(this);
         final Value index = expression.index().visit(this);
-        if (!(array instanceof ArrayValue)) {
+        if (!(array instanceof ArrayValue arrayValue)) {
             return Value.nil();
         } else {
-            final Value[] values = ((ArrayValue) array).values();
-            final int validIndex = Math.max(0, (int) index.getAsNumber()) % values.length;
-            return values[validIndex];
+            final int validIndex = Math.max(0, (int) index.getAsNumber()) % arrayValue.length();
+            return arrayValue.get(validIndex);
         }
     }
 
@@ -248,6 +247,8 @@ public final class ExpressionInterpreter<T extends @Nullable Object> implements
                     callable.evaluate(interpreter);
 
                     if (interpreter.returnValue != null) {
+                        // returning from a loop returns from the whole script
+                        this.returnValue = interpreter.returnValue;
                         return interpreter.returnValue;
                     } else if (interpreter.flag == StatementExpression.Op.BREAK) {
                         break;
@@ -272,9 +273,12 @@ public final class ExpressionInterpreter<T extends @Nullable Object> implements
                 final String propertyName = variableAccess.property();
 
                 final Value array = args.next().eval();
-                final Iterable<Value> arrayIterable;
+                final Iterable<?> arrayIterable;
                 if (array instanceof ArrayValue) {
                     arrayIterable = (ArrayValue) array;
+                } else if (array instanceof JavaValue(Object value) && value instanceof Iterable<?> iterable) {
+                    // java collections exposed through bindings
+                    arrayIterable = iterable;
                 } else {
                     // second argument must be an array or iterable
                     return DoubleValue.ZERO;
@@ -286,17 +290,19 @@ public final class ExpressionInterpreter<T extends @Nullable Object> implements
                     return DoubleValue.ZERO;
                 }
 
-                for (final Value val : arrayIterable) {
+                for (final Object val : arrayIterable) {
                     final ExpressionInterpreter<T> interpreter = createChild();
 
                     final Value evaluatedObjectValue = eval(objectExpr);
                     if (evaluatedObjectValue instanceof MutableObjectBinding objectBinding) {
-                        objectBinding.set(propertyName, val);
+                        objectBinding.set(propertyName, JavaTypes.wrap(val));
                     }
 
                     callable.evaluate(interpreter);
 
                     if (interpreter.returnValue != null) {
+                        // returning from a loop returns from the whole script
+                        this.returnValue = interpreter.returnValue;
                         return interpreter.returnValue;
                     } else if (interpreter.flag == StatementExpression.Op.BREAK) {
                         break;
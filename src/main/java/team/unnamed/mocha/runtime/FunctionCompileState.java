@@ -26,8 +26,15 @@ package team.unnamed.mocha.runtime;
 import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.bytecode.Bytecode;
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.Expression;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
 import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
+import team.unnamed.mocha.util.JavassistUtil;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static java.util.Objects.requireNonNull;
@@ -40,8 +47,15 @@ final class FunctionCompileState {
     private final Bytecode bytecode;
 
     private final Map<String, CtClass> parametersCtTypes;
+    private final CtClass returnType;
+    private final CtClass resultType;
+    private final boolean chunk;
+    private final @Nullable String entityParameterName;
 
-    private final Map<String, Object> requirements = new CaseInsensitiveStringHashMap<>();
+    private final Map<String, Requirement> requirements;
+    private final Map<MutableObjectBinding, Map<String, Integer>> slots;
+    private final List<Outlined> outlined;
+    private final boolean staticRequirements;
     private final Scope scope;
 
     private int maxLocals = 0;
@@ -52,6 +66,29 @@ final class FunctionCompileState {
             CtClass ctClass,
             Bytecode bytecode,
             Map<String, CtClass> parametersCtTypes,
+            CtClass returnType,
+            @Nullable String entityParameterName,
+            boolean staticRequirements,
+            Scope scope
+    ) {
+        this(compiler, classPool, ctClass, bytecode, parametersCtTypes, returnType, returnType, false, entityParameterName,
+                new CaseInsensitiveStringHashMap<>(), new IdentityHashMap<>(), new ArrayList<>(), staticRequirements, scope);
+    }
+
+    private FunctionCompileState(
+            MolangCompiler compiler,
+            ClassPool classPool,
+            CtClass ctClass,
+            Bytecode bytecode,
+            Map<String, CtClass> parametersCtTypes,
+            CtClass returnType,
+            CtClass resultType,
+            boolean chunk,
+            @Nullable String entityParameterName,
+            Map<String, Requirement> requirements,
+            Map<MutableObjectBinding, Map<String, Integer>> slots,
+            List<Outlined> outlined,
+            boolean staticRequirements,
             Scope scope
     ) {
         this.compiler = requireNonNull(compiler, "compiler");
@@ -61,10 +98,56 @@ final class FunctionCompileState {
         this.bytecode = requireNonNull(bytecode, "bytecode");
 
         this.parametersCtTypes = requireNonNull(parametersCtTypes, "parametersCtTypes");
+        this.returnType = requireNonNull(returnType, "returnType");
+        this.resultType = requireNonNull(resultType, "resultType");
+        this.chunk = chunk;
+        this.entityParameterName = entityParameterName;
+        this.requirements = requirements;
+        this.slots = slots;
+        this.outlined = outlined;
+        this.staticRequirements = staticRequirements;
 
         this.scope = requireNonNull(scope, "scope");
     }
 
+    /**
+     * Creates the state for compiling another method of the same
+     * function, with the same parameters and requirements.
+     *
+     * @param bytecode The method bytecode
+     * @param returnType The method return type
+     * @return The created state
+     */
+    FunctionCompileState forMethod(final Bytecode bytecode, final CtClass returnType) {
+        return new FunctionCompileState(compiler, classPool, ctClass, bytecode, parametersCtTypes, returnType,
+                resultType, false, entityParameterName, requirements, slots, outlined, staticRequirements, scope);
+    }
+
+    /**
+     * Creates the state for compiling a chunk of a split function that
+     * continues in the next one, see {@link MethodSplitter}.
+     *
+     * @param bytecode The method bytecode
+     * @return The created state
+     */
+    FunctionCompileState forChunk(final Bytecode bytecode) {
+        return new FunctionCompileState(compiler, classPool, ctClass, bytecode, parametersCtTypes,
+                JavassistUtil.getClassUnchecked(classPool, Object.class),
+                resultType, true, entityParameterName, requirements, slots, outlined, staticRequirements, scope);
+    }
+
+    /**
+     * Creates a copy of this state for compiling code that may be
+     * discarded, the requirements it adds are not kept.
+     *
+     * @param bytecode The bytecode to compile to
+     * @return The created state
+     */
+    FunctionCompileState isolated(final Bytecode bytecode) {
+        return new FunctionCompileState(compiler, classPool, ctClass, bytecode, parametersCtTypes, returnType,
+                resultType, chunk, entityParameterName, new CaseInsensitiveStringHashMap<>(requirements), slots, new ArrayList<>(), staticRequirements, scope);
+    }
+
     public MolangCompiler compiler() {
         return compiler;
     }
@@ -85,10 +168,64 @@ final class FunctionCompileState {
         return parametersCtTypes;
     }
 
-    public Map<String, Object> requirements() {
+    public CtClass returnType() {
+        return returnType;
+    }
+
+    /**
+     * Returns the type of the values returned by the function, which
+     * may differ from the {@link #returnType()} of a {@link #chunk()}.
+     */
+    public CtClass resultType() {
+        return resultType;
+    }
+
+    /**
+     * Determines whether this is a chunk of a split function that continues
+     * in the next one, which returns the frame to continue, or the function
+     * result, boxed, see {@link MethodSplitter}.
+     */
+    public boolean chunk() {
+        return chunk;
+    }
+
+    /**
+     * Returns the name of the parameter annotated with {@link team.unnamed.mocha.runtime.binding.Entity},
+     * which gives the entity per invocation, or null if the engine entity is used.
+     */
+    public @Nullable String entityParameterName() {
+        return entityParameterName;
+    }
+
+    public Map<String, Requirement> requirements() {
         return requirements;
     }
 
+    /**
+     * Returns the binding property slots used by the compiled code,
+     * which must be the same when loading it from a persistent cache.
+     */
+    public Map<MutableObjectBinding, Map<String, Integer>> slots() {
+        return slots;
+    }
+
+    /**
+     * Returns the subtrees outlined by the compiled code, which are
+     * compiled into their own methods, see {@link MethodSplitter#outline}.
+     */
+    public List<Outlined> outlined() {
+        return outlined;
+    }
+
+    /**
+     * Determines whether requirements are kept in static final fields,
+     * initialized from the class data, instead of instance fields
+     * initialized by the constructor.
+     */
+    public boolean staticRequirements() {
+        return staticRequirements;
+    }
+
     public Scope scope() {
         return scope;
     }
@@ -100,4 +237,36 @@ final class FunctionCompileState {
     public void maxLocals(int maxLocals) {
         this.maxLocals = maxLocals;
     }
+
+    /**
+     * An object required by the compiled function, kept in a field
+     * of the given type.
+     *
+     * @param value The required object
+     * @param type The field type
+     * @param source How to get the object again from the scope, see
+     *               {@link PersistentCompileCache}, or null if it can't be
+     */
+    record Requirement(Object value, Class<?> type, @Nullable String source) {
+    }
+
+    /**
+     * A subtree compiled into its own method, which takes the function
+     * parameters followed by the temps it reads.
+     *
+     * @param name The method name
+     * @param expression The subtree
+     * @param temps The temps it reads
+     * @param tempTypes The types of the temps
+     * @param returnType The method return type, void if the value is discarded
+     */
+    record Outlined(String name, Expression expression, List<String> temps, List<CtClass> tempTypes, CtClass returnType) {
+    }
+
+    public int allocateLocal(final CtClass type) {
+        final int index = maxLocals;
+        // doubles and longs take 2 places
+        maxLocals += (type == CtClass.doubleType || type == CtClass.longType) ? 2 : 1;
+        return index;
+    }
 }
@@ -0,0 +1,302 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import javassist.CtClass;
+import javassist.bytecode.Bytecode;
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Pass that replaces the subtrees the compiler doesn't support by calls to
+ * the interpreter (see {@link CompiledInterpreterCall}), so that the rest of
+ * the function is still compiled.
+ *
+ * <p>Only the smallest unsupported subtrees are replaced. They must not use
+ * temps, function parameters, {@code return}, or {@code break} and
+ * {@code continue} outside a loop of the same subtree, since the interpreter
+ * can't access the compiled function state.</p>
+ */
+final class InterpreterFallback {
+    /**
+     * The function of the calls that mark interpreted subtrees, compared by
+     * identity, the name can't be written in Molang code nor bound.
+     */
+    private static final IdentifierExpression INTERPRETED = new IdentifierExpression("<interpreted>");
+
+    private final FunctionCompileState compileState;
+    private final Map<String, CtClass> parametersCtTypes;
+
+    InterpreterFallback(final FunctionCompileState compileState) {
+        this.compileState = requireNonNull(compileState, "compileState");
+        this.parametersCtTypes = compileState.parametersCtTypes();
+    }
+
+    /**
+     * Replaces the unsupported subtrees of the given statements.
+     *
+     * @param statements The statements
+     * @return The resulting statements
+     */
+    List<Expression> process(final List<Expression> statements) {
+        final List<Expression> result = new ArrayList<>(statements.size());
+        for (final Expression statement : statements) {
+            result.add(replace(statement));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the interpreted expression if the given one marks an
+     * interpreted subtree.
+     *
+     * @param expression The expression
+     * @return The interpreted expression, or null if it isn't a mark
+     */
+    static @Nullable Expression interpreted(final Expression expression) {
+        return expression instanceof CallExpression call && call.function() == INTERPRETED
+                ? call.arguments().get(0)
+                : null;
+    }
+
+    private Expression replace(final Expression expression) {
+        if (compiles(expression)) {
+            return expression;
+        }
+
+        final Expression replaced = expression.visit(new ChildrenReplacer());
+        if (replaced != expression && compiles(replaced)) {
+            return replaced;
+        }
+
+        return expression.visit(new IsInterpretable())
+                ? new CallExpression(INTERPRETED, List.of(expression))
+                : replaced;
+    }
+
+    /**
+     * Compiles the given expression alone, discarding the result.
+     */
+    private boolean compiles(final Expression expression) {
+        final FunctionCompileState trialCompileState = compileState.isolated(new Bytecode(compileState.type().getClassFile().getConstPool()));
+        trialCompileState.maxLocals(compileState.maxLocals());
+        try {
+            final TypeInference types = new TypeInference(compileState.scope(), parametersCtTypes).infer(List.of(expression));
+            final MolangCompilingVisitor compiler = new MolangCompilingVisitor(trialCompileState, types);
+            final CompileVisitResult result = expression.visit(compiler, new MolangCompilingVisitor.CompilingContext(null));
+            if (result == null) {
+                return false;
+            }
+
+            final Bytecode bytecode = trialCompileState.bytecode();
+            final CtClass pushedType = result.lastPushedType();
+            if (!result.returned() && pushedType != null && pushedType != CtClass.voidType) {
+                bytecode.addOpcode(pushedType == CtClass.doubleType || pushedType == CtClass.longType ? Bytecode.POP2 : Bytecode.POP);
+            }
+            bytecode.addReturn(null);
+            MolangCompiler.checkStack(bytecode);
+            return true;
+        } catch (final UnsupportedOperationException | IllegalStateException | IllegalArgumentException | TypeCastException e) {
+            // unsupported, like in MolangCompiler
+            return false;
+        }
+    }
+
+    /**
+     * Copies expressions replacing their unsupported children.
+     */
+    private final class ChildrenReplacer implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
+        @Override
+        public Expression visitAccess(final AccessExpression expression, final Context ctx) {
+            final Expression object = replace(expression.object());
+            return object == expression.object() ? expression : new AccessExpression(object, expression.property());
+        }
+
+        @Override
+        public Expression visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            final Expression array = replace(expression.array());
+            final Expression index = replace(expression.index());
+            return array == expression.array() && index == expression.index()
+                    ? expression
+                    : new ArrayAccessExpression(array, index);
+        }
+
+        @Override
+        public Expression visitBinary(final BinaryExpression expression, final Context ctx) {
+            // assigned properties are written, not read
+            final Expression left = expression.op() == BinaryExpression.Op.ASSIGN ? expression.left() : replace(expression.left());
+            final Expression right = replace(expression.right());
+            return left == expression.left() && right == expression.right()
+                    ? expression
+                    : new BinaryExpression(expression.op(), left, right);
+        }
+
+        @Override
+        public Expression visitUnary(final UnaryExpression expression, final Context ctx) {
+            final Expression operand = replace(expression.expression());
+            return operand == expression.expression() ? expression : new UnaryExpression(expression.op(), operand);
+        }
+
+        @Override
+        public Expression visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            final Expression condition = replace(expression.condition());
+            final Expression trueExpression = replace(expression.trueExpression());
+            final Expression falseExpression = replace(expression.falseExpression());
+            return condition == expression.condition() && trueExpression == expression.trueExpression()
+                    && falseExpression == expression.falseExpression()
+                    ? expression
+                    : new TernaryConditionalExpression(condition, trueExpression, falseExpression);
+        }
+
+        @Override
+        public Expression visitCall(final CallExpression expression, final Context ctx) {
+            final List<Expression> arguments = expression.arguments();
+            final List<Expression> replaced = new ArrayList<>(arguments.size());
+            boolean changed = false;
+            for (int i = 0; i < arguments.size(); i++) {
+                final Expression argument = arguments.get(i);
+                // the for_each variable is assigned, not read
+                final Expression replacedArgument = i == 0 && isForEach(expression) ? argument : replace(argument);
+                changed |= replacedArgument != argument;
+                replaced.add(replacedArgument);
+            }
+            return changed ? new CallExpression(expression.function(), replaced) : expression;
+        }
+
+        @Override
+        public Expression visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            final List<Expression> statements = expression.expressions();
+            final List<Expression> replaced = new ArrayList<>(statements.size());
+            boolean changed = false;
+            for (final Expression statement : statements) {
+                final Expression replacedStatement = replace(statement);
+                changed |= replacedStatement != statement;
+                replaced.add(replacedStatement);
+            }
+            return changed ? new ExecutionScopeExpression(replaced) : expression;
+        }
+
+        @Override
+        public Expression visit(final Expression expression, final Context ctx) {
+            // no children
+            return expression;
+        }
+    }
+
+    /**
+     * Determines whether an expression can be interpreted independently
+     * of the compiled function state.
+     */
+    private final class IsInterpretable implements ExpressionVisitor<Boolean, ExpressionVisitor.Context> {
+        private int loopDepth;
+
+        @Override
+        public Boolean visitIdentifier(final IdentifierExpression expression, final Context ctx) {
+            return !parametersCtTypes.containsKey(expression.name());
+        }
+
+        @Override
+        public Boolean visitAccess(final AccessExpression expression, final Context ctx) {
+            return ConstantPropagator.tempName(expression) == null && expression.object().visit(this);
+        }
+
+        @Override
+        public Boolean visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            return expression.array().visit(this) && expression.index().visit(this);
+        }
+
+        @Override
+        public Boolean visitBinary(final BinaryExpression expression, final Context ctx) {
+            return expression.left().visit(this) && expression.right().visit(this);
+        }
+
+        @Override
+        public Boolean visitUnary(final UnaryExpression expression, final Context ctx) {
+            return expression.op() != UnaryExpression.Op.RETURN && expression.expression().visit(this);
+        }
+
+        @Override
+        public Boolean visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            return expression.condition().visit(this)
+                    && expression.trueExpression().visit(this)
+                    && expression.falseExpression().visit(this);
+        }
+
+        @Override
+        public Boolean visitCall(final CallExpression expression, final Context ctx) {
+            final boolean loop = ExpressionInliner.isBuiltIn(expression);
+            if (!expression.function().visit(this)) {
+                return false;
+            }
+            if (loop) {
+                loopDepth++;
+            }
+            try {
+                for (final Expression argument : expression.arguments()) {
+                    if (!argument.visit(this)) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                if (loop) {
+                    loopDepth--;
+                }
+            }
+        }
+
+        @Override
+        public Boolean visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            for (final Expression statement : expression.expressions()) {
+                if (!statement.visit(this)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Boolean visitStatement(final StatementExpression expression, final Context ctx) {
+            // break and continue must stay inside the interpreted loop
+            return loopDepth > 0;
+        }
+
+        @Override
+        public Boolean visit(final Expression expression, final Context ctx) {
+            // literals
+            return true;
+        }
+    }
+
+    private static boolean isForEach(final CallExpression expression) {
+        return ExpressionInliner.isBuiltIn(expression)
+                && ((IdentifierExpression) expression.function()).name().equals("for_each");
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.runtime.value.Function;
+import team.unnamed.mocha.runtime.value.ObjectValue;
+import team.unnamed.mocha.runtime.value.Value;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link ExpressionVisitor} that determines whether an expression has no
+ * side effects, i.e. it only reads values and calls {@link Function#pure() pure}
+ * functions, so it can be removed or evaluated more than once.
+ */
+final class IsPureExpression implements ExpressionVisitor<Boolean, ExpressionVisitor.Context> {
+    private final Scope scope;
+
+    private IsPureExpression(final Scope scope) {
+        this.scope = requireNonNull(scope, "scope");
+    }
+
+    static boolean test(final Expression expression, final Scope scope) {
+        return expression.visit(new IsPureExpression(scope));
+    }
+
+    /**
+     * Resolves the value of the given identifier or property access
+     * without evaluating anything else.
+     *
+     * @param expression The expression
+     * @param scope The scope to resolve identifiers from
+     * @return The resolved value, or null if it can't be resolved
+     */
+    static @Nullable Value resolve(final Expression expression, final Scope scope) {
+        if (expression instanceof IdentifierExpression identifier) {
+            return scope.get(identifier.name());
+        } else if (expression instanceof AccessExpression access
+                && resolve(access.object(), scope) instanceof ObjectValue object) {
+            return object.get(access.property());
+        }
+        return null;
+    }
+
+    @Override
+    public Boolean visitDouble(final DoubleExpression expression, final Context ctx) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitString(final StringExpression expression, final Context ctx) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitIdentifier(final IdentifierExpression expression, final Context ctx) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitAccess(final AccessExpression expression, final Context ctx) {
+        return expression.object().visit(this);
+    }
+
+    @Override
+    public Boolean visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+        return expression.array().visit(this) && expression.index().visit(this);
+    }
+
+    @Override
+    public Boolean visitBinary(final BinaryExpression expression, final Context ctx) {
+        // the arrow and the conditional may evaluate functions
+        return switch (expression.op()) {
+            case ASSIGN, ARROW, CONDITIONAL -> false;
+            default -> expression.left().visit(this) && expression.right().visit(this);
+        };
+    }
+
+    @Override
+    public Boolean visitUnary(final UnaryExpression expression, final Context ctx) {
+        return expression.op() != UnaryExpression.Op.RETURN && expression.expression().visit(this);
+    }
+
+    @Override
+    public Boolean visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+        return expression.condition().visit(this)
+                && expression.trueExpression().visit(this)
+                && expression.falseExpression().visit(this);
+    }
+
+    @Override
+    public Boolean visitCall(final CallExpression expression, final Context ctx) {
+        if (!(resolve(expression.function(), scope) instanceof Function<?> function) || !function.pure()) {
+            return false;
+        }
+        for (final Expression argument : expression.arguments()) {
+            if (!argument.visit(this)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean visit(final Expression expression, final Context ctx) {
+        // statements and execution scopes
+        return false;
+    }
+}
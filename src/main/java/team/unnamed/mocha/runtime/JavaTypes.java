@@ -25,8 +25,9 @@ package team.unnamed.mocha.runtime;
 
 import org.jetbrains.annotations.ApiStatus;
 import org.jspecify.annotations.Nullable;
-import team.unnamed.mocha.runtime.value.Value;
+import team.unnamed.mocha.runtime.value.*;
 
+import java.lang.reflect.Array;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -56,6 +57,50 @@ public final class JavaTypes {
         return NULL_VALUES.get(type);
     }
 
+    public static Value wrap(final @Nullable Object any) {
+        return switch (any) {
+            case Value value -> value;
+            case Number num -> DoubleValue.of(num.doubleValue());
+            case String str -> StringValue.of(str);
+            case Boolean bool -> bool ? DoubleValue.of(1D) : DoubleValue.ZERO;
+            case null, default -> {
+                if (any == null) {
+                    yield Value.nil();
+                }
+
+                if (!any.getClass().isArray()) {
+                    // small change here, use javaValue
+                    yield new JavaValue(any);
+                }
+
+                // array types
+                final int length = Array.getLength(any);
+                final Value[] values = new Value[length];
+                for (int i = 0; i < length; i++) {
+                    values[i] = wrap(Array.get(any, i));
+                }
+                yield ArrayValue.of(values);
+            }
+        };
+    }
+
+    /**
+     * Converts the given value to the object compiled code evaluates
+     * to, numbers are boxed as doubles and strings are Java strings.
+     *
+     * @param value The value
+     * @return The object
+     */
+    public static Object unwrap(final Value value) {
+        requireNonNull(value, "value");
+        return switch (value) {
+            case DoubleValue num -> num.doubleValue();
+            case StringValue str -> str.value();
+            case JavaValue java -> java.value();
+            default -> value;
+        };
+    }
+
     public static @Nullable Object convert(final Value value, final Class<?> type) {
         requireNonNull(value, "value");
         requireNonNull(type, "type");
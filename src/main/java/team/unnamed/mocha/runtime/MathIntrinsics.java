@@ -0,0 +1,168 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.runtime.binding.JavaFunction;
+import team.unnamed.mocha.runtime.standard.MochaMath;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Optimization pass that expands calls to the standard {@link MochaMath}
+ * functions into the arithmetic they perform, so that it can be folded and
+ * shared with the rest of the script, e.g. {@code math.lerp(v.a, v.b, 0.5)}
+ * becomes {@code v.a + 0.5 * (v.b - v.a)}.
+ *
+ * <p>Calls are only expanded if their arguments are pure, since they may be
+ * evaluated more than once. The functions that can't be written in Molang
+ * are compiled inline by {@link MolangCompilingVisitor} instead.</p>
+ */
+final class MathIntrinsics implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
+    static final Method CLAMP = method("clamp", 3);
+    static final Method COS = method("cos", 1);
+    static final Method HERMITE_BLEND = method("hermiteBlend", 1);
+    static final Method LERP = method("lerp", 3);
+    static final Method MIN_ANGLE = method("minAngle", 1);
+    static final Method MOD = method("mod", 2);
+    static final Method SIN = method("sin", 1);
+
+    /**
+     * The value of one degree in radians, same as the one
+     * used by {@link MochaMath}.
+     */
+    static final double RADIAN = Math.toRadians(1);
+
+    private final Scope scope;
+
+    MathIntrinsics(final Scope scope) {
+        this.scope = requireNonNull(scope, "scope");
+    }
+
+    private static Method method(final String name, final int arity) {
+        final Class<?>[] parameterTypes = new Class<?>[arity];
+        Arrays.fill(parameterTypes, double.class);
+        try {
+            return MochaMath.class.getDeclaredMethod(name, parameterTypes);
+        } catch (final NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Expands the math function calls in the given statements.
+     *
+     * @param statements The statements
+     * @return The resulting statements
+     */
+    List<Expression> process(final List<Expression> statements) {
+        final List<Expression> result = new ArrayList<>(statements.size());
+        for (final Expression statement : statements) {
+            result.add(statement.visit(this));
+        }
+        return result;
+    }
+
+    @Override
+    public Expression visitCall(final CallExpression expression, final Context ctx) {
+        final List<Expression> arguments = new ArrayList<>(expression.arguments().size());
+        boolean pure = true;
+        for (final Expression argument : expression.arguments()) {
+            final Expression visited = argument.visit(this);
+            pure &= IsPureExpression.test(visited, scope);
+            arguments.add(visited);
+        }
+
+        if (pure && IsPureExpression.resolve(expression.function(), scope) instanceof JavaFunction<?> function
+                && function.method() != null && function.method().getParameterCount() == arguments.size()) {
+            final Method method = function.method();
+            if (method.equals(LERP)) {
+                // start + lerp * (end - start)
+                final Expression start = arguments.get(0);
+                final Expression end = arguments.get(1);
+                final Expression lerp = arguments.get(2);
+                return new BinaryExpression(
+                        BinaryExpression.Op.ADD,
+                        start,
+                        new BinaryExpression(BinaryExpression.Op.MUL, lerp, new BinaryExpression(BinaryExpression.Op.SUB, end, start))
+                );
+            } else if (method.equals(HERMITE_BLEND)) {
+                // 3 * t^2 - 2 * t^3
+                final Expression t = arguments.get(0);
+                final Expression t2 = new BinaryExpression(BinaryExpression.Op.MUL, t, t);
+                final Expression t3 = new BinaryExpression(BinaryExpression.Op.MUL, t2, t);
+                return new BinaryExpression(
+                        BinaryExpression.Op.SUB,
+                        new BinaryExpression(BinaryExpression.Op.MUL, new DoubleExpression(3D), t2),
+                        new BinaryExpression(BinaryExpression.Op.MUL, new DoubleExpression(2D), t3)
+                );
+            }
+        }
+        return new CallExpression(expression.function(), arguments);
+    }
+
+    @Override
+    public Expression visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+        return new ArrayAccessExpression(expression.array().visit(this), expression.index().visit(this));
+    }
+
+    @Override
+    public Expression visitAccess(final AccessExpression expression, final Context ctx) {
+        return new AccessExpression(expression.object().visit(this), expression.property());
+    }
+
+    @Override
+    public Expression visitBinary(final BinaryExpression expression, final Context ctx) {
+        return new BinaryExpression(expression.op(), expression.left().visit(this), expression.right().visit(this));
+    }
+
+    @Override
+    public Expression visitUnary(final UnaryExpression expression, final Context ctx) {
+        return new UnaryExpression(expression.op(), expression.expression().visit(this));
+    }
+
+    @Override
+    public Expression visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+        return new TernaryConditionalExpression(
+                expression.condition().visit(this),
+                expression.trueExpression().visit(this),
+                expression.falseExpression().visit(this)
+        );
+    }
+
+    @Override
+    public Expression visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+        return new ExecutionScopeExpression(process(expression.expressions()));
+    }
+
+    @Override
+    public Expression visit(final Expression expression, final Context ctx) {
+        return expression;
+    }
+}
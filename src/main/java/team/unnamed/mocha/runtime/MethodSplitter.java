@@ -0,0 +1,612 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Splits the top-level statements of a function whose compiled method
+ * is too large to be JIT-compiled into chunks, each one is compiled into
+ * its own method.
+ *
+ * <p>Temps used by more than one chunk are passed between them through
+ * a {@code double[]} frame, created per invocation. Temps that don't hold
+ * numbers can't be kept in the frame, so a function is never split between
+ * two statements that use the same non-numeric temp.</p>
+ *
+ * <p>Every chunk but the last one returns the frame when the next chunk must
+ * run, or the result of the function, boxed, when one of its statements
+ * {@code return}s, so the remaining chunks are skipped.</p>
+ *
+ * <p>Statements too large to fit a chunk by themselves are split too, their
+ * subtrees are outlined into their own methods, see {@link #outline}.</p>
+ */
+final class MethodSplitter {
+    /**
+     * The maximum size in bytes of a method's bytecode for HotSpot
+     * to JIT-compile it, methods above it always run interpreted.
+     */
+    static final int HUGE_METHOD_LIMIT = 8000;
+
+    /**
+     * The preferred size of a chunk, leaves room for loading and
+     * storing the frame temps.
+     */
+    private static final int CHUNK_SIZE = HUGE_METHOD_LIMIT / 2;
+
+    /**
+     * The minimum size of an outlined subtree, in expressions,
+     * smaller ones aren't worth a call.
+     */
+    private static final int MIN_OUTLINED_SIZE = 8;
+
+    /**
+     * The function of the calls that mark outlined subtrees, compared by
+     * identity, the name can't be written in Molang code nor bound.
+     */
+    private static final IdentifierExpression OUTLINED = new IdentifierExpression("<outlined>");
+
+    private MethodSplitter() {
+    }
+
+    /**
+     * Splits the given statements into chunks.
+     *
+     * @param statements The statements
+     * @param statementEnds The bytecode position after each compiled statement
+     * @param types The inferred types of the statements
+     * @return The chunks, a single one if the statements can't be split
+     */
+    static List<Chunk> split(final List<Expression> statements, final int[] statementEnds, final TypeInference types) {
+        requireNonNull(statements, "statements");
+        requireNonNull(statementEnds, "statementEnds");
+        requireNonNull(types, "types");
+
+        final int count = statements.size();
+        final List<Map<String, Boolean>> temps = new ArrayList<>(count);
+        final boolean[] splittable = new boolean[count + 1];
+        final Map<String, Integer> lastUses = new CaseInsensitiveStringHashMap<>();
+
+        for (int i = 0; i < count; i++) {
+            final TempCollector collector = new TempCollector();
+            statements.get(i).visit(collector);
+            temps.add(collector.temps);
+            for (final String temp : collector.temps.keySet()) {
+                if (types.localType(temp) == null) {
+                    lastUses.put(temp, i);
+                }
+            }
+            splittable[i] = true;
+        }
+
+        // can't split while a non-numeric temp is still used
+        for (int i = 0; i < count; i++) {
+            for (final String temp : temps.get(i).keySet()) {
+                final Integer lastUse = lastUses.get(temp);
+                if (lastUse != null && lastUse > i) {
+                    for (int j = i + 1; j <= lastUse; j++) {
+                        splittable[j] = false;
+                    }
+                }
+            }
+        }
+
+        final List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        int chunkStartPc = 0;
+        for (int i = 1; i < count; i++) {
+            if (splittable[i] && statementEnds[i] - chunkStartPc > CHUNK_SIZE) {
+                starts.add(i);
+                chunkStartPc = statementEnds[i - 1];
+            }
+        }
+
+        // temps used by more than one chunk are kept in the frame
+        final Map<String, Integer> chunkByTemp = new CaseInsensitiveStringHashMap<>();
+        final Map<String, Integer> frameSlots = new CaseInsensitiveStringHashMap<>();
+        for (int c = 0; c < starts.size(); c++) {
+            final int end = c + 1 < starts.size() ? starts.get(c + 1) : count;
+            for (int i = starts.get(c); i < end; i++) {
+                for (final String temp : temps.get(i).keySet()) {
+                    final Integer chunk = chunkByTemp.putIfAbsent(temp, c);
+                    if (chunk != null && chunk != c && !frameSlots.containsKey(temp)) {
+                        frameSlots.put(temp, frameSlots.size());
+                    }
+                }
+            }
+        }
+
+        final List<Chunk> chunks = new ArrayList<>(starts.size());
+        for (int c = 0; c < starts.size(); c++) {
+            final int end = c + 1 < starts.size() ? starts.get(c + 1) : count;
+            final Map<String, Integer> chunkFrameSlots = new CaseInsensitiveStringHashMap<>();
+            for (int i = starts.get(c); i < end; i++) {
+                for (final String temp : temps.get(i).keySet()) {
+                    final Integer slot = frameSlots.get(temp);
+                    if (slot != null) {
+                        chunkFrameSlots.put(temp, slot);
+                    }
+                }
+            }
+            chunks.add(new Chunk(statements.subList(starts.get(c), end), chunkFrameSlots));
+        }
+        return chunks;
+    }
+
+    /**
+     * Outlines subtrees of the statements too large to fit a chunk, so that
+     * they are compiled into their own methods.
+     *
+     * <p>Only numeric subtrees, or statements of execution scopes, can be
+     * outlined, as long as they don't assign temps, nor {@code return} or
+     * {@code break} out of them, since they are compiled apart from the
+     * function state. The temps they read are passed as arguments.</p>
+     *
+     * @param statements The statements
+     * @param statementEnds The bytecode position after each compiled statement
+     * @param types The inferred types of the statements
+     * @return The resulting statements, the same list if nothing was outlined
+     */
+    static List<Expression> outline(final List<Expression> statements, final int[] statementEnds, final TypeInference types) {
+        requireNonNull(statements, "statements");
+        requireNonNull(statementEnds, "statementEnds");
+        requireNonNull(types, "types");
+
+        List<Expression> result = statements;
+        for (int i = 0; i < statements.size(); i++) {
+            final int length = statementEnds[i] - (i == 0 ? 0 : statementEnds[i - 1]);
+            if (length <= CHUNK_SIZE) {
+                continue;
+            }
+
+            // the size of the subtrees is estimated from their expression count
+            final Expression statement = statements.get(i);
+            final int size = new Outliner(types, Integer.MAX_VALUE).count(statement);
+            final int maxSize = Math.max(MIN_OUTLINED_SIZE, (int) ((long) CHUNK_SIZE * size / length));
+            final Expression outlined = statement.visit(new Outliner(types, maxSize));
+            if (outlined != statement) {
+                if (result == statements) {
+                    result = new ArrayList<>(statements);
+                }
+                result.set(i, outlined);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the outlined subtree if the given expression marks it.
+     *
+     * @param expression The expression
+     * @return The outlined subtree, or null if it isn't a mark
+     */
+    static @Nullable Expression outlined(final Expression expression) {
+        return expression instanceof CallExpression call && call.function() == OUTLINED
+                ? call.arguments().get(0)
+                : null;
+    }
+
+    /**
+     * Returns the temps read by the given outlined subtree.
+     *
+     * @param expression The outlined subtree
+     * @return The temps
+     */
+    static List<String> temps(final Expression expression) {
+        final TempCollector collector = new TempCollector();
+        expression.visit(collector);
+        return new ArrayList<>(collector.temps.keySet());
+    }
+
+    /**
+     * Returns the size of the frame needed by the given chunks.
+     */
+    static int frameSize(final List<Chunk> chunks) {
+        int size = 0;
+        for (final Chunk chunk : chunks) {
+            for (final int slot : chunk.frameSlots().values()) {
+                size = Math.max(size, slot + 1);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * A group of consecutive statements compiled into the same method.
+     *
+     * @param statements The statements
+     * @param frameSlots The frame slots of the temps it shares with other chunks
+     */
+    record Chunk(List<Expression> statements, Map<String, Integer> frameSlots) {
+    }
+
+    /**
+     * Replaces subtrees by outlined ones, bottom-up, while the expressions
+     * left in their parent are more than the maximum.
+     */
+    private static final class Outliner implements ExpressionVisitor<Expression, ExpressionVisitor.Context> {
+        private final TypeInference types;
+        private final int maxSize;
+        // the expressions left in the last visited subtree
+        private int size;
+
+        Outliner(final TypeInference types, final int maxSize) {
+            this.types = types;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Counts the expressions of the given subtree, without outlining.
+         */
+        private int count(final Expression expression) {
+            final Outliner counter = new Outliner(types, Integer.MAX_VALUE);
+            expression.visit(counter);
+            return counter.size;
+        }
+
+        /**
+         * Visits the given children, which are values, outlining the
+         * largest ones while the size of their parent is above the maximum.
+         */
+        private Expression[] visitChildren(final Expression... children) {
+            final Expression[] visited = new Expression[children.length];
+            final int[] sizes = new int[children.length];
+            int total = 1;
+            for (int i = 0; i < children.length; i++) {
+                visited[i] = children[i].visit(this);
+                sizes[i] = size;
+                total += size;
+            }
+            while (total > maxSize) {
+                int largest = -1;
+                for (int i = 0; i < children.length; i++) {
+                    if (sizes[i] >= MIN_OUTLINED_SIZE && (largest == -1 || sizes[i] > sizes[largest])
+                            && types.typeOf(children[i]) != null && children[i].visit(new IsOutlinable())) {
+                        largest = i;
+                    }
+                }
+                if (largest == -1) {
+                    break;
+                }
+                visited[largest] = new CallExpression(OUTLINED, List.of(visited[largest]));
+                total -= sizes[largest] - 1;
+                sizes[largest] = 1;
+            }
+            size = total;
+            return visited;
+        }
+
+        @Override
+        public Expression visitAccess(final AccessExpression expression, final Context ctx) {
+            size = count(expression.object()) + 1;
+            return expression;
+        }
+
+        @Override
+        public Expression visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            final Expression[] children = visitChildren(expression.array(), expression.index());
+            return children[0] == expression.array() && children[1] == expression.index()
+                    ? expression
+                    : new ArrayAccessExpression(children[0], children[1]);
+        }
+
+        @Override
+        public Expression visitBinary(final BinaryExpression expression, final Context ctx) {
+            switch (expression.op()) {
+                case ASSIGN: {
+                    // assigned properties are written, not read
+                    final Expression right = visitChildren(expression.right())[0];
+                    size += count(expression.left());
+                    return right == expression.right() ? expression : new BinaryExpression(expression.op(), expression.left(), right);
+                }
+                case ARROW: {
+                    // the right side is evaluated with another entity
+                    final Expression left = visitChildren(expression.left())[0];
+                    size += count(expression.right());
+                    return left == expression.left() ? expression : new BinaryExpression(expression.op(), left, expression.right());
+                }
+                default: {
+                    final Expression[] children = visitChildren(expression.left(), expression.right());
+                    return children[0] == expression.left() && children[1] == expression.right()
+                            ? expression
+                            : new BinaryExpression(expression.op(), children[0], children[1]);
+                }
+            }
+        }
+
+        @Override
+        public Expression visitUnary(final UnaryExpression expression, final Context ctx) {
+            final Expression operand = visitChildren(expression.expression())[0];
+            return operand == expression.expression() ? expression : new UnaryExpression(expression.op(), operand);
+        }
+
+        @Override
+        public Expression visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            final Expression[] children = visitChildren(expression.condition(), expression.trueExpression(), expression.falseExpression());
+            return children[0] == expression.condition() && children[1] == expression.trueExpression()
+                    && children[2] == expression.falseExpression()
+                    ? expression
+                    : new TernaryConditionalExpression(children[0], children[1], children[2]);
+        }
+
+        @Override
+        public Expression visitCall(final CallExpression expression, final Context ctx) {
+            final List<Expression> arguments = expression.arguments();
+            // the for_each variable is assigned, not read
+            final int first = isForEach(expression) ? 1 : 0;
+            final Expression[] children = visitChildren(arguments.subList(first, arguments.size()).toArray(Expression[]::new));
+            size += count(expression.function()) + (first == 1 ? count(arguments.get(0)) : 0);
+
+            boolean changed = false;
+            final List<Expression> visited = new ArrayList<>(arguments.subList(0, first));
+            for (final Expression child : children) {
+                changed |= child != arguments.get(visited.size());
+                visited.add(child);
+            }
+            return changed ? new CallExpression(expression.function(), visited) : expression;
+        }
+
+        @Override
+        public Expression visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            final List<Expression> statements = expression.expressions();
+            final List<Expression> visited = new ArrayList<>(statements.size());
+            final int[] sizes = new int[statements.size()];
+            int total = 1;
+            boolean changed = false;
+            for (int i = 0; i < statements.size(); i++) {
+                final Expression statement = statements.get(i).visit(this);
+                changed |= statement != statements.get(i);
+                visited.add(statement);
+                sizes[i] = size;
+                total += size;
+            }
+            if (total <= maxSize) {
+                size = total;
+                return changed ? new ExecutionScopeExpression(visited) : expression;
+            }
+
+            // consecutive statements are outlined together
+            final List<Expression> grouped = new ArrayList<>();
+            final List<Expression> group = new ArrayList<>();
+            int groupSize = 0;
+            total = 1;
+            for (int i = 0; i < statements.size(); i++) {
+                if (!statements.get(i).visit(new IsOutlinable())) {
+                    total += addGroup(grouped, group, groupSize);
+                    groupSize = 0;
+                    grouped.add(visited.get(i));
+                    total += sizes[i];
+                    continue;
+                }
+                if (groupSize + sizes[i] > maxSize) {
+                    total += addGroup(grouped, group, groupSize);
+                    groupSize = 0;
+                }
+                group.add(visited.get(i));
+                groupSize += sizes[i];
+            }
+            total += addGroup(grouped, group, groupSize);
+            size = total;
+            return new ExecutionScopeExpression(grouped);
+        }
+
+        /**
+         * Adds the given group of statements, outlined if they are large
+         * enough, and clears it.
+         *
+         * @return The size of the added statements
+         */
+        private int addGroup(final List<Expression> statements, final List<Expression> group, final int groupSize) {
+            if (group.isEmpty()) {
+                return 0;
+            }
+            final int added;
+            if (groupSize < MIN_OUTLINED_SIZE) {
+                statements.addAll(group);
+                added = groupSize;
+            } else {
+                final Expression outlined = group.size() == 1 ? group.get(0) : new ExecutionScopeExpression(new ArrayList<>(group));
+                statements.add(new CallExpression(OUTLINED, List.of(outlined)));
+                added = 1;
+            }
+            group.clear();
+            return added;
+        }
+
+        @Override
+        public Expression visit(final Expression expression, final Context ctx) {
+            // no children
+            size = 1;
+            return expression;
+        }
+
+        /**
+         * Determines whether an expression can be compiled apart from
+         * the function state.
+         */
+        private final class IsOutlinable implements ExpressionVisitor<Boolean, ExpressionVisitor.Context> {
+            private int loopDepth;
+
+            @Override
+            public Boolean visitAccess(final AccessExpression expression, final Context ctx) {
+                final String temp = ConstantPropagator.tempName(expression);
+                // temps are passed as numbers
+                return temp == null ? expression.object().visit(this) : types.localType(temp) != null;
+            }
+
+            @Override
+            public Boolean visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+                return expression.array().visit(this) && expression.index().visit(this);
+            }
+
+            @Override
+            public Boolean visitBinary(final BinaryExpression expression, final Context ctx) {
+                if (expression.op() == BinaryExpression.Op.ASSIGN && ConstantPropagator.tempName(expression.left()) != null) {
+                    return false;
+                }
+                return expression.left().visit(this) && expression.right().visit(this);
+            }
+
+            @Override
+            public Boolean visitUnary(final UnaryExpression expression, final Context ctx) {
+                return expression.op() != UnaryExpression.Op.RETURN && expression.expression().visit(this);
+            }
+
+            @Override
+            public Boolean visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+                return expression.condition().visit(this)
+                        && expression.trueExpression().visit(this)
+                        && expression.falseExpression().visit(this);
+            }
+
+            @Override
+            public Boolean visitCall(final CallExpression expression, final Context ctx) {
+                if (isForEach(expression) && ConstantPropagator.tempName(expression.arguments().get(0)) != null) {
+                    return false;
+                }
+                final boolean loop = ExpressionInliner.isBuiltIn(expression);
+                if (!expression.function().visit(this)) {
+                    return false;
+                }
+                if (loop) {
+                    loopDepth++;
+                }
+                try {
+                    for (final Expression argument : expression.arguments()) {
+                        if (!argument.visit(this)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                } finally {
+                    if (loop) {
+                        loopDepth--;
+                    }
+                }
+            }
+
+            @Override
+            public Boolean visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+                for (final Expression statement : expression.expressions()) {
+                    if (!statement.visit(this)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Boolean visitStatement(final StatementExpression expression, final Context ctx) {
+                // break and continue must stay inside the outlined loop
+                return loopDepth > 0;
+            }
+
+            @Override
+            public Boolean visit(final Expression expression, final Context ctx) {
+                return true;
+            }
+        }
+    }
+
+    private static boolean isForEach(final CallExpression expression) {
+        return ExpressionInliner.isBuiltIn(expression)
+                && !expression.arguments().isEmpty()
+                && ((IdentifierExpression) expression.function()).name().equals("for_each");
+    }
+
+    /**
+     * Collects the temps read or assigned by an expression.
+     */
+    private static final class TempCollector implements ExpressionVisitor<@Nullable Void, ExpressionVisitor.Context> {
+        private final Map<String, Boolean> temps = new CaseInsensitiveStringHashMap<>();
+
+        @Override
+        public @Nullable Void visitAccess(final AccessExpression expression, final Context ctx) {
+            final String temp = ConstantPropagator.tempName(expression);
+            if (temp != null) {
+                temps.put(temp, true);
+            }
+            expression.object().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            expression.array().visit(this);
+            expression.index().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitBinary(final BinaryExpression expression, final Context ctx) {
+            expression.left().visit(this);
+            expression.right().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitUnary(final UnaryExpression expression, final Context ctx) {
+            expression.expression().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            expression.condition().visit(this);
+            expression.trueExpression().visit(this);
+            expression.falseExpression().visit(this);
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitCall(final CallExpression expression, final Context ctx) {
+            expression.function().visit(this);
+            for (final Expression argument : expression.arguments()) {
+                argument.visit(this);
+            }
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            for (final Expression statement : expression.expressions()) {
+                statement.visit(this);
+            }
+            return null;
+        }
+
+        @Override
+        public @Nullable Void visit(final Expression expression, final Context ctx) {
+            return null;
+        }
+    }
+}
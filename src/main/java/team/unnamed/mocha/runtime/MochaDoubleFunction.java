@@ -0,0 +1,46 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+
+/**
+ * A {@link MochaCompiledFunction} that can be evaluated without arguments
+ * and always evaluates to a number.
+ *
+ * <p>Unlike {@link MochaFunction}, the result is not boxed, so evaluating
+ * a compiled function of this type doesn't allocate anything.</p>
+ *
+ * @since 4.0
+ */
+@FunctionalInterface
+public interface MochaDoubleFunction extends MochaCompiledFunction {
+    /**
+     * Evaluates this function.
+     *
+     * @return The result of the evaluation, as a number.
+     * @since 4.0
+     */
+    double evaluate();
+}
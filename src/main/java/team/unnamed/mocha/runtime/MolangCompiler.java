@@ -27,17 +27,26 @@ import com.google.common.reflect.TypeToken;
 import javassist.*;
 import javassist.bytecode.*;
 import javassist.bytecode.stackmap.MapMaker;
+import javassist.util.proxy.DefineClassHelper;
 import org.jetbrains.annotations.ApiStatus;
 import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.ExecutionScopeExpression;
 import team.unnamed.mocha.parser.ast.Expression;
+import team.unnamed.mocha.runtime.binding.Entity;
 import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
 import team.unnamed.mocha.runtime.compiled.Named;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
 import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
 import team.unnamed.mocha.util.JavassistUtil;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.*;
 import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -48,23 +57,31 @@ import static java.util.Objects.requireNonNull;
 @ApiStatus.Internal
 public final class MolangCompiler {
     private static final Random RANDOM = new Random();
+    private static final String ENTITY_PARAMETER_NAME = "__entity__";
 
     private final @Nullable Object entity;
     private final ClassPool classPool;
 
     private final Scope scope;
+    private final CompiledFunctionCache cache;
+    private @Nullable PersistentCompileCache persistentCache;
     private @Nullable Consumer<byte []> postCompile;
 
     public MolangCompiler(final @Nullable Object entity, final Scope scope) {
         this.entity = entity;
         this.classPool = ClassPool.getDefault();
         this.scope = requireNonNull(scope, "scope");
+        this.cache = new CompiledFunctionCache(scope);
     }
 
     public @Nullable Object entity() {
         return entity;
     }
 
+    public Scope scope() {
+        return scope;
+    }
+
     public ClassPool classPool() {
         return classPool;
     }
@@ -73,8 +90,40 @@ public final class MolangCompiler {
         this.postCompile = postCompile;
     }
 
+    /**
+     * Sets the directory where compiled classes are stored, to load
+     * them instead of compiling them again, or null to not store them.
+     *
+     * @param directory The cache directory
+     */
+    public synchronized void persistentCache(final @Nullable Path directory) {
+        this.persistentCache = directory == null ? null : new PersistentCompileCache(directory, scope);
+    }
+
+    /**
+     * Allocates the slots of the binding properties the given expressions
+     * access, so that compiling them doesn't allocate any. It must be called
+     * from the thread that uses the bindings, before compiling them in
+     * another one.
+     *
+     * @param expressions The expressions
+     */
+    public void resolveSlots(final List<Expression> expressions) {
+        requireNonNull(expressions, "expressions");
+        new SlotResolver(scope).process(expressions);
+    }
+
+    /**
+     * Compiles the given expressions to a new function implementing the given
+     * interface. It may be called from multiple threads, e.g. to compile
+     * tiered functions in the background, compilations run one at a time.
+     *
+     * @param expressions The expressions
+     * @param typeToken The implemented interface
+     * @return The compiled function
+     */
     @SuppressWarnings("unchecked")
-    public <T extends MochaCompiledFunction> T compile(final List<Expression> expressions, final TypeToken<T> typeToken) {
+    public synchronized <T extends MochaCompiledFunction> T compile(final List<Expression> expressions, final TypeToken<T> typeToken) {
         requireNonNull(expressions, "expressions");
         requireNonNull(typeToken, "typeToken");
 
@@ -86,6 +135,85 @@ public final class MolangCompiler {
             return (T) MochaFunction.nop();
         }
 
+        // equivalent code compiled to the same interface gives the same function
+        final CompiledFunctionCache.Key cacheKey = cache.key(expressions, typeToken);
+        final MochaCompiledFunction cached = cache.get(cacheKey);
+        if (cached != null) {
+            return (T) cached;
+        }
+
+        // classes compiled by a previous run are loaded if their bindings didn't change
+        final String persistentKey = persistentCache == null ? null : persistentCache.hash(cacheKey, entity);
+        if (persistentKey != null) {
+            final PersistentCompileCache.Entry entry = persistentCache.load(persistentKey, entity);
+            if (entry != null && entry.staticRequirements() == (hiddenClassLookup(clazz) != null)) {
+                try {
+                    final MochaCompiledFunction instance = (MochaCompiledFunction) instantiate(
+                            clazz,
+                            entry.className(),
+                            entry.bytecode(),
+                            entry.requirements(),
+                            entry.staticRequirements()
+                    );
+                    cache.put(cacheKey, instance, entry.requirements());
+                    return (T) instance;
+                } catch (final RuntimeException | LinkageError e) {
+                    // compile it again
+                    System.err.println("[mocha] Couldn't load cached function " + persistentKey + ": " + e);
+                }
+            }
+        }
+
+        // requirements are given as class data to hidden classes
+        final GeneratedClass generated = generate(expressions, typeToken, null, hiddenClassLookup(clazz) != null);
+        if (postCompile != null) {
+            postCompile.accept(generated.bytecode());
+        }
+        if (persistentKey != null) {
+            persistentCache.store(persistentKey, generated);
+        }
+
+        final Object instance = instantiate(clazz, generated.className(), generated.bytecode(), generated.requirements(), generated.staticRequirements());
+        cache.put(cacheKey, (MochaCompiledFunction) instance, generated.requirements());
+        return (T) instance;
+    }
+
+    /**
+     * Compiles the given expressions to a class with the given name, which
+     * is not loaded. The class takes its requirements as constructor arguments,
+     * so that it can be loaded later from a class file.
+     *
+     * @param expressions The expressions
+     * @param typeToken The implemented interface
+     * @param className The class name
+     * @return The generated class
+     */
+    synchronized GeneratedClass compileClass(final List<Expression> expressions, final TypeToken<?> typeToken, final String className) {
+        requireNonNull(expressions, "expressions");
+        requireNonNull(typeToken, "typeToken");
+        requireNonNull(className, "className");
+        return generate(expressions, typeToken, className, false);
+    }
+
+    /**
+     * Generates the class implementing the given interface with the
+     * given expressions.
+     *
+     * @param expressions The expressions
+     * @param typeToken The implemented interface
+     * @param className The class name, or null to generate a unique one
+     * @param hiddenClass Whether the class will be defined as a hidden class,
+     *                    which takes its requirements from the class data
+     * @return The generated class
+     */
+    private GeneratedClass generate(
+            final List<Expression> expressions,
+            final TypeToken<?> typeToken,
+            final @Nullable String className,
+            final boolean hiddenClass
+    ) {
+        final Class<?> clazz = typeToken.getRawType();
+
         if (!clazz.isInterface()) {
             throw new IllegalArgumentException("Target type must be an interface: " + clazz.getName());
         }
@@ -106,6 +234,7 @@ public final class MolangCompiler {
         }
 
         final Map<String, CtClass> parametersCtTypes = new CaseInsensitiveStringHashMap<>();
+        String entityParameterName = null;
 
         // check method parameter types
         {
@@ -116,15 +245,27 @@ public final class MolangCompiler {
                 final Named named = parameter.getDeclaredAnnotation(Named.class);
                 final String name;
 
+                final boolean entity = parameter.isAnnotationPresent(Entity.class);
+
                 if (named != null) {
                     name = named.value();
                 } else if (parameter.isNamePresent()) {
                     name = parameter.getName();
+                } else if (entity) {
+                    // the entity parameter doesn't need to be accessible by name
+                    name = ENTITY_PARAMETER_NAME;
                 } else {
                     throw new IllegalArgumentException("Parameter " + parameter.getName() + " (index " + i
                             + ") must be annotated with @Named and specify a name");
                 }
 
+                if (entity) {
+                    if (entityParameterName != null) {
+                        throw new IllegalArgumentException("Only one parameter can be annotated with @Entity: " + implementedMethod);
+                    }
+                    entityParameterName = name;
+                }
+
                 try {
                     Class<?> parameterType = typeToken.resolveType(parameter.getParameterizedType()).getRawType();
                     CtClass parameterCtType = classPool.get(parameterType.getName());
@@ -137,7 +278,7 @@ public final class MolangCompiler {
         }
 
         final CtClass interfaceCtClass = JavassistUtil.getClassUnchecked(classPool, clazz);
-        final String scriptClassName = clazz.getPackage().getName() + ".MolangFunctionImpl_" + clazz.getSimpleName() + "_" + implementedMethod.getName()
+        final String scriptClassName = className != null ? className : clazz.getPackage().getName() + ".MolangFunctionImpl_" + clazz.getSimpleName() + "_" + implementedMethod.getName()
                 + "_" + Long.toHexString(System.currentTimeMillis()) + "_" + Integer.toHexString(RANDOM.nextInt(2024));
 
         final CtClass scriptCtClass = classPool.makeClass(scriptClassName);
@@ -147,17 +288,21 @@ public final class MolangCompiler {
         final Class<?> returnType = typeToken.resolveType(implementedMethod.getGenericReturnType()).getRawType();
         final CtClass returnCtType = JavassistUtil.getClassUnchecked(classPool, returnType);
 
-        final Bytecode bytecode = new Bytecode(scriptCtClass.getClassFile().getConstPool());
-        final FunctionCompileState compileState = new FunctionCompileState(
+        Bytecode bytecode = new Bytecode(scriptCtClass.getClassFile().getConstPool());
+        FunctionCompileState compileState = new FunctionCompileState(
                 this,
                 classPool,
                 scriptCtClass,
                 bytecode,
                 parametersCtTypes,
+                returnCtType,
+                entityParameterName,
+                hiddenClass,
                 scope
         );
 
         // compute initial max locals
+        final int initialMaxLocals;
         {
             int maxLocals = 1; // 1: this
             for (final CtClass paramType : parametersCtTypes.values()) {
@@ -167,87 +312,224 @@ public final class MolangCompiler {
                     maxLocals++;
                 }
             }
+            initialMaxLocals = maxLocals;
             compileState.maxLocals(maxLocals);
         }
 
+        final CtClass[] parameterCtTypes = parametersCtTypes.values().toArray(CtClass[]::new);
+
         if (expressions.isEmpty()) {
             // add only a "return 0", "return" or "return null" instruction
             bytecode.addConstZero(returnCtType);
             bytecode.addReturn(returnCtType);
         } else {
-            final MolangCompilingVisitor compiler = new MolangCompilingVisitor(compileState);
-            final MolangCompilingVisitor.CompilingContext compilerCtx = new MolangCompilingVisitor.CompilingContext(returnCtType);
-            CompileVisitResult lastVisitResult = null;
-
             final ExpressionInliner inliner = new ExpressionInliner(new ExpressionInterpreter<>(null, scope), scope);
+            final List<Expression> inlined = new ArrayList<>(expressions.size());
+            for (final Expression expression : new MathIntrinsics(scope).process(expressions)) {
+                inlined.add(expression.visit(inliner));
+            }
+            final List<Expression> propagated = new ConstantPropagator(new ExpressionInterpreter<>(null, scope), scope).process(inlined);
+            final List<Expression> simplified = new AlgebraicSimplifier(scope).process(propagated);
+            final List<Expression> eliminated = new CommonSubexpressionEliminator(scope).process(simplified);
+            final List<Expression> optimized = new DeadCodeEliminator(scope).process(eliminated);
+
+            List<Expression> statements = optimized;
+            TypeInference types = new TypeInference(scope, parametersCtTypes).infer(statements);
+            final int[] statementEnds = new int[statements.size()];
+            try {
+                bytecode = compileStatements(compileState, types, statements, statementEnds, Map.of(), -1);
+                checkStack(bytecode);
+            } catch (final UnsupportedOperationException | IllegalStateException | IllegalArgumentException | TypeCastException e) {
+                // start over, interpreting what isn't supported, anything
+                // else is a bug that must not be hidden
+                statements = new InterpreterFallback(compileState).process(optimized);
+                if (statements.equals(optimized)) {
+                    throw e;
+                }
+                types = new TypeInference(scope, parametersCtTypes).infer(statements);
+                bytecode = new Bytecode(scriptCtClass.getClassFile().getConstPool());
+                compileState = compileState.forMethod(bytecode, returnCtType);
+                compileState.requirements().clear();
+                compileState.maxLocals(initialMaxLocals);
+                bytecode = compileStatements(compileState, types, statements, statementEnds, Map.of(), -1);
+            }
 
-            for (final Expression expression : expressions) {
-                lastVisitResult = expression.visit(inliner).visit(compiler, compilerCtx);
+            if (bytecode.length() > MethodSplitter.HUGE_METHOD_LIMIT) {
+                // statements too large to fit a chunk are outlined first
+                final List<Expression> outlined = MethodSplitter.outline(statements, statementEnds, types);
+                if (outlined != statements) {
+                    statements = outlined;
+                    types = new TypeInference(scope, parametersCtTypes).infer(statements);
+                    bytecode = new Bytecode(scriptCtClass.getClassFile().getConstPool());
+                    compileState = compileState.forMethod(bytecode, returnCtType);
+                    compileState.requirements().clear();
+                    compileState.outlined().clear();
+                    compileState.maxLocals(initialMaxLocals);
+                    bytecode = compileStatements(compileState, types, statements, statementEnds, Map.of(), -1);
+                }
             }
 
-            if (lastVisitResult == null || !lastVisitResult.returned()) {
-                CtClass lastPushedType = lastVisitResult != null ? lastVisitResult.lastPushedType() : null;
+            if (bytecode.length() > MethodSplitter.HUGE_METHOD_LIMIT) {
+                // too large to be JIT-compiled, split it into multiple methods
+                final List<MethodSplitter.Chunk> chunks = MethodSplitter.split(statements, statementEnds, types);
+                if (chunks.size() > 1) {
+                    bytecode = new Bytecode(scriptCtClass.getClassFile().getConstPool());
+                    compileState = compileState.forMethod(bytecode, returnCtType);
+                    compileState.requirements().clear();
+                    compileState.outlined().clear();
+                    compileState.maxLocals(initialMaxLocals);
+
+                    final CtClass frameCtType = JavassistUtil.getClassUnchecked(classPool, double[].class);
+                    final CtClass[] chunkParameterCtTypes = Arrays.copyOf(parameterCtTypes, parameterCtTypes.length + 1);
+                    chunkParameterCtTypes[parameterCtTypes.length] = frameCtType;
+
+                    // double[] frame = new double[size];
+                    final int frameIndex = compileState.allocateLocal(frameCtType);
+                    bytecode.addNewarray(Bytecode.T_DOUBLE, MethodSplitter.frameSize(chunks));
+                    bytecode.addAstore(frameIndex);
+
+                    for (int i = 0; i < chunks.size(); i++) {
+                        final MethodSplitter.Chunk chunk = chunks.get(i);
+                        final boolean last = i == chunks.size() - 1;
+                        final String chunkMethodName = implementedMethod.getName() + "$" + i;
+                        final Bytecode chunkMethodBytecode = new Bytecode(scriptCtClass.getClassFile().getConstPool());
+                        final FunctionCompileState chunkCompileState = last
+                                ? compileState.forMethod(chunkMethodBytecode, returnCtType)
+                                : compileState.forChunk(chunkMethodBytecode);
+                        final CtClass chunkReturnCtType = chunkCompileState.returnType();
+                        chunkCompileState.maxLocals(initialMaxLocals);
+                        final int chunkFrameIndex = chunkCompileState.allocateLocal(frameCtType);
+                        final Bytecode chunkBytecode = compileStatements(chunkCompileState, types, chunk.statements(), null, chunk.frameSlots(), chunkFrameIndex);
+                        chunkBytecode.setMaxLocals(chunkCompileState.maxLocals());
+                        addMethod(scriptCtClass, chunkMethodName, chunkReturnCtType, chunkParameterCtTypes, Modifier.PRIVATE | Modifier.FINAL, chunkBytecode);
+
+                        // this.method$i(parameters..., frame)
+                        bytecode.addAload(0);
+                        int parameterIndex = 1;
+                        for (final CtClass parameterCtType : parameterCtTypes) {
+                            bytecode.addLoad(parameterIndex, parameterCtType);
+                            parameterIndex += (parameterCtType == CtClass.doubleType || parameterCtType == CtClass.longType) ? 2 : 1;
+                        }
+                        bytecode.addAload(frameIndex);
+                        bytecode.addInvokespecial(scriptCtClass, chunkMethodName, Descriptor.ofMethod(chunkReturnCtType, chunkParameterCtTypes));
+
+                        if (!last) {
+                            // the chunk returns the frame, unless the function returned
+                            bytecode.addOpcode(Bytecode.DUP);
+                            bytecode.addAload(frameIndex);
+                            bytecode.addOpcode(Bytecode.IF_ACMPEQ);
+                            final int next = bytecode.currentPc();
+                            bytecode.addGap(2);
+                            if (returnCtType == CtClass.voidType) {
+                                bytecode.addOpcode(Bytecode.POP);
+                            } else {
+                                final CtClass boxedCtType = JavassistUtil.boxedType(classPool, returnCtType);
+                                bytecode.addCheckcast(boxedCtType);
+                                JavassistUtil.addCast(bytecode, boxedCtType, returnCtType);
+                            }
+                            bytecode.addReturn(returnCtType);
+                            bytecode.write16bit(next, bytecode.currentPc() - next + 1);
+                            bytecode.addOpcode(Bytecode.POP);
+                        }
+                    }
+                    bytecode.addReturn(returnCtType);
+                }
+            }
 
-                JavassistUtil.addCast(
-                        bytecode,
-                        lastPushedType == null ? returnCtType : lastPushedType,
-                        returnCtType
+            // outlined subtrees may outline more of them
+            final List<FunctionCompileState.Outlined> outlined = compileState.outlined();
+            for (int i = 0; i < outlined.size(); i++) {
+                final FunctionCompileState.Outlined method = outlined.get(i);
+                final FunctionCompileState outlinedCompileState = compileState.forMethod(
+                        new Bytecode(scriptCtClass.getClassFile().getConstPool()),
+                        method.returnType()
                 );
-
-                bytecode.addReturn(returnCtType);
+                outlinedCompileState.maxLocals(initialMaxLocals);
+                final CtClass[] outlinedParameterCtTypes = Arrays.copyOf(parameterCtTypes, parameterCtTypes.length + method.tempTypes().size());
+                for (int j = 0; j < method.tempTypes().size(); j++) {
+                    final CtClass tempCtType = method.tempTypes().get(j);
+                    outlinedParameterCtTypes[parameterCtTypes.length + j] = tempCtType;
+                    outlinedCompileState.allocateLocal(tempCtType);
+                }
+                final Bytecode outlinedBytecode = compileOutlined(outlinedCompileState, types, method, initialMaxLocals);
+                outlinedBytecode.setMaxLocals(outlinedCompileState.maxLocals());
+                addMethod(scriptCtClass, method.name(), method.returnType(), outlinedParameterCtTypes, Modifier.PRIVATE | Modifier.FINAL, outlinedBytecode);
             }
         }
 
         bytecode.setMaxLocals(compileState.maxLocals());
-
-        final MethodInfo method = new MethodInfo(
-                scriptCtClass.getClassFile().getConstPool(),
+        addMethod(
+                scriptCtClass,
                 implementedMethod.getName(),
-                Descriptor.ofMethod(
-                        JavassistUtil.getClassUnchecked(classPool, implementedMethod.getReturnType()),
-                        parametersCtTypes.values().toArray(CtClass[]::new)
-                )
+                JavassistUtil.getClassUnchecked(classPool, implementedMethod.getReturnType()),
+                parameterCtTypes,
+                Modifier.PUBLIC | Modifier.FINAL,
+                bytecode
         );
-        method.setAccessFlags(Modifier.PUBLIC | Modifier.FINAL);
-        method.setCodeAttribute(bytecode.toCodeAttribute());
-        final StackMapTable stackMapTable;
-
-        try {
-            method.getCodeAttribute().computeMaxStack();
-            stackMapTable = MapMaker.make(classPool, method);
-        } catch (final BadBytecode e) {
-            throw new IllegalStateException("Generated bad bytecode, open an issue at https://github.com/roxymcdev/mocha/issues", e);
-        }
-
-        if (stackMapTable != null) {
-            method.getCodeAttribute().setAttribute(stackMapTable);
-        }
 
-        try {
-            scriptCtClass.addMethod(CtMethod.make(method, scriptCtClass));
-        } catch (final CannotCompileException e) {
-            throw new IllegalStateException("Couldn't compile main function method", e);
-        }
-
-        final Map<String, Object> requirements = compileState.requirements();
+        final Map<String, FunctionCompileState.Requirement> requirements = compileState.requirements();
+        final boolean staticRequirements = compileState.staticRequirements();
 
         // add fields for the requirements
-        for (final Map.Entry<String, Object> entry : requirements.entrySet()) {
+        for (final Map.Entry<String, FunctionCompileState.Requirement> entry : requirements.entrySet()) {
             final String fieldName = entry.getKey();
-            final Object fieldValue = entry.getValue();
-            final CtClass fieldType = JavassistUtil.getClassUnchecked(classPool, fieldValue.getClass());
+            final CtClass fieldType = JavassistUtil.getClassUnchecked(classPool, entry.getValue().type());
             try {
-                scriptCtClass.addField(new CtField(fieldType, fieldName, scriptCtClass));
+                final CtField field = new CtField(fieldType, fieldName, scriptCtClass);
+                if (staticRequirements) {
+                    // static finals are trusted as constants by the JIT
+                    field.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+                }
+                scriptCtClass.addField(field);
             } catch (final CannotCompileException e) {
                 throw new IllegalStateException("Couldn't compile field " + fieldName + " with type " + fieldType.getName(), e);
             }
         }
 
+        if (staticRequirements && !requirements.isEmpty()) {
+            // add static initializer that takes the requirements from the class data
+            final Bytecode initializerBytecode = new Bytecode(scriptCtClass.getClassFile().getConstPool());
+            final CtClass objectCtType = JavassistUtil.getClassUnchecked(classPool, Object.class);
+            final CtClass lookupCtType = JavassistUtil.getClassUnchecked(classPool, MethodHandles.Lookup.class);
+            final CtClass methodHandlesCtType = JavassistUtil.getClassUnchecked(classPool, MethodHandles.class);
+            initializerBytecode.addInvokestatic(methodHandlesCtType, "lookup", lookupCtType, new CtClass[0]);
+            initializerBytecode.addAstore(0);
+
+            int classDataIndex = 0;
+            for (final Map.Entry<String, FunctionCompileState.Requirement> entry : requirements.entrySet()) {
+                final CtClass fieldType = JavassistUtil.getClassUnchecked(classPool, entry.getValue().type());
+                initializerBytecode.addAload(0); // load lookup
+                initializerBytecode.addLdc("_"); // class data name, must be "_"
+                initializerBytecode.addLdc(initializerBytecode.getConstPool().addClassInfo(objectCtType)); // class data type
+                initializerBytecode.addIconst(classDataIndex); // class data index
+                initializerBytecode.addInvokestatic(
+                        methodHandlesCtType,
+                        "classDataAt",
+                        objectCtType,
+                        new CtClass[]{lookupCtType, JavassistUtil.getClassUnchecked(classPool, String.class), JavassistUtil.getClassUnchecked(classPool, Class.class), CtClass.intType}
+                );
+                initializerBytecode.addCheckcast(fieldType);
+                initializerBytecode.addPutstatic(scriptCtClass, entry.getKey(), Descriptor.of(fieldType));
+                classDataIndex++;
+            }
+            initializerBytecode.addReturn(null);
+            initializerBytecode.setMaxLocals(1);
+
+            try {
+                final CtConstructor ctInitializer = scriptCtClass.makeClassInitializer();
+                ctInitializer.getMethodInfo().setCodeAttribute(initializerBytecode.toCodeAttribute());
+                ctInitializer.getMethodInfo().getCodeAttribute().computeMaxStack();
+            } catch (final CannotCompileException | BadBytecode e) {
+                throw new IllegalStateException("Couldn't compile script static initializer", e);
+            }
+        }
+
         // add constructor that needs requirements and initializes them
-        final CtClass[] constructorParameterCtTypes = new CtClass[requirements.size()];
+        final Map<String, FunctionCompileState.Requirement> constructorRequirements = staticRequirements ? Map.of() : requirements;
+        final CtClass[] constructorParameterCtTypes = new CtClass[constructorRequirements.size()];
         int j = 0;
-        for (final Map.Entry<String, Object> entry : requirements.entrySet()) {
-            constructorParameterCtTypes[j] = JavassistUtil.getClassUnchecked(classPool, entry.getValue().getClass());
+        for (final Map.Entry<String, FunctionCompileState.Requirement> entry : constructorRequirements.entrySet()) {
+            constructorParameterCtTypes[j] = JavassistUtil.getClassUnchecked(classPool, entry.getValue().type());
             ++j;
         }
 
@@ -258,12 +540,12 @@ public final class MolangCompiler {
             constructorBytecode.addInvokespecial(JavassistUtil.getClassUnchecked(classPool, Object.class), "<init>", "()V"); // invoke superclass constructor
             // put!
             int parameterIndex = 0;
-            for (final Map.Entry<String, Object> entry : requirements.entrySet()) {
+            for (final Map.Entry<String, FunctionCompileState.Requirement> entry : constructorRequirements.entrySet()) {
                 final String fieldName = entry.getKey();
-                final Object fieldValue = entry.getValue();
+                final Class<?> fieldType = entry.getValue().type();
                 constructorBytecode.addAload(0); // load this
                 constructorBytecode.addAload(parameterIndex + 1); // load parameter
-                constructorBytecode.addPutfield(scriptCtClass, fieldName, Descriptor.of(JavassistUtil.getClassUnchecked(classPool, fieldValue.getClass()))); // set!
+                constructorBytecode.addPutfield(scriptCtClass, fieldName, Descriptor.of(JavassistUtil.getClassUnchecked(classPool, fieldType))); // set!
                 parameterIndex++;
             }
             constructorBytecode.addReturn(null); // return
@@ -282,27 +564,208 @@ public final class MolangCompiler {
             }
         }
 
-        if (postCompile != null) {
-            try {
-                postCompile.accept(scriptCtClass.toBytecode());
-            } catch (IOException | CannotCompileException e) {
-                throw new IllegalStateException("Couldn't collect script bytecode", e);
+        final byte[] scriptBytecode;
+        try {
+            scriptBytecode = scriptCtClass.toBytecode();
+        } catch (IOException | CannotCompileException e) {
+            throw new IllegalStateException("Couldn't collect script bytecode", e);
+        } finally {
+            // the class pool must not keep a reference to the script class,
+            // we don't need it anymore
+            scriptCtClass.detach();
+        }
+
+        return new GeneratedClass(scriptClassName, scriptBytecode, List.copyOf(requirements.values()), staticRequirements, compileState.slots());
+    }
+
+    /**
+     * Compiles the given statements into the bytecode of the given state,
+     * returning the value of the last one.
+     *
+     * @param compileState The method compile state
+     * @param types The inferred types of the statements
+     * @param statements The statements
+     * @param statementEnds The array to fill with the bytecode position
+     *                      after each statement, or null
+     * @param frameSlots The temps to load from the frame at the start, and
+     *                   to store into it at the end of a chunk that continues
+     *                   in the next one
+     * @param frameIndex The local variable index of the frame array
+     * @return The resulting bytecode
+     */
+    private static Bytecode compileStatements(
+            final FunctionCompileState compileState,
+            final TypeInference types,
+            final List<Expression> statements,
+            final int @Nullable [] statementEnds,
+            final Map<String, Integer> frameSlots,
+            final int frameIndex
+    ) {
+        final Bytecode bytecode = compileState.bytecode();
+        final CtClass returnCtType = compileState.returnType();
+        final boolean continued = compileState.chunk();
+        final MolangCompilingVisitor compiler = new MolangCompilingVisitor(compileState, types);
+        final MolangCompilingVisitor.CompilingContext compilerCtx = new MolangCompilingVisitor.CompilingContext(returnCtType);
+        CompileVisitResult lastVisitResult = null;
+        final int lastIndex = statements.size() - 1;
+
+        compiler.loadFrameTemps(frameIndex, frameSlots);
+        for (int i = 0; i <= lastIndex; i++) {
+            final Expression expression = statements.get(i);
+            if (i < lastIndex || returnCtType == CtClass.voidType || continued) {
+                // only the last expression value is used
+                lastVisitResult = compiler.visitDiscarding(expression);
+            } else {
+                lastVisitResult = expression.visit(compiler, compilerCtx);
+            }
+            if (lastVisitResult == null) {
+                throw new UnsupportedOperationException("Couldn't compile expression: " + expression);
+            }
+            if (statementEnds != null) {
+                statementEnds[i] = bytecode.currentPc();
+            }
+        }
+
+        if (continued) {
+            if (lastVisitResult == null || !lastVisitResult.returned()) {
+                // the next chunks may read them, returning the frame
+                // means the function didn't return yet
+                compiler.storeFrameTemps(frameIndex, frameSlots);
+                bytecode.addAload(frameIndex);
+                bytecode.addReturn(returnCtType);
+            }
+        } else if (lastVisitResult == null || !lastVisitResult.returned()) {
+            CtClass lastPushedType = lastVisitResult != null ? lastVisitResult.lastPushedType() : null;
+
+            if (lastPushedType == CtClass.voidType) {
+                // nothing was pushed (statement)
+                if (returnCtType != CtClass.voidType) {
+                    bytecode.addConstZero(returnCtType);
+                }
+            } else {
+                JavassistUtil.addCast(
+                        bytecode,
+                        lastPushedType == null ? returnCtType : lastPushedType,
+                        returnCtType
+                );
             }
+
+            bytecode.addReturn(returnCtType);
+        }
+
+        // temp locals may be assigned inside a loop or a branch and then
+        // read after it, so they must be initialized at method entry
+        return compiler.prependLocalsInitialization(bytecode);
+    }
+
+    /**
+     * Compiles the given outlined subtree into the bytecode of the given
+     * state, see {@link MethodSplitter#outline}.
+     *
+     * @param compileState The method compile state
+     * @param types The inferred types of the function
+     * @param outlined The outlined subtree
+     * @param firstTempIndex The local variable index of the first temp parameter
+     * @return The resulting bytecode
+     */
+    private static Bytecode compileOutlined(
+            final FunctionCompileState compileState,
+            final TypeInference types,
+            final FunctionCompileState.Outlined outlined,
+            final int firstTempIndex
+    ) {
+        final Bytecode bytecode = compileState.bytecode();
+        final CtClass returnCtType = compileState.returnType();
+        final MolangCompilingVisitor compiler = new MolangCompilingVisitor(compileState, types);
+        compiler.useParameterTemps(firstTempIndex, outlined.temps(), outlined.tempTypes());
+
+        final CompileVisitResult result;
+        if (outlined.expression() instanceof ExecutionScopeExpression group) {
+            // a group of statements outlined together
+            result = compiler.visitInline(group, new MolangCompilingVisitor.CompilingContext(returnCtType));
+        } else if (returnCtType == CtClass.voidType) {
+            result = compiler.visitDiscarding(outlined.expression());
+        } else {
+            result = outlined.expression().visit(compiler, new MolangCompilingVisitor.CompilingContext(returnCtType));
         }
+        if (result == null) {
+            throw new UnsupportedOperationException("Couldn't compile expression: " + outlined.expression());
+        }
+        if (returnCtType != CtClass.voidType) {
+            final CtClass lastPushedType = result.lastPushedType();
+            JavassistUtil.addCast(bytecode, lastPushedType == null ? returnCtType : lastPushedType, returnCtType);
+        }
+        bytecode.addReturn(returnCtType);
+        return compiler.prependLocalsInitialization(bytecode);
+    }
+
+    /**
+     * A generated class, not loaded yet.
+     *
+     * @param className The class name
+     * @param bytecode The class bytecode
+     * @param requirements The class requirements, in order
+     * @param staticRequirements Whether the requirements are given as class
+     *                           data, or as constructor arguments
+     * @param slots The binding property slots used by the class
+     */
+    record GeneratedClass(
+            String className,
+            byte[] bytecode,
+            List<FunctionCompileState.Requirement> requirements,
+            boolean staticRequirements,
+            Map<MutableObjectBinding, Map<String, Integer>> slots
+    ) {
+    }
+
+    /**
+     * Defines the given compiled class and creates its instance.
+     *
+     * @param clazz The implemented interface
+     * @param className The class name
+     * @param scriptBytecode The class bytecode
+     * @param requirements The class requirements, in order
+     * @param staticRequirements Whether the requirements are given as class
+     *                           data, or as constructor arguments
+     * @return The created instance
+     */
+    private static Object instantiate(
+            final Class<?> clazz,
+            final String className,
+            final byte[] scriptBytecode,
+            final Collection<FunctionCompileState.Requirement> requirements,
+            final boolean staticRequirements
+    ) {
+        final MethodHandles.Lookup hiddenClassLookup = staticRequirements ? requireNonNull(hiddenClassLookup(clazz), "lookup") : null;
         final Class<?> compiledClass;
-        try {
-            compiledClass = classPool.toClass(scriptCtClass, clazz, clazz.getClassLoader(), null);
-        } catch (final CannotCompileException e) {
-            throw new IllegalStateException("Couldn't compile script class", e);
+        if (hiddenClassLookup != null) {
+            try {
+                compiledClass = hiddenClassLookup.defineHiddenClassWithClassData(
+                        scriptBytecode,
+                        requirements.stream().map(FunctionCompileState.Requirement::value).toList(),
+                        true
+                ).lookupClass();
+            } catch (final IllegalAccessException e) {
+                throw new IllegalStateException("Couldn't define script hidden class", e);
+            }
+        } else {
+            // the interface is in another module, we can't define
+            // hidden classes in its package
+            try {
+                compiledClass = DefineClassHelper.toClass(className, clazz, clazz.getClassLoader(), null, scriptBytecode);
+            } catch (final CannotCompileException e) {
+                throw new IllegalStateException("Couldn't compile script class", e);
+            }
         }
 
         // find the constructor with the requirements
-        final Class<?>[] constructorParameterTypes = new Class[requirements.size()];
-        final Object[] constructorArguments = new Object[requirements.size()];
+        final Collection<FunctionCompileState.Requirement> constructorRequirements = staticRequirements ? List.of() : requirements;
+        final Class<?>[] constructorParameterTypes = new Class[constructorRequirements.size()];
+        final Object[] constructorArguments = new Object[constructorRequirements.size()];
         int i = 0;
-        for (final Object requirement : requirements.values()) {
-            constructorParameterTypes[i] = requirement.getClass();
-            constructorArguments[i] = requirement;
+        for (final FunctionCompileState.Requirement requirement : constructorRequirements) {
+            constructorParameterTypes[i] = requirement.type();
+            constructorArguments[i] = requirement.value();
             ++i;
         }
 
@@ -310,14 +773,77 @@ public final class MolangCompiler {
         try {
             constructor = compiledClass.getDeclaredConstructor(constructorParameterTypes);
         } catch (final NoSuchMethodException e) {
-            throw new IllegalStateException("Couldn't find constructor with parameters " + requirements.keySet(), e);
+            throw new IllegalStateException("Couldn't find constructor with parameters " + Arrays.toString(constructorParameterTypes), e);
         }
-        final Object instance;
         try {
-            instance = constructor.newInstance(constructorArguments);
+            return constructor.newInstance(constructorArguments);
         } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
             throw new IllegalStateException("Couldn't instantiate script class", e);
         }
-        return (T) instance;
+    }
+
+    /**
+     * Checks that the given bytecode never underflows the stack, which
+     * happens when the compiler skips an expression it doesn't support.
+     *
+     * @param bytecode The bytecode to check, must end with a return
+     */
+    static void checkStack(final Bytecode bytecode) {
+        try {
+            bytecode.toCodeAttribute().computeMaxStack();
+        } catch (final BadBytecode e) {
+            throw new IllegalStateException("Generated bad bytecode", e);
+        }
+    }
+
+    private void addMethod(
+            final CtClass scriptCtClass,
+            final String name,
+            final CtClass returnCtType,
+            final CtClass[] parameterCtTypes,
+            final int accessFlags,
+            final Bytecode bytecode
+    ) {
+        final MethodInfo method = new MethodInfo(
+                scriptCtClass.getClassFile().getConstPool(),
+                name,
+                Descriptor.ofMethod(returnCtType, parameterCtTypes)
+        );
+        method.setAccessFlags(accessFlags);
+        method.setCodeAttribute(bytecode.toCodeAttribute());
+        final StackMapTable stackMapTable;
+
+        try {
+            method.getCodeAttribute().computeMaxStack();
+            stackMapTable = MapMaker.make(classPool, method);
+        } catch (final BadBytecode e) {
+            throw new IllegalStateException("Generated bad bytecode, open an issue at https://github.com/roxymcdev/mocha/issues", e);
+        }
+
+        if (stackMapTable != null) {
+            method.getCodeAttribute().setAttribute(stackMapTable);
+        }
+
+        try {
+            scriptCtClass.addMethod(CtMethod.make(method, scriptCtClass));
+        } catch (final CannotCompileException e) {
+            throw new IllegalStateException("Couldn't compile function method " + name, e);
+        }
+    }
+
+    /**
+     * Finds the lookup used to define compiled scripts as hidden classes, in
+     * the same package as the implemented interface, so they are unloaded as
+     * soon as they are unreachable. Returns null if not possible, scripts are
+     * then permanently defined in the interface class loader.
+     */
+    private static MethodHandles.@Nullable Lookup hiddenClassLookup(final Class<?> interfaceClass) {
+        final MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(interfaceClass, MethodHandles.lookup());
+        } catch (final IllegalAccessException ignored) {
+            return null;
+        }
+        return lookup.hasFullPrivilegeAccess() ? lookup : null;
     }
 }
\ No newline at end of file
@@ -23,6 +23,7 @@
  */
 package team.unnamed.mocha.runtime;
 
+import com.google.common.reflect.TypeToken;
 import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.CtPrimitiveType;
@@ -35,8 +36,12 @@ import team.unnamed.mocha.runtime.binding.Entity;
 import team.unnamed.mocha.runtime.binding.JavaFieldBinding;
 import team.unnamed.mocha.runtime.binding.JavaFunction;
 import team.unnamed.mocha.runtime.binding.JavaObjectBinding;
+import team.unnamed.mocha.runtime.value.ArrayValue;
 import team.unnamed.mocha.runtime.value.DoubleValue;
 import team.unnamed.mocha.runtime.value.Function;
+import team.unnamed.mocha.runtime.value.JavaValue;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.NumberFunction;
 import team.unnamed.mocha.runtime.value.ObjectValue;
 import team.unnamed.mocha.runtime.value.Value;
 import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
@@ -46,11 +51,20 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import static java.util.Objects.requireNonNull;
+
 final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable CompileVisitResult, MolangCompilingVisitor.CompilingContext> {
+    // the parameter slots a method can take, including this
+    private static final int MAX_PARAMETER_SLOTS = 255;
+
     private static final int[] OPCODES_BY_BINARY_EXPRESSION_OP = new int[]{
             -1, // AND(300),
             -1, //        OR(200),
@@ -70,29 +84,61 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
             Bytecode.IFNE //        NEQ(500);
     };
 
+    private static final int[] INT_OPCODES_BY_BINARY_EXPRESSION_OP = opcodesByBinaryExpressionOp(
+            Bytecode.IADD, Bytecode.ISUB, Bytecode.IMUL
+    );
+    private static final int[] LONG_OPCODES_BY_BINARY_EXPRESSION_OP = opcodesByBinaryExpressionOp(
+            Bytecode.LADD, Bytecode.LSUB, Bytecode.LMUL
+    );
+    private static final int[] INT_COMPARISON_OPCODES_BY_BINARY_EXPRESSION_OP = new int[BinaryExpression.Op.values().length];
+
+    static {
+        INT_COMPARISON_OPCODES_BY_BINARY_EXPRESSION_OP[BinaryExpression.Op.LT.ordinal()] = Bytecode.IF_ICMPLT;
+        INT_COMPARISON_OPCODES_BY_BINARY_EXPRESSION_OP[BinaryExpression.Op.LTE.ordinal()] = Bytecode.IF_ICMPLE;
+        INT_COMPARISON_OPCODES_BY_BINARY_EXPRESSION_OP[BinaryExpression.Op.GT.ordinal()] = Bytecode.IF_ICMPGT;
+        INT_COMPARISON_OPCODES_BY_BINARY_EXPRESSION_OP[BinaryExpression.Op.GTE.ordinal()] = Bytecode.IF_ICMPGE;
+        INT_COMPARISON_OPCODES_BY_BINARY_EXPRESSION_OP[BinaryExpression.Op.EQ.ordinal()] = Bytecode.IF_ICMPEQ;
+        INT_COMPARISON_OPCODES_BY_BINARY_EXPRESSION_OP[BinaryExpression.Op.NEQ.ordinal()] = Bytecode.IF_ICMPNE;
+    }
+
     private final ClassPool classPool;
     private final Bytecode bytecode;
 
     private final FunctionCompileState functionCompileState;
-    private final Map<String, Object> requirements;
+    private final Map<String, FunctionCompileState.Requirement> requirements;
 
     private final Map<String, LocalVar> localsByName = new CaseInsensitiveStringHashMap<>();
-
+    private final List<LocalVar> locals = new ArrayList<>();
+    private final Deque<LoopScope> loops = new ArrayDeque<>();
+    private final Deque<LocalVar> entities = new ArrayDeque<>();
+    // locals holding the value being stored into a binding property,
+    // only read right after the store, so they are reused
+    private @Nullable LocalVar numberToStore;
+    private @Nullable LocalVar valueToStore;
+
+    private final CtClass objectCtType;
     private final CtClass stringCtType;
     private final CtClass doubleCtType;
+    private final CtClass valueCtType;
+    private final CtClass mutableBindingCtType;
 
     private final Map<String, CtClass> parametersCtTypes;
+    private final TypeInference types;
 
-    MolangCompilingVisitor(final FunctionCompileState compileState) {
+    MolangCompilingVisitor(final FunctionCompileState compileState, final TypeInference types) {
         this.functionCompileState = compileState;
+        this.types = requireNonNull(types, "types");
         this.classPool = compileState.classPool();
         this.bytecode = compileState.bytecode();
         this.parametersCtTypes = compileState.parametersCtTypes();
         this.requirements = compileState.requirements();
 
         try {
+            this.objectCtType = classPool.get(Object.class.getName());
             this.stringCtType = classPool.get(String.class.getName());
             this.doubleCtType = classPool.get(Double.class.getName());
+            this.valueCtType = classPool.get(Value.class.getName());
+            this.mutableBindingCtType = classPool.get(MutableObjectBinding.class.getName());
         } catch (final NotFoundException e) {
             throw new IllegalStateException("Couldn't find CtClass for standard classes", e);
         }
@@ -111,142 +157,143 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
                     final String property = ((AccessExpression) left).property();
 
                     if (name.equals("temp") || name.equals("t")) {
-                        final CompileVisitResult result = expression.right().visit(this, new CompilingContext(null));
-                        final LocalVar localVar = localsByName.computeIfAbsent(property, k -> {
-                            int index = functionCompileState.maxLocals();
-                            if (result.lastPushedType() == CtClass.doubleType || result.lastPushedType() == CtClass.longType) {
-                                functionCompileState.maxLocals(index + 2);
-                            } else {
-                                functionCompileState.maxLocals(index + 1);
-                            }
-                            return new LocalVar(result.lastPushedType(), index);
-                        });
-                        bytecode.addStore(localVar.index, result.lastPushedType());
-                        return null;
+                        // locals holding only numbers use the narrowest type that fits all of them
+                        final CtClass inferredType = types.localType(property);
+                        final CompileVisitResult result = expression.right().visit(this, new CompilingContext(inferredType));
+                        LocalVar localVar = localsByName.get(property);
+                        if (localVar == null) {
+                            localVar = declareLocal(property, inferredType != null ? inferredType : result.lastPushedType());
+                        }
+                        // locals keep the type they were declared with
+                        JavassistUtil.addCast(bytecode, result.lastPushedType(), localVar.type);
+                        if (ctx.expectedType == CtClass.voidType) {
+                            bytecode.addStore(localVar.index, localVar.type);
+                            return new CompileVisitResult(CtClass.voidType);
+                        }
+                        // assignations evaluate to the assigned value
+                        bytecode.addOpcode(isWide(localVar.type) ? Bytecode.DUP2 : Bytecode.DUP);
+                        bytecode.addStore(localVar.index, localVar.type);
+                        return coerce(localVar.type, ctx);
                     }
                 }
-            }
-        }
 
-        //@formatter:off
-        switch (op) {
-            case AND: {
-                final int const_0;
-                final int const_1;
-
-                if (ctx.expectedType == CtClass.doubleType) {
-                    const_0 = Bytecode.DCONST_0;
-                    const_1 = Bytecode.DCONST_1;
-                } else if (ctx.expectedType == CtClass.floatType) {
-                    const_0 = Bytecode.FCONST_0;
-                    const_1 = Bytecode.FCONST_1;
-                } else if (ctx.expectedType == CtClass.longType) {
-                    const_0 = Bytecode.LCONST_0;
-                    const_1 = Bytecode.LCONST_1;
-                } else {
-                    const_0 = Bytecode.ICONST_0;
-                    const_1 = Bytecode.ICONST_1;
-                }
+                final MutableObjectBinding binding = resolveMutableBinding(objectExpr);
+                if (binding != null) {
+                    final String property = ((AccessExpression) left).property();
+                    if (binding.blocked()) {
+                        // blocked bindings ignore writes
+                        return expression.right().visit(this, ctx);
+                    }
 
-                expression.left().visit(this, new CompilingContext(CtClass.booleanType)); // pushes lhs value to stack as boolean
-                bytecode.addOpcode(Bytecode.IFEQ); // if lhs is false set to zero
-                final int indexPc = bytecode.currentPc();
-                bytecode.addGap(2); // index1, index2 (we don't know how many bytes the next instruction will take)
-                expression.right().visit(this, new CompilingContext(CtClass.booleanType)); // pushes rhs value to stack as boolean
-                bytecode.addOpcode(Bytecode.IFEQ); // if rhs is false set to zero
-                bytecode.addIndex(7); // index1, index2, const_1, goto, index1, index2, const_0
-                bytecode.addOpcode(const_1);
-                bytecode.addOpcode(Bytecode.GOTO);
-                bytecode.addIndex(4); // index1, index2, const_0, ((?))
-                // jump here!
-                bytecode.write16bit(indexPc, bytecode.currentPc() - indexPc + 1);
-                bytecode.addOpcode(const_0);
-                return new CompileVisitResult(ctx.expectedType);
-            }
-            case OR: {
-                final int const_0;
-                final int const_1;
-
-                if (ctx.expectedType == CtClass.doubleType) {
-                    const_0 = Bytecode.DCONST_0;
-                    const_1 = Bytecode.DCONST_1;
-                } else if (ctx.expectedType == CtClass.floatType) {
-                    const_0 = Bytecode.FCONST_0;
-                    const_1 = Bytecode.FCONST_1;
-                } else if (ctx.expectedType == CtClass.longType) {
-                    const_0 = Bytecode.LCONST_0;
-                    const_1 = Bytecode.LCONST_1;
-                } else {
-                    const_0 = Bytecode.ICONST_0;
-                    const_1 = Bytecode.ICONST_1;
+                    final CompileVisitResult result = expression.right().visit(this, new CompilingContext(null));
+                    final LocalVar storedValue = storeProperty(binding, property, result.lastPushedType());
+                    if (ctx.expectedType == CtClass.voidType) {
+                        return new CompileVisitResult(CtClass.voidType);
+                    }
+                    // assignations evaluate to the assigned value
+                    bytecode.addLoad(storedValue.index, storedValue.type);
+                    return coerce(storedValue.type, ctx);
                 }
+            }
+        }
 
-                expression.left().visit(this, new CompilingContext(CtClass.booleanType)); // pushes lhs value to stack as boolean
-                bytecode.addOpcode(Bytecode.IFNE); // if lhs is false set to zero
-                final int indexPc = bytecode.currentPc();
-                bytecode.addGap(2); // index1, index2 (we don't know how many bytes the next instruction will take)
-                expression.right().visit(this, new CompilingContext(CtClass.booleanType)); // pushes rhs value to stack as boolean
-                bytecode.addOpcode(Bytecode.IFEQ); // if rhs is false set to zero
-                bytecode.addIndex(7); // index1, index2, const_1, goto, index1, index2, const_0
-                // jump here!
-                bytecode.write16bit(indexPc, bytecode.currentPc() - indexPc + 1);
-                bytecode.addOpcode(const_1);
-                bytecode.addOpcode(Bytecode.GOTO);
-                bytecode.addIndex(4); // index1, index2, const_0, ((?))
-                bytecode.addOpcode(const_0);
-                return new CompileVisitResult(ctx.expectedType);
+        if (ctx.expectedType == CtClass.voidType && op != BinaryExpression.Op.ASSIGN
+                && op != BinaryExpression.Op.NULL_COALESCE && op != BinaryExpression.Op.CONDITIONAL) {
+            // operators have no side effects by themselves, but their
+            // operands may have, evaluate them and discard the result
+            final CompileVisitResult result = visitBinary(expression, new CompilingContext(CtClass.doubleType));
+            if (result == null) {
+                return null;
             }
+            return coerce(result.lastPushedType(), ctx);
+        }
+
+        //@formatter:off
+        switch (op) {
+            case AND:
+            case OR:
             case EQ:
             case NEQ:
             case LT:
             case LTE:
             case GT:
-            case GTE: {
+            case GTE:
+                // conditions are compiled as jumps, 0 or 1 is pushed only once at the end
+                return visitConditionValue(expression, ctx);
+            case ADD:
+            case SUB:
+            case MUL: {
+                final CtClass integralType = integralType(expression);
+                if (integralType != null) {
+                    // the result is exact, no need to use doubles
+                    expression.left().visit(this, new CompilingContext(integralType));
+                    expression.right().visit(this, new CompilingContext(integralType));
+                    bytecode.addOpcode(integralType == CtClass.intType
+                            ? INT_OPCODES_BY_BINARY_EXPRESSION_OP[op.ordinal()]
+                            : LONG_OPCODES_BY_BINARY_EXPRESSION_OP[op.ordinal()]);
+                    return new CompileVisitResult(JavassistUtil.addCastIfPossible(bytecode, integralType, ctx.expectedType));
+                }
+
                 expression.left().visit(this, new CompilingContext(CtClass.doubleType));   // pushes lhs value to stack
                 expression.right().visit(this, new CompilingContext(CtClass.doubleType));  // pushes rhs value to stack
 
-                final int const_0;
-                final int const_1;
-
-                if (ctx.expectedType == CtClass.doubleType) {
-                    const_0 = Bytecode.DCONST_0;
-                    const_1 = Bytecode.DCONST_1;
-                } else if (ctx.expectedType == CtClass.floatType) {
-                    const_0 = Bytecode.FCONST_0;
-                    const_1 = Bytecode.FCONST_1;
-                } else if (ctx.expectedType == CtClass.longType) {
-                    const_0 = Bytecode.LCONST_0;
-                    const_1 = Bytecode.LCONST_1;
-                } else {
-                    const_0 = Bytecode.ICONST_0;
-                    const_1 = Bytecode.ICONST_1;
-                }
+                bytecode.addOpcode(OPCODES_BY_BINARY_EXPRESSION_OP[op.ordinal()]);
 
-                bytecode.addOpcode(Bytecode.DCMPL); // compare both numbers
-                bytecode.addOpcode(OPCODES_BY_BINARY_EXPRESSION_OP[op.ordinal()]); // branch
-                bytecode.addIndex(7);
-                bytecode.addOpcode(const_0);
-                bytecode.addOpcode(Bytecode.GOTO);
-                bytecode.addIndex(4);
-                bytecode.addOpcode(const_1);
-                return new CompileVisitResult(ctx.expectedType == null ? CtClass.booleanType : ctx.expectedType);
+                final CtClass type = JavassistUtil.addCastIfPossible(bytecode, CtClass.doubleType, ctx.expectedType);
+                return new CompileVisitResult(type);
             }
-            case ADD:
-            case SUB:
-            case MUL:
             case DIV: {
                 expression.left().visit(this, new CompilingContext(CtClass.doubleType));   // pushes lhs value to stack
                 expression.right().visit(this, new CompilingContext(CtClass.doubleType));  // pushes rhs value to stack
 
-                bytecode.addOpcode(OPCODES_BY_BINARY_EXPRESSION_OP[op.ordinal()]);
+                // dividing by zero gives zero, like in the interpreter
+                bytecode.addOpcode(Bytecode.DUP2);
+                bytecode.addOpcode(Bytecode.DCONST_0);
+                bytecode.addOpcode(Bytecode.DCMPL);
+                final int isNonZero = addBranch(Bytecode.IFNE);
+                bytecode.addOpcode(Bytecode.POP2);
+                bytecode.addOpcode(Bytecode.POP2);
+                bytecode.addOpcode(Bytecode.DCONST_0);
+                final int end = addBranch(Bytecode.GOTO);
+                resolveBranch(isNonZero);
+                bytecode.addOpcode(Bytecode.DDIV);
+                resolveBranch(end);
 
                 final CtClass type = JavassistUtil.addCastIfPossible(bytecode, CtClass.doubleType, ctx.expectedType);
                 return new CompileVisitResult(type);
             }
             case ARROW:
-            case NULL_COALESCE:
-            case CONDITIONAL:
-                break;
+                return visitArrow(expression, ctx);
+            case NULL_COALESCE: {
+                // evaluates to the left value if it is truthy, otherwise to the right value
+                final CtClass type = ctx.expectedType == null || ctx.expectedType == CtClass.voidType
+                        ? CtClass.doubleType
+                        : ctx.expectedType;
+                expression.left().visit(this, new CompilingContext(type));
+                bytecode.addOpcode(isWide(type) ? Bytecode.DUP2 : Bytecode.DUP);
+                addTruthiness(type);
+                final int isTruthy = addBranch(Bytecode.IFNE);
+                pop(type);
+                expression.right().visit(this, new CompilingContext(type));
+                resolveBranch(isTruthy);
+                return coerce(type, ctx);
+            }
+            case CONDITIONAL: {
+                // evaluates to the right value if the condition is truthy, otherwise to zero
+                final CompilingContext resultCtx = ctx.expectedType == null ? new CompilingContext(CtClass.doubleType) : ctx;
+                final List<Integer> isFalse = addConditionBranch(expression.left(), false);
+                if (expression.right() instanceof ExecutionScopeExpression executionScope) {
+                    // like the interpreter, an execution scope here is executed
+                    visitInline(executionScope, resultCtx);
+                } else {
+                    expression.right().visit(this, resultCtx);
+                }
+                final int end = addBranch(Bytecode.GOTO);
+                isFalse.forEach(this::resolveBranch);
+                pushZero(resultCtx);
+                resolveBranch(end);
+                return new CompileVisitResult(resultCtx.expectedType);
+            }
         }
         //@formatter:on
         return null;
@@ -270,7 +317,7 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
             return new CompileVisitResult(ctx.expectedType);
         } else if (ctx.expectedType != null && JavassistUtil.isPrimitiveOrWrapper((CtPrimitiveType) CtClass.intType, ctx.expectedType)) {
             // expects an int, push int
-            bytecode.addLdc((int) value);
+            bytecode.addIconst((int) value);
             // wrap if needed
             JavassistUtil.addCast(bytecode, CtClass.intType, ctx.expectedType);
             return new CompileVisitResult(ctx.expectedType);
@@ -321,10 +368,24 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
     public @Nullable CompileVisitResult visitUnary(final UnaryExpression expression, final CompilingContext ctx) {
         switch (expression.op()) {
             case RETURN: {
-                expression.expression().visit(this, ctx);
-                //JavassistUtil.addCast(bytecode, visit.lastPushedType(), returnCtType);
-                bytecode.addReturn(ctx.expectedType);
-                return new CompileVisitResult(ctx.expectedType, true);
+                // return from the whole function, even from inside loops
+                final CtClass returnType = functionCompileState.returnType();
+                final CtClass resultType = functionCompileState.resultType();
+                if (resultType == CtClass.voidType) {
+                    visitDiscarding(expression.expression());
+                } else {
+                    expression.expression().visit(this, new CompilingContext(resultType));
+                }
+                if (functionCompileState.chunk()) {
+                    // chunks of a split function return the result boxed, see MethodSplitter
+                    if (resultType == CtClass.voidType) {
+                        bytecode.addOpcode(Bytecode.ACONST_NULL);
+                    } else {
+                        JavassistUtil.addCast(bytecode, resultType, JavassistUtil.boxedType(classPool, resultType));
+                    }
+                }
+                bytecode.addReturn(returnType);
+                return new CompileVisitResult(returnType, true);
             }
             case LOGICAL_NEGATION: {
                 if (ctx.expectedType == CtClass.voidType) {
@@ -344,44 +405,19 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
                     return new CompileVisitResult(ctx.expectedType);
                 }
 
-                // todo: wrap primitives to their wrapper class if needed
-
-                expression.expression().visit(this, new CompilingContext(CtClass.booleanType)); // push boolean value to stack
-
-                if (ctx.expectedType == CtClass.booleanType) {
-                    // booleans just leave it ready to branch
-                    bytecode.addOpcode(Bytecode.IFNE);
-                    return new CompileVisitResult(CtClass.booleanType);
-                }
-
-                final int const_1;
-                final int const_0;
-
-                if (ctx.expectedType == CtClass.doubleType) {
-                    const_1 = Bytecode.DCONST_1;
-                    const_0 = Bytecode.DCONST_0;
-                } else if (ctx.expectedType == CtClass.floatType) {
-                    const_1 = Bytecode.FCONST_1;
-                    const_0 = Bytecode.FCONST_0;
-                } else if (ctx.expectedType == CtClass.longType) {
-                    const_1 = Bytecode.LCONST_1;
-                    const_0 = Bytecode.LCONST_0;
-                } else {
-                    const_1 = Bytecode.ICONST_1;
-                    const_0 = Bytecode.ICONST_0;
-                }
-
-                bytecode.addOpcode(Bytecode.IFNE);
-                bytecode.addIndex(7); // index1, index2, const_1, goto, index1, index2, ((const_0))
-                bytecode.addOpcode(const_1);
-                bytecode.addOpcode(Bytecode.GOTO);
-                bytecode.addIndex(4); // index1, index2, const_0, ((?))
-                bytecode.addOpcode(const_0);
-                return new CompileVisitResult(ctx.expectedType);
+                return visitConditionValue(expression, ctx);
             }
             case ARITHMETICAL_NEGATION: {
+                final CtClass integralType = integralType(expression);
+                if (integralType != null && ctx.expectedType != CtClass.voidType) {
+                    expression.expression().visit(this, new CompilingContext(integralType));
+                    bytecode.addOpcode(integralType == CtClass.intType ? Bytecode.INEG : Bytecode.LNEG);
+                    return new CompileVisitResult(JavassistUtil.addCastIfPossible(bytecode, integralType, ctx.expectedType));
+                }
                 final CompileVisitResult result = expression.expression().visit(this, ctx); // push value to stack
-                if (result.is(CtClass.doubleType)) {
+                if (result.is(CtClass.voidType)) {
+                    // nothing pushed, nothing to negate
+                } else if (result.is(CtClass.doubleType)) {
                     bytecode.addOpcode(Bytecode.DNEG);
                 } else if (result.is(CtClass.longType)) {
                     bytecode.addOpcode(Bytecode.LNEG);
@@ -396,12 +432,11 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
                 } else {
                     throw new IllegalStateException("Unsupported type for negation: " + result);
                 }
-                break;
+                return result;
             }
             default:
                 throw new UnsupportedOperationException("Unsupported unary operator: " + expression.op());
         }
-        return null;
     }
 
     @Override
@@ -410,35 +445,20 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
         final Expression trueExpr = expression.trueExpression();
         final Expression falseExpr = expression.falseExpression();
 
-        final CompileVisitResult conditionRes = conditionExpr.visit(this, new CompilingContext(CtClass.booleanType)); // push boolean value to stack
-
-        if (conditionRes != null && conditionRes.lastPushedType() != null && !conditionRes.is(CtClass.booleanType) && !conditionRes.is(CtClass.intType)) {
-            bytecode.addConstZero(conditionRes.lastPushedType()); // push 0
-            // compare
-            if (conditionRes.is(CtClass.doubleType)) {
-                bytecode.addOpcode(Bytecode.DCMPL);
-            } else if (conditionRes.is(CtClass.floatType)) {
-                bytecode.addOpcode(Bytecode.FCMPL);
-            } else if (conditionRes.is(CtClass.longType)) {
-                bytecode.addOpcode(Bytecode.LCMP);
-            } else {
-                throw new IllegalStateException("Unsupported type for comparison: " + conditionRes);
-            }
-        }
-
-        bytecode.addOpcode(Bytecode.IFEQ); // if false skip
-        final int indexPc = bytecode.currentPc();
-        bytecode.addGap(2);
-        trueExpr.visit(this, ctx); // push true value to stack
-        bytecode.addOpcode(Bytecode.GOTO); // skip pushing false value
-        final int indexPc2 = bytecode.currentPc();
-        bytecode.addGap(2);
+        final List<Integer> isFalse = addConditionBranch(conditionExpr, false); // if false skip
+        // numbers are pushed with the type that fits both branches
+        final CtClass inferredType = ctx.expectedType == null ? types.typeOf(expression) : null;
+        final CompilingContext branchCtx = inferredType != null ? new CompilingContext(inferredType) : ctx;
+        final CompileVisitResult trueRes = trueExpr.visit(this, branchCtx); // push true value to stack
+        final int end = addBranch(Bytecode.GOTO); // skip pushing false value
         // jump here if false
-        bytecode.write16bit(indexPc, bytecode.currentPc() - indexPc + 1);
-        falseExpr.visit(this, ctx); // push false value to stack
+        isFalse.forEach(this::resolveBranch);
+        // both branches must push the same type
+        final CtClass type = branchCtx.expectedType != null || trueRes == null ? branchCtx.expectedType : trueRes.lastPushedType();
+        falseExpr.visit(this, new CompilingContext(type)); // push false value to stack
         // jump here if true
-        bytecode.write16bit(indexPc2, bytecode.currentPc() - indexPc2 + 1);
-        return new CompileVisitResult(ctx.expectedType);
+        resolveBranch(end);
+        return new CompileVisitResult(type);
     }
 
     @Override
@@ -450,22 +470,12 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
             throw new IllegalStateException("Unknown variable: " + name);
         }
 
-        int loadIndex = 1;
-        for (final Map.Entry<String, CtClass> entry : parametersCtTypes.entrySet()) {
-            if (entry.getKey().equals(name)) {
-                break;
-            }
-
-            final CtClass paramType = entry.getValue();
-
-            if (paramType == CtClass.doubleType || paramType == CtClass.longType) {
-                loadIndex += 2;
-            } else {
-                loadIndex += 1;
-            }
+        if (ctx.expectedType == CtClass.voidType) {
+            // loading a parameter has no side effects
+            return new CompileVisitResult(CtClass.voidType);
         }
 
-        bytecode.addLoad(loadIndex, parameterCtType);
+        bytecode.addLoad(parameterIndex(name), parameterCtType);
 
         if (ctx.expectedType == null) {
             // we are free to use anything, no need to cast
@@ -486,42 +496,64 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
             final String name = ((IdentifierExpression) objectExpr).name();
             if (name.equals("temp") || name.equals("t")) {
                 // temps are locals
-                final LocalVar localVar = localsByName.get(property);
-                if (localVar == null) {
-                    bytecode.addConstZero(ctx.expectedType);
-                    return new CompileVisitResult(ctx.expectedType);
-                } else {
-                    bytecode.addLoad(localVar.index, localVar.type);
+                if (ctx.expectedType == CtClass.voidType) {
+                    // reading a local has no side effects
+                    return new CompileVisitResult(CtClass.voidType);
+                }
 
-                    final CtClass type = JavassistUtil.addCastIfPossible(bytecode, localVar.type, ctx.expectedType);
-                    return new CompileVisitResult(type);
+                // locals read before being assigned are declared as zero-initialized
+                // numbers, since they may be assigned later (e.g. inside a loop)
+                LocalVar localVar = localsByName.get(property);
+                if (localVar == null) {
+                    final CtClass inferredType = types.localType(property);
+                    localVar = declareLocal(property, inferredType != null ? inferredType : CtClass.doubleType);
                 }
+                bytecode.addLoad(localVar.index, localVar.type);
+
+                final CtClass type = JavassistUtil.addCastIfPossible(bytecode, localVar.type, ctx.expectedType);
+                return new CompileVisitResult(type);
             }
         }
 
-        final Scope scope = functionCompileState.scope();
-        final Value objectValue = objectExpr.visit(new ExpressionVisitor<>() {
-            @Override
-            public Value visitIdentifier(final IdentifierExpression expression, final Context ctx) {
-                final String name = expression.name();
-                return scope.get(name);
+        final Value objectValue = resolveValue(objectExpr);
+
+        if (objectValue instanceof MutableObjectBinding binding) {
+            if (ctx.expectedType == CtClass.voidType) {
+                // reading a property has no side effects
+                return new CompileVisitResult(CtClass.voidType);
             }
 
-            @Override
-            public Value visitAccess(final AccessExpression expression, final Context ctx) {
-                final Value object = expression.object().visit(this);
-                if (object instanceof ObjectValue) {
-                    return ((ObjectValue) object).get(expression.property());
-                } else {
-                    return DoubleValue.ZERO;
-                }
+            if (ctx.expectedType == CtClass.booleanType) {
+                // tested like the interpreter, any other value may be truthy
+                addPropertyTruthiness(binding, property);
+                return new CompileVisitResult(CtClass.booleanType);
             }
 
-            @Override
-            public Value visit(final Expression expression, final Context ctx) {
-                return DoubleValue.ZERO;
+            if (ctx.expectedType != null && (ctx.expectedType.isPrimitive() || JavassistUtil.isWrapper(ctx.expectedType))) {
+                // numbers are read directly from the property slot
+                loadBinding(binding);
+                bytecode.addGetfield(mutableBindingCtType, "numbers", "[D");
+                bytecode.addIconst(slot(binding, property));
+                bytecode.addOpcode(Bytecode.DALOAD);
+                return coerce(CtClass.doubleType, ctx);
             }
-        });
+
+            // any other value, or an unknown one, is taken as is
+            loadBinding(binding);
+            bytecode.addLdc(property);
+            bytecode.addInvokevirtual(mutableBindingCtType, "get", valueCtType, new CtClass[]{stringCtType});
+            if (ctx.expectedType != null && ctx.expectedType != stringCtType && !JavassistUtil.isValue(ctx.expectedType)) {
+                // converted like the values of temps (e.g. numbers to doubles)
+                bytecode.addInvokestatic(
+                        JavassistUtil.getClassUnchecked(classPool, JavaTypes.class),
+                        "unwrap",
+                        objectCtType,
+                        new CtClass[]{valueCtType}
+                );
+                return coerce(objectCtType, ctx);
+            }
+            return coerce(valueCtType, ctx);
+        }
 
         if (objectValue instanceof ObjectValue) {
             final ObjectValue actualObjectValue = (ObjectValue) objectValue;
@@ -530,17 +562,17 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
                 if (javaFieldBinding == null) {
                     // push zero only
                     bytecode.addDconst(0D);
-                    return new CompileVisitResult(CtClass.doubleType);
+                    return coerce(CtClass.doubleType, ctx);
                 } else if (javaFieldBinding.constant()) {
                     // inline const
                     bytecode.addDconst(javaFieldBinding.get().getAsNumber());
-                    return new CompileVisitResult(CtClass.doubleType);
+                    return coerce(CtClass.doubleType, ctx);
                 } else {
                     // get field
                     final Field field = javaFieldBinding.field();
                     if (Modifier.isStatic(field.getModifiers())) {
                         try {
-                            CtClass fieldCtType = classPool.get(field.getType().toString());
+                            CtClass fieldCtType = classPool.get(field.getType().getName());
 
                             bytecode.addGetstatic(
                                     classPool.get(field.getDeclaringClass().getName()),
@@ -548,7 +580,23 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
                                     Descriptor.of(fieldCtType)
                             );
 
-                            return new CompileVisitResult(fieldCtType);
+                            return coerce(fieldCtType, ctx);
+                        } catch (final NotFoundException ignored) {
+                        }
+                    } else if (javaFieldBinding.object() != null
+                            && Modifier.isPublic(field.getModifiers())
+                            && Modifier.isPublic(field.getDeclaringClass().getModifiers())) {
+                        try {
+                            final CtClass fieldCtType = classPool.get(field.getType().getName());
+
+                            loadRequirement(javaFieldBinding.object(), field.getDeclaringClass(), PersistentCompileCache.fieldSource(expression));
+                            bytecode.addGetfield(
+                                    classPool.get(field.getDeclaringClass().getName()),
+                                    field.getName(),
+                                    Descriptor.of(fieldCtType)
+                            );
+
+                            return coerce(fieldCtType, ctx);
                         } catch (final NotFoundException ignored) {
                         }
                     }
@@ -560,47 +608,175 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
     }
 
     @Override
-    public CompileVisitResult visitCall(final CallExpression expression, final CompilingContext ctx) {
-        final Scope scope = functionCompileState.scope();
-        final Expression functionExpr = expression.function();
-
-        final Value functionValue = functionExpr.visit(new ExpressionVisitor<>() {
-            @Override
-            public Value visitIdentifier(final IdentifierExpression expression, final Context ctx) {
-                final String name = expression.name();
-                return scope.get(name);
+    public @Nullable CompileVisitResult visitArrayAccess(final ArrayAccessExpression expression, final CompilingContext ctx) {
+        final Expression arrayExpr = expression.array();
+        final boolean bindingProperty = arrayExpr instanceof AccessExpression access
+                && resolveMutableBinding(access.object()) != null;
+        // non-final fields may be reassigned or mutated, so they are read every time
+        final boolean liveField = arrayExpr instanceof AccessExpression access
+                && resolveValue(access.object()) instanceof JavaObjectBinding object
+                && object.getField(access.property()) instanceof JavaFieldBinding field
+                && field.live();
+
+        final CtClass arrayType;
+        if (!bindingProperty && !liveField && resolveValue(arrayExpr) instanceof ArrayValue arrayValue) {
+            // constant arrays are compiled to Java arrays, numbers are unwrapped
+            final Value[] values = arrayValue.values();
+            boolean numbers = true;
+            for (final Value value : values) {
+                numbers &= value instanceof DoubleValue;
             }
-
-            @Override
-            public Value visitAccess(final AccessExpression expression, final Context ctx) {
-                final Value object = expression.object().visit(this);
-                if (object instanceof ObjectValue) {
-                    return ((ObjectValue) object).get(expression.property());
-                } else {
-                    return DoubleValue.ZERO;
+            if (numbers) {
+                final double[] doubles = new double[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    doubles[i] = values[i].getAsNumber();
                 }
+                loadRequirement(doubles, double[].class, PersistentCompileCache.doublesSource(doubles));
+                arrayType = CtClass.doubleType;
+            } else {
+                loadRequirement(values, Value[].class, null);
+                arrayType = valueCtType;
             }
+        } else {
+            final CompileVisitResult arrayResult = arrayExpr.visit(this, new CompilingContext(bindingProperty ? valueCtType : null));
+            if (arrayResult == null) {
+                return null;
+            }
+            final CtClass pushedType = arrayResult.lastPushedType();
+            if (pushedType == null || pushedType == CtClass.voidType || pushedType.isPrimitive()) {
+                // not an array
+                if (pushedType != null) {
+                    pop(pushedType);
+                }
+                visitDiscarding(expression.index());
+                bytecode.addInvokestatic(valueCtType, "nil", valueCtType, new CtClass[0]);
+                return coerce(valueCtType, ctx);
+            }
+            if (pushedType.isArray()) {
+                try {
+                    arrayType = pushedType.getComponentType();
+                } catch (final NotFoundException e) {
+                    throw new IllegalStateException("Array component type not found", e);
+                }
+            } else {
+                return visitArrayValueAccess(pushedType, expression.index(), ctx);
+            }
+        }
 
-            @Override
-            public Value visit(final Expression expression, final Context ctx) {
-                return DoubleValue.ZERO;
+        // array[max(0, (int) index) % array.length]
+        final LocalVar array = new LocalVar(objectCtType, functionCompileState.allocateLocal(objectCtType));
+        bytecode.addAstore(array.index);
+        bytecode.addAload(array.index);
+        pushWrappedIndex(expression.index());
+        bytecode.addAload(array.index);
+        bytecode.addOpcode(Bytecode.ARRAYLENGTH);
+        bytecode.addOpcode(Bytecode.IREM);
+        bytecode.addOpcode(arrayLoadOpcode(arrayType));
+        return coerce(arrayType, ctx);
+    }
+
+    /**
+     * Compiles an array access over a value only known at runtime, evaluates
+     * to nil if the value is not an {@link ArrayValue}.
+     */
+    private CompileVisitResult visitArrayValueAccess(final CtClass pushedType, final Expression indexExpr, final CompilingContext ctx) {
+        final CtClass arrayValueCtType = JavassistUtil.getClassUnchecked(classPool, ArrayValue.class);
+        if (!JavassistUtil.isValue(pushedType)) {
+            bytecode.addInvokestatic(
+                    JavassistUtil.getClassUnchecked(classPool, JavaTypes.class),
+                    "wrap",
+                    valueCtType,
+                    new CtClass[]{objectCtType}
+            );
+        }
+
+        final LocalVar array = new LocalVar(valueCtType, functionCompileState.allocateLocal(valueCtType));
+        bytecode.addAstore(array.index);
+
+        // the index is evaluated even if this is not an array
+        final LocalVar index = new LocalVar(CtClass.intType, functionCompileState.allocateLocal(CtClass.intType));
+        pushWrappedIndex(indexExpr);
+        bytecode.addIstore(index.index);
+
+        bytecode.addAload(array.index);
+        bytecode.addInstanceof(arrayValueCtType.getName());
+        final int notArray = addBranch(Bytecode.IFEQ);
+
+        bytecode.addAload(array.index);
+        bytecode.addCheckcast(arrayValueCtType);
+        bytecode.addIload(index.index);
+        bytecode.addAload(array.index);
+        bytecode.addCheckcast(arrayValueCtType);
+        bytecode.addInvokeinterface(arrayValueCtType, "length", CtClass.intType, new CtClass[0], 1);
+        bytecode.addOpcode(Bytecode.IREM);
+        bytecode.addInvokeinterface(arrayValueCtType, "get", valueCtType, new CtClass[]{CtClass.intType}, 2);
+        final int end = addBranch(Bytecode.GOTO);
+
+        resolveBranch(notArray);
+        bytecode.addInvokestatic(valueCtType, "nil", valueCtType, new CtClass[0]);
+        resolveBranch(end);
+        return coerce(valueCtType, ctx);
+    }
+
+    /**
+     * Pushes the given index expression as a non-negative int,
+     * to be wrapped around the array length.
+     */
+    private void pushWrappedIndex(final Expression indexExpr) {
+        indexExpr.visit(this, new CompilingContext(CtClass.intType));
+        bytecode.addIconst(0);
+        bytecode.addInvokestatic(
+                JavassistUtil.getClassUnchecked(classPool, Math.class),
+                "max",
+                CtClass.intType,
+                new CtClass[]{CtClass.intType, CtClass.intType}
+        );
+    }
+
+    @Override
+    public CompileVisitResult visitCall(final CallExpression expression, final CompilingContext ctx) {
+        final Expression interpreted = InterpreterFallback.interpreted(expression);
+        if (interpreted != null) {
+            return visitInterpreted(interpreted, ctx);
+        }
+
+        final Expression outlined = MethodSplitter.outlined(expression);
+        if (outlined != null) {
+            return visitOutlined(outlined, ctx);
+        }
+
+        final Expression functionExpr = expression.function();
+
+        if (functionExpr instanceof IdentifierExpression identifier) {
+            // built-in functions
+            switch (identifier.name()) {
+                case "loop":
+                    return visitLoop(expression.arguments(), ctx);
+                case "for_each":
+                    return visitForEach(expression.arguments(), ctx);
             }
-        });
+        }
+
+        final Value functionValue = resolveValue(functionExpr);
         if (!(functionValue instanceof Function<?>)) {
             // not a function, just add 0
             bytecode.addDconst(0D);
-            return new CompileVisitResult(CtClass.doubleType);
+            return coerce(CtClass.doubleType, ctx);
         }
 
         final Function<?> function = (Function<?>) functionValue;
 
-        if (function instanceof JavaFunction<?>) {
+        if (function instanceof JavaFunction<?> javaFunction && javaFunction.method() != null) {
             // we can compile to directly call this function (Java Method)
-            final JavaFunction<?> javaFunction = (JavaFunction<?>) function;
             final Method nativeMethod = javaFunction.method();
             final Parameter[] parameters = nativeMethod.getParameters();
             final List<Expression> arguments = expression.arguments();
 
+            final CompileVisitResult intrinsic = visitMathIntrinsic(nativeMethod, arguments, ctx);
+            if (intrinsic != null) {
+                return intrinsic;
+            }
+
             final CtClass[] ctParameters = new CtClass[parameters.length];
             for (int i = 0; i < parameters.length; i++) {
                 final Parameter parameter = parameters[i];
@@ -611,7 +787,11 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
                 }
             }
 
-            final Object object = javaFunction.object();
+            final boolean isStatic = Modifier.isStatic(nativeMethod.getModifiers());
+            if (!isStatic) {
+                // the receiver goes below the arguments
+                loadRequirement(requireNonNull(javaFunction.object(), "object"), PersistentCompileCache.objectSource(functionExpr));
+            }
 
             // load arguments
             final Iterator<Expression> it = arguments.iterator();
@@ -619,22 +799,7 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
                 final Parameter parameter = parameters[i];
 
                 if (parameter.isAnnotationPresent(Entity.class)) {
-                    Object entity = functionCompileState.compiler().entity();
-                    if (entity == null || !parameter.getType().isInstance(entity)) {
-                        // load null
-                        bytecode.addConstZero(ctParameters[i]);
-                    } else {
-                        // add entity requirement
-                        requirements.put("__entity__", entity);
-
-                        // load entity requirement (field)
-                        bytecode.addAload(0); // load this
-                        bytecode.addGetfield(
-                                functionCompileState.type(),
-                                "__entity__",
-                                Descriptor.of(ctParameters[i])
-                        );
-                    }
+                    loadEntity(ctParameters[i], parameter.getType());
                     continue;
                 }
 
@@ -656,39 +821,569 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
                 throw new IllegalStateException("Return type not found", e);
             }
 
-            if (Modifier.isStatic(nativeMethod.getModifiers())) {
+            if (isStatic) {
                 // invoke static
                 bytecode.addInvokestatic(nativeMethodDeclaringCtClass, nativeMethod.getName(), ctReturnType, ctParameters);
             } else {
-                final String fieldName = object.getClass().getSimpleName().toLowerCase() + Integer.toHexString(object.hashCode());
-                requirements.put(fieldName, object);
+                bytecode.addInvokevirtual(nativeMethodDeclaringCtClass, nativeMethod.getName(), ctReturnType, ctParameters);
+            }
 
-                final CtClass requirementType;
+            if (nativeMethod.getReturnType() == void.class) {
+                return pushZero(ctx);
+            }
 
-                try {
-                    requirementType = classPool.get(object.getClass().getName());
-                } catch (final NotFoundException e) {
-                    throw new IllegalStateException("Field not found", e);
-                }
+            return coerce(ctReturnType, ctx);
+        } else if (function instanceof NumberFunction<?> numberFunction) {
+            return visitNumberFunctionCall(numberFunction, functionExpr, expression.arguments(), ctx);
+        } else {
+            return visitGenericFunctionCall(function, expression.arguments(), ctx);
+        }
+    }
 
-                // we must load object
-                bytecode.addAload(0);
-                bytecode.addGetfield(functionCompileState.type(), fieldName, Descriptor.of(requirementType));
-                bytecode.addInvokevirtual(nativeMethodDeclaringCtClass, nativeMethod.getName(), ctReturnType, ctParameters);
+    /**
+     * Compiles a call to a function registered using {@link ObjectValue#setFunction},
+     * the backing primitive function is called directly, arguments are
+     * compiled as doubles and missing arguments default to zero.
+     */
+    private CompileVisitResult visitNumberFunctionCall(
+            final NumberFunction<?> function,
+            final Expression functionExpr,
+            final List<Expression> arguments,
+            final CompilingContext ctx
+    ) {
+        final int arity = function.arity();
+        final Class<?> functionType = switch (arity) {
+            case 1 -> ObjectValue.DoubleFunction1.class;
+            case 2 -> ObjectValue.DoubleFunction2.class;
+            default -> ObjectValue.DoubleFunction3.class;
+        };
+        final CtClass functionCtType = JavassistUtil.getClassUnchecked(classPool, functionType);
+
+        loadRequirement(function.function(), functionType, PersistentCompileCache.functionSource(functionExpr));
+
+        final CtClass[] ctParameters = new CtClass[arity];
+        for (int i = 0; i < arity; i++) {
+            ctParameters[i] = CtClass.doubleType;
+            if (i < arguments.size()) {
+                arguments.get(i).visit(this, new CompilingContext(CtClass.doubleType));
+            } else {
+                bytecode.addDconst(0D);
             }
+        }
 
-            if (nativeMethod.getReturnType() == void.class) {
-                if (ctx.expectedType != CtClass.voidType) {
-                    bytecode.addConstZero(ctx.expectedType);
-                }
-            } else if (!nativeMethod.getReturnType().getName().equals(ctx.expectedType.getName())) {
-                JavassistUtil.addCast(bytecode, ctReturnType, ctx.expectedType);
+        bytecode.addInvokeinterface(functionCtType, "apply", CtClass.doubleType, ctParameters, 1 + 2 * arity);
+        return coerce(CtClass.doubleType, ctx);
+    }
+
+    /**
+     * Compiles a call to any other {@link Function}, the arguments are
+     * evaluated by the compiled code and the function is called through
+     * a {@link CompiledFunctionCall} bridge.
+     */
+    private CompileVisitResult visitGenericFunctionCall(
+            final Function<?> function,
+            final List<Expression> arguments,
+            final CompilingContext ctx
+    ) {
+        for (final Expression argument : arguments) {
+            if (argument instanceof ExecutionScopeExpression) {
+                // these are lazily evaluated by the called function
+                throw new UnsupportedOperationException("Can't compile execution scope arguments for non-Java functions");
             }
+        }
 
-            return new CompileVisitResult(ctx.expectedType);
+        final CtClass callCtType = JavassistUtil.getClassUnchecked(classPool, CompiledFunctionCall.class);
+        final CtClass valueArrayCtType;
+        try {
+            valueArrayCtType = classPool.get(valueCtType.getName() + "[]");
+        } catch (final NotFoundException e) {
+            throw new IllegalStateException("Value array type not found", e);
+        }
+        final CompiledFunctionCall call = new CompiledFunctionCall(
+                function,
+                new ExpressionInterpreter<>(functionCompileState.compiler().entity(), functionCompileState.scope())
+        );
+        loadRequirement(call, CompiledFunctionCall.class, null);
+
+        final boolean entitySwitched = !entities.isEmpty() || functionCompileState.entityParameterName() != null;
+        if (entitySwitched) {
+            loadEntity(objectCtType, Object.class);
+        }
+
+        // build the argument array
+        bytecode.addAnewarray(valueCtType, arguments.size());
+        for (int i = 0; i < arguments.size(); i++) {
+            bytecode.addOpcode(Bytecode.DUP);
+            bytecode.addIconst(i);
+            final CtClass type = arguments.get(i).visit(this, new CompilingContext(null)).lastPushedType();
+            if (type == null || type == CtClass.voidType) {
+                bytecode.addOpcode(Bytecode.ACONST_NULL);
+            } else if (type.isPrimitive() || JavassistUtil.isWrapper(type)) {
+                JavassistUtil.addCast(bytecode, type, CtClass.doubleType);
+                bytecode.addInvokestatic(callCtType, "number", valueCtType, new CtClass[]{CtClass.doubleType});
+            } else if (!JavassistUtil.isValue(type)) {
+                bytecode.addInvokestatic(
+                        JavassistUtil.getClassUnchecked(classPool, JavaTypes.class),
+                        "wrap",
+                        valueCtType,
+                        new CtClass[]{JavassistUtil.getClassUnchecked(classPool, Object.class)}
+                );
+            }
+            bytecode.addOpcode(Bytecode.AASTORE);
+        }
+
+        if (entitySwitched) {
+            bytecode.addInvokevirtual(callCtType, "call", valueCtType, new CtClass[]{objectCtType, valueArrayCtType});
+        } else {
+            bytecode.addInvokevirtual(callCtType, "call", valueCtType, new CtClass[]{valueArrayCtType});
+        }
+        return coerce(valueCtType, ctx);
+    }
+
+    /**
+     * Compiles an expression the compiler doesn't support to a call to the
+     * interpreter, through a {@link CompiledInterpreterCall} bridge, see
+     * {@link InterpreterFallback}.
+     */
+    private CompileVisitResult visitInterpreted(final Expression expression, final CompilingContext ctx) {
+        final CtClass callCtType = JavassistUtil.getClassUnchecked(classPool, CompiledInterpreterCall.class);
+        final CompiledInterpreterCall call = new CompiledInterpreterCall(
+                expression,
+                new ExpressionInterpreter<>(functionCompileState.compiler().entity(), functionCompileState.scope())
+        );
+        loadRequirement(call, CompiledInterpreterCall.class, null);
+
+        if (!entities.isEmpty() || functionCompileState.entityParameterName() != null) {
+            loadEntity(objectCtType, Object.class);
+            bytecode.addInvokevirtual(callCtType, "evaluate", valueCtType, new CtClass[]{objectCtType});
         } else {
-            throw new UnsupportedOperationException("Not supporting non-Java functions yet");
+            bytecode.addInvokevirtual(callCtType, "evaluate", valueCtType, new CtClass[0]);
+        }
+        return coerce(valueCtType, ctx);
+    }
+
+    /**
+     * Compiles a call to the method the given subtree is outlined to, the
+     * function parameters and the temps it reads are passed to it, see
+     * {@link MethodSplitter#outline}.
+     */
+    private @Nullable CompileVisitResult visitOutlined(final Expression expression, final CompilingContext ctx) {
+        final CtClass returnType = ctx.expectedType == CtClass.voidType ? CtClass.voidType : types.typeOf(expression);
+        if (returnType == null || !entities.isEmpty()) {
+            // not a number, or evaluated with another entity, compiled inline
+            return visitOutlinedInline(expression, ctx);
+        }
+
+        final List<CtClass> parameterTypes = new ArrayList<>(parametersCtTypes.values());
+        int parameterSlots = 1;
+        for (final CtClass parameterType : parameterTypes) {
+            parameterSlots += isWide(parameterType) ? 2 : 1;
         }
+        final List<String> temps = MethodSplitter.temps(expression);
+        final List<LocalVar> tempLocals = new ArrayList<>(temps.size());
+        for (final String temp : temps) {
+            LocalVar local = localsByName.get(temp);
+            if (local == null) {
+                // read before being assigned, like in visitAccess
+                final CtClass inferredType = types.localType(temp);
+                local = declareLocal(temp, inferredType != null ? inferredType : CtClass.doubleType);
+            }
+            tempLocals.add(local);
+            parameterSlots += isWide(local.type) ? 2 : 1;
+        }
+        if (parameterSlots > MAX_PARAMETER_SLOTS) {
+            // reads too many temps to pass them all
+            return visitOutlinedInline(expression, ctx);
+        }
+
+        // this.outlined$i(parameters..., temps...)
+        bytecode.addAload(0);
+        int parameterIndex = 1;
+        for (final CtClass parameterType : parameterTypes) {
+            bytecode.addLoad(parameterIndex, parameterType);
+            parameterIndex += isWide(parameterType) ? 2 : 1;
+        }
+        final List<CtClass> tempTypes = new ArrayList<>(temps.size());
+        for (final LocalVar local : tempLocals) {
+            bytecode.addLoad(local.index, local.type);
+            tempTypes.add(local.type);
+        }
+        parameterTypes.addAll(tempTypes);
+
+        final List<FunctionCompileState.Outlined> outlined = functionCompileState.outlined();
+        final String name = "outlined$" + outlined.size();
+        outlined.add(new FunctionCompileState.Outlined(name, expression, temps, tempTypes, returnType));
+        bytecode.addInvokespecial(functionCompileState.type(), name, Descriptor.ofMethod(returnType, parameterTypes.toArray(CtClass[]::new)));
+        return returnType == CtClass.voidType ? new CompileVisitResult(CtClass.voidType) : coerce(returnType, ctx);
+    }
+
+    /**
+     * Compiles the arrow operator {@code a -> b}, the right side is evaluated
+     * using the Java object the left side evaluates to as the entity. Evaluates
+     * to zero if the left side doesn't evaluate to a Java object.
+     */
+    private CompileVisitResult visitArrow(final BinaryExpression expression, final CompilingContext ctx) {
+        final Expression left = expression.left();
+        final boolean bindingProperty = left instanceof AccessExpression access
+                && resolveMutableBinding(access.object()) != null;
+        final CompileVisitResult leftResult = left.visit(this, new CompilingContext(bindingProperty ? valueCtType : null));
+        final CtClass leftType = leftResult == null ? CtClass.voidType : leftResult.lastPushedType();
+
+        if (leftType == CtClass.voidType || leftType.isPrimitive()
+                || JavassistUtil.isWrapper(leftType) || leftType.equals(stringCtType)) {
+            // never a Java object
+            pop(leftType);
+            return pushZero(ctx);
+        }
+
+        if (JavassistUtil.isValue(leftType)) {
+            // unwrap Java values, any other value is not a Java object
+            final CtClass javaValueCtType = JavassistUtil.getClassUnchecked(classPool, JavaValue.class);
+            bytecode.addOpcode(Bytecode.DUP);
+            bytecode.addInstanceof(javaValueCtType.getName());
+            final int notJavaValue = addBranch(Bytecode.IFEQ);
+            bytecode.addCheckcast(javaValueCtType);
+            bytecode.addInvokevirtual(javaValueCtType, "value", objectCtType, new CtClass[0]);
+            final int unwrapped = addBranch(Bytecode.GOTO);
+            resolveBranch(notJavaValue);
+            bytecode.addOpcode(Bytecode.POP);
+            bytecode.addOpcode(Bytecode.ACONST_NULL);
+            resolveBranch(unwrapped);
+        }
+
+        final LocalVar entity = new LocalVar(objectCtType, functionCompileState.allocateLocal(objectCtType));
+        bytecode.addAstore(entity.index);
+
+        final CompilingContext resultCtx = new CompilingContext(ctx.expectedType == null ? CtClass.doubleType : ctx.expectedType);
+        bytecode.addAload(entity.index);
+        final int noEntity = addBranch(Bytecode.IFNULL);
+
+        entities.push(entity);
+        final CompileVisitResult result = expression.right().visit(this, resultCtx);
+        entities.pop();
+        if (result == null) {
+            pushZero(resultCtx);
+        }
+
+        final int end = addBranch(Bytecode.GOTO);
+        resolveBranch(noEntity);
+        pushZero(resultCtx);
+        resolveBranch(end);
+        return new CompileVisitResult(resultCtx.expectedType);
+    }
+
+    /**
+     * Pushes the entity the current expression is evaluated for, pushes
+     * null (or zero) instead if it is not an instance of the given type.
+     *
+     * <p>The entity is the one switched to by the innermost arrow operator,
+     * the compiled function entity parameter or the engine entity, in that
+     * order.</p>
+     */
+    private void loadEntity(final CtClass type, final Class<?> javaType) {
+        final LocalVar arrowEntity = entities.peek();
+        if (arrowEntity != null) {
+            if (type.isPrimitive()) {
+                bytecode.addConstZero(type);
+                return;
+            }
+            bytecode.addAload(arrowEntity.index);
+            if (!type.equals(objectCtType)) {
+                // the entity type is only known at runtime
+                bytecode.addOpcode(Bytecode.DUP);
+                bytecode.addInstanceof(type.getName());
+                final int isInstance = addBranch(Bytecode.IFNE);
+                bytecode.addOpcode(Bytecode.POP);
+                bytecode.addOpcode(Bytecode.ACONST_NULL);
+                resolveBranch(isInstance);
+                bytecode.addCheckcast(type);
+            }
+            return;
+        }
+
+        final String entityParameterName = functionCompileState.entityParameterName();
+        if (entityParameterName != null) {
+            // entity given per invocation, as a parameter
+            final CtClass entityCtType = parametersCtTypes.get(entityParameterName);
+            if (JavassistUtil.isSubtypeOf(entityCtType, type)) {
+                bytecode.addLoad(parameterIndex(entityParameterName), entityCtType);
+            } else {
+                // load null
+                bytecode.addConstZero(type);
+            }
+            return;
+        }
+
+        final Object entity = functionCompileState.compiler().entity();
+        if (entity == null || !javaType.isInstance(entity)) {
+            // load null
+            bytecode.addConstZero(type);
+        } else {
+            // load entity requirement
+            loadRequirement("__entity__", entity, entity.getClass(), PersistentCompileCache.ENTITY_SOURCE);
+        }
+    }
+
+    /**
+     * Compiles the built-in {@code loop(count, { ... })} function to a
+     * counted JVM loop, {@code break} and {@code continue} statements
+     * inside the body are compiled to jumps.
+     */
+    private CompileVisitResult visitLoop(final List<Expression> arguments, final CompilingContext ctx) {
+        final Expression countExpr = arguments.isEmpty() ? new DoubleExpression(0D) : arguments.get(0);
+        final Expression bodyExpr = arguments.size() < 2 ? null : arguments.get(1);
+
+        // push loop count, rounded like the interpreter does
+        countExpr.visit(this, new CompilingContext(CtClass.doubleType));
+
+        if (!(bodyExpr instanceof ExecutionScopeExpression body)) {
+            // not a callable body, evaluated once and never looped
+            bytecode.addOpcode(Bytecode.POP2);
+            if (bodyExpr != null) {
+                visitDiscarding(bodyExpr);
+            }
+            return pushZero(ctx);
+        }
+
+        bytecode.addOpcode(Bytecode.D2F);
+        bytecode.addInvokestatic("java.lang.Math", "round", "(F)I");
+        final int countIndex = functionCompileState.allocateLocal(CtClass.intType);
+        final int counterIndex = functionCompileState.allocateLocal(CtClass.intType);
+        bytecode.addIstore(countIndex);
+        bytecode.addIconst(0);
+        bytecode.addIstore(counterIndex);
+
+        // loop condition: counter < count
+        final int conditionPc = bytecode.currentPc();
+        bytecode.addIload(counterIndex);
+        bytecode.addIload(countIndex);
+        final int exitBranch = addBranch(Bytecode.IF_ICMPGE);
+
+        final LoopScope loop = visitLoopBody(body);
+
+        // "continue" jumps here
+        loop.continueBranches.forEach(this::resolveBranch);
+        bytecode.addIload(counterIndex);
+        bytecode.addIconst(1);
+        bytecode.addOpcode(Bytecode.IADD);
+        bytecode.addIstore(counterIndex);
+        addBackwardBranch(Bytecode.GOTO, conditionPc);
+
+        // loop exit and "break" jump here
+        resolveBranch(exitBranch);
+        loop.breakBranches.forEach(this::resolveBranch);
+        return pushZero(ctx);
+    }
+
+    /**
+     * Compiles the built-in {@code for_each(t.variable, iterable, { ... })}
+     * function to a JVM loop. Java arrays are iterated by index and any other
+     * {@link Iterable} (including {@link ArrayValue}) through its iterator,
+     * the loop variable is either a temp local or a binding property slot.
+     */
+    private CompileVisitResult visitForEach(final List<Expression> arguments, final CompilingContext ctx) {
+        if (arguments.size() < 3 || !(arguments.get(0) instanceof AccessExpression variableAccess)) {
+            // the interpreter doesn't evaluate anything in this case
+            return pushZero(ctx);
+        }
+
+        // the loop variable is either a temp local or a mutable binding property
+        final boolean temp = variableAccess.object() instanceof IdentifierExpression variableObject
+                && (variableObject.name().equals("temp") || variableObject.name().equals("t"));
+        final MutableObjectBinding variableBinding = temp ? null : resolveMutableBinding(variableAccess.object());
+        if (!temp && variableBinding == null) {
+            throw new UnsupportedOperationException("Unsupported for_each variable: " + variableAccess);
+        }
+
+        final Expression iterableExpr = arguments.get(1);
+        final CompileVisitResult iterableResult = iterableExpr.visit(this, new CompilingContext(null));
+        final CtClass iterableType = iterableResult == null ? null : iterableResult.lastPushedType();
+        final CtClass iterableCtType = JavassistUtil.getClassUnchecked(classPool, Iterable.class);
+
+        if (iterableType == null || !(arguments.get(2) instanceof ExecutionScopeExpression body)
+                || !(iterableType.isArray() || JavassistUtil.isSubtypeOf(iterableType, iterableCtType))) {
+            // not iterable or not a callable body, never looped
+            if (iterableType != null) {
+                pop(iterableType);
+            }
+            return pushZero(ctx);
+        }
+
+        final LoopScope loop;
+        if (iterableType.isArray()) {
+            final CtClass componentType;
+            try {
+                componentType = iterableType.getComponentType();
+            } catch (final NotFoundException e) {
+                throw new IllegalStateException("Array component type not found", e);
+            }
+
+            // primitive elements are always converted to numbers, objects are kept
+            final LocalVar variable = temp ? declareLocal(variableAccess.property(), componentType.isPrimitive() ? CtClass.doubleType : componentType) : null;
+            final int arrayIndex = functionCompileState.allocateLocal(iterableType);
+            final int counterIndex = functionCompileState.allocateLocal(CtClass.intType);
+            bytecode.addAstore(arrayIndex);
+            bytecode.addIconst(0);
+            bytecode.addIstore(counterIndex);
+
+            // loop condition: counter < array.length
+            final int conditionPc = bytecode.currentPc();
+            bytecode.addIload(counterIndex);
+            bytecode.addAload(arrayIndex);
+            bytecode.addOpcode(Bytecode.ARRAYLENGTH);
+            final int exitBranch = addBranch(Bytecode.IF_ICMPGE);
+
+            // variable = array[counter]
+            bytecode.addAload(arrayIndex);
+            bytecode.addIload(counterIndex);
+            bytecode.addOpcode(arrayLoadOpcode(componentType));
+            if (variable != null) {
+                JavassistUtil.addCast(bytecode, componentType, variable.type);
+                bytecode.addStore(variable.index, variable.type);
+            } else {
+                storeProperty(variableBinding, variableAccess.property(), componentType);
+            }
+
+            loop = visitLoopBody(body);
+
+            // "continue" jumps here
+            loop.continueBranches.forEach(this::resolveBranch);
+            bytecode.addIload(counterIndex);
+            bytecode.addIconst(1);
+            bytecode.addOpcode(Bytecode.IADD);
+            bytecode.addIstore(counterIndex);
+            addBackwardBranch(Bytecode.GOTO, conditionPc);
+            resolveBranch(exitBranch);
+        } else {
+            final CtClass elementType = resolveElementType(iterableType, iterableExpr);
+            final LocalVar variable = temp ? declareLocal(variableAccess.property(), elementType) : null;
+            final int iteratorIndex = functionCompileState.allocateLocal(iterableCtType);
+            bytecode.addInvokeinterface(iterableCtType, "iterator", "()Ljava/util/Iterator;", 1);
+            bytecode.addAstore(iteratorIndex);
+
+            // loop condition: iterator.hasNext()
+            final int conditionPc = bytecode.currentPc();
+            bytecode.addAload(iteratorIndex);
+            bytecode.addInvokeinterface("java.util.Iterator", "hasNext", "()Z", 1);
+            final int exitBranch = addBranch(Bytecode.IFEQ);
+
+            // variable = iterator.next()
+            bytecode.addAload(iteratorIndex);
+            bytecode.addInvokeinterface("java.util.Iterator", "next", "()Ljava/lang/Object;", 1);
+            if (!elementType.getName().equals(Object.class.getName())) {
+                bytecode.addCheckcast(elementType);
+            }
+            if (variable != null) {
+                bytecode.addAstore(variable.index);
+            } else {
+                storeProperty(variableBinding, variableAccess.property(), elementType);
+            }
+
+            loop = visitLoopBody(body);
+
+            // "continue" jumps here
+            loop.continueBranches.forEach(this::resolveBranch);
+            addBackwardBranch(Bytecode.GOTO, conditionPc);
+            resolveBranch(exitBranch);
+        }
+
+        // "break" jumps here
+        loop.breakBranches.forEach(this::resolveBranch);
+        return pushZero(ctx);
+    }
+
+    private LoopScope visitLoopBody(final ExecutionScopeExpression body) {
+        final LoopScope loop = new LoopScope();
+        loops.push(loop);
+        for (final Expression statement : body.expressions()) {
+            visitDiscarding(statement);
+        }
+        loops.pop();
+        return loop;
+    }
+
+    /**
+     * Determines the element type of the given iterable, the generic
+     * type is only known when it comes from a Java function or field
+     * binding, otherwise it is assumed to be {@link Object}.
+     */
+    private CtClass resolveElementType(final CtClass iterableType, final Expression iterableExpr) {
+        if (JavassistUtil.isSubtypeOf(iterableType, JavassistUtil.getClassUnchecked(classPool, ArrayValue.class))) {
+            return JavassistUtil.getClassUnchecked(classPool, Value.class);
+        }
+
+        Type genericType = null;
+        if (iterableExpr instanceof CallExpression call
+                && resolveValue(call.function()) instanceof JavaFunction<?> function
+                && function.method() != null) {
+            genericType = function.method().getGenericReturnType();
+        } else if (iterableExpr instanceof AccessExpression access
+                && resolveValue(access.object()) instanceof JavaObjectBinding object) {
+            final JavaFieldBinding field = object.getField(access.property());
+            if (field != null && field.field() != null) {
+                genericType = field.field().getGenericType();
+            }
+        }
+
+        Class<?> elementType = Object.class;
+        if (genericType != null) {
+            final TypeToken<?> iterableToken = TypeToken.of(genericType);
+            if (iterableToken.isSubtypeOf(Iterable.class)) {
+                elementType = iterableToken.resolveType(Iterable.class.getTypeParameters()[0]).getRawType();
+            }
+        }
+        return JavassistUtil.getClassUnchecked(classPool, elementType);
+    }
+
+    @Override
+    public CompileVisitResult visitStatement(final StatementExpression expression, final CompilingContext ctx) {
+        final LoopScope loop = loops.peek();
+        if (loop != null) {
+            switch (expression.op()) {
+                case BREAK -> loop.breakBranches.add(addBranch(Bytecode.GOTO));
+                case CONTINUE -> loop.continueBranches.add(addBranch(Bytecode.GOTO));
+            }
+        }
+        // outside loops, break and continue do nothing
+        return pushZero(ctx);
+    }
+
+    @Override
+    public @Nullable CompileVisitResult visitExecutionScope(final ExecutionScopeExpression expression, final CompilingContext ctx) {
+        // like in the interpreter, execution scopes are only executed as the right
+        // side of a conditional or as loop bodies, anywhere else they are functions
+        // that are never called
+        if (ctx.expectedType == CtClass.booleanType) {
+            // functions are truthy
+            bytecode.addIconst(1);
+            return new CompileVisitResult(CtClass.booleanType);
+        }
+        if (ctx.expectedType == CtClass.voidType) {
+            return pushZero(ctx);
+        }
+        // their value is evaluated by the interpreter
+        return null;
+    }
+
+    /**
+     * Executes the statements of the given execution scope inline, and
+     * pushes zero as its value.
+     */
+    CompileVisitResult visitInline(final ExecutionScopeExpression expression, final CompilingContext ctx) {
+        for (final Expression statement : expression.expressions()) {
+            visitDiscarding(statement);
+        }
+        return pushZero(ctx);
+    }
+
+    /**
+     * Compiles the given outlined subtree inline, its statements are
+     * executed if it's a group of statements, see {@link MethodSplitter}.
+     */
+    private @Nullable CompileVisitResult visitOutlinedInline(final Expression expression, final CompilingContext ctx) {
+        return expression instanceof ExecutionScopeExpression group
+                ? visitInline(group, ctx)
+                : expression.visit(this, ctx);
     }
 
     @Override
@@ -696,9 +1391,672 @@ final class MolangCompilingVisitor implements ExpressionVisitor<@Nullable Compil
         throw new UnsupportedOperationException("Unsupported expression type: " + expression);
     }
 
+    /**
+     * Visits the given expression as a statement, its resulting
+     * value (if any) is discarded, so the stack is left untouched.
+     */
+    @Nullable CompileVisitResult visitDiscarding(final Expression expression) {
+        final CompileVisitResult result = expression.visit(this, new CompilingContext(CtClass.voidType));
+        if (result != null && result.lastPushedType() != null && !result.returned()) {
+            pop(result.lastPushedType());
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of the given bytecode, prefixed with the
+     * zero-initialization of all the temp locals, so that they
+     * are always definitely assigned.
+     */
+    Bytecode prependLocalsInitialization(final Bytecode body) {
+        if (locals.isEmpty()) {
+            return body;
+        }
+
+        final Bytecode initialized = new Bytecode(body.getConstPool());
+        for (final LocalVar local : locals) {
+            initialized.addConstZero(local.type);
+            initialized.addStore(local.index, local.type);
+        }
+        for (final byte b : body.get()) {
+            initialized.add(b);
+        }
+        initialized.setMaxStack(body.getMaxStack());
+        return initialized;
+    }
+
+    /**
+     * Loads the given temps from the frame array of a split function,
+     * see {@link MethodSplitter}.
+     *
+     * @param frameIndex The local variable index of the frame array
+     * @param frameSlots The frame slots of the temps
+     */
+    void loadFrameTemps(final int frameIndex, final Map<String, Integer> frameSlots) {
+        for (final Map.Entry<String, Integer> entry : frameSlots.entrySet()) {
+            final CtClass type = requireNonNull(types.localType(entry.getKey()), "frame temps must hold numbers");
+            final LocalVar local = declareLocal(entry.getKey(), type);
+            bytecode.addAload(frameIndex);
+            bytecode.addIconst(entry.getValue());
+            bytecode.addOpcode(Bytecode.DALOAD);
+            JavassistUtil.addCast(bytecode, CtClass.doubleType, type);
+            bytecode.addStore(local.index, type);
+        }
+    }
+
+    /**
+     * Stores the given temps into the frame array of a split function,
+     * see {@link MethodSplitter}.
+     *
+     * @param frameIndex The local variable index of the frame array
+     * @param frameSlots The frame slots of the temps
+     */
+    void storeFrameTemps(final int frameIndex, final Map<String, Integer> frameSlots) {
+        for (final Map.Entry<String, Integer> entry : frameSlots.entrySet()) {
+            final LocalVar local = localsByName.get(entry.getKey());
+            if (local == null) {
+                continue;
+            }
+            bytecode.addAload(frameIndex);
+            bytecode.addIconst(entry.getValue());
+            bytecode.addLoad(local.index, local.type);
+            JavassistUtil.addCast(bytecode, local.type, CtClass.doubleType);
+            bytecode.addOpcode(Bytecode.DASTORE);
+        }
+    }
+
+    /**
+     * Reads the given temps from the parameters of an outlined method,
+     * starting at the given local variable index, see {@link MethodSplitter#outline}.
+     *
+     * @param firstIndex The local variable index of the first temp
+     * @param temps The temps
+     * @param tempTypes The types of the temps
+     */
+    void useParameterTemps(final int firstIndex, final List<String> temps, final List<CtClass> tempTypes) {
+        int index = firstIndex;
+        for (int i = 0; i < temps.size(); i++) {
+            final CtClass type = tempTypes.get(i);
+            // outlined subtrees don't assign temps, so they are read in place
+            localsByName.put(temps.get(i), new LocalVar(type, index));
+            index += isWide(type) ? 2 : 1;
+        }
+    }
+
+    /**
+     * Declares a new temp local, replacing any previous declaration
+     * with the same name, so that names can change their type (e.g.
+     * when used as a for_each variable).
+     */
+    private LocalVar declareLocal(final String name, final CtClass type) {
+        final LocalVar local = new LocalVar(type, functionCompileState.allocateLocal(type));
+        localsByName.put(name, local);
+        locals.add(local);
+        return local;
+    }
+
+    /**
+     * Resolves the compile-time value of the given identifier or
+     * access expression from the function scope, any other
+     * expression resolves to zero.
+     */
+    private Value resolveValue(final Expression expression) {
+        final Scope scope = functionCompileState.scope();
+        return expression.visit(new ExpressionVisitor<>() {
+            @Override
+            public Value visitIdentifier(final IdentifierExpression expression, final Context ctx) {
+                final String name = expression.name();
+                return scope.get(name);
+            }
+
+            @Override
+            public Value visitAccess(final AccessExpression expression, final Context ctx) {
+                final Value object = expression.object().visit(this);
+                if (object instanceof ObjectValue) {
+                    return ((ObjectValue) object).get(expression.property());
+                } else {
+                    return DoubleValue.ZERO;
+                }
+            }
+
+            @Override
+            public Value visit(final Expression expression, final Context ctx) {
+                return DoubleValue.ZERO;
+            }
+        });
+    }
+
+    /**
+     * Computes the local variable index of the given parameter.
+     */
+    private int parameterIndex(final String name) {
+        int loadIndex = 1;
+        for (final Map.Entry<String, CtClass> entry : parametersCtTypes.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                break;
+            }
+
+            final CtClass paramType = entry.getValue();
+
+            if (paramType == CtClass.doubleType || paramType == CtClass.longType) {
+                loadIndex += 2;
+            } else {
+                loadIndex += 1;
+            }
+        }
+        return loadIndex;
+    }
+
+    /**
+     * Resolves the mutable binding (e.g. {@code variable}) accessed by the
+     * given expression, its properties are compiled to slot accesses.
+     */
+    private @Nullable MutableObjectBinding resolveMutableBinding(final Expression objectExpr) {
+        return resolveValue(objectExpr) instanceof MutableObjectBinding binding ? binding : null;
+    }
+
+    /**
+     * Stores the value on top of the stack into the given binding property,
+     * numbers are written directly to the property slot, any other value is
+     * wrapped and set.
+     *
+     * @return The local holding the stored value
+     */
+    private LocalVar storeProperty(final MutableObjectBinding binding, final String property, final CtClass type) {
+        if (type.isPrimitive() || JavassistUtil.isWrapper(type)) {
+            JavassistUtil.addCast(bytecode, type, CtClass.doubleType);
+            if (numberToStore == null) {
+                numberToStore = new LocalVar(CtClass.doubleType, functionCompileState.allocateLocal(CtClass.doubleType));
+            }
+            final LocalVar value = numberToStore;
+            bytecode.addDstore(value.index);
+
+            // numbers[slot] = value
+            final int slot = slot(binding, property);
+            loadBinding(binding);
+            bytecode.addGetfield(mutableBindingCtType, "numbers", "[D");
+            bytecode.addIconst(slot);
+            bytecode.addDload(value.index);
+            bytecode.addOpcode(Bytecode.DASTORE);
+
+            // values[slot] = null
+            loadBinding(binding);
+            bytecode.addGetfield(mutableBindingCtType, "values", "[" + Descriptor.of(valueCtType));
+            bytecode.addIconst(slot);
+            bytecode.addOpcode(Bytecode.ACONST_NULL);
+            bytecode.addOpcode(Bytecode.AASTORE);
+            return value;
+        }
+
+        if (!JavassistUtil.isValue(type)) {
+            bytecode.addInvokestatic(
+                    JavassistUtil.getClassUnchecked(classPool, JavaTypes.class),
+                    "wrap",
+                    valueCtType,
+                    new CtClass[]{JavassistUtil.getClassUnchecked(classPool, Object.class)}
+            );
+        }
+        if (valueToStore == null) {
+            valueToStore = new LocalVar(valueCtType, functionCompileState.allocateLocal(valueCtType));
+        }
+        final LocalVar value = valueToStore;
+        bytecode.addAstore(value.index);
+
+        loadBinding(binding);
+        bytecode.addLdc(property);
+        bytecode.addAload(value.index);
+        bytecode.addInvokevirtual(mutableBindingCtType, "set", CtClass.booleanType, new CtClass[]{stringCtType, valueCtType});
+        bytecode.addOpcode(Bytecode.POP);
+        return value;
+    }
+
+    /**
+     * Loads the given binding, bound to the scope if it's persisted.
+     */
+    private void loadBinding(final MutableObjectBinding binding) {
+        loadRequirement(binding, PersistentCompileCache.bindingSource(functionCompileState.scope(), binding));
+    }
+
+    /**
+     * Returns the slot of the given binding property, which the
+     * compiled code depends on.
+     */
+    private int slot(final MutableObjectBinding binding, final String property) {
+        final int slot = binding.slot(property);
+        functionCompileState.slots()
+                .computeIfAbsent(binding, k -> new CaseInsensitiveStringHashMap<>())
+                .put(property, slot);
+        return slot;
+    }
+
+    /**
+     * Loads the given object, kept in a field of the compiled class,
+     * a static final field initialized from the class data for hidden
+     * classes, or an instance field initialized by the constructor.
+     */
+    private void loadRequirement(final Object object, final @Nullable String source) {
+        loadRequirement(object, object.getClass(), source);
+    }
+
+    private void loadRequirement(final Object object, final Class<?> type, final @Nullable String source) {
+        String fieldName = type.getSimpleName().toLowerCase().replaceAll("[^a-z0-9_$]", "_") + Integer.toHexString(object.hashCode());
+        FunctionCompileState.Requirement existing;
+        while ((existing = requirements.get(fieldName)) != null && existing.value() != object) {
+            // another object with the same name
+            fieldName += '_';
+        }
+        loadRequirement(fieldName, object, type, source);
+    }
+
+    private void loadRequirement(final String fieldName, final Object object, final Class<?> type, final @Nullable String source) {
+        requirements.put(fieldName, new FunctionCompileState.Requirement(object, type, source));
+
+        final CtClass requirementType = JavassistUtil.getClassUnchecked(classPool, type);
+
+        if (functionCompileState.staticRequirements()) {
+            bytecode.addGetstatic(functionCompileState.type(), fieldName, Descriptor.of(requirementType));
+        } else {
+            bytecode.addAload(0);
+            bytecode.addGetfield(functionCompileState.type(), fieldName, Descriptor.of(requirementType));
+        }
+    }
+
+    private static int arrayLoadOpcode(final CtClass componentType) {
+        if (componentType == CtClass.doubleType) {
+            return Bytecode.DALOAD;
+        } else if (componentType == CtClass.floatType) {
+            return Bytecode.FALOAD;
+        } else if (componentType == CtClass.longType) {
+            return Bytecode.LALOAD;
+        } else if (componentType == CtClass.intType) {
+            return Bytecode.IALOAD;
+        } else if (componentType == CtClass.shortType) {
+            return Bytecode.SALOAD;
+        } else if (componentType == CtClass.charType) {
+            return Bytecode.CALOAD;
+        } else if (componentType == CtClass.byteType || componentType == CtClass.booleanType) {
+            return Bytecode.BALOAD;
+        } else {
+            return Bytecode.AALOAD;
+        }
+    }
+
+    /**
+     * Visits the given condition, leaving an int on the stack
+     * that is zero if and only if the condition is falsy.
+     */
+    private void visitCondition(final Expression condition) {
+        if (condition instanceof StringExpression string) {
+            // non-empty strings are truthy
+            bytecode.addIconst(string.value().isEmpty() ? 0 : 1);
+            return;
+        }
+        if (condition instanceof ExecutionScopeExpression) {
+            // never executed here, but functions are truthy
+            bytecode.addIconst(1);
+            return;
+        }
+
+        final MutableObjectBinding binding = condition instanceof AccessExpression access
+                && ConstantPropagator.tempName(access) == null
+                ? resolveMutableBinding(access.object())
+                : null;
+        if (binding != null) {
+            // the property may hold a number or any other value
+            addPropertyTruthiness(binding, ((AccessExpression) condition).property());
+            return;
+        }
+
+        // the value is taken as is, so that strings and other values
+        // are tested like the interpreter does
+        final CompileVisitResult result = condition.visit(this, new CompilingContext(null));
+        if (result == null || result.lastPushedType() == null || result.lastPushedType() == CtClass.voidType) {
+            bytecode.addIconst(0);
+            return;
+        }
+        addTruthiness(result.lastPushedType());
+    }
+
+    /**
+     * Pushes 1 if the given binding property is truthy, or 0 otherwise,
+     * testing the number in its slot unless it holds another value.
+     */
+    private void addPropertyTruthiness(final MutableObjectBinding binding, final String property) {
+        final int slot = slot(binding, property);
+
+        // Value value = binding.values[slot];
+        loadBinding(binding);
+        bytecode.addGetfield(mutableBindingCtType, "values", "[" + Descriptor.of(valueCtType));
+        bytecode.addIconst(slot);
+        bytecode.addOpcode(Bytecode.AALOAD);
+        bytecode.addOpcode(Bytecode.DUP);
+        final int isNumber = addBranch(Bytecode.IFNULL);
+        bytecode.addInvokeinterface(valueCtType, "getAsBoolean", CtClass.booleanType, new CtClass[0], 1);
+        final int end = addBranch(Bytecode.GOTO);
+
+        // binding.numbers[slot] != 0
+        resolveBranch(isNumber);
+        bytecode.addOpcode(Bytecode.POP);
+        loadBinding(binding);
+        bytecode.addGetfield(mutableBindingCtType, "numbers", "[D");
+        bytecode.addIconst(slot);
+        bytecode.addOpcode(Bytecode.DALOAD);
+        addTruthiness(CtClass.doubleType);
+        resolveBranch(end);
+    }
+
+    /**
+     * Compiles the given condition as jumps and then pushes 1 if it
+     * is truthy, or 0 otherwise, as the expected type.
+     */
+    private CompileVisitResult visitConditionValue(final Expression condition, final CompilingContext ctx) {
+        final CtClass type = ctx.expectedType == null ? CtClass.booleanType : ctx.expectedType;
+        final CtClass pushedType = type.isPrimitive() ? type : CtClass.booleanType;
+        final List<Integer> isTrue = addConditionBranch(condition, true);
+        addConstBoolean(pushedType, false);
+        final int end = addBranch(Bytecode.GOTO);
+        isTrue.forEach(this::resolveBranch);
+        addConstBoolean(pushedType, true);
+        resolveBranch(end);
+        return new CompileVisitResult(JavassistUtil.addCastIfPossible(bytecode, pushedType, type));
+    }
+
+    /**
+     * Compiles the given condition as jumps, without pushing its value.
+     * Comparisons and logical operators jump directly instead of testing
+     * the 0 or 1 values of their operands.
+     *
+     * @param condition The condition
+     * @param when Whether to jump if the condition is truthy or if it is falsy
+     * @return The positions of the jump offsets, to be resolved using
+     * {@link #resolveBranch(int)}, execution continues after them otherwise
+     */
+    private List<Integer> addConditionBranch(final Expression condition, final boolean when) {
+        final List<Integer> branches = new ArrayList<>();
+        if (condition instanceof UnaryExpression unary && unary.op() == UnaryExpression.Op.LOGICAL_NEGATION) {
+            return addConditionBranch(unary.expression(), !when);
+        } else if (condition instanceof DoubleExpression literal) {
+            if ((literal.value() != 0D) == when) {
+                branches.add(addBranch(Bytecode.GOTO));
+            }
+            return branches;
+        } else if (condition instanceof BinaryExpression binary) {
+            switch (binary.op()) {
+                case AND, OR -> {
+                    if ((binary.op() == BinaryExpression.Op.AND) != when) {
+                        // either operand decides, (a && b) is false if any is false
+                        // and (a || b) is true if any is true
+                        branches.addAll(addConditionBranch(binary.left(), when));
+                        branches.addAll(addConditionBranch(binary.right(), when));
+                    } else {
+                        // the right operand decides if the left one doesn't
+                        final List<Integer> skip = addConditionBranch(binary.left(), !when);
+                        branches.addAll(addConditionBranch(binary.right(), when));
+                        skip.forEach(this::resolveBranch);
+                    }
+                    return branches;
+                }
+                case EQ, NEQ, LT, LTE, GT, GTE -> {
+                    branches.add(addComparisonBranch(binary, when));
+                    return branches;
+                }
+            }
+        }
+        visitCondition(condition);
+        branches.add(addBranch(when ? Bytecode.IFNE : Bytecode.IFEQ));
+        return branches;
+    }
+
+    /**
+     * Compiles the given comparison as a single jump.
+     *
+     * @return The position of the jump offset
+     */
+    private int addComparisonBranch(final BinaryExpression comparison, final boolean when) {
+        final CtClass operandType = comparisonType(comparison.left(), comparison.right());
+        comparison.left().visit(this, new CompilingContext(operandType));
+        comparison.right().visit(this, new CompilingContext(operandType));
+
+        final BinaryExpression.Op op = when ? comparison.op() : switch (comparison.op()) {
+            case EQ -> BinaryExpression.Op.NEQ;
+            case NEQ -> BinaryExpression.Op.EQ;
+            case LT -> BinaryExpression.Op.GTE;
+            case LTE -> BinaryExpression.Op.GT;
+            case GT -> BinaryExpression.Op.LTE;
+            case GTE -> BinaryExpression.Op.LT;
+            default -> throw new IllegalArgumentException("Not a comparison: " + comparison);
+        };
+
+        if (operandType == CtClass.intType) {
+            return addBranch(INT_COMPARISON_OPCODES_BY_BINARY_EXPRESSION_OP[op.ordinal()]);
+        } else if (operandType == CtClass.longType) {
+            bytecode.addOpcode(Bytecode.LCMP);
+        } else {
+            // comparisons with NaN are false, dcmpg gives 1 and dcmpl gives -1 for them
+            final BinaryExpression.Op originalOp = comparison.op();
+            bytecode.addOpcode(originalOp == BinaryExpression.Op.LT || originalOp == BinaryExpression.Op.LTE
+                    ? Bytecode.DCMPG
+                    : Bytecode.DCMPL);
+        }
+        return addBranch(OPCODES_BY_BINARY_EXPRESSION_OP[op.ordinal()]);
+    }
+
+    private void addConstBoolean(final CtClass type, final boolean value) {
+        if (type == CtClass.doubleType) {
+            bytecode.addOpcode(value ? Bytecode.DCONST_1 : Bytecode.DCONST_0);
+        } else if (type == CtClass.floatType) {
+            bytecode.addOpcode(value ? Bytecode.FCONST_1 : Bytecode.FCONST_0);
+        } else if (type == CtClass.longType) {
+            bytecode.addOpcode(value ? Bytecode.LCONST_1 : Bytecode.LCONST_0);
+        } else {
+            bytecode.addOpcode(value ? Bytecode.ICONST_1 : Bytecode.ICONST_0);
+        }
+    }
+
+    /**
+     * Converts the value on top of the stack to an int that is
+     * zero if and only if the value is falsy.
+     */
+    private void addTruthiness(final CtClass type) {
+        if (type == CtClass.booleanType || type == CtClass.intType || type == CtClass.shortType
+                || type == CtClass.byteType || type == CtClass.charType) {
+            return;
+        }
+        if (type == CtClass.doubleType) {
+            bytecode.addDconst(0D);
+            bytecode.addOpcode(Bytecode.DCMPL);
+        } else if (type == CtClass.floatType) {
+            bytecode.addFconst(0F);
+            bytecode.addOpcode(Bytecode.FCMPL);
+        } else if (type == CtClass.longType) {
+            bytecode.addLconst(0L);
+            bytecode.addOpcode(Bytecode.LCMP);
+        } else {
+            if (!JavassistUtil.isValue(type)) {
+                bytecode.addInvokestatic(
+                        JavassistUtil.getClassUnchecked(classPool, JavaTypes.class),
+                        "wrap",
+                        valueCtType,
+                        new CtClass[]{objectCtType}
+                );
+            }
+            bytecode.addInvokeinterface(valueCtType, "getAsBoolean", CtClass.booleanType, new CtClass[0], 1);
+        }
+    }
+
+    private CompileVisitResult coerce(final CtClass pushedType, final CompilingContext ctx) {
+        if (ctx.expectedType == CtClass.voidType) {
+            pop(pushedType);
+            return new CompileVisitResult(CtClass.voidType);
+        }
+        return new CompileVisitResult(JavassistUtil.addCastIfPossible(bytecode, pushedType, ctx.expectedType));
+    }
+
+    private static int[] opcodesByBinaryExpressionOp(final int add, final int sub, final int mul) {
+        final int[] opcodes = new int[BinaryExpression.Op.values().length];
+        opcodes[BinaryExpression.Op.ADD.ordinal()] = add;
+        opcodes[BinaryExpression.Op.SUB.ordinal()] = sub;
+        opcodes[BinaryExpression.Op.MUL.ordinal()] = mul;
+        return opcodes;
+    }
+
+    /**
+     * Returns the integral type the given arithmetic expression can be
+     * computed as without losing precision, see {@link TypeInference}.
+     *
+     * @return The int or long type, or null if it must be computed as a double
+     */
+    private @Nullable CtClass integralType(final Expression expression) {
+        final CtClass type = types.typeOf(expression);
+        if (type == CtClass.booleanType) {
+            return CtClass.intType;
+        }
+        return type == CtClass.intType || type == CtClass.longType ? type : null;
+    }
+
+    /**
+     * Returns the type both operands of a comparison should be converted to.
+     */
+    private CtClass comparisonType(final Expression left, final Expression right) {
+        final CtClass leftType = integralType(left);
+        final CtClass rightType = integralType(right);
+        if (leftType == null || rightType == null) {
+            return CtClass.doubleType;
+        }
+        return leftType == CtClass.longType || rightType == CtClass.longType ? CtClass.longType : CtClass.intType;
+    }
+
+    private CompileVisitResult pushZero(final CompilingContext ctx) {
+        if (ctx.expectedType == CtClass.voidType) {
+            return new CompileVisitResult(CtClass.voidType);
+        }
+        final CtClass type = ctx.expectedType == null ? CtClass.doubleType : ctx.expectedType;
+        bytecode.addConstZero(type);
+        return new CompileVisitResult(type);
+    }
+
+    private void pop(final CtClass type) {
+        if (type == CtClass.voidType) {
+            return;
+        }
+        bytecode.addOpcode(isWide(type) ? Bytecode.POP2 : Bytecode.POP);
+    }
+
+    private static boolean isWide(final CtClass type) {
+        return type == CtClass.doubleType || type == CtClass.longType;
+    }
+
+    /**
+     * Compiles a call to a standard math function inline, without calling
+     * its implementation in {@link team.unnamed.mocha.runtime.standard.MochaMath}.
+     *
+     * @return The visit result, or null if the function can't be compiled inline
+     * @see MathIntrinsics
+     */
+    private @Nullable CompileVisitResult visitMathIntrinsic(final Method method, final List<Expression> arguments, final CompilingContext ctx) {
+        if (arguments.size() != method.getParameterCount()) {
+            return null;
+        }
+
+        final CompilingContext doubleCtx = new CompilingContext(CtClass.doubleType);
+        if (method.equals(MathIntrinsics.SIN) || method.equals(MathIntrinsics.COS)) {
+            // degrees to radians, constant factors are scaled in compile-time
+            final Expression degrees = arguments.get(0);
+            if (degrees instanceof BinaryExpression binary && binary.op() == BinaryExpression.Op.MUL
+                    && binary.right() instanceof DoubleExpression factor) {
+                binary.left().visit(this, doubleCtx);
+                bytecode.addLdc2w(factor.value() * MathIntrinsics.RADIAN);
+            } else {
+                degrees.visit(this, doubleCtx);
+                bytecode.addLdc2w(MathIntrinsics.RADIAN);
+            }
+            bytecode.addOpcode(Bytecode.DMUL);
+            bytecode.addInvokestatic("java.lang.Math", method.getName(), "(D)D");
+        } else if (method.equals(MathIntrinsics.MOD)) {
+            arguments.get(0).visit(this, doubleCtx);
+            arguments.get(1).visit(this, doubleCtx);
+            bytecode.addOpcode(Bytecode.DREM);
+        } else if (method.equals(MathIntrinsics.CLAMP)) {
+            // max(min(value, max), min), arguments are evaluated in order
+            arguments.get(0).visit(this, doubleCtx);
+            arguments.get(1).visit(this, doubleCtx);
+            final int min = functionCompileState.allocateLocal(CtClass.doubleType);
+            bytecode.addDstore(min);
+            arguments.get(2).visit(this, doubleCtx);
+            bytecode.addInvokestatic("java.lang.Math", "min", "(DD)D");
+            bytecode.addDload(min);
+            bytecode.addInvokestatic("java.lang.Math", "max", "(DD)D");
+        } else if (method.equals(MathIntrinsics.MIN_ANGLE)) {
+            arguments.get(0).visit(this, doubleCtx);
+            final int angle = functionCompileState.allocateLocal(CtClass.doubleType);
+            bytecode.addDstore(angle);
+
+            // while (angle > 180) angle -= 360;
+            final int decrementPc = bytecode.currentPc();
+            bytecode.addDload(angle);
+            bytecode.addLdc2w(180D);
+            bytecode.addOpcode(Bytecode.DCMPL);
+            final int notAbove = addBranch(Bytecode.IFLE);
+            bytecode.addDload(angle);
+            bytecode.addLdc2w(360D);
+            bytecode.addOpcode(Bytecode.DSUB);
+            bytecode.addDstore(angle);
+            addBackwardBranch(Bytecode.GOTO, decrementPc);
+            resolveBranch(notAbove);
+
+            // while (angle < -180) angle += 360;
+            final int incrementPc = bytecode.currentPc();
+            bytecode.addDload(angle);
+            bytecode.addLdc2w(-180D);
+            bytecode.addOpcode(Bytecode.DCMPG);
+            final int notBelow = addBranch(Bytecode.IFGE);
+            bytecode.addDload(angle);
+            bytecode.addLdc2w(360D);
+            bytecode.addOpcode(Bytecode.DADD);
+            bytecode.addDstore(angle);
+            addBackwardBranch(Bytecode.GOTO, incrementPc);
+            resolveBranch(notBelow);
+
+            bytecode.addDload(angle);
+        } else {
+            return null;
+        }
+        return coerce(CtClass.doubleType, ctx);
+    }
+
+    /**
+     * Adds a branch instruction with an unknown target, returns
+     * the position of its offset, to be resolved later using
+     * {@link #resolveBranch(int)}.
+     */
+    private int addBranch(final int opcode) {
+        bytecode.addOpcode(opcode);
+        final int indexPc = bytecode.currentPc();
+        bytecode.addGap(2);
+        return indexPc;
+    }
+
+    /**
+     * Makes the branch at the given offset position jump here.
+     */
+    private void resolveBranch(final int indexPc) {
+        bytecode.write16bit(indexPc, bytecode.currentPc() - indexPc + 1);
+    }
+
+    private void addBackwardBranch(final int opcode, final int targetPc) {
+        final int opcodePc = bytecode.currentPc();
+        bytecode.addOpcode(opcode);
+        bytecode.addIndex(targetPc - opcodePc);
+    }
+
     private record LocalVar(CtClass type, int index) {
     }
 
+    private static final class LoopScope {
+        private final List<Integer> breakBranches = new ArrayList<>();
+        private final List<Integer> continueBranches = new ArrayList<>();
+    }
+
     public record CompilingContext(@Nullable CtClass expectedType) implements Context {
     }
 }
\ No newline at end of file
@@ -0,0 +1,697 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.AccessExpression;
+import team.unnamed.mocha.parser.ast.Expression;
+import team.unnamed.mocha.parser.ast.IdentifierExpression;
+import team.unnamed.mocha.runtime.binding.JavaFieldBinding;
+import team.unnamed.mocha.runtime.binding.JavaFunction;
+import team.unnamed.mocha.runtime.binding.JavaObjectBinding;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.NumberFunction;
+import team.unnamed.mocha.runtime.value.ObjectProperty;
+import team.unnamed.mocha.runtime.value.ObjectValue;
+import team.unnamed.mocha.runtime.value.StringValue;
+import team.unnamed.mocha.runtime.value.Value;
+import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Cache of the classes compiled by a {@link MolangCompiler}, kept in a
+ * directory so that they are loaded instead of compiled again the next
+ * time the program runs.
+ *
+ * <p>Every function is stored in a single file named after the hash of
+ * its canonical expressions, its implemented interface, the engine entity
+ * type, the library version and the signature of the scope bindings, which
+ * includes the names and types of the bindings and their properties, the
+ * bound Java methods and the constant values. Changing any of them gives
+ * another hash, so the stale classes are just not found.</p>
+ *
+ * <p>The objects required by a class (e.g. bindings and bound instances)
+ * can't be stored, so every requirement is stored as a source, which says
+ * how to get it again from the scope:</p>
+ * <ul>
+ *     <li>{@code value:<path>}, the value at the given path of the scope,
+ *     e.g. {@code variable} or {@code query.foo}</li>
+ *     <li>{@code object:<path>}, the instance of the Java function at the
+ *     given path</li>
+ *     <li>{@code function:<path>}, the backing primitive function of the
+ *     number function at the given path</li>
+ *     <li>{@code doubles:<values>}, a constant array of doubles</li>
+ *     <li>{@code entity}, the engine entity</li>
+ * </ul>
+ *
+ * <p>Functions requiring anything else (e.g. calls to other compiled
+ * functions) aren't stored. A stored class is also discarded if any of its
+ * requirements can't be found, or if the binding properties it reads aren't
+ * in the same slots.</p>
+ */
+final class PersistentCompileCache {
+    static final String ENTITY_SOURCE = "entity";
+    static final String DOUBLES_SOURCE = "doubles:";
+
+    private static final int MAGIC = 0x4D4F4341; // MOCA
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_EXTENSION = ".bin";
+
+    /**
+     * The version of the library, classes compiled by other versions may
+     * use code that changed. If the classes aren't packaged with a version,
+     * it's the hash of the class files.
+     */
+    static final String COMPILER_VERSION = compilerVersion();
+
+    private final Path directory;
+    private final Scope scope;
+
+    private Map<String, Value> bindings = new CaseInsensitiveStringHashMap<>();
+    private @Nullable String bindingsSignature;
+
+    PersistentCompileCache(final Path directory, final Scope scope) {
+        this.directory = requireNonNull(directory, "directory");
+        this.scope = requireNonNull(scope, "scope");
+    }
+
+    /**
+     * Computes the hash used to store the function compiled for the
+     * given key.
+     *
+     * @param key The in-memory cache key, with the canonical expressions
+     * @param entity The engine entity
+     * @return The hash
+     */
+    String hash(final CompiledFunctionCache.Key key, final @Nullable Object entity) {
+        requireNonNull(key, "key");
+        final MessageDigest digest = sha256();
+        update(digest, Integer.toString(FORMAT_VERSION));
+        update(digest, COMPILER_VERSION);
+        update(digest, key.expressions().toString());
+        update(digest, key.typeToken().toString());
+        update(digest, entity == null ? "" : entity.getClass().getName());
+        update(digest, bindingsSignature());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Loads the class stored with the given hash, and gets its
+     * requirements from the scope.
+     *
+     * @param hash The hash
+     * @param entity The engine entity
+     * @return The stored class, or null if it isn't stored or
+     * its requirements can't be found
+     */
+    @Nullable Entry load(final String hash, final @Nullable Object entity) {
+        requireNonNull(hash, "hash");
+        final Path file = directory.resolve(hash + FILE_EXTENSION);
+        final byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException e) {
+            System.err.println("[mocha] Couldn't read cached function " + file + ": " + e);
+            return null;
+        }
+
+        try (final DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            final String className = input.readUTF();
+            final boolean staticRequirements = input.readBoolean();
+            final List<FunctionCompileState.Requirement> requirements = readRequirements(input, scope, entity);
+            final byte[] bytecode = new byte[input.readInt()];
+            input.readFully(bytecode);
+            return requirements == null ? null : new Entry(className, staticRequirements, requirements, bytecode);
+        } catch (final IOException e) {
+            System.err.println("[mocha] Couldn't read cached function " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given compiled class, it's not stored if any of its
+     * requirements doesn't have a source.
+     *
+     * @param hash The hash
+     * @param generated The compiled class
+     * @return True if the class was stored
+     */
+    boolean store(final String hash, final MolangCompiler.GeneratedClass generated) {
+        requireNonNull(hash, "hash");
+        requireNonNull(generated, "generated");
+        if (!isStorable(generated)) {
+            return false;
+        }
+
+        final byte[] bytecode = generated.bytecode();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(bytecode.length + 256);
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeUTF(generated.className());
+            output.writeBoolean(generated.staticRequirements());
+            writeRequirements(output, generated);
+            output.writeInt(bytecode.length);
+            output.write(bytecode);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Couldn't write to memory", e);
+        }
+
+        try {
+            Files.createDirectories(directory);
+            // write to a temporary file first, so that other processes
+            // never read a partially written file
+            final Path temporary = Files.createTempFile(directory, hash, ".tmp");
+            try {
+                Files.write(temporary, bytes.toByteArray());
+                Files.move(temporary, directory.resolve(hash + FILE_EXTENSION),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            return true;
+        } catch (final IOException e) {
+            System.err.println("[mocha] Couldn't write cached function " + hash + " to " + directory + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Determines whether all the requirements of the given class have
+     * a source, so that it can be loaded later.
+     *
+     * @param generated The compiled class
+     * @return True if the class can be stored
+     */
+    static boolean isStorable(final MolangCompiler.GeneratedClass generated) {
+        for (final FunctionCompileState.Requirement requirement : generated.requirements()) {
+            if (requirement.source() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the sources of the requirements of the given class, and
+     * the binding property slots it uses.
+     *
+     * @param output The output
+     * @param generated The compiled class, must be storable
+     */
+    static void writeRequirements(final DataOutputStream output, final MolangCompiler.GeneratedClass generated) throws IOException {
+        output.writeInt(generated.requirements().size());
+        for (final FunctionCompileState.Requirement requirement : generated.requirements()) {
+            output.writeUTF(requirement.type().getName());
+            writeString(output, requireNonNull(requirement.source(), "source"));
+            final Map<String, Integer> slots = requirement.value() instanceof MutableObjectBinding binding
+                    ? generated.slots().getOrDefault(binding, Map.of())
+                    : Map.of();
+            output.writeInt(slots.size());
+            for (final Map.Entry<String, Integer> slot : slots.entrySet()) {
+                output.writeUTF(slot.getKey());
+                output.writeInt(slot.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads the requirements written by {@link #writeRequirements}, and
+     * gets them from the given scope. The binding properties read by the
+     * class are only allocated their slots if all of them are found.
+     *
+     * @param input The input
+     * @param scope The scope
+     * @param entity The engine entity
+     * @return The requirements, or null if any of them can't be found, or
+     * the binding properties aren't in the same slots
+     */
+    static @Nullable List<FunctionCompileState.Requirement> readRequirements(
+            final DataInputStream input,
+            final Scope scope,
+            final @Nullable Object entity
+    ) throws IOException {
+        final int requirementCount = input.readInt();
+        final List<FunctionCompileState.Requirement> requirements = new ArrayList<>(requirementCount);
+        final List<Map.Entry<MutableObjectBinding, Map<String, Integer>>> bindingSlots = new ArrayList<>();
+        boolean resolved = true;
+        for (int i = 0; i < requirementCount; i++) {
+            final String typeName = input.readUTF();
+            final String source = readString(input);
+            final Map<String, Integer> slots = new TreeMap<>();
+            final int slotCount = input.readInt();
+            for (int j = 0; j < slotCount; j++) {
+                slots.put(input.readUTF(), input.readInt());
+            }
+
+            final Object value = resolved ? resolve(scope, source, entity) : null;
+            final Class<?> type = value == null ? null : findType(value.getClass(), typeName);
+            if (type == null || !hasSlots(value, slots)) {
+                // keep reading the rest
+                resolved = false;
+                continue;
+            }
+            requirements.add(new FunctionCompileState.Requirement(value, type, source));
+            if (value instanceof MutableObjectBinding binding) {
+                bindingSlots.add(Map.entry(binding, slots));
+            }
+        }
+        if (!resolved) {
+            return null;
+        }
+        // the class is used, the properties it reads get their slots
+        for (final Map.Entry<MutableObjectBinding, Map<String, Integer>> entry : bindingSlots) {
+            for (final String name : sortedBySlot(entry.getValue())) {
+                entry.getKey().slot(name);
+            }
+        }
+        return requirements;
+    }
+
+    /**
+     * Gets the requirement with the given source from the scope.
+     *
+     * @param scope The scope
+     * @param source The requirement source
+     * @param entity The engine entity
+     * @return The requirement, or null if not found
+     */
+    static @Nullable Object resolve(final Scope scope, final String source, final @Nullable Object entity) {
+        requireNonNull(source, "source");
+        if (source.equals(ENTITY_SOURCE)) {
+            return entity;
+        }
+
+        final int separator = source.indexOf(':');
+        if (separator == -1) {
+            return null;
+        }
+        final String kind = source.substring(0, separator);
+        final String argument = source.substring(separator + 1);
+        switch (kind) {
+            case "value":
+                return resolvePath(scope, argument);
+            case "object":
+                return resolvePath(scope, argument) instanceof JavaFunction<?> function ? function.object() : null;
+            case "function":
+                return resolvePath(scope, argument) instanceof NumberFunction<?> function ? function.function() : null;
+            case "field": {
+                final int property = argument.lastIndexOf('.');
+                if (property == -1) {
+                    return null;
+                }
+                final JavaFieldBinding field = resolvePath(scope, argument.substring(0, property)) instanceof JavaObjectBinding object
+                        ? object.getField(argument.substring(property + 1))
+                        : null;
+                return field == null ? null : field.object();
+            }
+            case "doubles": {
+                if (argument.isEmpty()) {
+                    return new double[0];
+                }
+                final String[] values = argument.split(",");
+                final double[] doubles = new double[values.length];
+                try {
+                    for (int i = 0; i < values.length; i++) {
+                        doubles[i] = Double.longBitsToDouble(Long.parseUnsignedLong(values[i], 16));
+                    }
+                } catch (final NumberFormatException e) {
+                    return null;
+                }
+                return doubles;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static @Nullable Value resolvePath(final Scope scope, final String path) {
+        Value value = scope;
+        for (final String name : path.split("\\.")) {
+            if (!(value instanceof ObjectValue object)) {
+                return null;
+            }
+            final ObjectProperty property = object.getProperty(name);
+            if (property == null) {
+                return null;
+            }
+            value = property.value();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the source of the given binding, which must be a
+     * scope entry, e.g. {@code variable}.
+     *
+     * @param scope The scope
+     * @param binding The binding
+     * @return The source, or null if it's not a scope entry
+     */
+    static @Nullable String bindingSource(final Scope scope, final MutableObjectBinding binding) {
+        for (final Map.Entry<String, ObjectProperty> entry : scope.entries().entrySet()) {
+            if (entry.getValue().value() == binding) {
+                return "value:" + entry.getKey().toLowerCase(Locale.ROOT);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the source of the instance of the Java function
+     * at the given expression, e.g. {@code query.foo}.
+     *
+     * @param functionExpr The function expression
+     * @return The source, or null if it's not a path
+     */
+    static @Nullable String objectSource(final Expression functionExpr) {
+        final String path = path(functionExpr);
+        return path == null ? null : "object:" + path;
+    }
+
+    /**
+     * Returns the source of the backing primitive function of the
+     * number function at the given expression.
+     *
+     * @param functionExpr The function expression
+     * @return The source, or null if it's not a path
+     */
+    static @Nullable String functionSource(final Expression functionExpr) {
+        final String path = path(functionExpr);
+        return path == null ? null : "function:" + path;
+    }
+
+    /**
+     * Returns the source of the instance that holds the Java
+     * field at the given expression, e.g. {@code query.foo}.
+     *
+     * @param fieldExpr The field expression
+     * @return The source, or null if it's not a path
+     */
+    static @Nullable String fieldSource(final Expression fieldExpr) {
+        final String path = path(fieldExpr);
+        return path == null ? null : "field:" + path;
+    }
+
+    /**
+     * Returns the source of the given constant array.
+     *
+     * @param doubles The array
+     * @return The source
+     */
+    static String doublesSource(final double[] doubles) {
+        final StringBuilder builder = new StringBuilder(DOUBLES_SOURCE);
+        for (int i = 0; i < doubles.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(Long.toHexString(Double.doubleToRawLongBits(doubles[i])));
+        }
+        return builder.toString();
+    }
+
+    private static @Nullable String path(final Expression expression) {
+        if (expression instanceof IdentifierExpression identifier) {
+            return identifier.name().toLowerCase(Locale.ROOT);
+        } else if (expression instanceof AccessExpression access) {
+            final String objectPath = path(access.object());
+            return objectPath == null ? null : objectPath + '.' + access.property().toLowerCase(Locale.ROOT);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Checks that the properties of the given binding are in the given
+     * slots, or would be allocated to them, without allocating any. Slots
+     * are allocated in order, so they match if the program allocated the
+     * same properties before.
+     */
+    static boolean hasSlots(final Object value, final Map<String, Integer> slots) {
+        if (slots.isEmpty()) {
+            return true;
+        }
+        if (!(value instanceof MutableObjectBinding binding)) {
+            return false;
+        }
+        int nextSlot = binding.slotCount();
+        for (final String name : sortedBySlot(slots)) {
+            int slot = binding.existingSlot(name);
+            if (slot == -1) {
+                slot = nextSlot++;
+            }
+            if (slot != slots.get(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> sortedBySlot(final Map<String, Integer> slots) {
+        final List<Map.Entry<String, Integer>> entries = new ArrayList<>(slots.entrySet());
+        entries.sort(Map.Entry.comparingByValue());
+        final List<String> names = new ArrayList<>(entries.size());
+        for (final Map.Entry<String, Integer> entry : entries) {
+            names.add(entry.getKey());
+        }
+        return names;
+    }
+
+    /**
+     * Finds the type with the given name in the hierarchy of the
+     * given class.
+     */
+    private static @Nullable Class<?> findType(final Class<?> clazz, final String name) {
+        final Deque<Class<?>> queue = new ArrayDeque<>();
+        queue.add(clazz);
+        while (!queue.isEmpty()) {
+            final Class<?> type = queue.poll();
+            if (type.getName().equals(name)) {
+                return type;
+            }
+            if (type.getSuperclass() != null) {
+                queue.add(type.getSuperclass());
+            }
+            queue.addAll(List.of(type.getInterfaces()));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the signature of the scope bindings, computed again
+     * if any of them changed since the last time.
+     */
+    private String bindingsSignature() {
+        final Map<String, ObjectProperty> entries = scope.entries();
+        boolean changed = bindingsSignature == null || entries.size() != bindings.size();
+        if (!changed) {
+            for (final Map.Entry<String, ObjectProperty> entry : entries.entrySet()) {
+                if (bindings.get(entry.getKey()) != entry.getValue().value()) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+
+        if (changed) {
+            bindings = new CaseInsensitiveStringHashMap<>();
+            for (final Map.Entry<String, ObjectProperty> entry : entries.entrySet()) {
+                bindings.put(entry.getKey(), entry.getValue().value());
+            }
+            bindingsSignature = bindingsSignature(scope);
+        }
+        return bindingsSignature;
+    }
+
+    private static String compilerVersion() {
+        final String version = MolangCompiler.class.getPackage().getImplementationVersion();
+        if (version != null) {
+            return version;
+        }
+        // not packaged with a version (e.g. while developing), the
+        // compiler classes themselves tell whether it changed
+        try {
+            return "classes:" + classesHash();
+        } catch (final IOException | URISyntaxException | RuntimeException e) {
+            // never load classes compiled by an unknown compiler
+            return "unknown:" + UUID.randomUUID();
+        }
+    }
+
+    /**
+     * Computes the hash of the class files of the library, in its
+     * classes directory or jar file.
+     */
+    private static String classesHash() throws IOException, URISyntaxException {
+        final CodeSource codeSource = MolangCompiler.class.getProtectionDomain().getCodeSource();
+        if (codeSource == null) {
+            throw new IOException("Unknown location of the compiler classes");
+        }
+        final Path location = Path.of(codeSource.getLocation().toURI());
+        final MessageDigest digest = sha256();
+        if (Files.isDirectory(location)) {
+            final List<Path> classFiles;
+            try (final Stream<Path> files = Files.walk(location)) {
+                classFiles = files.filter(file -> file.toString().endsWith(".class")).sorted().toList();
+            }
+            for (final Path classFile : classFiles) {
+                update(digest, location.relativize(classFile).toString());
+                digest.update(Files.readAllBytes(classFile));
+            }
+        } else {
+            digest.update(Files.readAllBytes(location));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Computes the signature of the given scope bindings, which changes
+     * if any binding the compiled code may depend on changes.
+     *
+     * @param scope The scope
+     * @return The signature
+     */
+    static String bindingsSignature(final Scope scope) {
+        final Map<String, String> signatures = new TreeMap<>();
+        for (final Map.Entry<String, ObjectProperty> entry : scope.entries().entrySet()) {
+            signatures.put(entry.getKey().toLowerCase(Locale.ROOT), bindingSignature(entry.getValue()));
+        }
+        return signatures.toString();
+    }
+
+    private static String bindingSignature(final ObjectProperty binding) {
+        final Value value = binding.value();
+        final StringBuilder builder = new StringBuilder(propertySignature(binding));
+        if (value instanceof JavaObjectBinding javaBinding) {
+            for (final String name : new TreeSet<>(javaBinding.propertyNames())) {
+                final String key = name.toLowerCase(Locale.ROOT);
+                final JavaFieldBinding field = javaBinding.getField(name);
+                if (field != null && !field.constant()) {
+                    // don't call getters, only constants are inlined
+                    builder.append(' ').append(key).append("=field ").append(field.field());
+                    continue;
+                }
+                final ObjectProperty property = javaBinding.getProperty(name);
+                if (property != null) {
+                    builder.append(' ').append(key).append('=').append(propertySignature(property));
+                }
+            }
+        } else if (value instanceof ObjectValue object && !(value instanceof MutableObjectBinding)) {
+            for (final Map.Entry<String, ObjectProperty> entry : new TreeMap<>(object.entries()).entrySet()) {
+                builder.append(' ').append(entry.getKey().toLowerCase(Locale.ROOT))
+                        .append('=').append(propertySignature(entry.getValue()));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String propertySignature(final ObjectProperty property) {
+        final Value value = property.value();
+        final StringBuilder builder = new StringBuilder(value.getClass().getName());
+        if (value instanceof JavaFunction<?> function) {
+            builder.append('(').append(function.method()).append(function.pure() ? ", pure)" : ")");
+        } else if (value instanceof NumberFunction<?> function) {
+            builder.append('(').append(function.arity()).append(')');
+        } else if (property.constant() && value instanceof DoubleValue number) {
+            builder.append('(').append(number.getAsNumber()).append(')');
+        } else if (property.constant() && value instanceof StringValue string) {
+            builder.append('(').append(string.getAsString()).append(')');
+        }
+        return builder.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    static void writeString(final DataOutputStream output, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(final DataInputStream input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A stored class, with its requirements taken from the scope.
+     *
+     * @param className The class name
+     * @param staticRequirements Whether the requirements are given as class data
+     * @param requirements The requirements, in the order of the class fields
+     * @param bytecode The class bytecode
+     */
+    record Entry(
+            String className,
+            boolean staticRequirements,
+            List<FunctionCompileState.Requirement> requirements,
+            byte[] bytecode
+    ) {
+    }
+}
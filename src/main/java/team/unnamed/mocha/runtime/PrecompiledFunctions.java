@@ -0,0 +1,218 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import com.google.common.reflect.TypeToken;
+import org.jetbrains.annotations.ApiStatus;
+import team.unnamed.mocha.parser.MolangParser;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Registry of the functions compiled ahead of time by {@link AheadOfTimeCompiler},
+ * looked up by name.
+ *
+ * <p>The compiled classes are loaded from the class loader, no class is
+ * generated for them. If the bindings or the library version changed
+ * since they were compiled, or a function couldn't be compiled ahead of
+ * time, it's compiled from its source the first time it's requested.</p>
+ *
+ * @since 4.0
+ */
+public final class PrecompiledFunctions {
+    static final String INDEX = "META-INF/mocha/precompiled.index";
+    static final int MAGIC = 0x4D4F4350; // MOCP
+    static final int FORMAT_VERSION = 2;
+
+    private final MolangCompiler compiler;
+    private final Map<String, FunctionSource> sources = new ConcurrentHashMap<>();
+    private final Map<String, MochaCompiledFunction> functions = new ConcurrentHashMap<>();
+    private final Set<String> precompiled = ConcurrentHashMap.newKeySet();
+
+    private PrecompiledFunctions(final MolangCompiler compiler) {
+        this.compiler = requireNonNull(compiler, "compiler");
+    }
+
+    /**
+     * Loads the functions indexed in the given class loader, e.g. in
+     * the application jar, taking their requirements from the scope
+     * of the given compiler.
+     *
+     * @param compiler The compiler
+     * @param classLoader The class loader
+     * @return The loaded functions
+     * @throws IOException If reading an index fails
+     */
+    @ApiStatus.Internal
+    public static PrecompiledFunctions load(final MolangCompiler compiler, final ClassLoader classLoader) throws IOException {
+        requireNonNull(compiler, "compiler");
+        requireNonNull(classLoader, "classLoader");
+        final PrecompiledFunctions registry = new PrecompiledFunctions(compiler);
+        final Enumeration<URL> indexes = classLoader.getResources(INDEX);
+        while (indexes.hasMoreElements()) {
+            final URL index = indexes.nextElement();
+            try (final InputStream input = index.openStream()) {
+                registry.read(new DataInputStream(input), classLoader, index);
+            }
+        }
+        return registry;
+    }
+
+    private void read(final DataInputStream input, final ClassLoader classLoader, final URL index) throws IOException {
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported precompiled functions index: " + index);
+        }
+
+        final Scope scope = compiler.scope();
+        final boolean sameVersion = PersistentCompileCache.readString(input).equals(PersistentCompileCache.COMPILER_VERSION);
+        final boolean sameBindings = PersistentCompileCache.readString(input).equals(PersistentCompileCache.bindingsSignature(scope));
+        if (!sameVersion) {
+            System.err.println("[mocha] The functions in " + index + " were compiled by another version of mocha,"
+                    + " they will be compiled again");
+        } else if (!sameBindings) {
+            System.err.println("[mocha] Bindings changed since the functions in " + index + " were compiled,"
+                    + " they will be compiled again");
+        }
+
+        final int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            final String name = input.readUTF();
+            final String interfaceName = input.readUTF();
+            final String source = PersistentCompileCache.readString(input);
+            sources.put(name, new FunctionSource(interfaceName, source));
+            if (!input.readBoolean()) {
+                continue;
+            }
+
+            final String className = input.readUTF();
+            // read in order, so that binding properties take the same slots
+            final List<FunctionCompileState.Requirement> requirements = PersistentCompileCache.readRequirements(input, scope, compiler.entity());
+            if (!sameVersion || !sameBindings || requirements == null) {
+                continue;
+            }
+
+            try {
+                functions.put(name, instantiate(classLoader, className, requirements));
+                precompiled.add(name);
+            } catch (final ReflectiveOperationException | LinkageError | ClassCastException e) {
+                System.err.println("[mocha] Couldn't load precompiled function " + name + ", it will be compiled again: " + e);
+            }
+        }
+    }
+
+    private static MochaCompiledFunction instantiate(
+            final ClassLoader classLoader,
+            final String className,
+            final List<FunctionCompileState.Requirement> requirements
+    ) throws ReflectiveOperationException {
+        final Class<?> compiledClass = Class.forName(className, true, classLoader);
+        final Class<?>[] parameterTypes = new Class<?>[requirements.size()];
+        final Object[] arguments = new Object[requirements.size()];
+        for (int i = 0; i < requirements.size(); i++) {
+            parameterTypes[i] = requirements.get(i).type();
+            arguments[i] = requirements.get(i).value();
+        }
+        final Constructor<?> constructor = compiledClass.getDeclaredConstructor(parameterTypes);
+        try {
+            return (MochaCompiledFunction) constructor.newInstance(arguments);
+        } catch (final InvocationTargetException e) {
+            throw new IllegalStateException("Couldn't instantiate precompiled class " + className, e.getCause());
+        }
+    }
+
+    /**
+     * Returns the names of the functions.
+     *
+     * @return The function names
+     * @since 4.0
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(sources.keySet());
+    }
+
+    /**
+     * Determines whether the function with the given name was loaded
+     * from its precompiled class, instead of being compiled at runtime.
+     *
+     * @param name The function name
+     * @return True if the function was precompiled
+     * @since 4.0
+     */
+    public boolean isPrecompiled(final String name) {
+        requireNonNull(name, "name");
+        return precompiled.contains(name);
+    }
+
+    /**
+     * Gets the function with the given name, compiling it if it
+     * wasn't compiled ahead of time.
+     *
+     * @param name The function name, e.g. {@code entity/walk}
+     * @param interfaceType The interface implemented by the function
+     * @param <F> The function type
+     * @return The function
+     * @throws IllegalArgumentException If there is no function with the given
+     *                                  name implementing the given interface
+     * @since 4.0
+     */
+    public <F extends MochaCompiledFunction> F get(final String name, final Class<F> interfaceType) {
+        requireNonNull(name, "name");
+        requireNonNull(interfaceType, "interfaceType");
+        final FunctionSource source = sources.get(name);
+        if (source == null) {
+            throw new IllegalArgumentException("Unknown function: " + name);
+        }
+        if (!source.interfaceName().equals(interfaceType.getName())) {
+            throw new IllegalArgumentException("Function " + name + " implements " + source.interfaceName()
+                    + ", not " + interfaceType.getName());
+        }
+        return interfaceType.cast(functions.computeIfAbsent(name, k -> compile(source, interfaceType)));
+    }
+
+    private MochaCompiledFunction compile(final FunctionSource source, final Class<? extends MochaCompiledFunction> interfaceType) {
+        try {
+            return compiler.compile(MolangParser.parseAll(source.source()), TypeToken.of(interfaceType));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record FunctionSource(String interfaceName, String source) {
+    }
+}
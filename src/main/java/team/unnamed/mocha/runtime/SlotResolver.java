@@ -0,0 +1,118 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.ObjectValue;
+import team.unnamed.mocha.runtime.value.Value;
+
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Allocates the slots of every {@link MutableObjectBinding} property that
+ * the visited expressions access, resolving their objects like the compiler
+ * does, so that compiling them later doesn't allocate any slot.
+ *
+ * <p>Slots must be allocated by the thread that uses the binding, since
+ * allocating them may grow its arrays, see {@link MutableObjectBinding#slot}.</p>
+ */
+final class SlotResolver implements ExpressionVisitor<Value, ExpressionVisitor.Context> {
+    private final Scope scope;
+
+    SlotResolver(final Scope scope) {
+        this.scope = requireNonNull(scope, "scope");
+    }
+
+    /**
+     * Allocates the slots accessed by the given statements.
+     *
+     * @param statements The statements
+     */
+    void process(final List<Expression> statements) {
+        for (final Expression statement : statements) {
+            statement.visit(this);
+        }
+    }
+
+    @Override
+    public Value visitIdentifier(final IdentifierExpression expression, final Context ctx) {
+        return scope.get(expression.name());
+    }
+
+    @Override
+    public Value visitAccess(final AccessExpression expression, final Context ctx) {
+        final Value object = expression.object().visit(this);
+        if (object instanceof MutableObjectBinding binding) {
+            binding.slot(expression.property());
+        }
+        return object instanceof ObjectValue objectValue ? objectValue.get(expression.property()) : DoubleValue.ZERO;
+    }
+
+    @Override
+    public Value visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+        return visitAll(expression.array(), expression.index());
+    }
+
+    @Override
+    public Value visitBinary(final BinaryExpression expression, final Context ctx) {
+        return visitAll(expression.left(), expression.right());
+    }
+
+    @Override
+    public Value visitCall(final CallExpression expression, final Context ctx) {
+        expression.function().visit(this);
+        return visitAll(expression.arguments().toArray(Expression[]::new));
+    }
+
+    @Override
+    public Value visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+        return visitAll(expression.expressions().toArray(Expression[]::new));
+    }
+
+    @Override
+    public Value visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+        return visitAll(expression.condition(), expression.trueExpression(), expression.falseExpression());
+    }
+
+    @Override
+    public Value visitUnary(final UnaryExpression expression, final Context ctx) {
+        return visitAll(expression.expression());
+    }
+
+    @Override
+    public Value visit(final Expression expression, final Context ctx) {
+        return DoubleValue.ZERO;
+    }
+
+    private Value visitAll(final Expression... expressions) {
+        for (final Expression expression : expressions) {
+            expression.visit(this);
+        }
+        return DoubleValue.ZERO;
+    }
+}
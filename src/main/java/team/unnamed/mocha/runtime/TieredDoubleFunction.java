@@ -0,0 +1,129 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link MochaDoubleFunction} that is interpreted until it is evaluated
+ * a number of times, then it is compiled in the background and replaced
+ * by the compiled function once it's ready.
+ *
+ * <p>If compiling fails (e.g. the function uses something the compiler
+ * doesn't support), it keeps being interpreted. If the executor rejects
+ * the compilation, it is requested again after the same number of
+ * evaluations.</p>
+ *
+ * @since 4.0
+ */
+@ApiStatus.Internal
+public final class TieredDoubleFunction implements MochaDoubleFunction {
+    /**
+     * The default number of evaluations before a function is compiled.
+     */
+    public static final int DEFAULT_COMPILE_THRESHOLD = 1000;
+
+    private final MochaDoubleFunction interpreted;
+    private final Supplier<? extends MochaDoubleFunction> compiler;
+    private final Executor executor;
+    private final int compileThreshold;
+
+    private final AtomicBoolean compileRequested = new AtomicBoolean();
+    private volatile MochaDoubleFunction delegate;
+    private volatile boolean compiled;
+
+    // not synchronized, an approximate count is enough
+    private int evaluations;
+
+    /**
+     * Creates a new tiered function.
+     *
+     * @param interpreted The interpreted function
+     * @param compiler The function that compiles it, called from the executor,
+     *                 so it must not allocate binding slots, see
+     *                 {@link MolangCompiler#resolveSlots}
+     * @param executor The executor to compile it in
+     * @param compileThreshold The number of evaluations before compiling it
+     */
+    public TieredDoubleFunction(
+            final MochaDoubleFunction interpreted,
+            final Supplier<? extends MochaDoubleFunction> compiler,
+            final Executor executor,
+            final int compileThreshold
+    ) {
+        this.interpreted = requireNonNull(interpreted, "interpreted");
+        this.compiler = requireNonNull(compiler, "compiler");
+        this.executor = requireNonNull(executor, "executor");
+        if (compileThreshold < 0) {
+            throw new IllegalArgumentException("Compile threshold must not be negative: " + compileThreshold);
+        }
+        this.compileThreshold = compileThreshold;
+        this.delegate = interpreted;
+    }
+
+    @Override
+    public double evaluate() {
+        final MochaDoubleFunction delegate = this.delegate;
+        if (delegate == interpreted && ++evaluations >= compileThreshold
+                && !compileRequested.get() && compileRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::compile);
+            } catch (final RejectedExecutionException e) {
+                // e.g. the executor is shut down or saturated, try again later
+                evaluations = 0;
+                compileRequested.set(false);
+            }
+        }
+        return delegate.evaluate();
+    }
+
+    /**
+     * Determines whether this function was already compiled,
+     * and it is no longer interpreted.
+     *
+     * @return True if it is compiled
+     */
+    public boolean compiled() {
+        return compiled;
+    }
+
+    private void compile() {
+        final MochaDoubleFunction compiledFunction;
+        try {
+            compiledFunction = compiler.get();
+        } catch (final RuntimeException | LinkageError e) {
+            System.err.println("[warning] couldn't compile function, it will keep being interpreted: " + e);
+            return;
+        }
+        delegate = requireNonNull(compiledFunction, "compiledFunction");
+        compiled = true;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import javassist.CtClass;
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.parser.ast.*;
+import team.unnamed.mocha.runtime.binding.JavaFieldBinding;
+import team.unnamed.mocha.runtime.binding.JavaFunction;
+import team.unnamed.mocha.runtime.binding.JavaObjectBinding;
+import team.unnamed.mocha.runtime.standard.MochaMath;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.Value;
+import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
+
+import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Infers the narrowest primitive type that can hold the value of each
+ * expression and {@code temp} local of a script, so that it can be compiled
+ * using {@code int} or {@code long} arithmetic instead of {@code double}.
+ *
+ * <p>Integral values are tracked with a bound on their magnitude. Integral
+ * arithmetic is only used while the exact result is below 2<sup>53</sup>,
+ * where it gives the same result as the double arithmetic the interpreter
+ * uses, any other number is a {@code double}. The types of the locals are
+ * the union of the types of all the values assigned to them.</p>
+ */
+final class TypeInference {
+    /**
+     * Values below 2 to this power are exactly represented
+     * by doubles.
+     */
+    private static final int MAX_EXACT_BITS = 53;
+
+    /**
+     * The number of times the type of a local may be widened
+     * before it is considered a double (e.g. counters in loops).
+     */
+    private static final int MAX_WIDENINGS = 3;
+
+    private static final Type BOOLEAN = new Type(Kind.BOOLEAN, 1);
+    private static final Type DOUBLE = new Type(Kind.DOUBLE, 0);
+    private static final Type OTHER = new Type(Kind.OTHER, 0);
+    private static final Type ZERO = new Type(Kind.INTEGRAL, 0);
+    private static final Type INT = new Type(Kind.INTEGRAL, Integer.SIZE);
+
+    private final Scope scope;
+    private final Map<String, CtClass> parameterTypes;
+
+    private final Map<String, Type> locals = new CaseInsensitiveStringHashMap<>();
+    private final Map<Expression, Type> types = new IdentityHashMap<>();
+
+    TypeInference(final Scope scope, final Map<String, CtClass> parameterTypes) {
+        this.scope = requireNonNull(scope, "scope");
+        this.parameterTypes = requireNonNull(parameterTypes, "parameterTypes");
+    }
+
+    /**
+     * Infers the types of the given statements and the locals they use.
+     *
+     * @param statements The statements
+     * @return This instance
+     */
+    TypeInference infer(final List<Expression> statements) {
+        final Map<String, Integer> widenings = new CaseInsensitiveStringHashMap<>();
+        boolean changed;
+        do {
+            // locals may be read before they are assigned (e.g. in loops),
+            // so repeat until their types are stable
+            final Map<String, Type> before = new CaseInsensitiveStringHashMap<>(locals);
+            types.clear();
+            final Inferrer inferrer = new Inferrer();
+            for (final Expression statement : statements) {
+                statement.visit(inferrer);
+            }
+
+            changed = false;
+            for (final Map.Entry<String, Type> entry : locals.entrySet()) {
+                if (entry.getValue().equals(before.get(entry.getKey()))) {
+                    continue;
+                }
+                changed = true;
+                if (widenings.merge(entry.getKey(), 1, Integer::sum) > MAX_WIDENINGS
+                        && entry.getValue().kind() == Kind.INTEGRAL) {
+                    entry.setValue(DOUBLE);
+                }
+            }
+        } while (changed);
+        return this;
+    }
+
+    /**
+     * Returns the primitive type the given expression should be computed
+     * as, {@code boolean}, {@code int}, {@code long} or {@code double}.
+     *
+     * @param expression The expression
+     * @return The type, or null if it isn't a number or wasn't inferred
+     */
+    @Nullable CtClass typeOf(final Expression expression) {
+        final Type type = types.get(expression);
+        return type == null ? null : type.toCtType();
+    }
+
+    /**
+     * Returns the primitive type the given local should be declared as.
+     *
+     * @param name The local name
+     * @return The type, or null if it doesn't always hold numbers
+     */
+    @Nullable CtClass localType(final String name) {
+        final Type type = locals.get(name);
+        return type == null ? null : type.toCtType();
+    }
+
+    private enum Kind {
+        /**
+         * Zero or one.
+         */
+        BOOLEAN,
+        /**
+         * Integral numbers with a magnitude below 2<sup>bits</sup>.
+         */
+        INTEGRAL,
+        DOUBLE,
+        /**
+         * Not a number, or unknown.
+         */
+        OTHER
+    }
+
+    private record Type(Kind kind, int bits) {
+        static Type integral(final int bits) {
+            return bits > MAX_EXACT_BITS ? DOUBLE : new Type(Kind.INTEGRAL, bits);
+        }
+
+        static Type of(final double value) {
+            if (value != Math.rint(value) || Math.abs(value) >= 0x1p53 || (value == 0D && 1D / value < 0D)) {
+                // not integral, too big or negative zero
+                return DOUBLE;
+            }
+            final long magnitude = Math.abs((long) value);
+            return integral(Long.SIZE - Long.numberOfLeadingZeros(magnitude));
+        }
+
+        static Type of(final Class<?> type) {
+            if (type == int.class || type == short.class || type == byte.class || type == char.class) {
+                return INT;
+            } else if (type == boolean.class) {
+                return BOOLEAN;
+            } else if (type == double.class || type == float.class || type == long.class) {
+                return DOUBLE;
+            } else if (type == void.class) {
+                return ZERO;
+            }
+            return OTHER;
+        }
+
+        static Type of(final CtClass type) {
+            if (type == CtClass.intType || type == CtClass.shortType || type == CtClass.byteType || type == CtClass.charType) {
+                return INT;
+            } else if (type == CtClass.booleanType) {
+                return BOOLEAN;
+            } else if (type == CtClass.doubleType || type == CtClass.floatType || type == CtClass.longType) {
+                return DOUBLE;
+            }
+            return OTHER;
+        }
+
+        boolean integral() {
+            return kind == Kind.BOOLEAN || kind == Kind.INTEGRAL;
+        }
+
+        Type join(final Type other) {
+            if (kind == Kind.OTHER || other.kind == Kind.OTHER) {
+                return OTHER;
+            } else if (kind == Kind.DOUBLE || other.kind == Kind.DOUBLE) {
+                return DOUBLE;
+            } else if (kind == other.kind) {
+                return bits >= other.bits ? this : other;
+            } else if (equals(ZERO) || other.equals(ZERO)) {
+                // zero is a boolean too
+                return BOOLEAN;
+            }
+            return integral(Math.max(bits, other.bits));
+        }
+
+        @Nullable CtClass toCtType() {
+            return switch (kind) {
+                case BOOLEAN -> CtClass.booleanType;
+                case INTEGRAL -> bits < Integer.SIZE ? CtClass.intType : CtClass.longType;
+                case DOUBLE -> CtClass.doubleType;
+                case OTHER -> null;
+            };
+        }
+    }
+
+    private final class Inferrer implements ExpressionVisitor<Type, ExpressionVisitor.Context> {
+        private Type record(final Expression expression, final Type type) {
+            types.put(expression, type);
+            return type;
+        }
+
+        @Override
+        public Type visitDouble(final DoubleExpression expression, final Context ctx) {
+            return record(expression, Type.of(expression.value()));
+        }
+
+        @Override
+        public Type visitIdentifier(final IdentifierExpression expression, final Context ctx) {
+            final CtClass parameterType = parameterTypes.get(expression.name());
+            if (parameterType == null) {
+                return record(expression, OTHER);
+            }
+            return record(expression, Type.of(parameterType));
+        }
+
+        @Override
+        public Type visitAccess(final AccessExpression expression, final Context ctx) {
+            expression.object().visit(this);
+            final String local = ConstantPropagator.tempName(expression);
+            if (local != null) {
+                // locals are zero until they are assigned
+                return record(expression, locals.getOrDefault(local, ZERO));
+            }
+
+            final Value object = IsPureExpression.resolve(expression.object(), scope);
+            if (object instanceof MutableObjectBinding) {
+                // numbers are stored as doubles
+                return record(expression, DOUBLE);
+            } else if (object instanceof JavaObjectBinding binding) {
+                final JavaFieldBinding field = binding.getField(expression.property());
+                if (field == null) {
+                    return record(expression, DOUBLE);
+                } else if (field.constant()) {
+                    return record(expression, Type.of(field.get().getAsNumber()));
+                }
+                return record(expression, Type.of(field.field().getType()));
+            }
+            return record(expression, OTHER);
+        }
+
+        @Override
+        public Type visitBinary(final BinaryExpression expression, final Context ctx) {
+            final BinaryExpression.Op op = expression.op();
+            if (op == BinaryExpression.Op.ASSIGN) {
+                final Type value = expression.right().visit(this);
+                final String local = ConstantPropagator.tempName(expression.left());
+                if (local != null) {
+                    locals.merge(local, ZERO.join(value), Type::join);
+                } else {
+                    expression.left().visit(this);
+                }
+                return record(expression, OTHER);
+            }
+
+            final Type left = expression.left().visit(this);
+            final Type right = expression.right().visit(this);
+            return record(expression, switch (op) {
+                case AND, OR, LT, LTE, GT, GTE, EQ, NEQ -> BOOLEAN;
+                case ADD, SUB -> left.integral() && right.integral()
+                        ? Type.integral(Math.max(left.bits(), right.bits()) + 1)
+                        : DOUBLE;
+                case MUL -> left.integral() && right.integral()
+                        ? Type.integral(left.bits() + right.bits())
+                        : DOUBLE;
+                case DIV, NULL_COALESCE -> DOUBLE;
+                default -> OTHER;
+            });
+        }
+
+        @Override
+        public Type visitUnary(final UnaryExpression expression, final Context ctx) {
+            final Type value = expression.expression().visit(this);
+            return record(expression, switch (expression.op()) {
+                case LOGICAL_NEGATION -> BOOLEAN;
+                case ARITHMETICAL_NEGATION -> value.integral() ? Type.integral(value.bits()) : DOUBLE;
+                case RETURN -> OTHER;
+            });
+        }
+
+        @Override
+        public Type visitTernaryConditional(final TernaryConditionalExpression expression, final Context ctx) {
+            expression.condition().visit(this);
+            final Type trueType = expression.trueExpression().visit(this);
+            final Type falseType = expression.falseExpression().visit(this);
+            return record(expression, trueType.join(falseType));
+        }
+
+        @Override
+        public Type visitCall(final CallExpression expression, final Context ctx) {
+            final Expression outlined = MethodSplitter.outlined(expression);
+            if (outlined != null) {
+                return record(expression, outlined.visit(this));
+            }
+            final List<Expression> arguments = expression.arguments();
+            if (ExpressionInliner.isBuiltIn(expression) && !arguments.isEmpty()
+                    && ((IdentifierExpression) expression.function()).name().equals("for_each")) {
+                // the loop variable holds the iterated values
+                final String local = ConstantPropagator.tempName(arguments.get(0));
+                if (local != null) {
+                    locals.put(local, OTHER);
+                }
+            }
+            for (final Expression argument : arguments) {
+                argument.visit(this);
+            }
+            if (IsPureExpression.resolve(expression.function(), scope) instanceof JavaFunction<?> function
+                    && function.method() != null) {
+                final Method method = function.method();
+                if (method.getDeclaringClass() == MochaMath.class) {
+                    // may be compiled inline
+                    return record(expression, method.getReturnType() == double.class ? DOUBLE : OTHER);
+                }
+                return record(expression, Type.of(method.getReturnType()));
+            }
+            return record(expression, OTHER);
+        }
+
+        @Override
+        public Type visitArrayAccess(final ArrayAccessExpression expression, final Context ctx) {
+            expression.array().visit(this);
+            expression.index().visit(this);
+            return record(expression, OTHER);
+        }
+
+        @Override
+        public Type visitExecutionScope(final ExecutionScopeExpression expression, final Context ctx) {
+            for (final Expression statement : expression.expressions()) {
+                statement.visit(this);
+            }
+            return record(expression, OTHER);
+        }
+
+        @Override
+        public Type visit(final Expression expression, final Context ctx) {
+            return record(expression, OTHER);
+        }
+    }
+}
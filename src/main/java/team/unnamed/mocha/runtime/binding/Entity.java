@@ -25,6 +25,24 @@ package team.unnamed.mocha.runtime.binding;
 
 import java.lang.annotation.*;
 
+/**
+ * Marks a parameter that receives the entity.
+ *
+ * <p>In bound functions, the annotated parameter receives the
+ * entity that is evaluating the script instead of an argument.</p>
+ *
+ * <p>In a compiled function interface method, the annotated parameter
+ * gives the entity per invocation, so that a single compiled function
+ * can be used for every entity of that type, bound functions then
+ * receive the call-site entity instead of the engine entity.</p>
+ * <pre>{@code
+ * interface MobFunction extends MochaCompiledFunction {
+ *     double evaluate(@Entity Mob mob);
+ * }
+ * }</pre>
+ *
+ * @since 3.0.0
+ */
 @Documented
 @Target(ElementType.PARAMETER)
 @Retention(RetentionPolicy.RUNTIME)
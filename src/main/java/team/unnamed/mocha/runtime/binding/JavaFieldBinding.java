@@ -25,6 +25,7 @@ package team.unnamed.mocha.runtime.binding;
 
 import org.jetbrains.annotations.ApiStatus;
 import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.runtime.JavaTypes;
 import team.unnamed.mocha.runtime.value.Value;
 
 import java.lang.reflect.Field;
@@ -90,10 +91,22 @@ public final class JavaFieldBinding implements RegisteredBinding {
         }
     }
 
+    public @Nullable Object object() {
+        return object;
+    }
+
     public @Nullable Field field() {
         return field;
     }
 
+    /**
+     * Determines whether the value is read from the field on every
+     * access, i.e. it may change after being bound.
+     */
+    public boolean live() {
+        return value == null && field != null && !Modifier.isFinal(field.getModifiers());
+    }
+
     public boolean constant() {
         return constant;
     }
@@ -116,6 +129,6 @@ public final class JavaFieldBinding implements RegisteredBinding {
             throw new IllegalStateException("Could not get field value.", e);
         }
 
-        return ReflectiveFunction.wrapValue(val);
+        return JavaTypes.wrap(val);
     }
 }
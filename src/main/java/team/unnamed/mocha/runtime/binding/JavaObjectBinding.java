@@ -35,7 +35,9 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 import static java.util.Objects.requireNonNull;
 
@@ -186,6 +188,15 @@ public final class JavaObjectBinding implements ObjectValue {
         return names;
     }
 
+    /**
+     * Returns the names of the bound fields and functions.
+     *
+     * @return The property names
+     */
+    public Set<String> propertyNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
     public @Nullable JavaFieldBinding getField(final String name) {
         final Object value = entries.get(name);
         if (value instanceof JavaFieldBinding) {
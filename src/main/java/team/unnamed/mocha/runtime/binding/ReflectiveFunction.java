@@ -43,33 +43,6 @@ final class ReflectiveFunction<T> implements Function<T> {
         this.method = requireNonNull(method, "method");
     }
 
-    static Value wrapValue(final @Nullable Object any) {
-        return switch (any) {
-            case Value value -> value;
-            case Number num -> DoubleValue.of(num.doubleValue());
-            case String str -> StringValue.of(str);
-            case Boolean bool -> bool ? DoubleValue.of(1D) : DoubleValue.ZERO;
-            case null, default -> {
-                if (any == null) {
-                    yield Value.nil();
-                }
-
-                if (!any.getClass().isArray()) {
-                    // small change here, use javaValue
-                    yield new JavaValue(any);
-                }
-
-                // array types
-                final int length = Array.getLength(any);
-                final Value[] values = new Value[length];
-                for (int i = 0; i < length; i++) {
-                    values[i] = wrapValue(Array.get(any, i));
-                }
-                yield ArrayValue.of(values);
-            }
-        };
-    }
-
     @Override
     public Value evaluate(final ExecutionContext<T> context, final Arguments arguments) {
         final Parameter[] parameters = method.getParameters();
@@ -141,7 +114,7 @@ final class ReflectiveFunction<T> implements Function<T> {
         }
 
         try {
-            return wrapValue(method.invoke(object, values));
+            return JavaTypes.wrap(method.invoke(object, values));
         } catch (final Exception exception) {
             throw new RuntimeException(exception);
         }
@@ -31,4 +31,8 @@ public sealed interface ArrayValue extends Value, Iterable<Value> permits ArrayV
     }
 
     Value[] values();
+
+    int length();
+
+    Value get(final int index);
 }
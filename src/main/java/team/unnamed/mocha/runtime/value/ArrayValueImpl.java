@@ -36,6 +36,16 @@ record ArrayValueImpl(List<Value> valueList) implements ArrayValue {
         return valueList.toArray(Value[]::new);
     }
 
+    @Override
+    public int length() {
+        return valueList.size();
+    }
+
+    @Override
+    public Value get(final int index) {
+        return valueList.get(index);
+    }
+
     @Override
     public Iterator<Value> iterator() {
         return valueList.iterator();
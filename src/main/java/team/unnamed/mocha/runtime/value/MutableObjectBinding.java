@@ -23,9 +23,11 @@
  */
 package team.unnamed.mocha.runtime.value;
 
+import org.jetbrains.annotations.ApiStatus;
 import org.jspecify.annotations.Nullable;
 import team.unnamed.mocha.util.CaseInsensitiveStringHashMap;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import static java.util.Objects.requireNonNull;
@@ -35,14 +37,146 @@ import static java.util.Objects.requireNonNull;
  * these objects can have properties
  * (or fields) that can be read and
  * sometimes written
+ *
+ * <p>Properties are stored in slots, every property name
+ * is assigned a fixed slot index the first time it is used,
+ * so that compiled code can read and write numeric properties
+ * directly, without any lookup.</p>
+ *
+ * <p>Note that the state is held by this object, so it's shared
+ * by every function (interpreted or compiled) of the engine it is
+ * bound to, e.g. the engine {@code variable} binding. Entities
+ * that need their own variables must use their own engine, or
+ * bind their own {@link MutableObjectBinding}.</p>
  */
 public class MutableObjectBinding implements ObjectValue {
-    private final Map<String, ObjectProperty> properties = new CaseInsensitiveStringHashMap<>();
+    private static final double[] EMPTY_NUMBERS = new double[0];
+    private static final Value[] EMPTY_VALUES = new Value[0];
+    private static final DoubleValue[] EMPTY_BOXES = new DoubleValue[0];
+    private static final ObjectProperty[] EMPTY_PROPERTIES = new ObjectProperty[0];
+
+    /**
+     * The value of the slots of removed properties, which read as
+     * nil, but don't exist until they are set again.
+     */
+    private static final ObjectValue REMOVED = name -> null;
+
+    private final Map<String, Integer> slots = new CaseInsensitiveStringHashMap<>();
+    private int slotCount = 0;
     private boolean blocked = false;
 
+    // the last values read from every slot, reused by the
+    // next reads if the slot didn't change
+    private @Nullable DoubleValue[] boxes = EMPTY_BOXES;
+    private @Nullable ObjectProperty[] properties = EMPTY_PROPERTIES;
+
+    /**
+     * The numeric value of every slot, read and written
+     * directly by compiled code.
+     */
+    @ApiStatus.Internal
+    public double[] numbers = EMPTY_NUMBERS;
+
+    /**
+     * The non-numeric value of every slot, or null if the
+     * slot holds a number (see {@link #numbers}), compiled
+     * code clears it when writing a number. The slots of
+     * removed properties hold a value that reads as nil.
+     */
+    @ApiStatus.Internal
+    public @Nullable Value[] values = EMPTY_VALUES;
+
+    /**
+     * Returns the slot index for the given property
+     * {@code name}, allocating a new slot if needed.
+     * Slots are never released, so compiled code can
+     * keep using them.
+     *
+     * @param name The property name
+     * @return The slot index
+     */
+    @ApiStatus.Internal
+    public int slot(final String name) {
+        requireNonNull(name, "name");
+        final Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        final int newSlot = slotCount++;
+        if (newSlot >= numbers.length) {
+            final int capacity = Math.max(8, numbers.length * 2);
+            numbers = Arrays.copyOf(numbers, capacity);
+            values = Arrays.copyOf(values, capacity);
+            boxes = Arrays.copyOf(boxes, capacity);
+            properties = Arrays.copyOf(properties, capacity);
+        }
+        slots.put(name, newSlot);
+        return newSlot;
+    }
+
+    /**
+     * Returns the slot index for the given property
+     * {@code name}, without allocating it.
+     *
+     * @param name The property name
+     * @return The slot index, or -1 if it has no slot
+     */
+    @ApiStatus.Internal
+    public int existingSlot(final String name) {
+        requireNonNull(name, "name");
+        final Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Returns the number of allocated slots, which is
+     * also the index of the next allocated slot.
+     *
+     * @return The number of slots
+     */
+    @ApiStatus.Internal
+    public int slotCount() {
+        return slotCount;
+    }
+
     @Override
     public @Nullable ObjectProperty getProperty(final String name) {
-        return properties.get(name);
+        final Integer slot = slots.get(name);
+        if (slot == null || values[slot] == REMOVED) {
+            return null;
+        }
+        final Value value = get(slot);
+        ObjectProperty property = properties[slot];
+        if (property == null || property.value() != value) {
+            property = ObjectProperty.property(value, false);
+            properties[slot] = property;
+        }
+        return property;
+    }
+
+    @Override
+    public Value get(final String name) {
+        final Integer slot = slots.get(name);
+        if (slot == null) {
+            return Value.nil();
+        }
+        return get(slot);
+    }
+
+    private Value get(final int slot) {
+        final Value value = values[slot];
+        if (value == REMOVED) {
+            return Value.nil();
+        } else if (value != null) {
+            return value;
+        }
+        final double number = numbers[slot];
+        DoubleValue box = boxes[slot];
+        if (box == null || Double.doubleToRawLongBits(box.doubleValue()) != Double.doubleToRawLongBits(number)) {
+            box = DoubleValue.of(number);
+            boxes[slot] = box;
+        }
+        return box;
     }
 
     /**
@@ -56,9 +190,16 @@ public class MutableObjectBinding implements ObjectValue {
             return false;
         }
         if (value == null) {
-            properties.remove(name);
+            final Integer slot = slots.get(name);
+            if (slot != null) {
+                // slots are kept, just reset
+                numbers[slot] = 0D;
+                values[slot] = REMOVED;
+            }
         } else {
-            properties.put(name, ObjectProperty.property(value, false));
+            final int slot = slot(name);
+            numbers[slot] = value.getAsNumber();
+            values[slot] = value instanceof DoubleValue ? null : value;
         }
         return true;
     }
@@ -68,7 +209,12 @@ public class MutableObjectBinding implements ObjectValue {
         if (blocked) {
             throw new IllegalStateException("This object binding has been blocked!");
         }
-        this.properties.putAll(binding.properties);
+        for (final Map.Entry<String, Integer> entry : binding.slots.entrySet()) {
+            final int slot = entry.getValue();
+            if (binding.values[slot] != REMOVED) {
+                set(entry.getKey(), binding.get(slot));
+            }
+        }
     }
 
     public boolean blocked() {
@@ -0,0 +1,101 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.value;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jspecify.annotations.Nullable;
+import team.unnamed.mocha.runtime.ExecutionContext;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link Function} backed by a primitive {@link ObjectValue.DoubleFunction1},
+ * {@link ObjectValue.DoubleFunction2} or {@link ObjectValue.DoubleFunction3}, as
+ * registered by {@link ObjectValue#setFunction}. The compiler calls the backing
+ * function directly, without any {@link Value} allocation.
+ *
+ * @since 4.0
+ */
+@ApiStatus.Internal
+public final class NumberFunction<T extends @Nullable Object> implements Function<T> {
+    private final Object function;
+    private final int arity;
+
+    public NumberFunction(final ObjectValue.DoubleFunction1 function) {
+        this.function = requireNonNull(function, "function");
+        this.arity = 1;
+    }
+
+    public NumberFunction(final ObjectValue.DoubleFunction2 function) {
+        this.function = requireNonNull(function, "function");
+        this.arity = 2;
+    }
+
+    public NumberFunction(final ObjectValue.DoubleFunction3 function) {
+        this.function = requireNonNull(function, "function");
+        this.arity = 3;
+    }
+
+    /**
+     * Returns the backing function, a {@link ObjectValue.DoubleFunction1},
+     * {@link ObjectValue.DoubleFunction2} or {@link ObjectValue.DoubleFunction3}
+     * depending on the {@link #arity()}.
+     *
+     * @return The backing function
+     */
+    public Object function() {
+        return function;
+    }
+
+    /**
+     * Returns the number of arguments taken by the backing function.
+     *
+     * @return The number of arguments
+     */
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Value evaluate(final ExecutionContext<T> context, final Arguments arguments) {
+        return DoubleValue.of(switch (arity) {
+            case 1 -> ((ObjectValue.DoubleFunction1) function).apply(
+                    argument(arguments, 0)
+            );
+            case 2 -> ((ObjectValue.DoubleFunction2) function).apply(
+                    argument(arguments, 0),
+                    argument(arguments, 1)
+            );
+            default -> ((ObjectValue.DoubleFunction3) function).apply(
+                    argument(arguments, 0),
+                    argument(arguments, 1),
+                    argument(arguments, 2)
+            );
+        });
+    }
+
+    private static double argument(final Arguments arguments, final int index) {
+        return requireNonNull(arguments.next().eval(), "arg " + index).getAsNumber();
+    }
+}
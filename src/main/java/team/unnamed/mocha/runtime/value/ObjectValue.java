@@ -28,8 +28,6 @@ import org.jspecify.annotations.Nullable;
 import java.util.Collections;
 import java.util.Map;
 
-import static java.util.Objects.requireNonNull;
-
 public non-sealed interface ObjectValue extends Value {
     /**
      * Returns the property for the given name ignoring
@@ -69,24 +67,15 @@ public non-sealed interface ObjectValue extends Value {
 
     // :) overloads
     default void setFunction(final String name, final DoubleFunction1 function) {
-        set(name, (Function<?>) (ctx, args) -> DoubleValue.of(function.apply(
-                requireNonNull(args.next().eval(), "arg 0").getAsNumber())
-        ));
+        set(name, new NumberFunction<>(function));
     }
 
     default void setFunction(final String name, final DoubleFunction2 function) {
-        set(name, (Function<?>) (ctx, args) -> DoubleValue.of(function.apply(
-                requireNonNull(args.next().eval(), "arg 0").getAsNumber(),
-                requireNonNull(args.next().eval(), "arg 1").getAsNumber())
-        ));
+        set(name, new NumberFunction<>(function));
     }
 
     default void setFunction(final String name, final DoubleFunction3 function) {
-        set(name, (Function<?>) (ctx, args) -> DoubleValue.of(function.apply(
-                requireNonNull(args.next().eval(), "arg 0").getAsNumber(),
-                requireNonNull(args.next().eval(), "arg 1").getAsNumber(),
-                requireNonNull(args.next().eval(), "arg 2").getAsNumber())
-        ));
+        set(name, new NumberFunction<>(function));
     }
 
     interface DoubleFunction1 {
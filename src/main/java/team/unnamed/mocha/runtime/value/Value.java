@@ -43,7 +43,7 @@ public sealed interface Value permits ArrayValue, Function, ObjectValue, SingleV
         return switch (this) {
             case DoubleValue num -> num.doubleValue() != 0D;
             case StringValue str -> !str.value().isEmpty();
-            case ArrayValue arr -> arr.values().length != 0;
+            case ArrayValue arr -> arr.length() != 0;
             case ObjectValue obj -> !obj.entries().isEmpty();
             default -> true;
         };
@@ -38,6 +38,7 @@ import static java.util.Objects.requireNonNull;
 
 public class JavassistUtil {
 
+    private static final String VALUE_TYPE_NAME = "team.unnamed.mocha.runtime.value.Value";
     private static final Set<String> WRAPPER_TYPE_NAMES = new HashSet<>();
 
     static {
@@ -51,6 +52,11 @@ public class JavassistUtil {
         WRAPPER_TYPE_NAMES.add(Double.class.getName());
     }
 
+    private static final CtClass[] BOXABLE_PRIMITIVE_TYPES = {
+            CtClass.booleanType, CtClass.byteType, CtClass.charType, CtClass.shortType,
+            CtClass.intType, CtClass.longType, CtClass.floatType, CtClass.doubleType
+    };
+
     public static boolean isSubtypeOf(final CtClass subtype, final CtClass supertype) {
         try {
             return subtype.subtypeOf(supertype);
@@ -71,6 +77,17 @@ public class JavassistUtil {
         }
     }
 
+    public static CtClass boxedType(final ClassPool cp, final CtClass type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        try {
+            return cp.get(((CtPrimitiveType) type).getWrapperName());
+        } catch (final NotFoundException e) {
+            throw new IllegalStateException("CtClass not found for wrapper of: " + type.getName(), e);
+        }
+    }
+
     public static boolean isWrapper(final CtClass type) {
         requireNonNull(type, "type");
         return WRAPPER_TYPE_NAMES.contains(type.getName());
@@ -81,6 +98,18 @@ public class JavassistUtil {
         return type.isPrimitive() || isWrapper(type);
     }
 
+    public static boolean isValue(final CtClass type) {
+        requireNonNull(type, "type");
+        if (type.isPrimitive()) {
+            return false;
+        }
+        try {
+            return type.subtypeOf(type.getClassPool().get(VALUE_TYPE_NAME));
+        } catch (final NotFoundException e) {
+            return false;
+        }
+    }
+
     public static CtClass addCastIfPossible(final Bytecode bytecode, final CtClass from, final @Nullable CtClass to) {
         if (to == null) {
             return from;
@@ -125,13 +154,20 @@ public class JavassistUtil {
                     throw new TypeCastException("Cannot cast unknown primitive type: " + from.getName());
                 }
             } else {
-                final CtPrimitiveType fromPrimitive = (CtPrimitiveType) from;
-
-                // primitive to wrapper
+                // primitive to wrapper, numbers are boxed as doubles (like the
+                // interpreter numbers) unless another wrapper type is expected
+                CtPrimitiveType boxedPrimitive = (CtPrimitiveType) CtClass.doubleType;
+                for (final CtClass primitive : BOXABLE_PRIMITIVE_TYPES) {
+                    if (((CtPrimitiveType) primitive).getWrapperName().equals(to.getName())) {
+                        boxedPrimitive = (CtPrimitiveType) primitive;
+                        break;
+                    }
+                }
+                addCast(bytecode, from, boxedPrimitive);
                 bytecode.addInvokestatic(
-                        fromPrimitive.getWrapperName(),
+                        boxedPrimitive.getWrapperName(),
                         "valueOf",
-                        "(" + fromPrimitive.getDescriptor() + ")L" + fromPrimitive.getWrapperName().replace('.', '/') + ";"
+                        "(" + boxedPrimitive.getDescriptor() + ")L" + boxedPrimitive.getWrapperName().replace('.', '/') + ";"
                 );
             }
         } else {
@@ -145,9 +181,20 @@ public class JavassistUtil {
                             toPrimitive.getGetMethodName(),
                             toPrimitive.getGetMethodDescriptor()
                     );
+                } else if (isValue(from)) {
+                    // molang value to primitive, same conversions as the interpreter
+                    if (to.equals(CtClass.booleanType)) {
+                        bytecode.addInvokeinterface(VALUE_TYPE_NAME, "getAsBoolean", "()Z", 1);
+                    } else {
+                        bytecode.addInvokeinterface(VALUE_TYPE_NAME, "getAsNumber", "()D", 1);
+                        addCastDoubleTo(bytecode, to);
+                    }
                 } else {
                     throw new TypeCastException("Cannot cast unknown type: " + from.getName());
                 }
+            } else if (to.getName().equals(String.class.getName()) && isValue(from)) {
+                // molang value to string
+                bytecode.addInvokeinterface(VALUE_TYPE_NAME, "getAsString", "()Ljava/lang/String;", 1);
             } else {
                 // object to object
                 bytecode.addCheckcast(to);
@@ -174,10 +221,10 @@ public class JavassistUtil {
             // Requires us to perform some extra logic, checking if the int is 0
             // and pushing 0 or 1 depending on the result
             bytecode.addOpcode(Bytecode.IFEQ); // if int is 0...
-            bytecode.addIndex(6);              // ...jump to push 0 (A)
+            bytecode.addIndex(7);              // ...jump to push 0 (A)
             bytecode.addIconst(1);          // int is not 0, push 1
             bytecode.addOpcode(Bytecode.GOTO); // ...jump
-            bytecode.addIndex(3);              // ...to end (skips A)
+            bytecode.addIndex(4);              // ...to end (skips A)
             bytecode.addIconst(0);          // (A) push 0
         } else if (to.equals(CtClass.shortType)) {
             // Convert int to short
@@ -230,13 +277,20 @@ public class JavassistUtil {
             // Convert double to float
             // Pops a double, converts it to a float, then pushes it
             bytecode.addOpcode(Bytecode.D2F);
+        } else if (to.equals(CtClass.booleanType)) {
+            // Convert double to boolean
+            // Compares the double against zero, so that non-integral values
+            // (e.g. 0.5) are also true, then normalizes the result to 0 or 1
+            bytecode.addOpcode(Bytecode.DCONST_0);
+            bytecode.addOpcode(Bytecode.DCMPL);
+            addCastIntTo(bytecode, CtClass.booleanType);
         } else if (to.equals(CtClass.voidType)) {
             throw new IllegalArgumentException("Cannot cast double to void");
         } else {
             // Convert to an int and try to cast it to the target type
             bytecode.addOpcode(Bytecode.D2I);
             try {
-                addCastIntTo(bytecode, CtClass.intType);
+                addCastIntTo(bytecode, to);
             } catch (final TypeCastException e) {
                 // correct message
                 throw new TypeCastException("Cannot cast double to unknown type: " + to.getName());
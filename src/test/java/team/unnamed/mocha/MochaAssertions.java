@@ -106,6 +106,14 @@ public final class MochaAssertions {
         assertEquals(expected, compiledResult, 0.0001, () -> "(Compiled) expression: '" + expr + "' evaluated to " + compiledResult + ", expected " + expected);
     }
 
+    public static void assertEvaluatesAndCompiles(final @NotNull MochaEngine<?> engine, final double expected, final @NotNull String expr) throws IOException {
+        final double result = engine.eval(expr).getAsNumber();
+        assertEquals(expected, result, 0.0001, () -> "(Interpreted) expression: '" + expr + "' evaluated to " + result + ", expected " + expected);
+
+        final double compiledResult = engine.compileDouble(expr).evaluate();
+        assertEquals(expected, compiledResult, 0.0001, () -> "(Compiled) expression: '" + expr + "' evaluated to " + compiledResult + ", expected " + expected);
+    }
+
     public static void assertEvaluatesAndCompiles(final Object expected, final @NotNull String expr) throws IOException {
         final MochaEngine<?> engine = MochaEngine.createStandard();
 
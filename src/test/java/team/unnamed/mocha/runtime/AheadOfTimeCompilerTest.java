@@ -0,0 +1,160 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.binding.Binding;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.compiled.Named;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AheadOfTimeCompilerTest {
+    @Test
+    void test_precompiled_functions_are_loaded_without_compiling(final @TempDir Path sources, final @TempDir Path output) throws IOException {
+        writeSources(sources);
+        final MochaEngine<?> buildEngine = MochaEngine.createStandard();
+        buildEngine.bindInstance(Box.class, new Box(3), "box");
+        assertEquals(2, AheadOfTimeCompiler.compile(buildEngine, sources, output));
+
+        final int[] compiled = {0};
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bindInstance(Box.class, new Box(5), "box");
+        engine.postCompile(bytecode -> compiled[0]++);
+        try (final URLClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()}, getClass().getClassLoader())) {
+            final PrecompiledFunctions functions = engine.precompiled(classLoader);
+            assertEquals(Set.of("walk", "nested/scale"), functions.names());
+            assertTrue(functions.isPrecompiled("walk"));
+            assertTrue(functions.isPrecompiled("nested/scale"));
+
+            final MochaDoubleFunction walk = functions.get("walk", MochaDoubleFunction.class);
+            assertEquals(4 * 5, walk.evaluate());
+            assertSame(classLoader, walk.getClass().getClassLoader());
+            assertSame(walk, functions.get("walk", MochaDoubleFunction.class));
+            assertEquals(6, functions.get("nested/scale", ScaleFunction.class).scale(3));
+            assertEquals(0, compiled[0]);
+
+            assertThrows(IllegalArgumentException.class, () -> functions.get("walk", ScaleFunction.class));
+            assertThrows(IllegalArgumentException.class, () -> functions.get("run", MochaDoubleFunction.class));
+        }
+    }
+
+    @Test
+    void test_functions_are_compiled_when_bindings_change(final @TempDir Path sources, final @TempDir Path output) throws IOException {
+        writeSources(sources);
+        final MochaEngine<?> buildEngine = MochaEngine.createStandard();
+        buildEngine.bindInstance(Box.class, new Box(3), "box");
+        AheadOfTimeCompiler.compile(buildEngine, sources, output);
+
+        final int[] compiled = {0};
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bindInstance(OtherBox.class, new OtherBox(), "box");
+        engine.postCompile(bytecode -> compiled[0]++);
+        try (final URLClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()}, getClass().getClassLoader())) {
+            final PrecompiledFunctions functions = engine.precompiled(classLoader);
+            assertFalse(functions.isPrecompiled("walk"));
+            assertEquals(4 * 7, functions.get("walk", MochaDoubleFunction.class).evaluate());
+            assertEquals(1, compiled[0]);
+        }
+    }
+
+    @Test
+    void test_functions_are_compiled_when_version_changes(final @TempDir Path sources, final @TempDir Path output) throws IOException {
+        writeSources(sources);
+        final MochaEngine<?> buildEngine = MochaEngine.createStandard();
+        buildEngine.bindInstance(Box.class, new Box(3), "box");
+        AheadOfTimeCompiler.compile(buildEngine, sources, output);
+
+        // as if it was compiled by another version
+        final Path index = output.resolve(PrecompiledFunctions.INDEX);
+        final ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        try (final DataInputStream input = new DataInputStream(Files.newInputStream(index));
+             final DataOutputStream indexOutput = new DataOutputStream(rewritten)) {
+            indexOutput.writeInt(input.readInt());
+            indexOutput.writeInt(input.readInt());
+            PersistentCompileCache.readString(input);
+            PersistentCompileCache.writeString(indexOutput, "0.0-other");
+            input.transferTo(indexOutput);
+        }
+        Files.write(index, rewritten.toByteArray());
+
+        final int[] compiled = {0};
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bindInstance(Box.class, new Box(5), "box");
+        engine.postCompile(bytecode -> compiled[0]++);
+        try (final URLClassLoader classLoader = new URLClassLoader(new URL[]{output.toUri().toURL()}, getClass().getClassLoader())) {
+            final PrecompiledFunctions functions = engine.precompiled(classLoader);
+            assertFalse(functions.isPrecompiled("walk"));
+            assertEquals(4 * 5, functions.get("walk", MochaDoubleFunction.class).evaluate());
+            assertEquals(1, compiled[0]);
+        }
+    }
+
+    private static void writeSources(final Path sources) throws IOException {
+        Files.writeString(sources.resolve("walk.molang"), "v.speed = 2; return math.sqrt(v.speed * 8) * box.size();");
+        Files.createDirectories(sources.resolve("nested"));
+        Files.writeString(sources.resolve("nested/scale.molang"), "a * 2");
+        Files.writeString(sources.resolve(AheadOfTimeCompiler.INTERFACES_FILE), "nested/scale=" + ScaleFunction.class.getName());
+    }
+
+    public interface ScaleFunction extends MochaCompiledFunction {
+        double scale(@Named("a") double a);
+    }
+
+    public static final class Box {
+        private final double size;
+
+        public Box(final double size) {
+            this.size = size;
+        }
+
+        @Binding("size")
+        public double size() {
+            return size;
+        }
+    }
+
+    public static final class OtherBox {
+        @Binding("size")
+        public double size() {
+            return 7;
+        }
+    }
+}
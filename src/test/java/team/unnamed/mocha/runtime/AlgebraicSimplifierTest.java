@@ -0,0 +1,94 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.parser.ast.Expression;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AlgebraicSimplifierTest {
+    @Test
+    void test_identities() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertSimplified(engine, "t.x", "t.x * 1");
+        assertSimplified(engine, "t.x", "1 * t.x + 0");
+        assertSimplified(engine, "t.x", "0 + t.x - 0");
+        assertSimplified(engine, "t.x", "t.x / 1");
+        assertSimplified(engine, "t.x", "-(-t.x)");
+        assertSimplified(engine, "t.x < 2", "!!(t.x < 2)");
+        assertSimplified(engine, "!!t.x", "!!t.x");
+        assertSimplified(engine, "t.x = t.y", "t.x = t.y * 1");
+    }
+
+    @Test
+    void test_zero() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertSimplified(engine, "0", "(t.x > 1) * 0");
+        assertSimplified(engine, "0", "t.x / 0");
+        // t.x may be NaN or infinite
+        assertSimplified(engine, "t.x * 0", "t.x * 0");
+        // side effects are kept
+        assertSimplified(engine, "(t.x = 2) / 0", "(t.x = 2) / 0");
+    }
+
+    @Test
+    void test_strength_reduction() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertSimplified(engine, "t.x * 0.5", "t.x / 2");
+        assertSimplified(engine, "t.x * -0.25", "t.x / -4");
+        assertSimplified(engine, "t.x / 3", "t.x / 3");
+        assertSimplified(engine, "t.x * t.x", "math.pow(t.x, 2)");
+        assertSimplified(engine, "t.x", "math.pow(t.x, 1)");
+        assertSimplified(engine, "1", "math.pow(t.x, 0)");
+        assertSimplified(engine, "math.pow(t.x, 3)", "math.pow(t.x, 3)");
+        assertSimplified(engine, "math.pow(t.x = 2, 2)", "math.pow(t.x = 2, 2)");
+    }
+
+    @Test
+    void test_semantics() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final String[] scripts = {
+                "t.x = 3; t.x / 0",
+                "v.x = 3; v.x / 0",
+                "v.x = 0; 1 / v.x",
+                "v.x = 7; v.x / 2 + v.x / 3",
+                "v.x = 1.5; math.pow(v.x, 2) + math.pow(v.x, 1) + math.pow(v.x, 0)",
+                "v.x = 4; -(-v.x) * 1 + 0",
+                "v.x = 2; !!(v.x > 1) + (v.x < 1) * 0"
+        };
+        for (final String script : scripts) {
+            assertEquals(engine.eval(script).getAsNumber(), engine.compileDouble(script).evaluate(), script);
+        }
+    }
+
+    private static void assertSimplified(final MochaEngine<?> engine, final String expected, final String code) throws IOException {
+        final List<Expression> result = new AlgebraicSimplifier(engine.scope()).process(engine.parse(code));
+        assertEquals(engine.parse(expected), result);
+    }
+}
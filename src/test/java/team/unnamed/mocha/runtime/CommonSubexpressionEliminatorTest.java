@@ -0,0 +1,162 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.parser.ast.AccessExpression;
+import team.unnamed.mocha.parser.ast.BinaryExpression;
+import team.unnamed.mocha.parser.ast.Expression;
+import team.unnamed.mocha.parser.ast.IdentifierExpression;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.Function;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.Value;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommonSubexpressionEliminatorTest {
+    @Test
+    void test_repeated_products() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        // products are left-associative, ((3*t)*t) and ((2*t)*t)*t share nothing
+        assertEliminated(engine, "3*temp.t*temp.t - 2*temp.t*temp.t*temp.t", "3*temp.t*temp.t - 2*temp.t*temp.t*temp.t");
+
+        // (temp.t * temp.t) is computed once
+        final List<Expression> result = process(engine, "temp.t = 2; temp.t*temp.t + temp.t*temp.t");
+        assertEquals(3, result.size());
+        assertEquals(assign(0, parse(engine, "temp.t*temp.t")), result.get(1));
+        assertEquals(new BinaryExpression(BinaryExpression.Op.ADD, local(0), local(0)), result.get(2));
+    }
+
+    @Test
+    void test_pure_calls() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final List<Expression> result = process(engine, "t.a = math.sin(t.x * 90); t.b = math.sin(t.x * 90) * 2");
+        assertEquals(3, result.size());
+        assertEquals(assign(0, parse(engine, "math.sin(t.x * 90)")), result.get(0));
+    }
+
+    @Test
+    void test_invalidation() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+
+        // the operand changes between both occurrences
+        assertEquals(3, process(engine, "t.a = t.x * t.x; t.x = 3; t.a + t.x * t.x").size());
+
+        // conditional occurrences are not stored first
+        assertEquals(1, process(engine, "t.c ? t.x * t.x : t.x * t.x").size());
+    }
+
+    @Test
+    void test_pure_function_called_once() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        final MochaEngine<?> engine = MochaEngine.create(null, scope -> {
+            final MutableObjectBinding fn = new MutableObjectBinding();
+            fn.set("square", new Function<>() {
+                @Override
+                public Value evaluate(final ExecutionContext<Object> context, final Arguments arguments) {
+                    calls.incrementAndGet();
+                    final double value = arguments.next().eval().getAsNumber();
+                    return DoubleValue.of(value * value);
+                }
+
+                @Override
+                public boolean pure() {
+                    return true;
+                }
+            });
+            scope.set("fn", fn);
+        });
+
+        final String code = "t.x = 3; fn.square(t.x + 1) + fn.square(t.x + 1) * 2";
+        assertEquals(48D, engine.eval(code).getAsNumber());
+        assertEquals(2, calls.getAndSet(0));
+
+        assertEquals(48D, engine.compileDouble(code).evaluate());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void test_semantics() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final String[] scripts = {
+                "t.t = 1.5; 3*temp.t*temp.t - 2*temp.t*temp.t*temp.t",
+                "t.x = 2; t.a = t.x * t.x; t.x = 3; t.a + t.x * t.x",
+                "v.x = 2; t.a = math.pow(v.x, 2); v.x = 5; t.a + math.pow(v.x, 2)",
+                "t.i = 0; t.s = 0; loop(4, { t.s = t.s + t.i * t.i; t.i = t.i + 1; t.s = t.s + t.i * t.i; }); t.s",
+                "t.x = 4; t.x > 2 ? math.sqrt(t.x) + math.sqrt(t.x) : 0"
+        };
+        for (final String script : scripts) {
+            assertEquals(engine.eval(script).getAsNumber(), engine.compileDouble(script).evaluate(), script);
+        }
+    }
+
+    @Test
+    void test_long_expression() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final StringBuilder script = new StringBuilder();
+        for (int k = 0; k < 10; k++) {
+            script.append("t.a").append(k).append(" = ").append(k + 1).append(';');
+        }
+        script.append("return 0");
+        for (int i = 0; i < 600; i++) {
+            script.append(" + (t.a").append(i % 10).append(" * ").append(i % 13 + 2).append(" - v.b").append(i % 7).append(')');
+        }
+        script.append(';');
+        final String code = script.toString();
+
+        // used to take time cubic in the expression size
+        final List<Expression> result = assertTimeout(Duration.ofSeconds(5), () -> process(engine, code));
+        assertTrue(result.size() > 11, "no subexpression was eliminated");
+        assertEquals(engine.eval(code).getAsNumber(), engine.compileDouble(code).evaluate());
+    }
+
+    private static void assertEliminated(final MochaEngine<?> engine, final String expected, final String code) throws IOException {
+        assertEquals(engine.parse(expected), process(engine, code));
+    }
+
+    private static Expression local(final int index) {
+        return new AccessExpression(new IdentifierExpression("temp"), "$cse" + index);
+    }
+
+    private static Expression assign(final int index, final Expression value) {
+        return new BinaryExpression(BinaryExpression.Op.ASSIGN, local(index), value);
+    }
+
+    private static Expression parse(final MochaEngine<?> engine, final String code) throws IOException {
+        return engine.parse(code).get(0);
+    }
+
+    private static List<Expression> process(final MochaEngine<?> engine, final String code) throws IOException {
+        return new CommonSubexpressionEliminator(engine.scope()).process(engine.parse(code));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.binding.Binding;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.compiled.Named;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.ObjectProperty;
+import team.unnamed.mocha.runtime.value.ObjectValue;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CompiledFunctionCacheTest {
+    @Test
+    void test_equivalent_code_is_compiled_once() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final int[] compiled = {0};
+        engine.postCompile(bytecode -> compiled[0]++);
+
+        final MochaDoubleFunction function = engine.compileDouble("v.x = 2; t.a = v.x * 3; return t.a + math.pi;");
+        assertSame(function, engine.compileDouble("v.x = 2; t.a = v.x * 3; return t.a + math.pi;"));
+        assertSame(function, engine.compileDouble("variable.X=2;temp.A=variable.x*3;return T.a+MATH.PI;"));
+        assertEquals(1, compiled[0]);
+        assertEquals(6 + Math.PI, function.evaluate());
+
+        // different code or interface
+        assertNotSame(function, engine.compileDouble("v.x = 2; t.a = v.x * 4; return t.a + math.pi;"));
+        assertNotSame(function, engine.compile("v.x = 2; t.a = v.x * 3; return t.a + math.pi;"));
+        assertNotSame(engine.compile("a * 2", ScaleFunction.class), engine.compile("a * 2", OtherScaleFunction.class));
+        assertEquals(5, compiled[0]);
+    }
+
+    @Test
+    void test_cache_is_cleared_when_bindings_change() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bindInstance(Box.class, new Box(2), "box");
+        final MochaDoubleFunction function = engine.compileDouble("box.size() * 3");
+        assertEquals(6, function.evaluate());
+        assertSame(function, engine.compileDouble("BOX.SIZE() * 3"));
+
+        engine.bindInstance(Box.class, new Box(5), "box");
+        final MochaDoubleFunction recompiled = engine.compileDouble("box.size() * 3");
+        assertNotSame(function, recompiled);
+        assertEquals(15, recompiled.evaluate());
+    }
+
+    @Test
+    void test_cache_is_cleared_when_nested_bindings_change() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final MutableObjectBinding fn = new MutableObjectBinding();
+        fn.setFunction("health", n -> n * 2);
+        engine.scope().set("fn", fn);
+        final MochaDoubleFunction function = engine.compileDouble("fn.health(3) + 1");
+        assertEquals(7, function.evaluate());
+        assertSame(function, engine.compileDouble("fn.health(3) + 1"));
+
+        // the binding is the same, but the function in it isn't
+        fn.setFunction("health", n -> n * 3);
+        final MochaDoubleFunction recompiled = engine.compileDouble("fn.health(3) + 1");
+        assertNotSame(function, recompiled);
+        assertEquals(10, recompiled.evaluate());
+        assertSame(recompiled, engine.compileDouble("fn.health(3) + 1"));
+    }
+
+    @Test
+    void test_partially_interpreted_functions_are_cached() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.scope().set("custom", (ObjectValue) name -> ObjectProperty.property(DoubleValue.of(name.length()), true));
+        final MochaDoubleFunction function = engine.compileDouble("v.x = 2; custom.abc * v.x");
+        assertEquals(6, function.evaluate());
+        assertSame(function, engine.compileDouble("v.x = 2; custom.abc * v.x"));
+    }
+
+    public static final class Box {
+        private final double size;
+
+        public Box(final double size) {
+            this.size = size;
+        }
+
+        @Binding("size")
+        public double size() {
+            return size;
+        }
+    }
+
+    public interface ScaleFunction extends MochaCompiledFunction {
+        double scale(@Named("a") double a);
+    }
+
+    public interface OtherScaleFunction extends MochaCompiledFunction {
+        double scale(@Named("a") double a);
+    }
+}
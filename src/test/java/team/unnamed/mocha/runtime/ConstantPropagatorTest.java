@@ -0,0 +1,88 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.parser.ast.Expression;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConstantPropagatorTest {
+    @Test
+    void test_straight_line() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertPropagated(engine, "temp.t = 3; return 27;", "temp.t = 3; return 3*temp.t*temp.t;");
+        assertPropagated(engine, "t.a = 2; t.b = 5; 10 + t.c", "t.a = 2; t.b = t.a + 3; t.a * t.b + t.c");
+        assertPropagated(engine, "t.x = 2; t.x = t.y; t.x + 1", "t.x = 2; t.x = t.y; t.x + 1");
+        assertPropagated(engine, "t.s = 'hello'; 'hello'", "t.s = 'hello'; t.s");
+    }
+
+    @Test
+    void test_branches() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertPropagated(engine, "t.a = 1; t.c ? (t.a = 2) : 0; t.a + 1", "t.a = 1; t.c ? (t.a = 2) : 0; t.a + 1");
+        assertPropagated(engine, "t.a = 1; t.c ? (t.a = 2) : (t.a = 2); 3", "t.a = 1; t.c ? (t.a = 2) : (t.a = 2); t.a + 1");
+        assertPropagated(engine, "t.a = 1; t.c ? { t.b = 2; }; 1", "t.a = 1; t.c ? { t.b = t.a * 2; }; t.a");
+        assertPropagated(engine, "t.a = 1; t.c && (t.a = 0); t.a", "t.a = 1; t.c && (t.a = 0); t.a");
+    }
+
+    @Test
+    void test_loops() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertPropagated(
+                engine,
+                "t.x = 2; t.y = 4; loop(2, { t.x = t.x + 1; }); 4 + t.x",
+                "t.x = 2; t.y = t.x * 2; loop(2, { t.x = t.x + 1; }); t.y + t.x"
+        );
+        assertPropagated(
+                engine,
+                "t.k = 3; t.i = 0; loop(3, { t.i = t.i + 3; }); t.i",
+                "t.k = 3; t.i = 0; loop(t.k, { t.i = t.i + t.k; }); t.i"
+        );
+    }
+
+    @Test
+    void test_semantics() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final String[] scripts = {
+                "temp.t = 3; return 3*temp.t*temp.t - 2*temp.t*temp.t*temp.t;",
+                "t.a = 1; v.c = 1; v.c ? (t.a = 2) : 0; t.a + 1",
+                "t.i = 0; t.k = 2; loop(5, { t.i = t.i + t.k; t.k = t.k + 1; }); t.i",
+                "t.x = 0.5; math.sin(t.x * 90) + math.cos(t.x * 90)"
+        };
+        for (final String script : scripts) {
+            assertEquals(engine.eval(script).getAsNumber(), engine.compileDouble(script).evaluate(), script);
+        }
+    }
+
+    private static void assertPropagated(final MochaEngine<?> engine, final String expected, final String code) throws IOException {
+        final List<Expression> result = new ConstantPropagator(new ExpressionInterpreter<>(null, engine.scope()), engine.scope())
+                .process(engine.parse(code));
+        assertEquals(engine.parse(expected), result);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.parser.ast.Expression;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DeadCodeEliminatorTest {
+    @Test
+    void test_unreachable() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEliminated(engine, "v.x = 1; return v.x;", "v.x = 1; return v.x; v.x = 2; v.y");
+        assertEliminated(engine, "loop(3, { v.x = v.x + 1; break })", "loop(3, { v.x = v.x + 1; break; v.y = 2; });");
+        assertEliminated(engine, "loop(3, { continue })", "loop(3, { continue; v.y = 2; });");
+        // outside loops, break does nothing
+        assertEliminated(engine, "v.c ? { break; v.y = 2 }; 1", "v.c ? { break; v.y = 2; }; 1");
+    }
+
+    @Test
+    void test_constant_branches() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEliminated(engine, "v.x = v.a", "v.x = (1 ? v.a : v.b)");
+        assertEliminated(engine, "v.x = 0", "v.x = (0 ? v.a : 0)");
+        assertEliminated(engine, "v.y = 2; 0", "1 ? { v.y = 2; }; 0 ? { v.y = 3; }; 0");
+        assertEliminated(engine, "v.y = 2; return 1", "1 ? { v.y = 2; return 1; v.y = 3; }; { v.y = 4; }; v.y");
+    }
+
+    @Test
+    void test_unused_temps() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEliminated(engine, "v.x = 1; 27", "t.t = 3; v.x = 1; 27");
+        assertEliminated(engine, "t.a = 2; t.a * 2", "t.a = 2; t.b = t.a; t.c = t.b; t.a * 2");
+        assertEliminated(engine, "v.x = 2; 1", "t.a = (v.x = 2); 1");
+        assertEliminated(engine, "loop(2, { t.i = t.i + 1 }); 1", "loop(2, { t.i = t.i + 1; }); 1");
+        assertEliminated(engine, "for_each(t.e, v.list, { v.x = 1 }); 1", "for_each(t.e, v.list, { v.x = 1; }); 1");
+        assertEliminated(engine, "t.a = 3", "t.a = 3");
+    }
+
+    @Test
+    void test_pure_statements() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEliminated(engine, "v.x", "v.y + 1; math.cos(v.x); v.x");
+        assertEliminated(engine, "math.random(0, 1); v.x", "math.random(0, 1); v.x");
+        assertEliminated(engine, "loop(2, { v.x = 1 })", "loop(2, { v.x = 1; v.x * 2; {}; })");
+    }
+
+    @Test
+    void test_semantics() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final String[] scripts = {
+                "temp.t = 3; return 3*temp.t*temp.t - 2*temp.t*temp.t*temp.t;",
+                "v.x = 1; return v.x; v.x = 2;",
+                "t.i = 0; loop(10, { t.i = t.i + 1; (t.i > 3) ? break; t.unused = t.i; }); t.i",
+                "t.a = 5; t.b = t.a * 2; 1 ? { v.r = t.a; }; v.r"
+        };
+        for (final String script : scripts) {
+            assertEquals(engine.eval(script).getAsNumber(), engine.compileDouble(script).evaluate(), script);
+        }
+    }
+
+    private static void assertEliminated(final MochaEngine<?> engine, final String expected, final String code) throws IOException {
+        final List<Expression> result = new DeadCodeEliminator(engine.scope()).process(engine.parse(code));
+        assertEquals(engine.parse(expected), result);
+    }
+}
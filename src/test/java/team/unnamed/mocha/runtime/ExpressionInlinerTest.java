@@ -0,0 +1,82 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.parser.ast.Expression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExpressionInlinerTest {
+    @Test
+    void test_constant_subtrees() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertInlined(engine, "q.anim_time * " + (Math.PI / 180), "q.anim_time * (math.pi / 180)");
+        assertInlined(engine, "v.x * 3", "(1 + 2) * v.x");
+        assertInlined(engine, "-v.x + 2", "-v.x + math.abs(-2)");
+        assertInlined(engine, "v.x ? 4 : math.random(0, 2)", "v.x ? 2 * 2 : math.random(0, 1 + 1)");
+        assertInlined(engine, "v.x = 4; v.y[2]", "v.x = 2 + 2; v.y[1 + 1]");
+        assertInlined(engine, "loop(3, { v.x = v.x + 2; })", "loop(1 + 2, { v.x = v.x + 1 * 2; })");
+        assertInlined(engine, "v.y", "(1 > 0) ? v.y : v.z");
+        assertInlined(engine, "v.x = 1; 'a'", "v.x = 1; 'a'");
+    }
+
+    @Test
+    void test_reassociation() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertInlined(engine, "v.x * 6", "2 * v.x * 3");
+        assertInlined(engine, "v.x + v.y + 3", "1 + v.x + 2 + v.y");
+        assertInlined(engine, "v.x + v.y + 3", "v.x + (v.y + 1 + 2)");
+        assertInlined(engine, "v.x * (v.y + 1) * 2", "2 * v.x * (1 + v.y)");
+        assertInlined(engine, "v.x - 1 - 2", "v.x - 1 - 2");
+    }
+
+    @Test
+    void test_semantics() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final String[] scripts = {
+                "v.x = 90; v.x * (math.pi / 180)",
+                "v.x = 5; v.y = 2; 1 + v.x + 2 + v.y",
+                "v.x = 5; 2 * v.x * 3 - (1 + 2) * v.x",
+                "v.x = 3; (v.x > 1 + 1) ? v.x * 2 * 2 : 0"
+        };
+        for (final String script : scripts) {
+            assertEquals(engine.eval(script).getAsNumber(), engine.compileDouble(script).evaluate(), script);
+        }
+    }
+
+    private static void assertInlined(final MochaEngine<?> engine, final String expected, final String code) throws IOException {
+        final ExpressionInliner inliner = new ExpressionInliner(new ExpressionInterpreter<>(null, engine.scope()), engine.scope());
+        final List<Expression> result = new ArrayList<>();
+        for (final Expression expression : engine.parse(code)) {
+            result.add(expression.visit(inliner));
+        }
+        assertEquals(engine.parse(expected), result);
+    }
+}
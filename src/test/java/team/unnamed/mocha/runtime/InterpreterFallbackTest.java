@@ -0,0 +1,97 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.compiled.Named;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.ObjectProperty;
+import team.unnamed.mocha.runtime.value.ObjectValue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InterpreterFallbackTest {
+    @Test
+    void test_unsupported_subtrees_are_interpreted() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.scope().set("size", DoubleValue.of(2));
+        engine.scope().set("custom", (ObjectValue) name -> ObjectProperty.property(DoubleValue.of(name.length()), true));
+
+        final String[] scripts = {
+                "size * 3",
+                "t.a = 4; t.b = size + t.a; t.b * 2",
+                "v.x = 5; custom.abc * v.x + custom.hello",
+                "v.n = 0; loop(10, { v.n = v.n + size; (v.n > custom.abcd) ? break; }); v.n",
+                "t.sum = 0; t.i = 0; loop(3, { t.i = t.i + 1; t.sum = t.sum + t.i * size; }); t.sum",
+                "v.y = size > 1 ? custom.ab : 0; v.y"
+        };
+        for (final String script : scripts) {
+            assertEquals(engine.eval(script).getAsNumber(), engine.compileDouble(script).evaluate(), script);
+        }
+    }
+
+    @Test
+    void test_compiled_function_calls_the_interpreter() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.scope().set("custom", (ObjectValue) name -> ObjectProperty.property(DoubleValue.of(name.length()), true));
+        final List<byte[]> compiled = new ArrayList<>();
+        engine.postCompile(compiled::add);
+
+        assertEquals(15, engine.compileDouble("v.x = 5; custom.abc * v.x").evaluate());
+        assertEquals(1, compiled.size());
+        assertTrue(callsInterpreter(compiled.get(0)));
+
+        // fully compiled
+        assertEquals(10, engine.compileDouble("v.x = 5; v.x * 2").evaluate());
+        assertEquals(2, compiled.size());
+        assertFalse(callsInterpreter(compiled.get(1)));
+    }
+
+    @Test
+    void test_parameters_stay_compiled() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.scope().set("size", DoubleValue.of(3));
+        final ScaleFunction function = engine.compile("a * size + custom_missing_value", ScaleFunction.class);
+        assertEquals(6, function.scale(2));
+        assertEquals(9, function.scale(3));
+    }
+
+    private static boolean callsInterpreter(final byte[] bytecode) {
+        final String callClassName = CompiledInterpreterCall.class.getName().replace('.', '/');
+        return new String(bytecode, StandardCharsets.ISO_8859_1).contains(callClassName);
+    }
+
+    public interface ScaleFunction extends MochaCompiledFunction {
+        double scale(@Named("a") double a);
+    }
+}
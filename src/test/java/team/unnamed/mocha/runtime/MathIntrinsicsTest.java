@@ -0,0 +1,84 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.parser.ast.Expression;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MathIntrinsicsTest {
+    @Test
+    void test_expansion() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertExpanded(engine, "v.a + v.t * (v.b - v.a)", "math.lerp(v.a, v.b, v.t)");
+        assertExpanded(engine, "3 * (v.t * v.t) - 2 * (v.t * v.t * v.t)", "math.hermite_blend(v.t)");
+        assertExpanded(engine, "v.x + 0.5 * (math.cos(v.y) - v.x)", "math.lerp(v.x, math.cos(v.y), 0.5)");
+        // arguments with side effects are evaluated once
+        assertExpanded(engine, "math.lerp(v.a = 1, v.b, v.t)", "math.lerp(v.a = 1, v.b, v.t)");
+        assertExpanded(engine, "math.lerp(math.random(0, 1), v.b, v.t)", "math.lerp(math.random(0, 1), v.b, v.t)");
+        assertExpanded(engine, "math.clamp(v.x, 0, 1)", "math.clamp(v.x, 0, 1)");
+    }
+
+    @Test
+    void test_semantics() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final String[] scripts = {
+                "v.a = 2; v.b = 7; v.t = 0.3; math.lerp(v.a, v.b, v.t)",
+                "v.t = 0.35; math.hermite_blend(v.t)",
+                "v.t = 1.75; math.hermite_blend(v.t) + math.hermite_blend(v.t * 0.5)",
+                "v.x = 3; math.clamp(v.x, 0, 1) + math.clamp(-v.x, 0, 1) + math.clamp(v.x / 4, 0, 1)",
+                "v.x = 7.5; math.mod(v.x, 2) + math.mod(-v.x, 2)",
+                "v.x = 900; math.min_angle(v.x) + math.min_angle(-v.x) + math.min_angle(v.x / 10)",
+                "v.x = 0; v.n = 0; math.clamp(v.n = v.n + 1, v.x = v.n * 2, v.x + 3)",
+                "v.x = -4; math.abs(v.x) + math.min(v.x, 2) + math.max(v.x, 2)"
+        };
+        for (final String script : scripts) {
+            assertEquals(engine.eval(script).getAsNumber(), engine.compileDouble(script).evaluate(), script);
+        }
+    }
+
+    @Test
+    void test_trigonometry() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final String[] scripts = {
+                "v.x = 30; math.sin(v.x) + math.cos(v.x)",
+                "v.x = 0.25; math.sin(v.x * 360) + math.cos(v.x * 90)",
+                "v.x = 3; math.sin(90 * v.x)"
+        };
+        for (final String script : scripts) {
+            // constant factors are scaled in compile-time, which may round differently
+            assertEquals(engine.eval(script).getAsNumber(), engine.compileDouble(script).evaluate(), 1E-12, script);
+        }
+    }
+
+    private static void assertExpanded(final MochaEngine<?> engine, final String expected, final String code) throws IOException {
+        final List<Expression> result = new MathIntrinsics(engine.scope()).process(engine.parse(code));
+        assertEquals(engine.parse(expected), result);
+    }
+}
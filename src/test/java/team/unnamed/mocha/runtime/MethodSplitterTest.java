@@ -0,0 +1,197 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.MethodInfo;
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MethodSplitterTest {
+    @Test
+    void test_huge_function_is_split() throws IOException {
+        final StringBuilder script = new StringBuilder("v.x = 3; v.r = 0; t.a = 1; t.n = 0;");
+        for (int i = 0; i < 800; i++) {
+            script.append("t.a = t.a * 0.5 + v.x * ").append(i).append(';')
+                    .append("t.n = t.n + ").append(i % 7).append(';')
+                    .append("v.r = v.r + (t.a > ").append(i).append(" ? t.a : -t.n);");
+        }
+        script.append("loop(10, { t.n = t.n + 1; }); return v.r + t.a + t.n;");
+        final String source = script.toString();
+
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final List<ClassFile> classes = new ArrayList<>();
+        engine.postCompile(bytecode -> {
+            try {
+                classes.add(new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode))));
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        final double compiled = engine.compileDouble(source).evaluate();
+        assertEquals(engine.eval(source).getAsNumber(), compiled);
+
+        assertEquals(1, classes.size());
+        final List<MethodInfo> methods = classes.get(0).getMethods();
+        assertTrue(methods.stream().filter(method -> method.getName().contains("$")).count() > 1, "function wasn't split");
+        for (final MethodInfo method : methods) {
+            final int length = method.getCodeAttribute().getCodeLength();
+            assertTrue(length <= MethodSplitter.HUGE_METHOD_LIMIT, method.getName() + " has " + length + " bytes");
+        }
+    }
+
+    @Test
+    void test_split_after_return() throws IOException {
+        final StringBuilder script = new StringBuilder("v.x = 3; v.r = 0; t.a = 1;");
+        for (int i = 0; i < 800; i++) {
+            script.append("t.a = t.a * 0.5 + v.x * ").append(i).append(';')
+                    .append("v.r = v.r + (t.a > ").append(i).append(" ? t.a : 1);");
+            if (i % 100 == 50) {
+                script.append("(v.stop == ").append(i).append(") ? { return v.r + t.a; };");
+            }
+        }
+        script.append("return v.r - t.a;");
+        final String source = script.toString();
+
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final List<ClassFile> classes = new ArrayList<>();
+        engine.postCompile(bytecode -> {
+            try {
+                classes.add(new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode))));
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        final MochaDoubleFunction function = engine.compileDouble(source);
+        final MochaFunction boxed = engine.compile(source);
+        for (final double stop : new double[]{-1D, 50D, 350D, 750D}) {
+            engine.eval("v.stop = " + stop);
+            final double expected = engine.eval(source).getAsNumber();
+            engine.eval("v.stop = " + stop);
+            assertEquals(expected, function.evaluate(), () -> "stopped at " + stop);
+            engine.eval("v.stop = " + stop);
+            assertEquals(expected, boxed.evaluate(), () -> "stopped at " + stop);
+        }
+
+        for (final ClassFile classFile : classes) {
+            final List<MethodInfo> methods = classFile.getMethods();
+            assertTrue(methods.stream().filter(method -> method.getName().contains("$")).count() > 1, "function wasn't split");
+            for (final MethodInfo method : methods) {
+                final int length = method.getCodeAttribute().getCodeLength();
+                assertTrue(length <= MethodSplitter.HUGE_METHOD_LIMIT, method.getName() + " has " + length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void test_huge_statement_is_outlined() throws IOException {
+        final StringBuilder script = new StringBuilder("v.x = 3; v.r = 0; v.q = 0; t.a = 1.5; t.n = 2;");
+        // a single condition with a huge body
+        script.append("(v.x > 0) ? {");
+        for (int i = 0; i < 800; i++) {
+            script.append("v.r = v.r + t.a * ").append(i).append(';')
+                    .append("v.q = v.q + (v.r > ").append(i * 50).append(" ? t.n : -t.a);");
+        }
+        script.append("};");
+        // and a huge expression
+        script.append("return v.r + v.q");
+        for (int i = 0; i < 800; i++) {
+            script.append(" + (v.x > ").append(i % 5).append(" ? t.a * ").append(i).append(" : t.n)");
+        }
+        script.append(';');
+        final String source = script.toString();
+
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final List<ClassFile> classes = new ArrayList<>();
+        engine.postCompile(bytecode -> {
+            try {
+                classes.add(new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode))));
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        final double expected = engine.eval(source).getAsNumber();
+        assertEquals(expected, engine.compileDouble(source).evaluate());
+        assertEquals(expected, engine.compile(source).evaluate());
+
+        for (final ClassFile classFile : classes) {
+            final List<MethodInfo> methods = classFile.getMethods();
+            assertTrue(methods.stream().anyMatch(method -> method.getName().startsWith("outlined$")), "statement wasn't outlined");
+            for (final MethodInfo method : methods) {
+                final int length = method.getCodeAttribute().getCodeLength();
+                assertTrue(length <= MethodSplitter.HUGE_METHOD_LIMIT, method.getName() + " has " + length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void test_outlined_expression_reading_many_temps() throws IOException {
+        // too many temps to pass them all to an outlined method
+        final StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            script.append("t.a").append(i).append(" = v.x + ").append(i).append(';');
+        }
+        script.append("return 0");
+        for (int i = 0; i < 900; i++) {
+            script.append(" + t.a").append(i % 300).append(" * ").append(i);
+        }
+        script.append(';');
+        final String source = script.toString();
+
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.eval("v.x = 0.5");
+        assertEquals(engine.eval(source).getAsNumber(), engine.compileDouble(source).evaluate());
+    }
+
+    @Test
+    void test_small_function_is_not_split() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final List<ClassFile> classes = new ArrayList<>();
+        engine.postCompile(bytecode -> {
+            try {
+                classes.add(new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode))));
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertEquals(6, engine.compileDouble("t.a = 2; v.x = 3; t.a * v.x").evaluate());
+        for (final MethodInfo method : classes.get(0).getMethods()) {
+            assertFalse(method.getName().contains("$"), "function was split");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.binding.Binding;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.ObjectValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersistentCompileCacheTest {
+    private static final String SCRIPT = "v.x = 2; t.sum = 0; loop(4, { t.sum = t.sum + v.x; }); return math.sqrt(t.sum) * box.size();";
+
+    @Test
+    void test_classes_are_loaded_by_another_engine(final @TempDir Path directory) throws IOException {
+        final int[] compiled = {0};
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bindInstance(Box.class, new Box(3), "box");
+        engine.compileCache(directory).postCompile(bytecode -> compiled[0]++);
+        assertEquals(Math.sqrt(8) * 3, engine.compileDouble(SCRIPT).evaluate());
+        assertEquals(1, compiled[0]);
+        assertEquals(1, countFiles(directory));
+
+        // the requirements are taken from the new scope
+        final MochaEngine<?> other = MochaEngine.createStandard();
+        other.bindInstance(Box.class, new Box(5), "box");
+        other.compileCache(directory).postCompile(bytecode -> compiled[0]++);
+        final MochaDoubleFunction loaded = other.compileDouble(SCRIPT);
+        assertEquals(1, compiled[0]);
+        assertEquals(Math.sqrt(8) * 5, loaded.evaluate());
+        assertEquals(2, ((ObjectValue) other.scope().get("variable")).get("x").getAsNumber());
+    }
+
+    @Test
+    void test_classes_are_compiled_again_when_bindings_change(final @TempDir Path directory) throws IOException {
+        final int[] compiled = {0};
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bindInstance(Box.class, new Box(3), "box");
+        engine.compileCache(directory).postCompile(bytecode -> compiled[0]++);
+        engine.compileDouble(SCRIPT);
+
+        final MochaEngine<?> other = MochaEngine.createStandard();
+        other.bindInstance(OtherBox.class, new OtherBox(), "box");
+        other.compileCache(directory).postCompile(bytecode -> compiled[0]++);
+        assertEquals(Math.sqrt(8) * 7, other.compileDouble(SCRIPT).evaluate());
+        assertEquals(2, compiled[0]);
+        assertEquals(2, countFiles(directory));
+    }
+
+    @Test
+    void test_classes_are_compiled_again_when_slots_change(final @TempDir Path directory) throws IOException {
+        final int[] compiled = {0};
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.compileCache(directory).postCompile(bytecode -> compiled[0]++);
+        engine.compileDouble("v.a = 1; v.b = 2; return v.a + v.b;");
+
+        final MochaEngine<?> other = MochaEngine.createStandard();
+        other.compileCache(directory).postCompile(bytecode -> compiled[0]++);
+        // "b" takes the first slot
+        other.eval("v.b = 5");
+        assertEquals(3, other.compileDouble("v.a = 1; v.b = 2; return v.a + v.b;").evaluate());
+        assertEquals(2, compiled[0]);
+    }
+
+    @Test
+    void test_checking_slots_does_not_allocate_them() {
+        final MutableObjectBinding binding = new MutableObjectBinding();
+        binding.set("x", DoubleValue.of(1));
+
+        // "y" would be allocated to the next slot
+        assertTrue(PersistentCompileCache.hasSlots(binding, Map.of("x", 0, "y", 1)));
+        assertFalse(PersistentCompileCache.hasSlots(binding, Map.of("y", 0)));
+        assertFalse(PersistentCompileCache.hasSlots(binding, Map.of("x", 0, "z", 2)));
+        assertEquals(-1, binding.existingSlot("y"));
+        assertEquals(-1, binding.existingSlot("z"));
+        assertEquals(1, binding.slotCount());
+    }
+
+    @Test
+    void test_unpackaged_compiler_version_is_known() {
+        // tests run against the classes directory
+        assertTrue(PersistentCompileCache.COMPILER_VERSION.startsWith("classes:"), PersistentCompileCache.COMPILER_VERSION);
+    }
+
+    private static long countFiles(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    public static final class Box {
+        private final double size;
+
+        public Box(final double size) {
+            this.size = size;
+        }
+
+        @Binding("size")
+        public double size() {
+            return size;
+        }
+    }
+
+    public static final class OtherBox {
+        @Binding("size")
+        public double size() {
+            return 7;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TieredDoubleFunctionTest {
+    @Test
+    void test_compiled_after_threshold() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final TieredDoubleFunction function = (TieredDoubleFunction) engine.prepareTieredDouble(
+                new StringReader("v.n = v.n + 1; t.a = v.n * 2; return t.a + 1;"), 3, Runnable::run);
+
+        for (int i = 1; i <= 3; i++) {
+            assertFalse(function.compiled());
+            assertEquals(i * 2 + 1, function.evaluate());
+        }
+        // the variables set while interpreted are kept
+        assertTrue(function.compiled());
+        assertEquals(9, function.evaluate());
+        assertEquals(11, function.evaluate());
+    }
+
+    @Test
+    void test_keeps_interpreting_if_compiling_fails() {
+        final TieredDoubleFunction function = new TieredDoubleFunction(
+                () -> 5,
+                () -> {
+                    throw new IllegalStateException("Unsupported");
+                },
+                Runnable::run,
+                0
+        );
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(5, function.evaluate());
+        }
+        assertFalse(function.compiled());
+    }
+
+    @Test
+    void test_compiles_in_background() throws Exception {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final TieredDoubleFunction function = (TieredDoubleFunction) engine.prepareTieredDouble(
+                    new StringReader("math.clamp(v.x * 2, 0, 10)"), 10, executor);
+            for (int i = 0; i < 10; i++) {
+                function.evaluate();
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+            assertTrue(function.compiled());
+            engine.eval("v.x = 3");
+            assertEquals(6, function.evaluate());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void test_compiling_does_not_allocate_slots() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final MutableObjectBinding variables = (MutableObjectBinding) engine.scope().get("variable");
+        final StringBuilder script = new StringBuilder("t.sum = 0;");
+        for (int i = 0; i < 20; i++) {
+            script.append(" t.sum = t.sum + v.p").append(i).append(';');
+        }
+        script.append(" return t.sum;");
+
+        final List<Runnable> tasks = new ArrayList<>();
+        final TieredDoubleFunction function = (TieredDoubleFunction) engine.prepareTieredDouble(
+                new StringReader(script.toString()), 1, tasks::add);
+        assertEquals(0, function.evaluate());
+
+        // the compiler runs in another thread, it must not grow the binding arrays
+        final double[] numbers = variables.numbers;
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertTrue(function.compiled());
+        assertSame(numbers, variables.numbers);
+
+        engine.eval("v.p3 = 4; v.p19 = 5");
+        assertEquals(9, function.evaluate());
+    }
+
+    @Test
+    void test_compiles_after_rejected() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final int[] submitted = {0};
+        final TieredDoubleFunction function = (TieredDoubleFunction) engine.prepareTieredDouble(
+                new StringReader("v.x * 2"), 2, task -> {
+                    if (submitted[0]++ == 0) {
+                        throw new RejectedExecutionException("Saturated");
+                    }
+                    task.run();
+                });
+
+        engine.eval("v.x = 2");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(4, function.evaluate());
+            assertFalse(function.compiled());
+        }
+        // requested again after the threshold
+        assertEquals(4, function.evaluate());
+        assertTrue(function.compiled());
+        assertEquals(2, submitted[0]);
+    }
+}
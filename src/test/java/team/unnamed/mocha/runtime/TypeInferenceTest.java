@@ -0,0 +1,150 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime;
+
+import javassist.CtClass;
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaAssertions;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.parser.ast.Expression;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.compiled.Named;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TypeInferenceTest {
+    @Test
+    void test_locals() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final TypeInference types = infer(engine, """
+                t.a = 1;
+                t.b = t.a + 2;
+                t.c = 1125899906842624 - t.b;
+                t.d = t.b / 2;
+                t.e = v.x > 1;
+                t.f = v.x > 1;
+                t.f = 5;
+                t.s = 'hello';
+                t.i = 0;
+                loop(10, { t.i = t.i + 1; });
+                """);
+        assertEquals(CtClass.intType, types.localType("a"));
+        assertEquals(CtClass.intType, types.localType("b"));
+        assertEquals(CtClass.longType, types.localType("c"));
+        assertEquals(CtClass.doubleType, types.localType("d"));
+        assertEquals(CtClass.booleanType, types.localType("e"));
+        assertEquals(CtClass.intType, types.localType("f"));
+        assertNull(types.localType("s"));
+        // loop counters are widened to doubles
+        assertEquals(CtClass.doubleType, types.localType("i"));
+    }
+
+    @Test
+    void test_expressions() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEquals(CtClass.intType, typeOf(engine, "(a > b) * 3 + 1", "a", CtClass.intType, "b", CtClass.intType));
+        // may overflow an int
+        assertEquals(CtClass.longType, typeOf(engine, "a + b", "a", CtClass.intType, "b", CtClass.intType));
+        assertEquals(CtClass.longType, typeOf(engine, "a * 3", "a", CtClass.intType, "b", CtClass.intType));
+        // can't be exactly computed as a double
+        assertEquals(CtClass.doubleType, typeOf(engine, "a * b", "a", CtClass.intType, "b", CtClass.intType));
+        assertEquals(CtClass.doubleType, typeOf(engine, "a + 0.5", "a", CtClass.intType, "b", CtClass.intType));
+        assertEquals(CtClass.booleanType, typeOf(engine, "a > b", "a", CtClass.intType, "b", CtClass.intType));
+        assertEquals(CtClass.intType, typeOf(engine, "a ? 1 : 2", "a", CtClass.booleanType, "b", CtClass.intType));
+    }
+
+    @Test
+    void test_compiled() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final IntFunction sum = engine.compile("a + b", IntFunction.class);
+        assertEquals(4294967294D, sum.compute(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(-4294967296D, sum.compute(Integer.MIN_VALUE, Integer.MIN_VALUE));
+
+        final IntFunction product = engine.compile("t.x = a * b; t.x - a", IntFunction.class);
+        assertEquals((double) Integer.MAX_VALUE * Integer.MAX_VALUE - Integer.MAX_VALUE, product.compute(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals(35D, product.compute(7, 6));
+
+        final IntFunction negation = engine.compile("-a", IntFunction.class);
+        assertEquals(2147483648D, negation.compute(Integer.MIN_VALUE, 0));
+
+        final IntFunction comparison = engine.compile("(a < b) + (a == b) * 2 + (a >= b) * 4", IntFunction.class);
+        assertEquals(1D, comparison.compute(-3, 2));
+        assertEquals(6D, comparison.compute(2, 2));
+
+        final IntFunction flag = engine.compile("t.k = a > b; (t.k == 1) * 5 + (t.k != 0) + (t.k < 1) * 10", IntFunction.class);
+        assertEquals(6D, flag.compute(3, 2));
+        assertEquals(10D, flag.compute(1, 2));
+
+        final IntFunction ternary = engine.compile("t.s = 0; loop(a, { t.s = t.s + (t.s > b ? 1 : 2); }); t.s", IntFunction.class);
+        assertEquals(7D, ternary.compute(5, 3));
+
+        // locals that hold both booleans and other numbers keep them
+        assertEquals(5D, engine.compileDouble("t.f = v.x > 1; t.f = 5; t.f").evaluate());
+        assertEquals(2.5D, engine.compileDouble("t.f = 1; t.f = 2.5; t.f").evaluate());
+    }
+
+    @Test
+    void test_compiled_objects_are_doubles() throws IOException {
+        // integral and boolean results are numbers, boxed as doubles
+        // like the interpreter ones
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEquals(2D, engine.compile("t.x = 1; (1 > 0) ? { t.x = 2; }; return t.x;").evaluate());
+        assertEquals(1D, engine.compile("v.a = 3; return v.a > 2;").evaluate());
+        assertEquals(3D, engine.compile("v.a = 2.6; return math.round(v.a);").evaluate());
+        assertEquals(3D, engine.compile("t.a = 1; t.b = 2; t.a + t.b").evaluate());
+        assertEquals(7D, engine.compile("a + b", NumberFunction.class).compute(3, 4));
+        MochaAssertions.assertEvaluatesAndCompiles(2D, "t.x = 1; (1 > 0) ? { t.x = 2; }; return t.x;");
+        MochaAssertions.assertEvaluatesAndCompiles(1D, "v.a = 3; return v.a > 2;");
+    }
+
+    private static TypeInference infer(final MochaEngine<?> engine, final String code) throws IOException {
+        return new TypeInference(engine.scope(), Map.of()).infer(engine.parse(code));
+    }
+
+    private static CtClass typeOf(
+            final MochaEngine<?> engine,
+            final String code,
+            final String a,
+            final CtClass aType,
+            final String b,
+            final CtClass bType
+    ) throws IOException {
+        final List<Expression> expressions = engine.parse(code);
+        final TypeInference types = new TypeInference(engine.scope(), Map.of(a, aType, b, bType)).infer(expressions);
+        return types.typeOf(expressions.get(expressions.size() - 1));
+    }
+
+    interface IntFunction extends MochaCompiledFunction {
+        double compute(@Named("a") int a, @Named("b") int b);
+    }
+
+    interface NumberFunction extends MochaCompiledFunction {
+        Number compute(@Named("a") int a, @Named("b") int b);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.MochaDoubleFunction;
+import team.unnamed.mocha.runtime.binding.Binding;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.value.ArrayValue;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.StringValue;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static team.unnamed.mocha.MochaAssertions.assertEvaluatesAndCompiles;
+
+class ArrayAccessCompiledRuntimeTest {
+    @Test
+    void test_constant_numbers() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.create(null, scope -> scope.set(
+                "arr",
+                ArrayValue.of(DoubleValue.of(10D), DoubleValue.of(20D), DoubleValue.of(30D))
+        ));
+
+        assertEvaluatesAndCompiles(engine, 10D, "arr[0]");
+        assertEvaluatesAndCompiles(engine, 30D, "arr[2]");
+        assertEvaluatesAndCompiles(engine, 20D, "arr[4]");
+        assertEvaluatesAndCompiles(engine, 10D, "arr[-2]");
+        assertEvaluatesAndCompiles(engine, 20D, "arr[1.7]");
+        assertEvaluatesAndCompiles(engine, 60D, "t.s = 0; t.i = 0; loop(3, { t.s = t.s + arr[t.i]; t.i = t.i + 1; }); t.s");
+    }
+
+    @Test
+    void test_constant_values() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.create(null, scope -> scope.set(
+                "textures",
+                ArrayValue.of(StringValue.of("default"), StringValue.of("angry"), StringValue.of("sleepy"))
+        ));
+
+        final StringFunction function = engine.compile("textures[index]", StringFunction.class);
+        assertEquals("default", function.evaluate(0));
+        assertEquals("sleepy", function.evaluate(2));
+        assertEquals("angry", function.evaluate(4));
+        assertEquals(engine.eval("textures[4]").getAsString(), function.evaluate(4));
+    }
+
+    @Test
+    void test_java_arrays() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.create();
+        engine.bind(Weights.class);
+
+        assertEvaluatesAndCompiles(engine, 0.5D, "weights.numbers[1]");
+        assertEvaluatesAndCompiles(engine, 0.25D, "weights.numbers[5]");
+        assertEquals("b", engine.compile("weights.names[4]", StringFunction.class).evaluate(0));
+    }
+
+    @Test
+    void test_mutable_java_arrays() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.create();
+        engine.bind(MutableWeights.class);
+        final Curve curve = new Curve();
+        engine.bindInstance(Curve.class, curve, "curve");
+
+        final MochaDoubleFunction weight = engine.compileDouble("weights.numbers[0]");
+        final MochaDoubleFunction point = engine.compileDouble("curve.points[1]");
+        assertEquals(1D, weight.evaluate());
+        assertEquals(2D, point.evaluate());
+
+        // non-final arrays are read when evaluating, not when compiling
+        MutableWeights.NUMBERS[0] = 42D;
+        curve.points[1] = 7D;
+        assertEquals(42D, weight.evaluate());
+        assertEquals(7D, point.evaluate());
+        assertEvaluatesAndCompiles(engine, 42D, "weights.numbers[0]");
+
+        MutableWeights.NUMBERS = new double[]{3D};
+        curve.points = new double[]{5D, 6D};
+        assertEquals(3D, weight.evaluate());
+        assertEquals(6D, point.evaluate());
+        assertEvaluatesAndCompiles(engine, 6D, "curve.points[1]");
+    }
+
+    @Test
+    void test_variable_arrays() throws IOException {
+        final MutableObjectBinding variables = new MutableObjectBinding();
+        final MochaEngine<?> engine = MochaEngine.create(null, scope -> scope.set("v", variables));
+
+        variables.set("arr", ArrayValue.of(DoubleValue.of(1D), DoubleValue.of(2D)));
+        assertEvaluatesAndCompiles(engine, 2D, "v.arr[3]");
+
+        // not an array
+        variables.set("arr", DoubleValue.of(5D));
+        assertEvaluatesAndCompiles(engine, 0D, "v.arr[3]");
+    }
+
+    public interface StringFunction extends MochaCompiledFunction {
+        String evaluate(final double index);
+    }
+
+    @Binding("weights")
+    public static final class Weights {
+        @Binding("numbers")
+        public static final double[] NUMBERS = {1D, 0.5D, 0.25D};
+
+        @Binding("names")
+        public static final String[] NAMES = {"a", "b", "c"};
+    }
+
+    @Binding("weights")
+    public static final class MutableWeights {
+        @Binding("numbers")
+        public static double[] NUMBERS = {1D, 0.5D, 0.25D};
+    }
+
+    public static final class Curve {
+        @Binding("points")
+        public double[] points = {1D, 2D, 3D};
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.binding.Binding;
+import team.unnamed.mocha.runtime.binding.Entity;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.Function;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static team.unnamed.mocha.MochaAssertions.assertEvaluatesAndCompiles;
+
+class ArrowCompiledRuntimeTest {
+    @Test
+    void test_engine_entity() throws IOException {
+        final Mob target = new Mob(8D, new Mob(3D, null));
+        final MochaEngine<Mob> engine = MochaEngine.createStandard(new Mob(20D, target));
+        engine.bind(QueryImpl.class);
+
+        assertEvaluatesAndCompiles(engine, 20D, "q.health()");
+        assertEvaluatesAndCompiles(engine, 8D, "q.target() -> q.health()");
+        assertEvaluatesAndCompiles(engine, 28D, "q.health() + (q.target() -> q.health())");
+        assertEvaluatesAndCompiles(engine, 3D, "q.target() -> (q.target() -> q.health())");
+        assertEvaluatesAndCompiles(engine, 11D, "q.target() -> (q.health() + (q.target() -> q.health()))");
+
+        // no target, or not a Java object
+        assertEvaluatesAndCompiles(engine, 0D, "q.target() -> (q.target() -> (q.target() -> q.health()))");
+        assertEvaluatesAndCompiles(engine, 0D, "5 -> q.health()");
+        assertEvaluatesAndCompiles(engine, 0D, "'hello' -> q.health()");
+    }
+
+    @Test
+    void test_variable() throws IOException {
+        final MochaEngine<Mob> engine = MochaEngine.createStandard(new Mob(20D, new Mob(6D, null)));
+        engine.bind(QueryImpl.class);
+
+        assertEvaluatesAndCompiles(engine, 12D, "v.target = q.target(); (v.target -> q.health()) * 2");
+        assertEvaluatesAndCompiles(engine, 6D, "t.target = q.target(); t.target -> q.health()");
+    }
+
+    @Test
+    void test_entity_parameter() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bind(QueryImpl.class);
+
+        final MobFunction function = engine.compile("(q.target() -> q.health()) - q.health()", MobFunction.class);
+        assertEquals(5D, function.evaluate(new Mob(2D, new Mob(7D, null))));
+        assertEquals(-2D, function.evaluate(new Mob(2D, null)));
+    }
+
+    @Test
+    void test_generic_function() throws IOException {
+        final MochaEngine<Mob> engine = MochaEngine.create(new Mob(20D, new Mob(4D, null)), scope -> {
+            final MutableObjectBinding fn = new MutableObjectBinding();
+            fn.set("health", (Function<Mob>) (ctx, args) -> DoubleValue.of(ctx.entity().health));
+            scope.set("fn", fn);
+        });
+        engine.bind(QueryImpl.class);
+
+        assertEvaluatesAndCompiles(engine, 24D, "fn.health() + (q.target() -> fn.health())");
+    }
+
+    public interface MobFunction extends MochaCompiledFunction {
+        double evaluate(@Entity Mob mob);
+    }
+
+    public static final class Mob {
+        private final double health;
+        private final @Nullable Mob target;
+
+        public Mob(final double health, final @Nullable Mob target) {
+            this.health = health;
+            this.target = target;
+        }
+    }
+
+    @Binding({"query", "q"})
+    public static final class QueryImpl {
+        @Binding("health")
+        public static double health(final @Entity Mob mob) {
+            return mob.health;
+        }
+
+        @Binding("target")
+        public static @Nullable Mob target(final @Entity Mob mob) {
+            return mob.target;
+        }
+    }
+}
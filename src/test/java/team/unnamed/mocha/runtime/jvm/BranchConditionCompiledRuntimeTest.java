@@ -0,0 +1,93 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.compiled.Named;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BranchConditionCompiledRuntimeTest {
+    private static final Pattern PARAMETER = Pattern.compile("\\b([ab])\\b");
+    private static final double[] VALUES = {-2, -1, 0, 0.5, 1, 2};
+
+    @Test
+    void test_comparisons_with_nan_are_false() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final ConditionFunction lt = engine.compile("a < b", ConditionFunction.class);
+        final ConditionFunction lte = engine.compile("a <= b", ConditionFunction.class);
+        final ConditionFunction gt = engine.compile("a > b", ConditionFunction.class);
+        final ConditionFunction gte = engine.compile("a >= b", ConditionFunction.class);
+        final ConditionFunction eq = engine.compile("a == b", ConditionFunction.class);
+        final ConditionFunction neq = engine.compile("a != b", ConditionFunction.class);
+
+        assertEquals(0, lt.evaluate(Double.NaN, 1), 0);
+        assertEquals(0, lt.evaluate(1, Double.NaN), 0);
+        assertEquals(0, lte.evaluate(Double.NaN, 1), 0);
+        assertEquals(0, gt.evaluate(Double.NaN, 1), 0);
+        assertEquals(0, gte.evaluate(1, Double.NaN), 0);
+        assertEquals(0, eq.evaluate(Double.NaN, Double.NaN), 0);
+        assertEquals(1, neq.evaluate(Double.NaN, Double.NaN), 0);
+        assertEquals(0, engine.compileDouble("v.x = -1; math.sqrt(v.x) < 1").evaluate(), 0);
+        assertEquals(1, engine.compileDouble("v.x = -1; !(math.sqrt(v.x) < 1)").evaluate(), 0);
+    }
+
+    @Test
+    void test_compiled_conditions_match_interpreter() throws IOException {
+        final String[] sources = {
+                "a < b && b < 1",
+                "a < b || b < 1",
+                "!(a < b) && a != 0",
+                "!(a >= b || a == 0)",
+                "(a > 0 && b > 0) || (a < 0 && b < 0)",
+                "a <= b ? 10 : 20",
+                "!a ? 1 : 2",
+                "a && !b ? a : b",
+                "(a > 0) + (b > 0)",
+                "t.x = 0; (a < b && b > 0) -> { t.x = 5; }; t.x",
+                "t.i = 0; loop(10, { t.i = t.i + 1; (t.i >= 3 && a < b) ? break; }); t.i"
+        };
+
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        for (final String source : sources) {
+            final ConditionFunction function = engine.compile(source, ConditionFunction.class);
+            for (final double a : VALUES) {
+                for (final double b : VALUES) {
+                    final double expected = engine.eval("v.a = " + a + "; v.b = " + b + "; "
+                            + PARAMETER.matcher(source).replaceAll("v.$1")).getAsNumber();
+                    assertEquals(expected, function.evaluate(a, b), 0, () -> source + " with a=" + a + ", b=" + b);
+                }
+            }
+        }
+    }
+
+    public interface ConditionFunction extends MochaCompiledFunction {
+        double evaluate(@Named("a") double a, @Named("b") double b);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+
+import java.io.IOException;
+
+import static team.unnamed.mocha.MochaAssertions.assertEvaluatesAndCompiles;
+
+class ConditionalCompiledRuntimeTest {
+    @Test
+    void test_conditional() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEvaluatesAndCompiles(engine, 5D, "1 ? 5");
+        assertEvaluatesAndCompiles(engine, 0D, "0 ? 5");
+        assertEvaluatesAndCompiles(engine, 8D, "(2 > 1 ? 4) * 2");
+        assertEvaluatesAndCompiles(engine, 0D, "v.c = 0; 0 ? (v.c = 5); v.c");
+        assertEvaluatesAndCompiles(engine, 5D, "v.c = 0; 1 ? (v.c = 5); v.c");
+    }
+
+    @Test
+    void test_conditional_block() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEvaluatesAndCompiles(engine, 7D, "v.a = 0; v.b = 0; 1 ? { v.a = 3; v.b = 4; }; v.a + v.b");
+        assertEvaluatesAndCompiles(engine, 0D, "v.a = 0; v.b = 0; 0 ? { v.a = 3; v.b = 4; }; v.a + v.b");
+        assertEvaluatesAndCompiles(engine, 6D, "t.x = 2; t.x > 1 ? { t.x = t.x * 3; }; t.x");
+        assertEvaluatesAndCompiles(engine, 5D, "v.a = 1; v.a ? { return 5; }; return 3;");
+    }
+
+    @Test
+    void test_unexecuted_block() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        // blocks are only executed as the right side of '?' and as loop bodies
+        assertEvaluatesAndCompiles(engine, 3D, "t.x = 3; { t.x = 4; }; return t.x;");
+        assertEvaluatesAndCompiles(engine, 3D, "v.x = 3; { v.x = 4; }; return v.x;");
+        assertEvaluatesAndCompiles(engine, 0D, "t.x = 0; 1 ? { t.x = 4; } : { t.x = 5; }; return t.x;");
+        assertEvaluatesAndCompiles(engine, 0D, "v.x = 0; v.c = 0; v.c ? { v.x = 4; } : { v.x = 5; }; return v.x;");
+        assertEvaluatesAndCompiles(engine, 1D, "t.x = 0; 1 ? { t.x = 1; }; { t.x = 2; }; return t.x;");
+        assertEvaluatesAndCompiles(engine, 2D, "return { v.x = 1; } ? 2 : 3;");
+    }
+
+    @Test
+    void test_string_conditions() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEvaluatesAndCompiles(engine, 1D, "t.r = 0; 'abc' ? { t.r = 1; }; return t.r;");
+        assertEvaluatesAndCompiles(engine, 0D, "t.r = 0; '' ? { t.r = 1; }; return t.r;");
+        assertEvaluatesAndCompiles(engine, 1D, "v.s = 'abc'; return (v.s && 1) ? 1 : 2;");
+        assertEvaluatesAndCompiles(engine, 2D, "v.s = ''; return (v.s && 1) ? 1 : 2;");
+        assertEvaluatesAndCompiles(engine, 1D, "v.s = 'abc'; return v.s ? 1 : 2;");
+        assertEvaluatesAndCompiles(engine, 2D, "v.s = 'abc'; return !v.s ? 1 : 2;");
+        assertEvaluatesAndCompiles(engine, 1D, "t.s = 'abc'; return t.s ? 1 : 2;");
+        assertEvaluatesAndCompiles(engine, 2D, "v.n = 0; return v.n ? 1 : 2;");
+    }
+
+    @Test
+    void test_conditional_in_loop() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEvaluatesAndCompiles(engine, 4D, "t.i = 0; loop(10, { t.i = t.i + 1; t.i >= 4 ? break; }); t.i");
+        assertEvaluatesAndCompiles(engine, 4D, "t.i = 0; loop(10, { t.i = t.i + 1; t.i >= 4 ? { break; }; }); t.i");
+        assertEvaluatesAndCompiles(engine, 25D, "t.i = 0; t.sum = 0; loop(10, { t.i = t.i + 1; (math.mod(t.i, 2) == 0) ? continue; t.sum = t.sum + t.i; }); t.sum");
+    }
+
+    @Test
+    void test_null_coalesce() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEvaluatesAndCompiles(engine, 7D, "0 ?? 7");
+        assertEvaluatesAndCompiles(engine, 3D, "3 ?? 7");
+        assertEvaluatesAndCompiles(engine, 4D, "v.unset ?? 4");
+        assertEvaluatesAndCompiles(engine, 0D, "v.c = 0; 2 ?? (v.c = 9); v.c");
+        assertEvaluatesAndCompiles(engine, 9D, "v.c = 0; 0 ?? (v.c = 9); v.c");
+        assertEvaluatesAndCompiles(engine, 2D, "v.d = 2; (v.d ?? 5) * 1");
+    }
+}
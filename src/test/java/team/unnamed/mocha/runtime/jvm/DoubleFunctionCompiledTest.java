@@ -0,0 +1,92 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.MochaDoubleFunction;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class DoubleFunctionCompiledTest {
+    @Test
+    void test() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+
+        assertEquals(7D, engine.evalDouble("1 + 2 * 3"));
+        assertEquals(1D, engine.evalDouble("'a' == 'a'"));
+        assertEquals(7D, engine.prepareEvalDouble("1 + 2 * 3").evaluate());
+        assertEquals(7D, engine.compileDouble("1 + 2 * 3").evaluate());
+        assertEquals(0D, engine.compileDouble("").evaluate());
+        assertEquals(4D, engine.compileDouble("t.x = 2; return t.x * t.x;").evaluate());
+    }
+
+    @Test
+    void test_shares_variables() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final MochaDoubleFunction compiled = engine.compileDouble("v.x = v.x + 1; return v.x;");
+        final MochaDoubleFunction interpreted = engine.prepareEvalDouble("v.x = v.x + 1; return v.x;");
+
+        assertEquals(1D, compiled.evaluate());
+        assertEquals(2D, interpreted.evaluate());
+        assertEquals(3D, compiled.evaluate());
+    }
+
+    @Test
+    void test_does_not_allocate() throws IOException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+        final ThreadMXBean bean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final String source = "v.speed = v.speed + math.abs(-0.5); return v.speed * 2;";
+        assertDoesNotAllocate(bean, engine.compileDouble(source));
+        assertDoesNotAllocate(bean, engine.prepareEvalDouble(source));
+    }
+
+    private static void assertDoesNotAllocate(final ThreadMXBean bean, final MochaDoubleFunction function) {
+        // warm up
+        for (int i = 0; i < 1000; i++) {
+            function.evaluate();
+        }
+
+        final long threadId = Thread.currentThread().threadId();
+        final long before = bean.getThreadAllocatedBytes(threadId);
+        double sum = 0;
+        for (int i = 0; i < 100_000; i++) {
+            sum += function.evaluate();
+        }
+        final long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(sum > 0);
+        // allow a few bytes from the measurement itself
+        assertTrue(allocated < 10_000, "Function allocated " + allocated + " bytes");
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.binding.Binding;
+import team.unnamed.mocha.runtime.binding.Entity;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.compiled.Named;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EntityParameterCompiledTest {
+    @Test
+    void test() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bind(QueryImpl.class);
+
+        final MobFunction function = engine.compile("q.health() * 2 + q.is_hurt()", MobFunction.class);
+        assertEquals(40D, function.evaluate(new Mob(20D)));
+        assertEquals(11D, function.evaluate(new Mob(5D)));
+    }
+
+    @Test
+    void test_engine_entity_is_ignored() throws IOException {
+        final MochaEngine<Mob> engine = MochaEngine.createStandard(new Mob(100D));
+        engine.bind(QueryImpl.class);
+
+        assertEquals(100D, engine.eval("q.health()").getAsNumber());
+
+        final MobFunction function = engine.compile("q.health()", MobFunction.class);
+        assertEquals(3D, function.evaluate(new Mob(3D)));
+    }
+
+    @Test
+    void test_named_and_other_parameters() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bind(QueryImpl.class);
+
+        final ScaledFunction function = engine.compile("q.health() * scale", ScaledFunction.class);
+        assertEquals(10D, function.evaluate(2D, new Mob(5D)));
+
+        // the entity parameter can still be used by name
+        final Mob mob = new Mob(1D);
+        assertSame(mob, engine.compile("self", SelfFunction.class).evaluate(mob));
+    }
+
+    @Test
+    void test_only_one_entity() {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertThrows(IllegalArgumentException.class, () -> engine.compile("1", TwoEntitiesFunction.class));
+    }
+
+    public interface MobFunction extends MochaCompiledFunction {
+        double evaluate(@Entity Mob mob);
+    }
+
+    public interface ScaledFunction extends MochaCompiledFunction {
+        double evaluate(@Named("scale") double scale, @Entity Mob mob);
+    }
+
+    public interface SelfFunction extends MochaCompiledFunction {
+        Mob evaluate(@Entity @Named("self") Mob mob);
+    }
+
+    public interface TwoEntitiesFunction extends MochaCompiledFunction {
+        double evaluate(@Entity Mob a, @Entity Mob b);
+    }
+
+    public static final class Mob {
+        private final double health;
+
+        public Mob(final double health) {
+            this.health = health;
+        }
+    }
+
+    @Binding({"query", "q"})
+    public static final class QueryImpl {
+        @Binding("health")
+        public static double health(final @Entity Mob mob) {
+            return mob.health;
+        }
+
+        @Binding("is_hurt")
+        public static boolean isHurt(final @Entity Mob mob) {
+            return mob.health < 10D;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.binding.Binding;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.value.ArrayValue;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ForEachCompiledRuntimeTest {
+    @Test
+    void test() throws IOException {
+        assertEvaluatesAndCompiles(98D, "t.sum = 0; for_each(t.age, q.double_ages(), { t.sum = t.sum + t.age; }); return t.sum;");
+        assertEvaluatesAndCompiles(98D, "t.sum = 0; for_each(t.age, q.int_ages(), { t.sum = t.sum + t.age; }); return t.sum;");
+        assertEvaluatesAndCompiles(98D, "t.sum = 0; for_each(t.age, q.list_ages(), { t.sum = t.sum + t.age; }); return t.sum;");
+        assertEvaluatesAndCompiles(98D, "t.sum = 0; for_each(t.age, q.value_ages(), { t.sum = t.sum + t.age; }); return t.sum;");
+        assertEvaluatesAndCompiles(0D, "t.sum = 0; for_each(t.age, q.empty(), { t.sum = t.sum + t.age; }); return t.sum;");
+
+        // not iterable, never looped
+        assertEvaluatesAndCompiles(0D, "t.sum = 0; for_each(t.age, 5, { t.sum = t.sum + 1; }); return t.sum;");
+
+        // nested loops
+        assertEvaluatesAndCompiles(392D, "t.sum = 0; for_each(t.a, q.int_ages(), { for_each(t.b, q.list_ages(), { t.sum = t.sum + t.a; }); }); return t.sum;");
+    }
+
+    @Test
+    void test_break_continue_return() throws IOException {
+        assertEvaluatesAndCompiles(34D, "t.sum = 0; for_each(t.age, q.list_ages(), { (t.age == 40) ? break : 0; t.sum = t.sum + t.age; }); return t.sum;");
+        assertEvaluatesAndCompiles(64D, "t.sum = 0; for_each(t.age, q.double_ages(), { (t.age < 20) ? continue : 0; t.sum = t.sum + t.age; }); return t.sum;");
+        assertEvaluatesAndCompiles(40D, "for_each(t.age, q.value_ages(), { (t.age > 30) ? return t.age : 0; }); return 0;");
+    }
+
+    private static void assertEvaluatesAndCompiles(final double expected, final String code) throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bind(QueryImpl.class);
+
+        assertEquals(expected, engine.eval(code).getAsNumber(), "Interpreted: " + code);
+        assertEquals(expected, engine.compile(code, DoubleFunction.class).apply(), "Compiled: " + code);
+    }
+
+    public interface DoubleFunction extends MochaCompiledFunction {
+        double apply();
+    }
+
+    @Binding({"query", "q"})
+    public static final class QueryImpl {
+        @Binding("double_ages")
+        public static double[] doubleAges() {
+            return new double[]{18D, 16D, 40D, 24D};
+        }
+
+        @Binding("int_ages")
+        public static int[] intAges() {
+            return new int[]{18, 16, 40, 24};
+        }
+
+        @Binding("list_ages")
+        public static List<Double> listAges() {
+            return List.of(18D, 16D, 40D, 24D);
+        }
+
+        @Binding("value_ages")
+        public static ArrayValue valueAges() {
+            return ArrayValue.of(DoubleValue.of(18D), DoubleValue.of(16D), DoubleValue.of(40D), DoubleValue.of(24D));
+        }
+
+        @Binding("empty")
+        public static List<Double> empty() {
+            return List.of();
+        }
+    }
+}
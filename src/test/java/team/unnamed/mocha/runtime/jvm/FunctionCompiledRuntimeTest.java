@@ -0,0 +1,124 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.binding.Binding;
+import team.unnamed.mocha.runtime.binding.Entity;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.Function;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.StringValue;
+import team.unnamed.mocha.runtime.value.Value;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static team.unnamed.mocha.MochaAssertions.assertEvaluatesAndCompiles;
+
+class FunctionCompiledRuntimeTest {
+    @Test
+    void test_double_functions() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.create(null, scope -> {
+            final MutableObjectBinding fn = new MutableObjectBinding();
+            fn.setFunction("twice", x -> x * 2D);
+            fn.setFunction("sub", (a, b) -> a - b);
+            fn.setFunction("fma", (a, b, c) -> a * b + c);
+            scope.set("fn", fn);
+        });
+
+        assertEvaluatesAndCompiles(engine, 10D, "fn.twice(5)");
+        assertEvaluatesAndCompiles(engine, -3D, "fn.sub(2, 5)");
+        assertEvaluatesAndCompiles(engine, 2D, "fn.sub(2)");
+        assertEvaluatesAndCompiles(engine, 23D, "fn.fma(4, 5, 3)");
+        assertEvaluatesAndCompiles(engine, 12D, "fn.twice(fn.sub(10, 4))");
+        assertEvaluatesAndCompiles(engine, 7D, "fn.twice(3, 1 / 0) + 1");
+    }
+
+    @Test
+    void test_generic_functions() throws IOException {
+        final List<Value> received = new ArrayList<>();
+        final MochaEngine<?> engine = MochaEngine.create(null, scope -> {
+            final MutableObjectBinding fn = new MutableObjectBinding();
+            fn.set("count", (Function<?>) (ctx, args) -> {
+                received.clear();
+                for (int i = 0; i < args.length(); i++) {
+                    received.add(args.next().eval());
+                }
+                return DoubleValue.of(args.length());
+            });
+            fn.set("nothing", (Function<?>) (ctx, args) -> null);
+            scope.set("fn", fn);
+        });
+
+        assertEvaluatesAndCompiles(engine, 3D, "fn.count(1, 'hello', 2 + 3)");
+        assertEquals(List.of(DoubleValue.of(1D), StringValue.of("hello"), DoubleValue.of(5D)), received);
+
+        assertEvaluatesAndCompiles(engine, 0D, "fn.count()");
+        assertEquals(0D, engine.compileDouble("fn.nothing()").evaluate());
+    }
+
+    @Test
+    void test_generic_function_entity() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.create(null, scope -> {
+            final MutableObjectBinding fn = new MutableObjectBinding();
+            fn.set("size", (Function<String>) (ctx, args) -> DoubleValue.of(ctx.entity().length()));
+            scope.set("fn", fn);
+        });
+
+        final NamedFunction function = engine.compile("fn.size() * 2", NamedFunction.class);
+        assertEquals(10D, function.evaluate("hello"));
+        assertEquals(4D, function.evaluate("ab"));
+    }
+
+    @Test
+    void test_instance_methods() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.create();
+        engine.bindInstance(Counter.class, new Counter(3D), "counter");
+
+        assertEvaluatesAndCompiles(engine, 8D, "counter.add(5)");
+        assertEvaluatesAndCompiles(engine, 13D, "counter.add(counter.add(2) * 2)");
+    }
+
+    public static final class Counter {
+        private final double base;
+
+        public Counter(final double base) {
+            this.base = base;
+        }
+
+        @Binding("add")
+        public double add(final double value) {
+            return base + value;
+        }
+    }
+
+    public interface NamedFunction extends MochaCompiledFunction {
+        double evaluate(@Entity String name);
+    }
+}
@@ -40,12 +40,12 @@ class LogicalCompiledRuntimeTest {
 
         {
             // 0: iload_1
-            // 1: ifeq        +11 (12)
+            // 1: ifeq        +7 (8)
             // 4: iload_2
-            // 5: ifeq        +7 (12)
-            // 8: iconst_1
+            // 5: ifne        +7 (12)
+            // 8: iconst_0
             // 9: goto        +4 (13)
-            // 12: iconst_0
+            // 12: iconst_1
             // 13: ireturn
             final LogicalFunction and = engine.compile("a && b", LogicalFunction.class);
             assertTrue(and.apply(true, true));
@@ -56,12 +56,12 @@ class LogicalCompiledRuntimeTest {
 
         {
             // 0: iload_1
-            // 1: ifne        +7 (8)
+            // 1: ifne        +11 (12)
             // 4: iload_2
-            // 5: ifeq        +7 (12)
-            // 8: iconst_1
+            // 5: ifne        +7 (12)
+            // 8: iconst_0
             // 9: goto        +4 (13)
-            // 12: iconst_0
+            // 12: iconst_1
             // 13: ireturn
             final LogicalFunction or = engine.compile("a || b", LogicalFunction.class);
             assertTrue(or.apply(true, true));
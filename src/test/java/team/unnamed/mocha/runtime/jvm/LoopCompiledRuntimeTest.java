@@ -0,0 +1,74 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.compiled.Named;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static team.unnamed.mocha.MochaAssertions.assertEvaluatesAndCompiles;
+
+class LoopCompiledRuntimeTest {
+    @Test
+    void test() throws IOException {
+        assertEvaluatesAndCompiles(10D, "t.i = 0; loop(10, { t.i = t.i + 1; }); return t.i;");
+        assertEvaluatesAndCompiles(0D, "t.i = 0; loop(0, { t.i = t.i + 1; }); return t.i;");
+        assertEvaluatesAndCompiles(100D, "t.i = 0; loop(10, { loop(10, { t.i = t.i + 1; }); }); return t.i;");
+
+        // assigned inside the loop body only
+        assertEvaluatesAndCompiles(3D, "loop(3, { t.last = t.last + 1; }); return t.last;");
+    }
+
+    @Test
+    void test_break_continue() throws IOException {
+        assertEvaluatesAndCompiles(5D, "t.i = 0; loop(10, { t.i = t.i + 1; (t.i >= 5) ? break : 0; }); return t.i;");
+        assertEvaluatesAndCompiles(125D, "t.i = 0; t.sum = 0; loop(20, {"
+                + " t.i = t.i + 1;"
+                + " ((t.i < 8) || (t.i > 17)) ? continue : 0;"
+                + " t.sum = t.sum + t.i;"
+                + "}); return t.sum;");
+    }
+
+    @Test
+    void test_return() throws IOException {
+        assertEvaluatesAndCompiles(4D, "t.i = 0; loop(10, { t.i = t.i + 1; (t.i == 4) ? return t.i : 0; }); return 100;");
+
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final CountFunction function = engine.compile(
+                "t.i = 0; loop(count, { t.i = t.i + 2; (t.i > limit) ? return limit : 0; }); return t.i;",
+                CountFunction.class
+        );
+        assertEquals(10, function.apply(5, 100));
+        assertEquals(7, function.apply(50, 7));
+        assertEquals(0, function.apply(0, 7));
+    }
+
+    public interface CountFunction extends MochaCompiledFunction {
+        int apply(@Named("count") int count, @Named("limit") int limit);
+    }
+}
@@ -25,12 +25,17 @@ package team.unnamed.mocha.runtime.jvm;
 
 import org.junit.jupiter.api.Test;
 import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.MochaFunction;
 import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
 import team.unnamed.mocha.runtime.compiled.Named;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class MolangCompilerTest {
     @Test
@@ -64,6 +69,35 @@ public class MolangCompilerTest {
         System.out.println(engine.compile("3 * math.abs(5 * 5 * -1) + 1").evaluate());
     }
 
+    @Test
+    void test_hidden_class() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final ScriptType script = engine.compile("a * b", ScriptType.class);
+        assertEquals(6, script.eval(2, 3));
+
+        final Class<?> scriptClass = script.getClass();
+        assertTrue(scriptClass.isHidden(), "Compiled scripts must be hidden classes");
+        assertEquals(ScriptType.class.getPackageName(), scriptClass.getPackageName());
+
+        // the class pool doesn't keep the script class
+        final String scriptClassName = scriptClass.getName().substring(0, scriptClass.getName().indexOf('/'));
+        assertNull(engine.classPool().getOrNull(scriptClassName));
+    }
+
+    @Test
+    void test_requirements_are_constants() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.eval("v.x = 5");
+
+        final MochaFunction function = engine.compile("v.x * 2");
+        assertEquals(10D, ((Number) function.evaluate()).doubleValue());
+
+        // bound objects are given as class data, kept in static final fields
+        final Field[] fields = function.getClass().getDeclaredFields();
+        assertEquals(1, fields.length);
+        assertTrue(Modifier.isStatic(fields[0].getModifiers()) && Modifier.isFinal(fields[0].getModifiers()));
+    }
+
     public interface ScriptType extends MochaCompiledFunction {
         int eval(@Named("a") double a, @Named("b") double b);
     }
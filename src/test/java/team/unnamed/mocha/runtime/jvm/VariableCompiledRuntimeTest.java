@@ -0,0 +1,169 @@
+/*
+ * This file is part of mocha, licensed under the MIT license
+ *
+ * Copyright (c) 2021-2025 Unnamed Team
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package team.unnamed.mocha.runtime.jvm;
+
+import org.junit.jupiter.api.Test;
+import team.unnamed.mocha.MochaEngine;
+import team.unnamed.mocha.runtime.MochaFunction;
+import team.unnamed.mocha.runtime.binding.Binding;
+import team.unnamed.mocha.runtime.compiled.MochaCompiledFunction;
+import team.unnamed.mocha.runtime.compiled.Named;
+import team.unnamed.mocha.runtime.value.DoubleValue;
+import team.unnamed.mocha.runtime.value.MutableObjectBinding;
+import team.unnamed.mocha.runtime.value.Value;
+
+import java.io.IOException;
+
+import static java.util.Objects.requireNonNull;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class VariableCompiledRuntimeTest {
+    @Test
+    void test_shared_with_interpreter() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final MochaFunction write = engine.compile("v.speed = 2; variable.jump = v.speed * 3;");
+        final MochaFunction read = engine.compile("v.speed + v.JUMP");
+
+        assertEquals(0D, engine.eval("v.speed").getAsNumber());
+        write.evaluate();
+        assertEquals(2D, engine.eval("v.speed").getAsNumber());
+        assertEquals(6D, engine.eval("v.jump").getAsNumber());
+        assertEquals(8D, ((Number) read.evaluate()).doubleValue());
+
+        engine.eval("v.speed = 10");
+        assertEquals(16D, ((Number) read.evaluate()).doubleValue());
+
+        // unset variables are zero
+        assertEquals(0D, ((Number) engine.compile("v.unknown").evaluate()).doubleValue());
+    }
+
+    @Test
+    void test_arguments() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        final AccumulateFunction accumulate = engine.compile("v.total = v.total + amount; return v.total;", AccumulateFunction.class);
+
+        assertEquals(5D, accumulate.apply(5D));
+        assertEquals(8D, accumulate.apply(3D));
+        assertEquals(8D, engine.eval("v.total").getAsNumber());
+    }
+
+    @Test
+    void test_non_numeric_values() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.compile("v.name = 'steve'; v.count = 3;").evaluate();
+
+        assertEquals("steve", engine.eval("v.name").getAsString());
+        assertEquals(3D, engine.eval("v.count").getAsNumber());
+
+        final StringFunction name = engine.compile("v.name", StringFunction.class);
+        assertEquals("steve", name.name());
+
+        // numbers replace previous values
+        engine.compile("v.name = 1;").evaluate();
+        assertEquals(1D, engine.eval("v.name").getAsNumber());
+    }
+
+    @Test
+    void test_for_each() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        engine.bind(QueryImpl.class);
+
+        final String code = "v.sum = 0; for_each(v.age, query.list_ages(), { v.sum = v.sum + v.age; }); return v.sum;";
+        assertEquals(98D, engine.eval(code).getAsNumber());
+        assertEquals(98D, ((Number) engine.compile(code).evaluate()).doubleValue());
+        assertEquals(24D, engine.eval("v.age").getAsNumber());
+    }
+
+    @Test
+    void test_removed() throws IOException {
+        final MutableObjectBinding variables = new MutableObjectBinding();
+        final MochaEngine<?> engine = MochaEngine.create(null, builder -> builder.set("v", variables));
+        final MochaFunction write = engine.compile("v.x = 3;");
+
+        write.evaluate();
+        assertSame(variables.getProperty("x"), variables.getProperty("x"));
+        assertSame(variables.get("x"), variables.get("x"));
+
+        // removed properties read as nil until set again
+        variables.set("x", null);
+        assertNull(variables.getProperty("x"));
+        assertEquals(Value.nil(), variables.get("x"));
+        assertEquals(0D, ((Number) engine.compile("v.x").evaluate()).doubleValue());
+
+        final MutableObjectBinding copy = new MutableObjectBinding();
+        copy.setAllFrom(variables);
+        assertNull(copy.getProperty("x"));
+
+        write.evaluate();
+        assertEquals(3D, requireNonNull(variables.getProperty("x")).value().getAsNumber());
+    }
+
+    @Test
+    void test_strings() throws IOException {
+        final MochaEngine<?> engine = MochaEngine.createStandard();
+        assertEquals("x", engine.compile("v.s = 'x'; return v.s;").evaluate());
+        assertEquals(engine.eval("v.s = 'x'; return v.s;").getAsString(), engine.compile("v.s = 'x'; return v.s;").evaluate());
+
+        // values written by the interpreter are read as they are, and copied
+        engine.eval("variable.name = 'abc'");
+        assertEquals("abc", engine.compile("variable.name").evaluate());
+        engine.compile("v.copy = v.name;").evaluate();
+        assertEquals("abc", engine.eval("v.copy").getAsString());
+        assertEquals(1D, engine.compileDouble("v.name ? 1 : 2").evaluate());
+        assertEquals(1D, engine.compileDouble("v.name && 1").evaluate());
+        assertEquals(0D, engine.compileDouble("v.name").evaluate());
+
+        // numbers are still numbers
+        assertEquals(2D, engine.compile("v.n = 2; return v.n;").evaluate());
+    }
+
+    @Test
+    void test_blocked() throws IOException {
+        final MutableObjectBinding blocked = new MutableObjectBinding();
+        blocked.set("x", DoubleValue.of(4D));
+        blocked.block();
+
+        final MochaEngine<?> engine = MochaEngine.create(null, builder -> builder.set("blocked", blocked));
+        assertEquals(5D, ((Number) engine.compile("blocked.x = 5").evaluate()).doubleValue());
+        assertEquals(4D, ((Number) engine.compile("blocked.x").evaluate()).doubleValue());
+    }
+
+    public interface AccumulateFunction extends MochaCompiledFunction {
+        double apply(@Named("amount") double amount);
+    }
+
+    public interface StringFunction extends MochaCompiledFunction {
+        String name();
+    }
+
+    @Binding({"query", "q"})
+    public static final class QueryImpl {
+        @Binding("list_ages")
+        public static double[] listAges() {
+            return new double[]{18D, 16D, 40D, 24D};
+        }
+    }
+}